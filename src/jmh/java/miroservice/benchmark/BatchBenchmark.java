@@ -0,0 +1,99 @@
+package miroservice.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Paste, move and delete of a selection of widgets, as one batch per step against
+ * one call per widget. Every invocation leaves the board as it found it.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class BatchBenchmark {
+
+	@Param({ "100" })
+	public int selectionSize;
+
+	@Param({ "100000" })
+	public int boardSize;
+
+	private WidgetRepository repository;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		repository = new InMemoryWidgetRepository();
+		for (int i = 0; i < boardSize; i++) {
+			repository.createWidget(i, i, Optional.empty(), 10, 10);
+		}
+	}
+
+	@Benchmark
+	public void oneByOne() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final List<Widget> pasted = new ArrayList<>(selectionSize);
+
+		for (int i = 0; i < selectionSize; i++) {
+			pasted.add(repository.createWidget(random.nextInt(1000), random.nextInt(1000), Optional.of(random.nextInt(boardSize)), 10, 10));
+		}
+		for (final Widget widget: pasted) {
+			repository.updateWidget(widget.widgetId(), move(random));
+		}
+		for (final Widget widget: pasted) {
+			repository.deleteWidget(widget.widgetId());
+		}
+	}
+
+	@Benchmark
+	public void batched() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		final List<BatchOperation> paste = new ArrayList<>(selectionSize);
+		for (int i = 0; i < selectionSize; i++) {
+			paste.add(BatchOperation.create(random.nextInt(1000), random.nextInt(1000), Optional.of(random.nextInt(boardSize)), 10, 10));
+		}
+		final List<Optional<Widget>> pasted = repository.applyBatch(paste);
+
+		final List<BatchOperation> moves = new ArrayList<>(selectionSize);
+		final List<BatchOperation> deletes = new ArrayList<>(selectionSize);
+		for (final Optional<Widget> widget: pasted) {
+			moves.add(BatchOperation.update(widget.get().widgetId(), move(random)));
+			deletes.add(BatchOperation.delete(widget.get().widgetId()));
+		}
+		repository.applyBatch(moves);
+		repository.applyBatch(deletes);
+	}
+
+	private static UpdateWidgetRequest move(ThreadLocalRandom random) {
+		return new UpdateWidgetRequest(Optional.of(random.nextInt(1000)), Optional.of(random.nextInt(1000)), Optional.empty(), Optional.empty(), Optional.empty());
+	}
+}
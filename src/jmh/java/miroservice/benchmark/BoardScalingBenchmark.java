@@ -0,0 +1,105 @@
+package miroservice.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.LeftRightWidgetRepository;
+import com.miro.service.storage.StorageException;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Eight threads spread over a number of boards, thread i working on board i % boards.
+ * With one board every write contends for the same lock, with eight no two threads share one,
+ * so the throughput should grow with the boards up to the number of cores.
+ * Lock timeouts are counted instead of failing the run.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class BoardScalingBenchmark {
+
+	@Param({ "locking", "left-right" })
+	public String mode;
+
+	@Param({ "1", "2", "4", "8" })
+	public int boards;
+
+	@Param({ "50" })
+	public int readPercent;
+
+	@Param({ "10000" })
+	public int boardSize;
+
+	private BoardRepository repository;
+
+	@State(Scope.Thread)
+	public static class Board {
+		WidgetRepository repository;
+
+		@Setup(Level.Trial)
+		public void setUp(BoardScalingBenchmark benchmark, ThreadParams threads) {
+			repository = benchmark.repository.board("board-" + threads.getThreadIndex() % benchmark.boards);
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Failures {
+		public long timeouts;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		repository = new BoardRepository(boardId -> "left-right".equals(mode) ? new LeftRightWidgetRepository() : new InMemoryWidgetRepository());
+		for (int board = 0; board < boards; board++) {
+			final WidgetRepository widgets = repository.board("board-" + board);
+			for (int i = 0; i < boardSize; i++) {
+				widgets.createWidget(i, i, Optional.empty(), 10, 10);
+			}
+		}
+	}
+
+	@Benchmark
+	public void mixed(Board board, Failures failures, Blackhole blackhole) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int id = random.nextInt(boardSize);
+
+		try {
+			if (random.nextInt(100) < readPercent) {
+				blackhole.consume(board.repository.findWidgetById(id));
+			} else {
+				final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.of(random.nextInt(1000)), Optional.of(random.nextInt(1000)), Optional.empty(), Optional.empty(), Optional.empty());
+				blackhole.consume(board.repository.updateWidget(id, request));
+			}
+		} catch (final StorageException ex) {
+			failures.timeouts++;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package miroservice.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.miro.service.storage.DurableWidgetRepository;
+import com.miro.service.storage.FsyncPolicy;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.StorageException;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Concurrent creations with each sync policy against the in-memory repository, the writers
+ * waiting for a sync share it. Lock timeouts are counted instead of failing the run.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class DurableWriteBenchmark {
+
+	@Param({ "memory", "always", "interval", "os" })
+	public String mode;
+
+	private Path directory;
+	private WidgetRepository repository;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Failures {
+		public long timeouts;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if (mode.equals("memory")) {
+			repository = new InMemoryWidgetRepository();
+		} else {
+			directory = Files.createTempDirectory("widgets");
+			repository = new DurableWidgetRepository(directory, FsyncPolicy.valueOf(mode.toUpperCase()), 10, 0);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (repository instanceof DurableWidgetRepository) {
+			((DurableWidgetRepository) repository).close();
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+			}
+		}
+	}
+
+	@Benchmark
+	public void create(Failures failures, Blackhole blackhole) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		try {
+			blackhole.consume(repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 10, 10));
+		} catch (final StorageException ex) {
+			failures.timeouts++;
+		}
+	}
+}
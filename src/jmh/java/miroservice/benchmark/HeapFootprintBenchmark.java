@@ -0,0 +1,99 @@
+package miroservice.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Fills a board and prints the live heap per widget and the collections done meanwhile,
+ * run with -prof gc for allocation rates. The widgets are spread over a 100000 x 100000 board.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class HeapFootprintBenchmark {
+
+	@Param({ "1000000" })
+	public int boardSize;
+
+	private WidgetRepository repository;
+	private long heapBefore;
+	private long gcCountBefore;
+	private long gcTimeBefore;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		repository = null;
+		heapBefore = usedHeap();
+		gcCountBefore = gcCount();
+		gcTimeBefore = gcTime();
+	}
+
+	@TearDown(Level.Iteration)
+	public void report() {
+		final long collections = gcCount() - gcCountBefore;
+		final long collectionTime = gcTime() - gcTimeBefore;
+		final long heap = usedHeap() - heapBefore;
+
+		System.out.printf("%n%d widgets: %d bytes of heap per widget, %d collections taking %d ms while filling%n",
+				boardSize, heap / boardSize, collections, collectionTime);
+		repository = null;
+	}
+
+	@Benchmark
+	public WidgetRepository fill() {
+		final Random random = new Random(boardSize);
+		repository = new InMemoryWidgetRepository();
+		for (int i = 0; i < boardSize; i++) {
+			repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 1 + random.nextInt(100), 1 + random.nextInt(100));
+		}
+		return repository;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	private static long gcCount() {
+		long result = 0;
+		for (final GarbageCollectorMXBean collector: ManagementFactory.getGarbageCollectorMXBeans()) {
+			result += collector.getCollectionCount();
+		}
+		return result;
+	}
+
+	private static long gcTime() {
+		long result = 0;
+		for (final GarbageCollectorMXBean collector: ManagementFactory.getGarbageCollectorMXBeans()) {
+			result += collector.getCollectionTime();
+		}
+		return result;
+	}
+}
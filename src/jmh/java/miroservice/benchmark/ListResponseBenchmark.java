@@ -0,0 +1,104 @@
+package miroservice.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.miro.service.controllers.WidgetSnapshotConverter;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Full list response of a board written to a discarding stream: the widget list serialized
+ * by Jackson against the snapshot streamed by {@link WidgetSnapshotConverter}.
+ * Run with -prof gc for the allocation per response.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ListResponseBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int boardSize;
+
+	private WidgetRepository repository;
+	private ObjectMapper mapper;
+	private WidgetSnapshotConverter converter;
+	private HttpOutputMessage message;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		repository = new InMemoryWidgetRepository();
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < boardSize; i++) {
+			repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 1 + random.nextInt(100), 1 + random.nextInt(100));
+		}
+
+		mapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		converter = new WidgetSnapshotConverter(mapper.getFactory(), ZoneId.systemDefault());
+
+		final HttpHeaders headers = new HttpHeaders();
+		message = new HttpOutputMessage() {
+			@Override
+			public OutputStream getBody() {
+				return DISCARD;
+			}
+
+			@Override
+			public HttpHeaders getHeaders() {
+				return headers;
+			}
+		};
+	}
+
+	@Benchmark
+	public void jacksonList() throws IOException {
+		mapper.writeValue(DISCARD, repository.listWidgetsSortedByZIndex());
+	}
+
+	@Benchmark
+	public void streamedSnapshot() throws IOException {
+		converter.write(repository.snapshotSortedByZIndex(), null, message);
+	}
+
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+		@Override
+		public void close() {
+			// the mapper closes the target
+		}
+	};
+}
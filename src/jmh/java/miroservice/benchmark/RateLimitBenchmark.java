@@ -0,0 +1,182 @@
+package miroservice.benchmark;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.cache.CacheAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.giffing.bucket4j.spring.boot.starter.config.cache.Bucket4jCacheConfiguration;
+import com.giffing.bucket4j.spring.boot.starter.config.servlet.Bucket4JAutoConfigurationServletFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.ratelimit.RateLimitFilter;
+import com.miro.service.ratelimit.TokenBucket;
+import com.miro.service.ratelimit.TokenBuckets;
+
+/**
+ *
+ * Cost of the rate limit check of a request: the built-in filter against the bucket4j filter
+ * chain it replaced, booted by the starter from the properties the service had. Requests cycle
+ * through the clients, half of them full widget list reads.
+ *
+ * accepted - limits no client reaches, the path of a request that passes
+ * rejected - the limits of the service, spent within the first second at full speed
+ *
+ * Run with -prof gc for the allocation per request.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RateLimitBenchmark {
+
+	@Param({ "accepted", "rejected" })
+	public String limits;
+
+	@Param({ "10000" })
+	public int clients;
+
+	private ConfigurableApplicationContext context;
+
+	private MockHttpServletRequest[] requests;
+	private MockHttpServletResponse response;
+	private MockFilterChain unlimited;
+	private MockFilterChain builtIn;
+	private MockFilterChain bucket4j;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final boolean accepted = limits.equals("accepted");
+		final int apiPerMinute = accepted ? Integer.MAX_VALUE : 1000;
+		final int widgetListPerMinute = accepted ? Integer.MAX_VALUE : 200;
+
+		requests = new MockHttpServletRequest[clients * 2];
+		for (int i = 0; i < clients; i++) {
+			final String address = "10." + (i >> 16) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+			requests[2 * i] = request("/api/widget", address);
+			requests[2 * i + 1] = request("/api/widget/" + i, address);
+		}
+		response = new MockHttpServletResponse();
+
+		final GenericServlet servlet = new GenericServlet() {
+			@Override
+			public void service(ServletRequest request, ServletResponse response) {
+			}
+		};
+
+		unlimited = new MockFilterChain(servlet);
+		builtIn = new MockFilterChain(servlet, new RateLimitFilter(
+				Optional.of(new TokenBucket(apiPerMinute, 1, TimeUnit.MINUTES)),
+				Optional.of(new TokenBuckets(widgetListPerMinute, 1, TimeUnit.MINUTES, 100000)),
+				new SimpleMeterRegistry()));
+
+		// config.yaml before the built-in filter
+		context = new SpringApplicationBuilder(Bucket4jChain.class)
+				.web(WebApplicationType.NONE)
+				.properties(
+						"spring.cache.cache-names=rate-limit-buckets",
+						"spring.cache.caffeine.spec=maximumSize=100000,expireAfterAccess=3600s",
+						"bucket4j.enabled=true",
+						"bucket4j.filters[0].cache-name=rate-limit-buckets",
+						"bucket4j.filters[0].strategy=first",
+						"bucket4j.filters[0].url=/api/.*",
+						"bucket4j.filters[0].rate-limits[0].bandwidths[0].capacity=" + apiPerMinute,
+						"bucket4j.filters[0].rate-limits[0].bandwidths[0].time=1",
+						"bucket4j.filters[0].rate-limits[0].bandwidths[0].unit=minutes",
+						"bucket4j.filters[1].cache-name=rate-limit-buckets",
+						"bucket4j.filters[1].url=/api/(board/[^/]+/)?widget/?",
+						"bucket4j.filters[1].rate-limits[0].expression=getRemoteAddr()",
+						"bucket4j.filters[1].rate-limits[0].execute-condition=getMethod().equals('GET')",
+						"bucket4j.filters[1].rate-limits[0].bandwidths[0].capacity=" + widgetListPerMinute,
+						"bucket4j.filters[1].rate-limits[0].bandwidths[0].time=1",
+						"bucket4j.filters[1].rate-limits[0].bandwidths[0].unit=minutes")
+				.run();
+
+		// the starter registers its filters while the web server is configured
+		context.getBean(Bucket4JAutoConfigurationServletFilter.class).customize(new TomcatServletWebServerFactory());
+		final Filter[] filters = {
+				context.getBean("bucket4JServletRequestFilter1", Filter.class),
+				context.getBean("bucket4JServletRequestFilter2", Filter.class) };
+		bucket4j = new MockFilterChain(servlet, filters);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	/**
+	 * The mock request and response without a filter, the base the others add to.
+	 */
+	@Benchmark
+	public int unlimited() throws IOException, ServletException {
+		return filter(unlimited);
+	}
+
+	@Benchmark
+	public int builtIn() throws IOException, ServletException {
+		return filter(builtIn);
+	}
+
+	@Benchmark
+	public int bucket4j() throws IOException, ServletException {
+		return filter(bucket4j);
+	}
+
+	private int filter(MockFilterChain chain) throws IOException, ServletException {
+		final MockHttpServletRequest request = requests[next];
+		next = next + 1 == requests.length ? 0 : next + 1;
+
+		response.setCommitted(false);
+		response.reset();
+		chain.reset();
+		chain.doFilter(request, response);
+		return response.getStatus();
+	}
+
+	private static MockHttpServletRequest request(String path, String address) {
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		request.setRemoteAddr(address);
+		return request;
+	}
+
+	@Configuration
+	@EnableCaching
+	@ImportAutoConfiguration({ CacheAutoConfiguration.class, Bucket4jCacheConfiguration.class, Bucket4JAutoConfigurationServletFilter.class })
+	static class Bucket4jChain {
+	}
+}
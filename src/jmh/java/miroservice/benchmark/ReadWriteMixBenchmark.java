@@ -0,0 +1,85 @@
+package miroservice.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.LeftRightWidgetRepository;
+import com.miro.service.storage.StorageException;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Lock based against Left-Right repository under a mix of lookups and drag updates.
+ * Lock timeouts are counted instead of failing the run.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ReadWriteMixBenchmark {
+
+	@Param({ "locking", "left-right" })
+	public String mode;
+
+	@Param({ "99", "90", "50" })
+	public int readPercent;
+
+	@Param({ "10000" })
+	public int boardSize;
+
+	private WidgetRepository repository;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Failures {
+		public long timeouts;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		repository = "left-right".equals(mode) ? new LeftRightWidgetRepository() : new InMemoryWidgetRepository();
+		for (int i = 0; i < boardSize; i++) {
+			repository.createWidget(i, i, Optional.empty(), 10, 10);
+		}
+	}
+
+	@Benchmark
+	public void mixed(Failures failures, Blackhole blackhole) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int id = random.nextInt(boardSize);
+
+		try {
+			if (random.nextInt(100) < readPercent) {
+				blackhole.consume(repository.findWidgetById(id));
+			} else {
+				final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.of(random.nextInt(1000)), Optional.of(random.nextInt(1000)), Optional.empty(), Optional.empty(), Optional.empty());
+				blackhole.consume(repository.updateWidget(id, request));
+			}
+		} catch (final StorageException ex) {
+			failures.timeouts++;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package miroservice.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.miro.service.storage.DurableWidgetRepository;
+import com.miro.service.storage.FsyncPolicy;
+
+/**
+ *
+ * Restart of a durable board: a snapshot of the whole board and a log tail of 10000 writes.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RecoveryBenchmark {
+
+	private static final int LOG_TAIL = 10000;
+
+	@Param({ "100000", "1000000", "3000000" })
+	public int boardSize;
+
+	private Path directory;
+	private DurableWidgetRepository restarted;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("widgets");
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		try (DurableWidgetRepository repository = new DurableWidgetRepository(directory, FsyncPolicy.OS, 10, 0)) {
+			for (int i = 0; i < boardSize; i++) {
+				repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 10, 10);
+			}
+			repository.checkpoint();
+			for (int i = 0; i < LOG_TAIL; i++) {
+				repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.of(random.nextInt(boardSize)), 10, 10);
+			}
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeRestarted() throws IOException {
+		restarted.close();
+		restarted = null;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public DurableWidgetRepository restart() {
+		restarted = new DurableWidgetRepository(directory, FsyncPolicy.OS, 10, 0);
+		return restarted;
+	}
+}
@@ -0,0 +1,113 @@
+package miroservice.benchmark;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.LeftRightWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Single threaded cost of the repository operations by board size. Creations delete the created
+ * widget again and look up a random widget first in both variants, so the board keeps its size and
+ * the variants differ only by the Z-index collision. With metrics on the repository records
+ * into a simple meter registry.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RepositoryBenchmark {
+
+	@Param({ "locking", "left-right" })
+	public String mode;
+
+	@Param({ "1000", "10000", "100000" })
+	public int boardSize;
+
+	@Param({ "off" })
+	public String metrics;
+
+	private WidgetRepository repository;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if ("left-right".equals(mode)) {
+			final LeftRightWidgetRepository leftRight = new LeftRightWidgetRepository();
+			if ("on".equals(metrics)) {
+				leftRight.bindTo(new SimpleMeterRegistry());
+			}
+			repository = leftRight;
+		} else {
+			final InMemoryWidgetRepository locking = new InMemoryWidgetRepository();
+			if ("on".equals(metrics)) {
+				locking.bindTo(new SimpleMeterRegistry());
+			}
+			repository = locking;
+		}
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < boardSize; i++) {
+			repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 10, 10);
+		}
+	}
+
+	@Benchmark
+	public boolean createAtFront() {
+		final Widget target = randomWidget();
+		final Widget created = repository.createWidget(target.xCoordinate(), target.yCoordinate(), Optional.empty(), 10, 10);
+		return repository.deleteWidget(created.widgetId());
+	}
+
+	@Benchmark
+	public boolean createColliding() {
+		final Widget target = randomWidget();
+		final Widget created = repository.createWidget(target.xCoordinate(), target.yCoordinate(), Optional.of(target.zIndex()), 10, 10);
+		return repository.deleteWidget(created.widgetId());
+	}
+
+	@Benchmark
+	public Optional<Widget> updateMovingZIndex() {
+		final Widget target = randomWidget();
+		final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.empty(), Optional.empty(), Optional.of(target.zIndex()), Optional.empty(), Optional.empty());
+		return repository.updateWidget(ThreadLocalRandom.current().nextInt(boardSize), request);
+	}
+
+	@Benchmark
+	public Optional<Widget> findWidgetById() {
+		return repository.findWidgetById(ThreadLocalRandom.current().nextInt(boardSize));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public List<Widget> listWidgetsSortedByZIndex() {
+		return repository.listWidgetsSortedByZIndex();
+	}
+
+	private Widget randomWidget() {
+		return repository.findWidgetById(ThreadLocalRandom.current().nextInt(boardSize)).get();
+	}
+}
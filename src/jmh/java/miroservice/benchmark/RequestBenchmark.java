@@ -0,0 +1,89 @@
+package miroservice.benchmark;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.miro.service.models.Widget;
+import com.miro.service.requests.CreateWidgetRequest;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Create and update request bodies read as the controllers get them, and an update read and
+ * applied to a board; run with -prof gc for the bytes allocated per request.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+	private static final int WIDGETS = 1000;
+
+	private ObjectReader createReader;
+	private ObjectReader updateReader;
+	private WidgetRepository repository;
+	private byte[] create;
+	// a drag step, some with a Z-index and size as well
+	private byte[][] updates;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// as Spring Boot configures it
+		final Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+		createReader = builder.build().readerFor(CreateWidgetRequest.class);
+		updateReader = builder.build().readerFor(UpdateWidgetRequest.class);
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		repository = new InMemoryWidgetRepository();
+		for (int i = 0; i < WIDGETS; i++) {
+			repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 1 + random.nextInt(100), 1 + random.nextInt(100));
+		}
+		create = ("{\"x\":" + random.nextInt(100000) + ",\"y\":" + random.nextInt(100000) + ",\"zIndex\":" + random.nextInt(1000)
+				+ ",\"width\":" + (1 + random.nextInt(100)) + ",\"height\":" + (1 + random.nextInt(100)) + "}").getBytes();
+		updates = new byte[1024][];
+		for (int i = 0; i < updates.length; i++) {
+			final String move = "{\"x\":" + random.nextInt(100000) + ",\"y\":" + random.nextInt(100000);
+			updates[i] = (i % 8 == 0 ? move + ",\"zIndex\":" + random.nextInt(WIDGETS) + ",\"width\":" + (1 + random.nextInt(100)) + ".5}" : move + "}").getBytes();
+		}
+	}
+
+	@Benchmark
+	public CreateWidgetRequest readCreate() throws IOException {
+		return createReader.readValue(create);
+	}
+
+	@Benchmark
+	public UpdateWidgetRequest readUpdate() throws IOException {
+		return updateReader.readValue(updates[next++ & (updates.length - 1)]);
+	}
+
+	@Benchmark
+	public Optional<Widget> update() throws IOException {
+		final int i = next++;
+		final UpdateWidgetRequest request = updateReader.readValue(updates[i & (updates.length - 1)]);
+		return repository.updateWidget(i % WIDGETS, request);
+	}
+}
@@ -0,0 +1,111 @@
+package miroservice.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.controllers.ResponseCache;
+import com.miro.service.controllers.WidgetSnapshotConverter;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Body of a widget read and of a full list read written to a discarding stream: read from the
+ * board and serialized, as on a cache miss, against taken from the response cache. Widgets are
+ * read at random, all of them cached.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int boardSize;
+
+	private WidgetRepository board;
+	private ObjectMapper mapper;
+	private WidgetSnapshotConverter converter;
+	private ResponseCache cache;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final BoardRepository boards = new BoardRepository(boardId -> new InMemoryWidgetRepository());
+		board = boards.board(BoardRepository.DEFAULT_BOARD);
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < boardSize; i++) {
+			board.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 1 + random.nextInt(100), 1 + random.nextInt(100));
+		}
+
+		mapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		converter = new WidgetSnapshotConverter(mapper.getFactory(), ZoneId.systemDefault());
+		cache = new ResponseCache(mapper, converter, 64 << 20, 1024, new SimpleMeterRegistry());
+		boards.addWidgetChangeListener(cache);
+
+		for (int i = 0; i < boardSize; i++) {
+			cache.putWidget(BoardRepository.DEFAULT_BOARD, cache.stamp(BoardRepository.DEFAULT_BOARD), board.findWidgetById(i).get());
+		}
+		cache.putList(BoardRepository.DEFAULT_BOARD, cache.stamp(BoardRepository.DEFAULT_BOARD), board.snapshotSortedByZIndex());
+	}
+
+	@Benchmark
+	public void widgetSerialized() throws IOException {
+		mapper.writeValue(DISCARD, board.findWidgetById(ThreadLocalRandom.current().nextInt(boardSize)).get());
+	}
+
+	@Benchmark
+	public void widgetCached() throws IOException {
+		DISCARD.write(cache.widget(BoardRepository.DEFAULT_BOARD, ThreadLocalRandom.current().nextInt(boardSize), false).get().json());
+	}
+
+	@Benchmark
+	public void listSerialized() throws IOException {
+		converter.write(board.snapshotSortedByZIndex(), DISCARD);
+	}
+
+	@Benchmark
+	public void listCached() throws IOException {
+		DISCARD.write(cache.list(BoardRepository.DEFAULT_BOARD, false).get().json());
+	}
+
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+		@Override
+		public void close() {
+			// the mapper closes the target
+		}
+	};
+}
@@ -0,0 +1,61 @@
+package miroservice.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Jackson serialization of widget lists as the list endpoint returns them, with the mapper
+ * configured like the one Spring Boot builds.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int listSize;
+
+	private ObjectMapper mapper;
+	private List<Widget> widgets;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		mapper = Jackson2ObjectMapperBuilder.json().build();
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		widgets = new ArrayList<>(listSize);
+		for (int i = 0; i < listSize; i++) {
+			widgets.add(new Widget(i, random.nextInt(100000), random.nextInt(100000), i * 50, 1 + random.nextInt(100), 1 + random.nextInt(100)));
+		}
+	}
+
+	@Benchmark
+	public byte[] serializeList() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(widgets);
+	}
+}
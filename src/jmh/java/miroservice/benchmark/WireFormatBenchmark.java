@@ -0,0 +1,158 @@
+package miroservice.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.miro.service.controllers.WidgetSnapshotConverter;
+import com.miro.service.models.Widget;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.CreateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+import com.miro.service.storage.WidgetSnapshot;
+
+/**
+ *
+ * JSON against Smile on the widget endpoints: widget lists written by Jackson and streamed from
+ * a snapshot, batches and create requests read. Prints the size of the payloads in either
+ * format, run with -prof gc for the allocation.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+	private static final TypeReference<List<BatchOperation>> BATCH = new TypeReference<List<BatchOperation>>() {
+	};
+
+	@Param({ "json", "smile" })
+	public String format;
+
+	@Param({ "100", "10000" })
+	public int listSize;
+
+	private ObjectMapper mapper;
+	private WidgetSnapshotConverter converter;
+	private MediaType mediaType;
+	private List<Widget> widgets;
+	private WidgetSnapshot snapshot;
+	private byte[] batch;
+	private byte[] create;
+	private HttpOutputMessage message;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// as Spring Boot configures them
+		final ObjectMapper json = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		final ObjectMapper smile = Jackson2ObjectMapperBuilder.smile().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		mapper = format.equals("smile") ? smile : json;
+		mediaType = format.equals("smile") ? MediaType.valueOf("application/x-jackson-smile") : MediaType.APPLICATION_JSON;
+		converter = new WidgetSnapshotConverter(json.getFactory(), smile.getFactory(), ZoneId.systemDefault());
+
+		final WidgetRepository repository = new InMemoryWidgetRepository();
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final List<Map<String, Object>> operations = new ArrayList<>(listSize);
+		for (int i = 0; i < listSize; i++) {
+			repository.createWidget(random.nextInt(100000), random.nextInt(100000), Optional.empty(), 1 + random.nextInt(100), 1 + random.nextInt(100));
+			operations.add(createRequest(random));
+		}
+		widgets = repository.listWidgetsSortedByZIndex();
+		snapshot = repository.snapshotSortedByZIndex();
+		batch = mapper.writeValueAsBytes(operations);
+		create = mapper.writeValueAsBytes(createRequest(random));
+
+		final HttpHeaders headers = new HttpHeaders();
+		message = new HttpOutputMessage() {
+			@Override
+			public OutputStream getBody() {
+				return DISCARD;
+			}
+
+			@Override
+			public HttpHeaders getHeaders() {
+				return headers;
+			}
+		};
+
+		System.out.printf("%n%s: list of %d widgets %d bytes, batch of %d creates %d bytes, create request %d bytes%n",
+				format, listSize, mapper.writeValueAsBytes(widgets).length, listSize, batch.length, create.length);
+	}
+
+	@Benchmark
+	public void writeList() throws IOException {
+		mapper.writeValue(DISCARD, widgets);
+	}
+
+	@Benchmark
+	public void streamSnapshot() throws IOException {
+		converter.write(snapshot, mediaType, message);
+	}
+
+	@Benchmark
+	public List<BatchOperation> readBatch() throws IOException {
+		return mapper.readValue(batch, BATCH);
+	}
+
+	@Benchmark
+	public CreateWidgetRequest readCreate() throws IOException {
+		return mapper.readValue(create, CreateWidgetRequest.class);
+	}
+
+	private static Map<String, Object> createRequest(ThreadLocalRandom random) {
+		final Map<String, Object> request = new LinkedHashMap<>();
+		request.put("op", "create");
+		request.put("x", random.nextInt(100000));
+		request.put("y", random.nextInt(100000));
+		request.put("zIndex", random.nextInt(1000));
+		request.put("height", (double) (1 + random.nextInt(100)));
+		request.put("width", (double) (1 + random.nextInt(100)));
+		return request;
+	}
+
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+		@Override
+		public void close() {
+			// the mapper closes the target
+		}
+	};
+}
@@ -0,0 +1,94 @@
+package miroservice.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.SingleWriter;
+import com.miro.service.storage.SingleWriterWidgetRepository;
+import com.miro.service.storage.StorageException;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Writers competing for the lock of a board against handing their writes to the single writer.
+ * Every write moves a widget to a taken Z-index and shifts the widgets above it. Run in the
+ * sample mode for the latency percentiles; failed writes are counted instead of failing the run.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class WriteContentionBenchmark {
+
+	@Param({ "locking", "single-writer" })
+	public String mode;
+
+	@Param({ "10000" })
+	public int boardSize;
+
+	private SingleWriter writer;
+	private WidgetRepository repository;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Failures {
+		public long failed;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if ("single-writer".equals(mode)) {
+			writer = new SingleWriter(65536);
+			repository = new SingleWriterWidgetRepository(writer);
+		} else {
+			repository = new InMemoryWidgetRepository();
+		}
+		for (int i = 0; i < boardSize; i++) {
+			repository.createWidget(i, i, Optional.empty(), 10, 10);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+
+	@Benchmark
+	public void moveWidget(Failures failures, Blackhole blackhole) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.of(random.nextInt(1000)), Optional.of(random.nextInt(1000)),
+				Optional.of(random.nextInt(boardSize)), Optional.empty(), Optional.empty());
+
+		try {
+			blackhole.consume(repository.updateWidget(random.nextInt(boardSize), request));
+		} catch (final StorageException ex) {
+			failures.failed++;
+		}
+	}
+}
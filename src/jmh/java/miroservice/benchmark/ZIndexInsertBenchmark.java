@@ -0,0 +1,53 @@
+package miroservice.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.miro.service.models.Widget;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Repeated inserts at the bottom of a large board, every insert shifts the whole board up.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ZIndexInsertBenchmark {
+
+	@Param({ "1000000" })
+	public int boardSize;
+
+	private WidgetRepository repository;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		repository = new InMemoryWidgetRepository();
+		for (int i = 0; i < boardSize; i++) {
+			repository.createWidget(i, i, Optional.empty(), 10, 10);
+		}
+	}
+
+	@Benchmark
+	public Widget insertAtBottom() {
+		return repository.createWidget(0, 0, Optional.of(0), 10, 10);
+	}
+}
@@ -0,0 +1,351 @@
+package miroservice.load;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.service.MiroService;
+
+/**
+ *
+ * Open-loop HTTP load on the widget endpoints: requests are sent at a constant rate whatever the
+ * responses take, and the latency of a request is counted from the time it was due rather than
+ * the time it was sent. A stalled service is charged for the requests it held up as well, the
+ * coordinated omission of a closed loop of clients does not hide the stall. Prints the latency
+ * percentiles of every operation from HdrHistogram.
+ *
+ * Options as name=value:
+ * url - service to load, by default one is started in this JVM
+ * rate - requests a second, 1000
+ * warmup, duration - seconds before the measurement and seconds measured, 10 and 30
+ * mix - weights of the operations, viewport=50,list=5,create=15,drag=25,delete=5
+ * widgets - widgets the board is filled with first, 10000
+ * canvas, viewport - sides of the square the widgets are spread over and of a viewport, 10000 and 1000
+ * collisions - share of the creations at a taken Z-index, 0.5
+ * max-in-flight - requests waiting for a response at most, the ones due beyond are dropped, 10000
+ *
+ * Arguments starting with -- go to the service started, run with config/config.yaml and no rate
+ * limits unless they say otherwise. It shares the CPUs with the load: for a capacity number give
+ * the url of a service on a host of its own.
+ *
+ */
+public final class LoadTest {
+
+	private static final int FILL_BATCH = 1000;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final HttpClient client;
+	private final Operation.Workload workload;
+	private final int rate;
+	private final long warmupNanos;
+	private final long durationNanos;
+	private final Operation[] picks = new Operation[100];
+	private final int maxInFlight;
+
+	private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private long maxLateNanos;
+
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		final List<String> serviceArgs = new ArrayList<>();
+		for (final String arg: args) {
+			if (arg.startsWith("--")) {
+				serviceArgs.add(arg);
+			} else if (arg.indexOf('=') > 0) {
+				options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+			} else {
+				throw new IllegalArgumentException("Options are name=value, got " + arg);
+			}
+		}
+
+		ConfigurableApplicationContext service = null;
+		final URI base;
+		if (options.containsKey("url")) {
+			base = URI.create(options.get("url"));
+		} else {
+			service = start(serviceArgs);
+			base = URI.create("http://localhost:" + ((WebServerApplicationContext) service).getWebServer().getPort() + "/");
+		}
+
+		try {
+			new LoadTest(options, base).run();
+		} finally {
+			if (service != null) {
+				service.close();
+			}
+		}
+	}
+
+	private LoadTest(Map<String, String> options, URI base) {
+		workload = new Operation.Workload(base,
+				Integer.parseInt(options.getOrDefault("canvas", "10000")),
+				Integer.parseInt(options.getOrDefault("viewport", "1000")),
+				Integer.parseInt(options.getOrDefault("widgets", "10000")),
+				Double.parseDouble(options.getOrDefault("collisions", "0.5")));
+		rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+		warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "10")));
+		durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+		maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "10000"));
+		parseMix(options.getOrDefault("mix", "viewport=50,list=5,create=15,drag=25,delete=5"));
+
+		for (final Operation operation: Operation.values()) {
+			stats.put(operation, new Stats());
+		}
+
+		final ExecutorService callbacks = Executors.newFixedThreadPool(4, runnable -> {
+			final Thread thread = new Thread(runnable, "load-client");
+			thread.setDaemon(true);
+			return thread;
+		});
+		client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(10))
+				.executor(callbacks)
+				.build();
+	}
+
+	private static ConfigurableApplicationContext start(List<String> args) {
+		final List<String> all = new ArrayList<>(args);
+		addDefault(all, "--server.port", "0");
+		addDefault(all, "--spring.config.location", "config/config.yaml");
+		addDefault(all, "--miro.rate-limit.enabled", "false");
+		return SpringApplication.run(MiroService.class, all.toArray(new String[0]));
+	}
+
+	private static void addDefault(List<String> args, String name, String value) {
+		// a property given twice would get both values
+		if (args.stream().noneMatch(arg -> arg.startsWith(name + "="))) {
+			args.add(name + "=" + value);
+		}
+	}
+
+	/**
+	 * Spreads the operations over the picks by their weights.
+	 */
+	private void parseMix(String mix) {
+		final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+		int total = 0;
+		for (final String part: mix.split(",")) {
+			final String[] weight = part.split("=");
+			final Operation operation = Operation.valueOf(weight[0].trim().toUpperCase());
+			weights.put(operation, Integer.parseInt(weight[1].trim()));
+			total += weights.get(operation);
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("Mix has no weights: " + mix);
+		}
+
+		int pick = 0;
+		int cumulative = 0;
+		for (final Map.Entry<Operation, Integer> weight: weights.entrySet()) {
+			cumulative += weight.getValue();
+			final int until = (int) ((long) cumulative * picks.length / total);
+			while (pick < until) {
+				picks[pick++] = weight.getKey();
+			}
+		}
+	}
+
+	private void run() throws IOException, InterruptedException {
+		fill();
+		System.out.printf("%d widgets, %d requests a second for %d s after %d s of warmup%n",
+				workload.widgets, rate, TimeUnit.NANOSECONDS.toSeconds(durationNanos), TimeUnit.NANOSECONDS.toSeconds(warmupNanos));
+
+		final long start = System.nanoTime();
+		final long measuredFrom = start + warmupNanos;
+		final long end = measuredFrom + durationNanos;
+
+		final ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+		progress.scheduleAtFixedRate(() -> printProgress(start, measuredFrom), 1, 1, TimeUnit.SECONDS);
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (long sent = 0;; sent++) {
+			// from the start rather than from the last one, a late request does not delay the next ones
+			final long due = start + sent * TimeUnit.SECONDS.toNanos(1) / rate;
+			if (due >= end) {
+				break;
+			}
+			final long wait = due - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			maxLateNanos = Math.max(maxLateNanos, System.nanoTime() - due);
+
+			final Operation operation = picks[random.nextInt(picks.length)];
+			final Stats operationStats = stats.get(operation);
+			final boolean measured = due >= measuredFrom;
+			if (inFlight.get() >= maxInFlight) {
+				if (measured) {
+					operationStats.dropped.increment();
+				}
+				continue;
+			}
+
+			inFlight.incrementAndGet();
+			client.sendAsync(operation.request(workload, random), HttpResponse.BodyHandlers.ofByteArray())
+					.whenComplete((response, failure) -> {
+						final long latency = System.nanoTime() - due;
+						inFlight.decrementAndGet();
+						if (response != null && operation == Operation.CREATE && response.statusCode() == 200) {
+							workload.created(widgetId(response.body()));
+						}
+						operationStats.record(latency, response == null ? 0 : response.statusCode(), measured);
+					});
+		}
+
+		final long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+			Thread.sleep(10);
+		}
+		progress.shutdownNow();
+		printReport();
+	}
+
+	/**
+	 * Fills the board with widgets at Z-indexes from 0, a batch at a time.
+	 */
+	private void fill() throws IOException, InterruptedException {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int from = 0; from < workload.widgets; from += FILL_BATCH) {
+			final StringBuilder batch = new StringBuilder("[");
+			for (int zIndex = from; zIndex < Math.min(workload.widgets, from + FILL_BATCH); zIndex++) {
+				batch.append(zIndex == from ? "" : ",")
+						.append("{\"op\":\"create\",\"x\":").append(random.nextInt(workload.canvas))
+						.append(",\"y\":").append(random.nextInt(workload.canvas))
+						.append(",\"zIndex\":").append(zIndex)
+						.append(",\"width\":").append(1 + random.nextInt(200))
+						.append(",\"height\":").append(1 + random.nextInt(200)).append('}');
+			}
+			batch.append(']');
+
+			final HttpRequest request = workload.send("POST", "/api/widget/batch", batch.toString());
+			final HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+			if (response.statusCode() != 200) {
+				throw new IllegalStateException("Filling the board failed with " + response.statusCode() + ": " + new String(response.body()));
+			}
+			for (final JsonNode result: mapper.readTree(response.body())) {
+				workload.created(result.path("widget").path("widgetId").asInt());
+			}
+		}
+	}
+
+	private int widgetId(byte[] widget) {
+		try {
+			return mapper.readTree(widget).path("widgetId").asInt();
+		} catch (final IOException ex) {
+			return 0;
+		}
+	}
+
+	private void printProgress(long start, long measuredFrom) {
+		final Histogram interval = new Histogram(3);
+		for (final Stats operationStats: stats.values()) {
+			interval.add(operationStats.interval.getIntervalHistogram());
+		}
+
+		final long now = System.nanoTime();
+		System.out.printf("%4d s%s %6d responses  p50 %8.3f  p99 %8.3f  max %8.3f ms  %5d in flight%n",
+				TimeUnit.NANOSECONDS.toSeconds(now - start), now < measuredFrom ? " warmup" : "       ",
+				interval.getTotalCount(), millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)),
+				millis(interval.getMaxValue()), inFlight.get());
+	}
+
+	private void printReport() {
+		System.out.printf("%nLatency from the time a request was due, ms; the sender was late by %.3f ms at most%n", millis(maxLateNanos));
+		System.out.printf("%-10s %9s %9s %7s %9s %7s %7s %9s %9s %9s %9s %9s%n",
+				"operation", "requests", "2xx", "404", "429/503", "other", "failed", "dropped", "p50", "p99", "p99.9", "max");
+
+		final Histogram all = new Histogram(3);
+		final long[] totals = new long[7];
+		for (final Map.Entry<Operation, Stats> entry: stats.entrySet()) {
+			final Histogram latencies = entry.getValue().measured.getIntervalHistogram();
+			final long[] counts = entry.getValue().counts(latencies.getTotalCount());
+			all.add(latencies);
+			for (int i = 0; i < counts.length; i++) {
+				totals[i] += counts[i];
+			}
+			printLine(entry.getKey().label(), latencies, counts);
+		}
+		printLine("all", all, totals);
+		System.out.printf("%.0f responses a second measured, %d asked%n", (double) all.getTotalCount() * TimeUnit.SECONDS.toNanos(1) / durationNanos, rate);
+	}
+
+	private static void printLine(String label, Histogram latencies, long[] counts) {
+		System.out.printf("%-10s %9d %9d %7d %9d %7d %7d %9d %9.3f %9.3f %9.3f %9.3f%n",
+				label, counts[0], counts[1], counts[2], counts[3], counts[4], counts[5], counts[6],
+				millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+				millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	/**
+	 * Latencies and outcomes of one operation, recorded from the client threads.
+	 */
+	private static final class Stats {
+		// every response, taken by the progress every second
+		final Recorder interval = new Recorder(3);
+		// the responses to the requests due after the warmup
+		final Recorder measured = new Recorder(3);
+		final LongAdder ok = new LongAdder();
+		final LongAdder notFound = new LongAdder();
+		final LongAdder rejected = new LongAdder();
+		final LongAdder other = new LongAdder();
+		final LongAdder failed = new LongAdder();
+		final LongAdder dropped = new LongAdder();
+
+		/**
+		 * @param status 0 for a request with no response
+		 */
+		void record(long latencyNanos, int status, boolean measuring) {
+			interval.recordValue(latencyNanos);
+			if (!measuring) {
+				return;
+			}
+
+			measured.recordValue(latencyNanos);
+			if (status == 0) {
+				failed.increment();
+			} else if (status / 100 == 2) {
+				ok.increment();
+			} else if (status == 404) {
+				notFound.increment();
+			} else if (status == 429 || status == 503) {
+				rejected.increment();
+			} else {
+				other.increment();
+			}
+		}
+
+		long[] counts(long responses) {
+			return new long[] { responses, ok.sum(), notFound.sum(), rejected.sum(), other.sum(), failed.sum(), dropped.sum() };
+		}
+	}
+}
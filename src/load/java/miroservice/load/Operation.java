@@ -0,0 +1,113 @@
+package miroservice.load;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ *
+ * Requests of the workload, each to one widget endpoint. Widgets are picked among the identifiers
+ * given out so far, some of them deleted meanwhile: a drag or a delete of a deleted one gets 404.
+ *
+ */
+enum Operation {
+
+	// the widgets in an area the size of a screen
+	VIEWPORT {
+		@Override
+		HttpRequest request(Workload workload, ThreadLocalRandom random) {
+			final int x = random.nextInt(workload.canvas);
+			final int y = random.nextInt(workload.canvas);
+			return workload.get("/api/widget/area?x1=" + x + "&y1=" + y + "&x2=" + (x + workload.viewport) + "&y2=" + (y + workload.viewport));
+		}
+	},
+	// the whole board, as a client opening it
+	LIST {
+		@Override
+		HttpRequest request(Workload workload, ThreadLocalRandom random) {
+			return workload.get("/api/widget");
+		}
+	},
+	// a new widget, put below others if it collides
+	CREATE {
+		@Override
+		HttpRequest request(Workload workload, ThreadLocalRandom random) {
+			final String zIndex = random.nextDouble() < workload.collisions
+					? ",\"zIndex\":" + random.nextInt(workload.widgets)
+					: "";
+			return workload.send("POST", "/api/widget", "{\"x\":" + random.nextInt(workload.canvas) + ",\"y\":" + random.nextInt(workload.canvas)
+					+ zIndex + ",\"width\":" + (1 + random.nextInt(200)) + ",\"height\":" + (1 + random.nextInt(200)) + "}");
+		}
+	},
+	// a widget moved a little, as one step of a drag
+	DRAG {
+		@Override
+		HttpRequest request(Workload workload, ThreadLocalRandom random) {
+			return workload.send("PUT", "/api/widget/" + workload.anyWidget(random), "{\"x\":" + random.nextInt(workload.canvas)
+					+ ",\"y\":" + random.nextInt(workload.canvas) + "}");
+		}
+	},
+	DELETE {
+		@Override
+		HttpRequest request(Workload workload, ThreadLocalRandom random) {
+			return workload.send("DELETE", "/api/widget/" + workload.anyWidget(random), null);
+		}
+	};
+
+	abstract HttpRequest request(Workload workload, ThreadLocalRandom random);
+
+	String label() {
+		return name().toLowerCase();
+	}
+
+	/**
+	 * Board the requests go to and the shape of the widgets.
+	 */
+	static final class Workload {
+		final URI base;
+		// side of the square the widgets are spread over
+		final int canvas;
+		final int viewport;
+		// widgets the board is filled with, the Z-indexes taken by them
+		final int widgets;
+		// share of the creations at a taken Z-index
+		final double collisions;
+		// widget identifiers given out, they are consecutive
+		volatile int createdWidgets;
+
+		Workload(URI base, int canvas, int viewport, int widgets, double collisions) {
+			this.base = base;
+			this.canvas = canvas;
+			this.viewport = viewport;
+			this.widgets = widgets;
+			this.collisions = collisions;
+		}
+
+		int anyWidget(ThreadLocalRandom random) {
+			return random.nextInt(Math.max(1, createdWidgets));
+		}
+
+		void created(int widgetId) {
+			// a race only picks among a few widgets less
+			if (widgetId >= createdWidgets) {
+				createdWidgets = widgetId + 1;
+			}
+		}
+
+		HttpRequest get(String path) {
+			return HttpRequest.newBuilder(base.resolve(path))
+					.header("Content-Type", "application/json")
+					.header("Accept", "application/json")
+					.GET()
+					.build();
+		}
+
+		HttpRequest send(String method, String path, String body) {
+			return HttpRequest.newBuilder(base.resolve(path))
+					.header("Content-Type", "application/json")
+					.header("Accept", "application/json")
+					.method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+					.build();
+		}
+	}
+}
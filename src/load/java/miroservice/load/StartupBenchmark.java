@@ -0,0 +1,281 @@
+package miroservice.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ *
+ * Time from the start of a service JVM to its first successful request, the thing a replica
+ * added under load or restarted makes its clients wait for. Every run starts a service of its
+ * own on a free port and asks for the widget list every 10 ms until it answers 200, then waits
+ * for its health to be up and times the requests a client sends first after that.
+ *
+ * Variants of the service:
+ * default - the service as configured
+ * fast-startup - the fast-startup profile: lazy beans, less auto-configuration, warmed up
+ * fast-startup+cds - the same mapping the classes of the archive from mvn -Pcds package
+ * The variants take turns, so a machine slowing down or speeding up spreads over all of them.
+ *
+ * Options as name=value:
+ * runs - starts of every variant, 5
+ * variants - the ones run, default,fast-startup,fast-startup+cds
+ * timeout - seconds a start may take, 120
+ *
+ * Arguments starting with -- go to every service, run with config/config.yaml and no rate
+ * limits unless they say otherwise. The services run from target/cds if it was built, from the
+ * class path of this JVM otherwise, their logs go to target/startup.
+ *
+ */
+public final class StartupBenchmark {
+
+	private static final Path CDS = Paths.get("target", "cds");
+	private static final Path ARCHIVE = CDS.resolve("miroservice.jsa");
+	private static final Path LOGS = Paths.get("target", "startup");
+	private static final long POLL_MILLIS = 10;
+	// the requests of a client opening a board and moving a widget
+	private static final String[][] FIRST_REQUESTS = {
+			{ "GET", "/api/widget?limit=100" },
+			{ "GET", "/api/widget/area?x1=0&y1=0&x2=1000&y2=1000" },
+			{ "GET", "/api/widget/at?x=10&y=10" },
+			{ "PUT", "/api/widget/-1" },
+			{ "GET", "/api/widget/changes?since=0" },
+	};
+
+	private final HttpClient client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(1))
+			.build();
+	private final List<String> serviceArgs;
+	private final long timeoutNanos;
+
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		final List<String> serviceArgs = new ArrayList<>();
+		for (final String arg: args) {
+			if (arg.startsWith("--")) {
+				serviceArgs.add(arg);
+			} else if (arg.indexOf('=') > 0) {
+				options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+			} else {
+				throw new IllegalArgumentException("Options are name=value, got " + arg);
+			}
+		}
+
+		final int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+		final List<Variant> variants = new ArrayList<>();
+		for (final String name: options.getOrDefault("variants", "default,fast-startup,fast-startup+cds").split(",")) {
+			final Variant variant = Variant.named(name.trim());
+			if (variant.cds && !Files.exists(ARCHIVE)) {
+				System.out.println("Skipping " + variant.label + ", no " + ARCHIVE + ": mvn -Pcds package -DskipTests builds it");
+			} else {
+				variants.add(variant);
+			}
+		}
+
+		new StartupBenchmark(serviceArgs, Long.parseLong(options.getOrDefault("timeout", "120"))).run(variants, runs);
+	}
+
+	private StartupBenchmark(List<String> serviceArgs, long timeoutSeconds) {
+		this.serviceArgs = serviceArgs;
+		this.timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+	}
+
+	private void run(List<Variant> variants, int runs) throws IOException, InterruptedException {
+		Files.createDirectories(LOGS);
+		System.out.println("Services run from " + (cdsJar() != null ? cdsJar() : "the class path of this JVM"));
+
+		final Map<Variant, List<Start>> starts = new LinkedHashMap<>();
+		for (final Variant variant: variants) {
+			starts.put(variant, new ArrayList<>());
+		}
+		for (int run = 0; run < runs; run++) {
+			for (final Variant variant: variants) {
+				final Start start = start(variant, run);
+				starts.get(variant).add(start);
+				System.out.printf("%-18s run %2d  first 200 %8.0f  healthy %8.0f  first requests %8.1f ms%n",
+						variant.label, run, millis(start.firstSuccessNanos), millis(start.healthyNanos), millis(start.firstRequestsNanos));
+			}
+		}
+
+		System.out.printf("%nMedian [min, max] of %d runs, ms from the start of the JVM%n", runs);
+		System.out.printf("%-18s %24s %24s %24s%n", "variant", "first 200", "healthy", "first requests");
+		for (final Map.Entry<Variant, List<Start>> entry: starts.entrySet()) {
+			final List<Start> variantStarts = entry.getValue();
+			System.out.printf("%-18s %24s %24s %24s%n", entry.getKey().label,
+					summary(variantStarts.stream().mapToLong(start -> start.firstSuccessNanos).toArray()),
+					summary(variantStarts.stream().mapToLong(start -> start.healthyNanos).toArray()),
+					summary(variantStarts.stream().mapToLong(start -> start.firstRequestsNanos).toArray()));
+		}
+	}
+
+	private Start start(Variant variant, int run) throws IOException, InterruptedException {
+		final int port = freePort();
+		final List<String> command = command(variant, port);
+		final File log = LOGS.resolve(variant.label + "-" + run + ".log").toFile();
+
+		final long started = System.nanoTime();
+		final Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+		try {
+			final URI base = URI.create("http://localhost:" + port);
+			final long firstSuccess = awaitStatus(process, base.resolve("/api/widget"), started) - started;
+			final long healthy = awaitStatus(process, base.resolve("/actuator/health"), started) - started;
+
+			final long firstRequests = System.nanoTime();
+			for (final String[] request: FIRST_REQUESTS) {
+				send(base.resolve(request[1]), request[0]);
+			}
+			return new Start(firstSuccess, healthy, System.nanoTime() - firstRequests);
+		} finally {
+			process.destroy();
+			if (!process.waitFor(30, TimeUnit.SECONDS)) {
+				process.destroyForcibly().waitFor();
+			}
+		}
+	}
+
+	private List<String> command(Variant variant, int port) {
+		final List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (variant.cds) {
+			command.add("-XX:SharedArchiveFile=" + ARCHIVE);
+		}
+		final Path jar = cdsJar();
+		if (jar != null) {
+			command.addAll(Arrays.asList("-jar", jar.toString()));
+		} else {
+			command.addAll(Arrays.asList("-classpath", System.getProperty("java.class.path"), "com.miro.service.MiroService"));
+		}
+
+		final List<String> args = new ArrayList<>(serviceArgs);
+		addDefault(args, "--spring.config.location", "config/config.yaml");
+		addDefault(args, "--miro.rate-limit.enabled", "false");
+		if (variant.fastStartup) {
+			addDefault(args, "--spring.profiles.active", "fast-startup");
+		}
+		args.add("--server.port=" + port);
+		command.addAll(args);
+		return command;
+	}
+
+	/**
+	 * @return the time of the first response with status 200
+	 */
+	private long awaitStatus(Process process, URI uri, long started) throws IOException, InterruptedException {
+		while (true) {
+			if (!process.isAlive()) {
+				throw new IllegalStateException("Service exited with " + process.exitValue() + ", see " + LOGS);
+			}
+			if (System.nanoTime() - started > timeoutNanos) {
+				throw new IllegalStateException("No 200 from " + uri + " in " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + " s");
+			}
+			try {
+				if (send(uri, "GET") == 200) {
+					return System.nanoTime();
+				}
+			} catch (final ConnectException ex) {
+				// not listening yet
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+	}
+
+	private int send(URI uri, String method) throws IOException, InterruptedException {
+		final HttpRequest.BodyPublisher body = "PUT".equals(method)
+				? HttpRequest.BodyPublishers.ofString("{\"x\":1,\"y\":2}") : HttpRequest.BodyPublishers.noBody();
+		final HttpRequest request = HttpRequest.newBuilder(uri)
+				// the widget endpoints take JSON on reads too
+				.header("Content-Type", "application/json")
+				.timeout(Duration.ofSeconds(10))
+				.method(method, body)
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+	}
+
+	private static Path cdsJar() {
+		if (!Files.isDirectory(CDS)) {
+			return null;
+		}
+		try (Stream<Path> files = Files.list(CDS)) {
+			return files.filter(file -> file.getFileName().toString().endsWith("-cds.jar")).findFirst().orElse(null);
+		} catch (final IOException ex) {
+			return null;
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static void addDefault(List<String> args, String name, String value) {
+		// a property given twice would get both values
+		if (args.stream().noneMatch(arg -> arg.startsWith(name + "="))) {
+			args.add(name + "=" + value);
+		}
+	}
+
+	private static String summary(long[] nanos) {
+		Arrays.sort(nanos);
+		return String.format("%.1f [%.1f, %.1f]", millis(nanos[nanos.length / 2]), millis(nanos[0]), millis(nanos[nanos.length - 1]));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private enum Variant {
+		DEFAULT("default", false, false),
+		FAST_STARTUP("fast-startup", true, false),
+		FAST_STARTUP_CDS("fast-startup+cds", true, true);
+
+		final String label;
+		final boolean fastStartup;
+		final boolean cds;
+
+		Variant(String label, boolean fastStartup, boolean cds) {
+			this.label = label;
+			this.fastStartup = fastStartup;
+			this.cds = cds;
+		}
+
+		static Variant named(String label) {
+			for (final Variant variant: values()) {
+				if (variant.label.equals(label)) {
+					return variant;
+				}
+			}
+			throw new IllegalArgumentException("No variant " + label + ", there are default, fast-startup and fast-startup+cds");
+		}
+	}
+
+	private static final class Start {
+		final long firstSuccessNanos;
+		final long healthyNanos;
+		final long firstRequestsNanos;
+
+		Start(long firstSuccessNanos, long healthyNanos, long firstRequestsNanos) {
+			this.firstSuccessNanos = firstSuccessNanos;
+			this.healthyNanos = healthyNanos;
+			this.firstRequestsNanos = firstRequestsNanos;
+		}
+	}
+}
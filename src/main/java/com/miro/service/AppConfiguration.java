@@ -1,19 +1,319 @@
 package com.miro.service;
 
-import org.springframework.cache.annotation.EnableCaching;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.Ordered;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import com.miro.service.admission.AdmissionFilter;
+import com.miro.service.admission.ConcurrencyLimit;
+import com.miro.service.controllers.ResponseCache;
+import com.miro.service.controllers.StartupWarmup;
+import com.miro.service.controllers.WidgetSnapshotConverter;
+import com.miro.service.feed.WidgetFeed;
+import com.miro.service.ratelimit.RateLimitFilter;
+import com.miro.service.ratelimit.TokenBucket;
+import com.miro.service.ratelimit.TokenBuckets;
+import com.miro.service.replication.FollowerFilter;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.BoardTier;
+import com.miro.service.storage.DurableWidgetRepository;
+import com.miro.service.storage.FsyncPolicy;
 import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.LeftRightWidgetRepository;
+import com.miro.service.storage.LockTimeouts;
+import com.miro.service.storage.ReplicationFollower;
+import com.miro.service.storage.ReplicationLeader;
+import com.miro.service.storage.SingleWriter;
+import com.miro.service.storage.SingleWriterWidgetRepository;
+import com.miro.service.storage.StorageException;
 import com.miro.service.storage.WidgetRepository;
 
 @Configuration
-@EnableCaching
 public class AppConfiguration implements WebMvcConfigurer {
 		
+	/**
+	 * Created on start with lazy initialization too: it opens the boards and the replication port.
+	 */
+	@Bean
+	@Lazy(false)
+	public BoardRepository getBoardRepository(MeterRegistry meterRegistry,
+			@Value("${miro.storage.mode:locking}") String mode,
+			@Value("${miro.storage.durable.directory:data}") String directory,
+			@Value("${miro.storage.durable.fsync:always}") String fsync,
+			@Value("${miro.storage.durable.fsync-interval-ms:10}") long fsyncIntervalMillis,
+			@Value("${miro.storage.durable.checkpoint-interval-ms:60000}") long checkpointIntervalMillis,
+			@Value("${miro.storage.lock-timeout.read-ms:100}") long readLockTimeoutMillis,
+			@Value("${miro.storage.lock-timeout.write-ms:100}") long writeLockTimeoutMillis,
+			Optional<SingleWriter> singleWriter,
+			Optional<BoardTier> boardTier,
+			@Value("${miro.replication.role:none}") String replicationRole,
+			@Value("${miro.replication.host:0.0.0.0}") String replicationHost,
+			@Value("${miro.replication.port:7070}") int replicationPort,
+			Optional<ReplicationLeader> replicationLeader) {
+		final Function<String, WidgetRepository> boardFactory;
+		switch (replicationRole) {
+		case "none":
+			boardFactory = storageBoardFactory(mode, directory, fsync, fsyncIntervalMillis, checkpointIntervalMillis, singleWriter, boardTier);
+			break;
+		case "leader":
+			if (!"locking".equals(mode)) {
+				throw new IllegalArgumentException("Replication leader keeps locking boards, not " + mode);
+			}
+			boardFactory = replicationLeader.get().boardFactory();
+			break;
+		case "follower":
+			boardFactory = ReplicationFollower.boardFactory();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown replication role " + replicationRole);
+		}
+
+		// durable boards outlive the process, the others start empty
+		final List<String> storedBoards = "none".equals(replicationRole) && "durable".equals(mode)
+				? DurableWidgetRepository.boardIds(Paths.get(directory)) : new ArrayList<>();
+		final BoardRepository boards = new BoardRepository(boardFactory, storedBoards);
+		boards.useLockTimeouts(new LockTimeouts(readLockTimeoutMillis, writeLockTimeoutMillis));
+		boards.bindTo(meterRegistry);
+		if (replicationLeader.isPresent()) {
+			try {
+				replicationLeader.get().start(boards, replicationHost, replicationPort);
+			} catch (final IOException ex) {
+				throw new StorageException("Failed to listen for replication followers on " + replicationHost + ":" + replicationPort, ex);
+			}
+		}
+		return boards;
+	}
+
+	private static Function<String, WidgetRepository> storageBoardFactory(String mode, String directory, String fsync, long fsyncIntervalMillis, long checkpointIntervalMillis, Optional<SingleWriter> singleWriter, Optional<BoardTier> boardTier) {
+		final Function<String, WidgetRepository> boardFactory;
+		switch (mode) {
+		case "locking":
+			boardFactory = boardId -> new InMemoryWidgetRepository();
+			break;
+		case "left-right":
+			boardFactory = boardId -> new LeftRightWidgetRepository();
+			break;
+		case "single-writer":
+			final SingleWriter writer = singleWriter.get();
+			boardFactory = boardId -> new SingleWriterWidgetRepository(writer);
+			break;
+		case "tiered":
+			boardFactory = boardTier.get().boardFactory();
+			break;
+		case "durable":
+			final FsyncPolicy fsyncPolicy = FsyncPolicy.valueOf(fsync.toUpperCase(Locale.ROOT));
+			boardFactory = boardId -> new DurableWidgetRepository(Paths.get(directory).resolve(boardId), fsyncPolicy, fsyncIntervalMillis, checkpointIntervalMillis);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown storage mode " + mode);
+		}
+		return boardFactory;
+	}
+
+	/**
+	 * Log of the changes to every board streamed to the followers, the boards are created by it.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(name = "miro.replication.role", havingValue = "leader")
+	public ReplicationLeader getReplicationLeader(MeterRegistry meterRegistry,
+			@Value("${miro.replication.retained-records:1048576}") int retainedRecords,
+			@Value("${miro.replication.heartbeat-interval-ms:100}") long heartbeatIntervalMillis) {
+		return new ReplicationLeader(retainedRecords, heartbeatIntervalMillis, meterRegistry);
+	}
+
+	@Bean(destroyMethod = "close")
+	@Lazy(false)
+	@ConditionalOnProperty(name = "miro.replication.role", havingValue = "follower")
+	public ReplicationFollower getReplicationFollower(BoardRepository boards, MeterRegistry meterRegistry,
+			@Value("${miro.replication.leader-address:localhost:7070}") String leaderAddress,
+			@Value("${miro.replication.reconnect-interval-ms:1000}") long reconnectIntervalMillis) {
+		final int separator = leaderAddress.lastIndexOf(':');
+		if (separator < 0) {
+			throw new IllegalArgumentException("Leader address should be host:port, got " + leaderAddress);
+		}
+
+		return new ReplicationFollower(boards, leaderAddress.substring(0, separator), Integer.parseInt(leaderAddress.substring(separator + 1)), reconnectIntervalMillis, meterRegistry);
+	}
+
+	/**
+	 *
+	 * The registry comes first: the filter is created with the servlet context, before the boards,
+	 * and the registry binds them.
+	 *
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "miro.replication.role", havingValue = "follower")
+	public FilterRegistrationBean<FollowerFilter> getFollowerFilter(MeterRegistry meterRegistry, ReplicationFollower follower,
+			@Value("${miro.replication.leader-url:}") String leaderUrl,
+			@Value("${miro.replication.max-staleness-ms:1000}") long maxStalenessMillis,
+			@Value("${miro.replication.position-timeout-ms:1000}") long positionTimeoutMillis) {
+		final Optional<String> leader = leaderUrl.isEmpty() ? Optional.empty() : Optional.of(leaderUrl);
+		final FilterRegistrationBean<FollowerFilter> registration = new FilterRegistrationBean<>(new FollowerFilter(follower, leader, maxStalenessMillis, positionTimeoutMillis, meterRegistry));
+		registration.addUrlPatterns("/api/*");
+		// after the rate limits
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 20);
+		return registration;
+	}
+
+	/**
+	 * Boards of the tiered storage mode in memory, the ones evicted are kept in the directory.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(name = "miro.storage.mode", havingValue = "tiered")
+	public BoardTier getBoardTier(MeterRegistry meterRegistry,
+			@Value("${miro.storage.tiered.directory:evicted}") String directory,
+			@Value("${miro.storage.tiered.max-resident-widgets:10000000}") long maxResidentWidgets,
+			@Value("${miro.storage.tiered.idle-ms:3600000}") long idleMillis) {
+		return new BoardTier(Paths.get(directory), maxResidentWidgets, idleMillis, meterRegistry);
+	}
+
+	/**
+	 * Thread applying the writes of all boards of the single-writer storage mode, the writes
+	 * waiting for it are queued up to the ring size.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(name = "miro.storage.mode", havingValue = "single-writer")
+	public SingleWriter getSingleWriter(MeterRegistry meterRegistry,
+			@Value("${miro.storage.single-writer.ring-size:65536}") int ringSize) {
+		final SingleWriter writer = new SingleWriter(ringSize);
+		writer.bindTo(meterRegistry);
+		return writer;
+	}
+
+	/**
+	 * Threads running the repository operations of the async controller mode, the requests
+	 * waiting for them are queued up to the queue size.
+	 */
+	@Bean(name = "storageExecutor", destroyMethod = "shutdown")
+	@ConditionalOnProperty(name = "miro.controller.mode", havingValue = "async")
+	public ThreadPoolExecutor getStorageExecutor(MeterRegistry meterRegistry,
+			@Value("${miro.controller.async.storage-threads:4}") int threads,
+			@Value("${miro.controller.async.queue-size:10000}") int queueSize) {
+		final AtomicInteger created = new AtomicInteger();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), task -> {
+			final Thread thread = new Thread(task, "storage-" + created.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		new ExecutorServiceMetrics(executor, "storage", Tags.empty()).bindTo(meterRegistry);
+		return executor;
+	}
+
+	@Bean
+	public WidgetFeed getWidgetFeed(BoardRepository boards, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			@Value("${miro.feed.sender-threads:8}") int senderThreads,
+			@Value("${miro.feed.max-subscribers:10000}") int maxSubscribers,
+			@Value("${miro.feed.timeout-ms:1800000}") long timeoutMillis,
+			@Value("${miro.feed.slow-subscriber-ms:5000}") long slowSubscriberMillis) {
+		return new WidgetFeed(boards, objectMapper, meterRegistry, senderThreads, maxSubscribers, timeoutMillis, slowSubscriberMillis);
+	}
+
+	/**
+	 * Smile of the widget endpoints, configured like the JSON mapper. Replaces the Smile converter
+	 * Spring MVC adds, which leaves out the settings of Spring Boot.
+	 */
+	@Bean
+	public MappingJackson2SmileHttpMessageConverter getSmileConverter(Jackson2ObjectMapperBuilder builder) {
+		// the builder is a new one for every bean taking it
+		return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+	}
+
+	@Bean
+	public WidgetSnapshotConverter getWidgetSnapshotConverter(ObjectMapper objectMapper, MappingJackson2SmileHttpMessageConverter smileConverter) {
+		return new WidgetSnapshotConverter(objectMapper.getFactory(), smileConverter.getObjectMapper().getFactory(), ZoneId.systemDefault());
+	}
+
+	/**
+	 * JSON of the widgets and widget lists read, dropped by the writes to their boards.
+	 */
+	@Bean
+	public ResponseCache getResponseCache(BoardRepository boards, ObjectMapper objectMapper, WidgetSnapshotConverter snapshotConverter, MeterRegistry meterRegistry,
+			@Value("${miro.response-cache.max-size-mb:64}") long maxSizeMegabytes,
+			@Value("${miro.response-cache.gzip-min-bytes:1024}") int gzipMinBytes) {
+		final ResponseCache cache = new ResponseCache(objectMapper, snapshotConverter, maxSizeMegabytes << 20, gzipMinBytes, meterRegistry);
+		boards.addWidgetChangeListener(cache);
+		return cache;
+	}
+
+	@Bean
+	public FilterRegistrationBean<RateLimitFilter> getRateLimitFilter(MeterRegistry meterRegistry,
+			@Value("${miro.rate-limit.enabled:true}") boolean enabled,
+			@Value("${miro.rate-limit.api-per-minute:1000}") int apiPerMinute,
+			@Value("${miro.rate-limit.widget-list-per-client-per-minute:200}") int widgetListPerClientPerMinute,
+			@Value("${miro.rate-limit.max-clients:100000}") int maxClients) {
+		final Optional<TokenBucket> api = apiPerMinute > 0
+				? Optional.of(new TokenBucket(apiPerMinute, 1, TimeUnit.MINUTES))
+				: Optional.empty();
+		final Optional<TokenBuckets> widgetList = widgetListPerClientPerMinute > 0
+				? Optional.of(new TokenBuckets(widgetListPerClientPerMinute, 1, TimeUnit.MINUTES, maxClients))
+				: Optional.empty();
+
+		final FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(new RateLimitFilter(api, widgetList, meterRegistry));
+		registration.addUrlPatterns("/api/*");
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+		registration.setEnabled(enabled);
+		return registration;
+	}
+
+	/**
+	 * After the rate limit and the follower, whose refusals should not count against the storage.
+	 */
+	@Bean
+	public FilterRegistrationBean<AdmissionFilter> getAdmissionFilter(MeterRegistry meterRegistry,
+			@Value("${miro.admission.enabled:true}") boolean enabled,
+			@Value("${miro.admission.read.initial-limit:32}") int readInitialLimit,
+			@Value("${miro.admission.read.max-limit:200}") int readMaxLimit,
+			@Value("${miro.admission.read.queue-size:100}") int readQueueSize,
+			@Value("${miro.admission.read.queue-timeout-ms:50}") long readQueueTimeoutMillis,
+			@Value("${miro.admission.write.initial-limit:8}") int writeInitialLimit,
+			@Value("${miro.admission.write.max-limit:100}") int writeMaxLimit,
+			@Value("${miro.admission.write.queue-size:100}") int writeQueueSize,
+			@Value("${miro.admission.write.queue-timeout-ms:50}") long writeQueueTimeoutMillis) {
+		final ConcurrencyLimit reads = new ConcurrencyLimit("read", readInitialLimit, readMaxLimit, readQueueSize, meterRegistry);
+		final ConcurrencyLimit writes = new ConcurrencyLimit("write", writeInitialLimit, writeMaxLimit, writeQueueSize, meterRegistry);
+
+		final FilterRegistrationBean<AdmissionFilter> registration = new FilterRegistrationBean<>(new AdmissionFilter(reads, writes, readQueueTimeoutMillis, writeQueueTimeoutMillis));
+		registration.addUrlPatterns("/api/*");
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 30);
+		registration.setEnabled(enabled);
+		return registration;
+	}
+
+	/**
+	 * Request paths taken before the instance is started, by the fast-startup profile.
+	 */
 	@Bean
-	public WidgetRepository getWidgetRepositry() {
-		return new InMemoryWidgetRepository();
+	@ConditionalOnProperty(name = "miro.startup.warmup", havingValue = "true")
+	public StartupWarmup getStartupWarmup(ConfigurableApplicationContext context, ObjectMapper objectMapper, MappingJackson2SmileHttpMessageConverter smileConverter,
+			@Value("${miro.startup.warmup-iterations:3}") int iterations,
+			@Value("${miro.startup.exit-after-warmup:false}") boolean exitAfterWarmup) {
+		return new StartupWarmup(context, objectMapper, smileConverter.getObjectMapper(), iterations, exitAfterWarmup);
 	}
 }
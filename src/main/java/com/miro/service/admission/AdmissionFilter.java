@@ -0,0 +1,133 @@
+package com.miro.service.admission;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+/**
+ *
+ * Admission of the API requests to the storage: reads and writes each have a {@link ConcurrencyLimit}
+ * and a queue of their own, so a burst of writes contending for the board locks does not hold up
+ * the reads, nor the other way round. A request not let in within the timeout of its kind gets 503
+ * with Retry-After before it takes a storage thread or lock, instead of timing out on the lock.
+ *
+ * An asynchronous request holds its place until the response is complete. Feed subscriptions last
+ * for long without using the storage and are let through.
+ *
+ */
+public class AdmissionFilter implements Filter {
+
+	private static final String FEED_PATH = "/widget/feed";
+
+	private static final byte[] OVERLOADED_BODY = "{ \"message\": \"Service is overloaded, retry later\" }".getBytes(StandardCharsets.UTF_8);
+
+	private final ConcurrencyLimit reads;
+	private final ConcurrencyLimit writes;
+	private final long readTimeoutNanos;
+	private final long writeTimeoutNanos;
+
+	/**
+	 * @param readTimeoutMillis a read waits for the limit up to it
+	 * @param writeTimeoutMillis a write waits for the limit up to it
+	 */
+	public AdmissionFilter(ConcurrencyLimit reads, ConcurrencyLimit writes, long readTimeoutMillis, long writeTimeoutMillis) {
+		this.reads = reads;
+		this.writes = writes;
+		readTimeoutNanos = readTimeoutMillis * 1_000_000;
+		writeTimeoutNanos = writeTimeoutMillis * 1_000_000;
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		final HttpServletRequest httpRequest = (HttpServletRequest) request;
+		final HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+		if (httpRequest.getRequestURI().endsWith(FEED_PATH)) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		final boolean read = isRead(httpRequest.getMethod());
+		final ConcurrencyLimit limit = read ? reads : writes;
+		if (!limit.acquire(read ? readTimeoutNanos : writeTimeoutNanos)) {
+			reject(httpResponse);
+			return;
+		}
+
+		final long start = System.nanoTime();
+		boolean async = false;
+		try {
+			chain.doFilter(request, response);
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new Release(limit, start), request, response);
+				async = true;
+			}
+		} finally {
+			if (!async) {
+				limit.release(start, isDropped(httpResponse));
+			}
+		}
+	}
+
+	private static void reject(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.getOutputStream().write(OVERLOADED_BODY);
+	}
+
+	private static boolean isRead(String method) {
+		return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+	}
+
+	/**
+	 * @return whether the storage refused the request as too busy
+	 */
+	private static boolean isDropped(HttpServletResponse response) {
+		return response.getStatus() == HttpStatus.SERVICE_UNAVAILABLE.value();
+	}
+
+	/**
+	 * Gives the place of an asynchronous request back once its response is complete, which
+	 * follows a timeout or an error too.
+	 */
+	private static final class Release implements AsyncListener {
+		private final ConcurrencyLimit limit;
+		private final long start;
+
+		Release(ConcurrencyLimit limit, long start) {
+			this.limit = limit;
+			this.start = start;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			limit.release(start, isDropped((HttpServletResponse) event.getSuppliedResponse()));
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+}
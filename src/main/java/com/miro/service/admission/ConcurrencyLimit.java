@@ -0,0 +1,193 @@
+package com.miro.service.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ *
+ * Limit of the requests of one kind in flight, adapted to the latency they get (gradient). Every
+ * window the average latency is compared to a long-term one: once requests start queueing for
+ * the storage the ratio falls below 1 and the limit shrinks by it, while it stays near 1 the limit
+ * grows by its square root. A window with a request dropped for overload cuts the limit by a tenth,
+ * and a limit less than half used is left as it is, the latency then says nothing about more.
+ *
+ * A request over the limit waits in a bounded queue up to its timeout, then is refused.
+ *
+ */
+public final class ConcurrencyLimit {
+
+	private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final int MIN_WINDOW_SAMPLES = 10;
+	// windows the long-term latency averages over
+	private static final double LONG_TERM_WINDOWS = 600;
+	// latency growth taken as noise rather than queueing
+	private static final double TOLERANCE = 1.5;
+	private static final double SMOOTHING = 0.2;
+	private static final double BACKOFF = 0.9;
+
+	private final int maxLimit;
+	private final int queueSize;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final Condition released = queueLock.newCondition();
+
+	private final Counter rejected;
+
+	private volatile int limit;
+
+	// the window being sampled and the estimate, guarded by this
+	private double estimatedLimit;
+	private double longTermNanos;
+	private long windowStart = System.nanoTime();
+	private long windowNanos;
+	private int windowSamples;
+	private int windowMaxInFlight;
+	private boolean windowDropped;
+
+	/**
+	 * @param requests kind of the requests, the tag of the meters
+	 * @param queueSize requests waiting for the limit at most, 0 refuses at once
+	 */
+	public ConcurrencyLimit(String requests, int initialLimit, int maxLimit, int queueSize, MeterRegistry registry) {
+		if (initialLimit < 1 || maxLimit < initialLimit || queueSize < 0) {
+			throw new IllegalArgumentException("Bad concurrency limit " + initialLimit + " up to " + maxLimit + " with a queue of " + queueSize);
+		}
+		this.maxLimit = maxLimit;
+		this.queueSize = queueSize;
+		limit = initialLimit;
+		estimatedLimit = initialLimit;
+
+		Gauge.builder("miro.admission.limit", this, ConcurrencyLimit::limit)
+				.description("Requests let in flight at once")
+				.tag("requests", requests)
+				.register(registry);
+		Gauge.builder("miro.admission.inflight", inFlight, AtomicInteger::get)
+				.description("Requests in flight")
+				.tag("requests", requests)
+				.register(registry);
+		Gauge.builder("miro.admission.queued", queued, AtomicInteger::get)
+				.description("Requests waiting to be let in")
+				.tag("requests", requests)
+				.register(registry);
+		rejected = Counter.builder("miro.admission.rejected")
+				.description("Requests refused with the limit and the queue full")
+				.tag("requests", requests)
+				.register(registry);
+	}
+
+	/**
+	 * @return whether the request is let in, {@link #release} has to follow then; false if the
+	 * 		   queue is full or the wait timed out
+	 */
+	public boolean acquire(long timeoutNanos) {
+		if (tryAcquire()) {
+			return true;
+		}
+		if (queued.incrementAndGet() > queueSize) {
+			queued.decrementAndGet();
+			rejected.increment();
+			return false;
+		}
+
+		queueLock.lock();
+		try {
+			long nanos = timeoutNanos;
+			while (!tryAcquire()) {
+				if (nanos <= 0) {
+					rejected.increment();
+					return false;
+				}
+				nanos = released.awaitNanos(nanos);
+			}
+			return true;
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			rejected.increment();
+			return false;
+		} finally {
+			queued.decrementAndGet();
+			queueLock.unlock();
+		}
+	}
+
+	/**
+	 * Ends a request let in and samples its latency.
+	 *
+	 * @param startNanos when it was let in
+	 * @param dropped whether it failed for overload
+	 */
+	public void release(long startNanos, boolean dropped) {
+		final long now = System.nanoTime();
+		final int running = inFlight.getAndDecrement();
+		sample(now - startNanos, running, dropped, now);
+
+		if (queued.get() > 0) {
+			queueLock.lock();
+			try {
+				released.signalAll();
+			} finally {
+				queueLock.unlock();
+			}
+		}
+	}
+
+	public int limit() {
+		return limit;
+	}
+
+	private boolean tryAcquire() {
+		while (true) {
+			final int running = inFlight.get();
+			if (running >= limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(running, running + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private synchronized void sample(long nanos, int running, boolean dropped, long now) {
+		windowNanos += nanos;
+		windowSamples++;
+		windowMaxInFlight = Math.max(windowMaxInFlight, running);
+		windowDropped |= dropped;
+		if (now - windowStart < WINDOW_NANOS || windowSamples < MIN_WINDOW_SAMPLES) {
+			return;
+		}
+
+		final double shortTermNanos = (double) windowNanos / windowSamples;
+		if (longTermNanos == 0) {
+			longTermNanos = shortTermNanos;
+		} else {
+			longTermNanos += (shortTermNanos - longTermNanos) / LONG_TERM_WINDOWS;
+			// left high by an overload gone, it would let the latency grow for long
+			if (longTermNanos > 2 * shortTermNanos) {
+				longTermNanos *= 0.95;
+			}
+		}
+
+		if (windowDropped) {
+			estimatedLimit = Math.max(1, estimatedLimit * BACKOFF);
+		} else if (windowMaxInFlight >= estimatedLimit / 2) {
+			final double gradient = Math.max(0.5, Math.min(1, TOLERANCE * longTermNanos / shortTermNanos));
+			final double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+			estimatedLimit = Math.max(1, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+		}
+		limit = (int) estimatedLimit;
+
+		windowStart = now;
+		windowNanos = 0;
+		windowSamples = 0;
+		windowMaxInFlight = 0;
+		windowDropped = false;
+	}
+}
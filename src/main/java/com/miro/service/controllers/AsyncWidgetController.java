@@ -0,0 +1,253 @@
+package com.miro.service.controllers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.BatchOperationResult;
+import com.miro.service.requests.CreateWidgetRequest;
+import com.miro.service.requests.Response;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.requests.WidgetPageResponse;
+import com.miro.service.storage.AsyncWidgetRepository;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.StorageBusyException;
+import com.miro.service.storage.WidgetRepository;
+import com.miro.service.storage.WidgetSnapshot;
+
+/**
+ *
+ * Widget endpoints of the async controller mode: the same API as {@link WidgetController}, but
+ * the request thread only hands the operation to the storage executor and returns, and the
+ * response is written when the operation completes. The number of requests in flight is bounded
+ * by the executor queue instead of the servlet threads, a full queue is answered with 503.
+ *
+ * Boards are looked up on the request thread, only a write to a new board creates one there.
+ *
+ */
+@RestController
+@ConditionalOnProperty(name = "miro.controller.mode", havingValue = "async")
+public class AsyncWidgetController {
+
+	@Autowired
+	BoardRepository boards;
+
+	@Autowired
+	@Qualifier("storageExecutor")
+	Executor storageExecutor;
+
+	@Autowired
+	ResponseCache responses;
+
+	@GetMapping(
+		value = { "/api/widget/{id}", "/api/board/{boardId}/widget/{id}" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	public CompletableFuture<ResponseEntity<?>> getWidget(@PathVariable(name = "boardId", required = false) String boardId, @PathVariable("id") int widgetId, @RequestHeader(name = "Accept", required = false) String accept, @RequestHeader(name = "Accept-Encoding", required = false) String acceptEncoding) {
+		final String board = WidgetRequests.boardId(boardId);
+		final boolean gzip = WidgetRequests.acceptsGzip(acceptEncoding);
+		// only the JSON is cached
+		final boolean smile = WidgetRequests.acceptsSmile(accept);
+		final Optional<CachedResponse> cached = smile ? Optional.empty() : responses.widget(board, widgetId, gzip);
+		if (cached.isPresent()) {
+			return CompletableFuture.completedFuture(WidgetRequests.cachedResponse(ResponseEntity.ok(), cached.get(), gzip));
+		}
+
+		final AsyncWidgetRepository repository = boards.findBoard(board).map(this::async).orElseThrow(() -> WidgetRequests.notFound("widget not found"));
+		final long stamp = responses.stamp(board);
+		return repository.findWidgetById(widgetId)
+				.thenApply(result -> result.orElseThrow(() -> WidgetRequests.notFound("widget not found")))
+				.<ResponseEntity<?>>thenApply(widget -> smile
+						? ResponseEntity.ok(widget)
+						: WidgetRequests.cachedResponse(ResponseEntity.ok(), responses.putWidget(board, stamp, widget), gzip));
+	}
+
+	@GetMapping(
+		value = { "/api/widget/area", "/api/board/{boardId}/widget/area" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public CompletableFuture<List<Widget>> listWidgetsInArea(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam("x1") int x1, @RequestParam("y1") int y1, @RequestParam("x2") int x2, @RequestParam("y2") int y2) {
+		WidgetRequests.checkArea(x1, y1, x2, y2);
+
+		return existingBoard(boardId)
+				.map(board -> board.findWidgetsInArea(x1, y1, x2, y2))
+				.orElse(CompletableFuture.completedFuture(Collections.emptyList()));
+	}
+
+	@GetMapping(
+		value = { "/api/widget/at", "/api/board/{boardId}/widget/at" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public CompletableFuture<Widget> getTopmostWidget(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam("x") int x, @RequestParam("y") int y) {
+		return existingBoard(boardId)
+				.map(board -> board.findTopmostWidgetAt(x, y))
+				.orElse(CompletableFuture.completedFuture(Optional.empty()))
+				.thenApply(result -> result.orElseThrow(() -> WidgetRequests.notFound("no widget at the point")));
+	}
+
+	@PostMapping(
+		value = { "/api/widget", "/api/board/{boardId}/widget" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public CompletableFuture<Widget> createWidget(@PathVariable(name = "boardId", required = false) String boardId, @RequestBody CreateWidgetRequest request) {
+		return board(boardId).createWidget(request.xCoordinate(), request.yCoordinate(), request.zIndex(), request.height(), request.width());
+	}
+
+	@PostMapping(
+		value = { "/api/widget/batch", "/api/board/{boardId}/widget/batch" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public CompletableFuture<List<BatchOperationResult>> applyBatch(@PathVariable(name = "boardId", required = false) String boardId, @RequestBody List<BatchOperation> operations) {
+		WidgetRequests.checkBatch(operations);
+
+		return board(boardId).applyBatch(operations)
+				.thenApply(results -> WidgetRequests.batchResponse(operations, results));
+	}
+
+	@PutMapping(
+		value = { "/api/widget/{id}", "/api/board/{boardId}/widget/{id}" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public CompletableFuture<Widget> updateWidget(@PathVariable(name = "boardId", required = false) String boardId, @PathVariable("id") int widgetId, @RequestBody UpdateWidgetRequest request) {
+		return existingBoard(boardId)
+				.map(board -> board.updateWidget(widgetId, request))
+				.orElse(CompletableFuture.completedFuture(Optional.empty()))
+				.thenApply(result -> result.orElseThrow(() -> WidgetRequests.notFound("widget not found")));
+	}
+
+	@DeleteMapping(
+		value = { "/api/widget/{id}", "/api/board/{boardId}/widget/{id}" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	public CompletableFuture<Response> deleteWidget(@PathVariable(name = "boardId", required = false) String boardId, @PathVariable("id") int widgetId) {
+		return existingBoard(boardId)
+				.map(board -> board.deleteWidget(widgetId))
+				.orElse(CompletableFuture.completedFuture(false))
+				.thenApply(deleted -> {
+					if (!deleted) {
+						throw WidgetRequests.notFound("widget not found");
+					}
+					return Response.OK_RESPONSE;
+				});
+	}
+
+	@GetMapping(
+		value = { "/api/widget", "/api/board/{boardId}/widget" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	public CompletableFuture<ResponseEntity<?>> listWidgets(@PathVariable(name = "boardId", required = false) String boardId, @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch, @RequestHeader(name = "Accept", required = false) String accept, @RequestHeader(name = "Accept-Encoding", required = false) String acceptEncoding) {
+		final String board = WidgetRequests.boardId(boardId);
+		final boolean gzip = WidgetRequests.acceptsGzip(acceptEncoding);
+		// only the JSON is cached, WidgetSnapshotConverter streams the Smile
+		final boolean smile = WidgetRequests.acceptsSmile(accept);
+		final Optional<CachedResponse> cached = smile ? Optional.empty() : responses.list(board, gzip);
+		if (cached.isPresent()) {
+			return CompletableFuture.completedFuture(WidgetRequests.cachedListResponse(cached.get(), ifNoneMatch, gzip));
+		}
+
+		final Optional<AsyncWidgetRepository> repository = boards.findBoard(board).map(this::async);
+		if (!repository.isPresent()) {
+			return CompletableFuture.completedFuture(ResponseEntity.ok(WidgetSnapshot.EMPTY));
+		}
+
+		final long stamp = responses.stamp(board);
+		// the version is read first: a change in between makes the tag older than the list, never newer
+		return repository.get().version().thenCompose(version -> {
+			final String eTag = WidgetRequests.eTag(version, smile);
+			if (WidgetRequests.matchesAny(ifNoneMatch, eTag)) {
+				return CompletableFuture.completedFuture(WidgetRequests.notModified(eTag));
+			}
+			return repository.get().snapshotSortedByZIndex().thenApply(snapshot -> (smile ? Optional.<CachedResponse>empty() : responses.putList(board, stamp, snapshot))
+					.<ResponseEntity<?>>map(result -> WidgetRequests.cachedResponse(ResponseEntity.ok().eTag(eTag), result, false))
+					.orElseGet(() -> ResponseEntity.ok().eTag(eTag).body(snapshot)));
+		});
+	}
+
+	@GetMapping(
+		value = { "/api/widget/changes", "/api/board/{boardId}/widget/changes" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public CompletableFuture<WidgetChanges> listChanges(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam(name = "since", required = false) String since) {
+		final long version = WidgetRequests.version(since);
+		return existingBoard(boardId)
+				.map(board -> board.findChangesSince(version))
+				.orElse(CompletableFuture.completedFuture(WidgetRequests.NO_CHANGES));
+	}
+
+	@GetMapping(
+		value = { "/api/widget", "/api/board/{boardId}/widget" },
+		params = "limit",
+		produces = { "application/json", WidgetRequests.SMILE_VALUE },
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public CompletableFuture<WidgetPageResponse> listWidgetsPage(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam("limit") int limit, @RequestParam(name = "cursor", required = false) String cursor) {
+		final Optional<Integer> afterZIndex = WidgetRequests.afterZIndex(limit, cursor);
+
+		return existingBoard(boardId)
+				.map(board -> board.listWidgetsSortedByZIndex(afterZIndex, limit))
+				.orElse(CompletableFuture.completedFuture(WidgetRequests.EMPTY_PAGE))
+				.thenApply(WidgetRequests::pageResponse);
+	}
+
+	@ExceptionHandler({ RejectedExecutionException.class, StorageBusyException.class })
+	public ResponseEntity<Response> storageBusy() {
+		return WidgetRequests.storageBusy();
+	}
+
+	/**
+	 * @return board written to, created by the write if needed; the default one
+	 * 		   for the paths without a board
+	 */
+	private AsyncWidgetRepository board(String boardId) {
+		return async(boards.board(WidgetRequests.boardId(boardId)));
+	}
+
+	/**
+	 * Reads and changes of existing widgets never create a board.
+	 */
+	private Optional<AsyncWidgetRepository> existingBoard(String boardId) {
+		return boards.findBoard(WidgetRequests.boardId(boardId)).map(this::async);
+	}
+
+	private AsyncWidgetRepository async(WidgetRepository board) {
+		return new AsyncWidgetRepository(board, storageExecutor);
+	}
+}
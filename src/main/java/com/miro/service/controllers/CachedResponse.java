@@ -0,0 +1,68 @@
+package com.miro.service.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * JSON of a widget or a widget list ready to send, with its gzip compression once a client
+ * taking gzip asked for it. Immutable, compressing makes a new one.
+ *
+ */
+public final class CachedResponse {
+
+	// bytes an entry takes besides its bodies
+	private static final int OVERHEAD = 96;
+
+	private final byte[] json;
+	private final byte[] gzip;
+
+	// stamp of the board taken before the widgets were read
+	final long stamp;
+	// Z-index of the widget, 0 for a list
+	final int zIndex;
+	private final long version;
+
+	CachedResponse(byte[] json, byte[] gzip, long stamp, int zIndex, long version) {
+		this.json = json;
+		this.gzip = gzip;
+		this.stamp = stamp;
+		this.zIndex = zIndex;
+		this.version = version;
+	}
+
+	public byte[] json() {
+		return json;
+	}
+
+	/**
+	 * @return the JSON compressed, empty if no client taking gzip has asked for it yet
+	 */
+	public Optional<byte[]> gzip() {
+		return Optional.ofNullable(gzip);
+	}
+
+	/**
+	 * @return version of the board a list was taken at
+	 */
+	public long version() {
+		return version;
+	}
+
+	int weight() {
+		return OVERHEAD + json.length + (gzip == null ? 0 : gzip.length);
+	}
+
+	CachedResponse compressed() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+		try (GZIPOutputStream compressing = new GZIPOutputStream(out)) {
+			compressing.write(json);
+		} catch (final IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return new CachedResponse(json, out.toByteArray(), stamp, zIndex, version);
+	}
+}
@@ -0,0 +1,40 @@
+package com.miro.service.controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ *
+ * Adds Accept to the Vary of the widget responses: every endpoint answers in JSON or Smile as the
+ * client asks, so a cache must not give the body of one to a client of the other. The 304s of
+ * {@link WidgetRequests#notModified(String)} have no body and vary by themselves.
+ *
+ */
+@ControllerAdvice(basePackages = "com.miro.service.controllers")
+public class NegotiationAdvice implements ResponseBodyAdvice<Object> {
+
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return true;
+	}
+
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType, Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response) {
+		final HttpHeaders headers = response.getHeaders();
+		final List<String> vary = new ArrayList<>(headers.getVary());
+		if (!vary.contains(HttpHeaders.ACCEPT) && !vary.contains("*")) {
+			vary.add(HttpHeaders.ACCEPT);
+			headers.setVary(vary);
+		}
+		return body;
+	}
+}
@@ -0,0 +1,35 @@
+package com.miro.service.controllers;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ *
+ * Encodes Z-index positions into opaque cursors, so clients do not build on the representation.
+ *
+ */
+final class PageCursor {
+
+	private static final byte VERSION = 1;
+
+	private PageCursor() {
+	}
+
+	static String encode(int zIndex) {
+		final ByteBuffer buffer = ByteBuffer.allocate(5).put(VERSION).putInt(zIndex);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	/**
+	 *
+	 * @throws IllegalArgumentException if the cursor was not produced by {@link #encode(int)}
+	 */
+	static int decode(String cursor) {
+		final byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+		if (bytes.length != 5 || bytes[0] != VERSION) {
+			throw new IllegalArgumentException("Malformed cursor " + cursor);
+		}
+
+		return ByteBuffer.wrap(bytes, 1, 4).getInt();
+	}
+}
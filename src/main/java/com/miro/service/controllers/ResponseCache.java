@@ -0,0 +1,290 @@
+package com.miro.service.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.miro.service.models.Widget;
+import com.miro.service.storage.WidgetChangeListener;
+import com.miro.service.storage.WidgetSnapshot;
+
+/**
+ *
+ * JSON of single widgets and of the widget lists of boards kept ready to send, so that a repeated
+ * read takes neither the lock of the board nor Jackson. Bounded by the bytes kept, the entries
+ * least likely to be read again are evicted first.
+ *
+ * Entries are dropped precisely: a write drops the entry of the widget written and the list of
+ * its board. A shift moves every widget above a Z-index at once, so it is not applied to the
+ * entries but remembered per board, and a widget entry is checked against the shifts after it
+ * was taken when it is read.
+ *
+ * A response is cached with the stamp of its board taken before the widgets were read: a write
+ * in between may have dropped the entry before it was put, such a response is not kept. The stamp
+ * is checked as the entry is put, atomically with it, so no read sees the response meanwhile.
+ *
+ */
+public final class ResponseCache implements WidgetChangeListener {
+
+	// key of the list of a board, widget identifiers are not negative
+	private static final int LIST = -1;
+	// a larger entry would evict a large part of the others
+	private static final int MAX_ENTRY_FRACTION = 8;
+	// bytes of a widget in a list, roughly, to skip rendering lists too large to keep
+	private static final int ESTIMATED_WIDGET_BYTES = 120;
+	// shifts remembered per board, the entries taken before a forgotten one are dropped
+	private static final int MAX_SHIFTS = 32;
+
+	private final Cache<Key, CachedResponse> cache;
+	private final ConcurrentHashMap<String, BoardStamps> boards = new ConcurrentHashMap<>();
+	private final ObjectMapper objectMapper;
+	private final WidgetSnapshotConverter snapshotConverter;
+	private final long maxEntryBytes;
+	private final int gzipMinBytes;
+
+	private final Counter hits;
+	private final Counter misses;
+
+	/**
+	 * @param maxBytes bodies kept at most, 0 keeps none
+	 * @param gzipMinBytes smaller bodies are not compressed
+	 */
+	public ResponseCache(ObjectMapper objectMapper, WidgetSnapshotConverter snapshotConverter, long maxBytes, int gzipMinBytes, MeterRegistry registry) {
+		this.objectMapper = objectMapper;
+		this.snapshotConverter = snapshotConverter;
+		this.maxEntryBytes = maxBytes / MAX_ENTRY_FRACTION;
+		this.gzipMinBytes = gzipMinBytes;
+		cache = Caffeine.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher((Key key, CachedResponse response) -> response.weight())
+				.build();
+
+		hits = Counter.builder("miro.responsecache.lookups")
+				.description("Widget and widget list reads looked up in the response cache")
+				.tag("result", "hit")
+				.register(registry);
+		misses = Counter.builder("miro.responsecache.lookups")
+				.description("Widget and widget list reads looked up in the response cache")
+				.tag("result", "miss")
+				.register(registry);
+		Gauge.builder("miro.responsecache.bytes", cache, c -> c.policy().eviction().get().weightedSize().getAsLong())
+				.description("Bytes kept in the response cache")
+				.register(registry);
+	}
+
+	/**
+	 * @return stamp to cache a response with, taken before the board is read; the board should exist
+	 */
+	public long stamp(String boardId) {
+		return stamps(boardId).stamp;
+	}
+
+	/**
+	 * @param gzip whether the client takes gzip, the body is compressed once if it is large enough
+	 * @return JSON of the widget, empty if it is not cached
+	 */
+	public Optional<CachedResponse> widget(String boardId, int widgetId, boolean gzip) {
+		return lookup(new Key(boardId, widgetId), gzip);
+	}
+
+	/**
+	 * @param gzip whether the client takes gzip, the body is compressed once if it is large enough
+	 * @return JSON of the widget list of the board, empty if it is not cached
+	 */
+	public Optional<CachedResponse> list(String boardId, boolean gzip) {
+		return lookup(new Key(boardId, LIST), gzip);
+	}
+
+	/**
+	 * @param stamp {@link #stamp(String)} taken before the widget was read
+	 * @return JSON of the widget, kept if the board did not change since the stamp
+	 */
+	public CachedResponse putWidget(String boardId, long stamp, Widget widget) {
+		final byte[] json;
+		try {
+			json = objectMapper.writeValueAsBytes(widget);
+		} catch (final JsonProcessingException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		return keep(new Key(boardId, widget.widgetId()), new CachedResponse(json, null, stamp, widget.zIndex(), Long.MIN_VALUE));
+	}
+
+	/**
+	 * @param stamp {@link #stamp(String)} taken before the snapshot
+	 * @return JSON of the widget list, kept if the board did not change since the stamp; empty if
+	 * 		   the list is too large to keep and should be streamed instead
+	 */
+	public Optional<CachedResponse> putList(String boardId, long stamp, WidgetSnapshot snapshot) {
+		if ((long) snapshot.size() * ESTIMATED_WIDGET_BYTES > maxEntryBytes) {
+			return Optional.empty();
+		}
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(snapshot.size() * ESTIMATED_WIDGET_BYTES + 2);
+		try {
+			snapshotConverter.write(snapshot, out);
+		} catch (final IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		return Optional.of(keep(new Key(boardId, LIST), new CachedResponse(out.toByteArray(), null, stamp, 0, snapshot.version())));
+	}
+
+	@Override
+	public void widgetChanged(String boardId, int widgetId) {
+		final BoardStamps board = stamps(boardId);
+		// only the writer of the board changes its stamps
+		board.stamp = board.stamp + 1;
+		cache.invalidate(new Key(boardId, widgetId));
+		cache.invalidate(new Key(boardId, LIST));
+	}
+
+	@Override
+	public void widgetsShifted(String boardId, int zIndex) {
+		final BoardStamps board = stamps(boardId);
+		final long stamp = board.stamp + 1;
+		// published before the stamp: a reader taking the new stamp is not checked against the shift
+		board.shifts = board.shifts.add(stamp, zIndex);
+		board.stamp = stamp;
+	}
+
+	@Override
+	public void boardReplaced(String boardId) {
+		// a shift below every Z-index drops the widget entries taken before it
+		widgetsShifted(boardId, Integer.MIN_VALUE);
+		cache.invalidate(new Key(boardId, LIST));
+	}
+
+	private Optional<CachedResponse> lookup(Key key, boolean gzip) {
+		CachedResponse response = cache.getIfPresent(key);
+		if (response == null || !isCurrent(key, response)) {
+			misses.increment();
+			return Optional.empty();
+		}
+
+		hits.increment();
+		if (gzip && !response.gzip().isPresent() && response.json().length >= gzipMinBytes) {
+			final CachedResponse compressed = response.compressed();
+			cache.asMap().replace(key, response, compressed);
+			response = compressed;
+		}
+		return Optional.of(response);
+	}
+
+	private boolean isCurrent(Key key, CachedResponse response) {
+		final BoardStamps board = boards.get(key.boardId);
+		final boolean current = board != null && (key.widgetId == LIST
+				? response.stamp == board.stamp
+				: !board.shifts.shiftedSince(response.stamp, response.zIndex));
+
+		if (!current) {
+			cache.asMap().remove(key, response);
+		}
+		return current;
+	}
+
+	private CachedResponse keep(Key key, CachedResponse response) {
+		if (response.weight() <= maxEntryBytes) {
+			final BoardStamps board = stamps(key.boardId);
+			// a write bumps the stamp before it drops the entry, which waits for the put
+			cache.asMap().compute(key, (k, previous) -> board.stamp == response.stamp ? response : previous);
+		}
+		return response;
+	}
+
+	private BoardStamps stamps(String boardId) {
+		final BoardStamps existing = boards.get(boardId);
+		return existing != null ? existing : boards.computeIfAbsent(boardId, id -> new BoardStamps());
+	}
+
+	private static final class Key {
+		final String boardId;
+		final int widgetId;
+
+		Key(String boardId, int widgetId) {
+			this.boardId = boardId;
+			this.widgetId = widgetId;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) other;
+			return widgetId == key.widgetId && boardId.equals(key.boardId);
+		}
+
+		@Override
+		public int hashCode() {
+			return boardId.hashCode() * 31 + widgetId;
+		}
+	}
+
+	private static final class BoardStamps {
+		// bumped by every change to the board
+		volatile long stamp;
+		volatile Shifts shifts = Shifts.NONE;
+	}
+
+	/**
+	 * Shifts of a board, immutable. A shift covered by a later one at a Z-index not above its own
+	 * is not kept, so the Z-indexes grow with the stamps and the lowest Z-index shifted after a
+	 * stamp is the one of the first shift kept after it.
+	 */
+	private static final class Shifts {
+		static final Shifts NONE = new Shifts(new long[0], new int[0], Long.MIN_VALUE);
+
+		private final long[] stamps;
+		private final int[] zIndexes;
+		// entries taken before it may have been shifted by a shift no longer kept
+		private final long forgottenBefore;
+
+		Shifts(long[] stamps, int[] zIndexes, long forgottenBefore) {
+			this.stamps = stamps;
+			this.zIndexes = zIndexes;
+			this.forgottenBefore = forgottenBefore;
+		}
+
+		Shifts add(long stamp, int zIndex) {
+			int count = stamps.length;
+			while (count > 0 && zIndexes[count - 1] >= zIndex) {
+				count--;
+			}
+			final int from = count == MAX_SHIFTS ? 1 : 0;
+
+			final long[] newStamps = new long[count - from + 1];
+			final int[] newZIndexes = new int[count - from + 1];
+			System.arraycopy(stamps, from, newStamps, 0, count - from);
+			System.arraycopy(zIndexes, from, newZIndexes, 0, count - from);
+			newStamps[count - from] = stamp;
+			newZIndexes[count - from] = zIndex;
+			return new Shifts(newStamps, newZIndexes, from == 0 ? forgottenBefore : stamps[0]);
+		}
+
+		/**
+		 * @return whether a widget at the Z-index at the stamp may have been shifted since
+		 */
+		boolean shiftedSince(long stamp, int zIndex) {
+			if (stamp < forgottenBefore) {
+				return true;
+			}
+			for (int i = 0; i < stamps.length; i++) {
+				if (stamps[i] > stamp) {
+					return zIndexes[i] <= zIndex;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.miro.service.controllers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.service.models.Widget;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.CreateWidgetRequest;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Takes the request paths of the widget endpoints before the instance is started, so its
+ * first clients don't wait for the classes to be loaded and the beans created lazily: the mappers
+ * read and write the request and response types in JSON and Smile, a board of its own takes the
+ * storage operations, and requests to the instance itself go through the filters, the controller
+ * and the error handling.
+ *
+ * Spring Boot runs it once the server listens, the health of the instance is out of service until
+ * the warmup is done, so a load balancer following it sends no traffic before. The requests leave
+ * the boards as they are: they read, or update and delete a widget that doesn't exist. They take a
+ * few tokens of the API rate limit.
+ *
+ */
+public final class StartupWarmup implements ApplicationRunner, HealthIndicator {
+
+	private static final TypeReference<List<BatchOperation>> BATCH = new TypeReference<List<BatchOperation>>() {
+	};
+	private static final byte[] CREATE = "{\"x\":10,\"y\":20,\"zIndex\":3,\"width\":30,\"height\":40}".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] UPDATE = "{\"x\":15,\"y\":25,\"width\":35.5}".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] BATCH_BODY = "[{\"op\":\"create\",\"x\":1,\"y\":2,\"width\":3,\"height\":4},{\"op\":\"delete\",\"widgetId\":0}]".getBytes(StandardCharsets.UTF_8);
+	private static final String SMILE = "application/x-jackson-smile";
+
+	private final Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+	private final ConfigurableApplicationContext context;
+	private final ObjectMapper objectMapper;
+	private final ObjectMapper smileMapper;
+	private final int iterations;
+	private final boolean exitAfterWarmup;
+	private volatile boolean done;
+
+	/**
+	 * @param iterations times every path is taken
+	 * @param exitAfterWarmup closes the context and ends the process once warmed up, for a run training the class data archive
+	 */
+	public StartupWarmup(ConfigurableApplicationContext context, ObjectMapper objectMapper, ObjectMapper smileMapper, int iterations, boolean exitAfterWarmup) {
+		this.context = context;
+		this.objectMapper = objectMapper;
+		this.smileMapper = smileMapper;
+		this.iterations = iterations;
+		this.exitAfterWarmup = exitAfterWarmup;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		final long start = System.nanoTime();
+		try {
+			final int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+			for (int i = 0; i < iterations; i++) {
+				mappers();
+				storage();
+				requests(port);
+			}
+			logger.info("Warmed up the request paths in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		} catch (final IOException | RuntimeException ex) {
+			logger.warn("Failed to warm up the request paths, the first requests take longer", ex);
+		}
+		done = true;
+
+		if (exitAfterWarmup) {
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+
+	@Override
+	public Health health() {
+		return done ? Health.up().build() : Health.outOfService().withDetail("reason", "warming up").build();
+	}
+
+	private void mappers() throws IOException {
+		final CreateWidgetRequest create = objectMapper.readValue(CREATE, CreateWidgetRequest.class);
+		objectMapper.readValue(UPDATE, UpdateWidgetRequest.class);
+		final List<BatchOperation> batch = objectMapper.readValue(BATCH_BODY, BATCH);
+		// the same bodies in Smile
+		smileMapper.readValue(smileMapper.writeValueAsBytes(objectMapper.readTree(CREATE)), CreateWidgetRequest.class);
+		smileMapper.readValue(smileMapper.writeValueAsBytes(objectMapper.readTree(UPDATE)), UpdateWidgetRequest.class);
+		smileMapper.readValue(smileMapper.writeValueAsBytes(objectMapper.readTree(BATCH_BODY)), BATCH);
+
+		final Widget widget = new Widget(0, create.xCoordinate(), create.yCoordinate(), create.zIndex().orElse(0), create.height(), create.width());
+		final List<Optional<Widget>> results = Arrays.asList(Optional.of(widget), Optional.empty());
+		for (final ObjectMapper mapper: new ObjectMapper[] { objectMapper, smileMapper }) {
+			mapper.writeValueAsBytes(widget);
+			mapper.writeValueAsBytes(Arrays.asList(widget, widget));
+			mapper.writeValueAsBytes(WidgetRequests.batchResponse(batch, results));
+		}
+	}
+
+	/**
+	 * Operations of every kind on a board nobody else sees.
+	 */
+	private static void storage() {
+		final WidgetRepository board = new InMemoryWidgetRepository();
+		for (int i = 0; i < 100; i++) {
+			board.createWidget(i * 10, i * 10, i % 3 == 0 ? Optional.of(i / 2) : Optional.empty(), 20, 20);
+		}
+		board.updateWidget(1, new UpdateWidgetRequest(Optional.of(5), Optional.empty(), Optional.of(0), Optional.empty(), Optional.empty()));
+		board.applyBatch(Arrays.asList(BatchOperation.create(1, 2, Optional.of(3), 4, 5), BatchOperation.delete(2)));
+		board.findWidgetById(1);
+		board.findWidgetsInArea(0, 0, 500, 500);
+		board.findTopmostWidgetAt(15, 15);
+		board.listWidgetsSortedByZIndex();
+		board.listWidgetsSortedByZIndex(Optional.empty(), 10);
+		board.snapshotSortedByZIndex();
+		board.findChangesSince(board.version() - 10);
+		board.deleteWidget(1);
+	}
+
+	private static void requests(int port) throws IOException {
+		request(port, "GET", "/api/widget", "application/json", null);
+		request(port, "GET", "/api/widget", SMILE, null);
+		request(port, "GET", "/api/widget?limit=10", "application/json", null);
+		request(port, "GET", "/api/widget/area?x1=0&y1=0&x2=1000&y2=1000", "application/json", null);
+		request(port, "GET", "/api/widget/at?x=0&y=0", "application/json", null);
+		request(port, "GET", "/api/widget/changes?since=0", "application/json", null);
+		request(port, "GET", "/api/widget/-1", "application/json", null);
+		request(port, "PUT", "/api/widget/-1", "application/json", UPDATE);
+		request(port, "DELETE", "/api/widget/-1", "application/json", null);
+		request(port, "GET", "/actuator/health", "application/json", null);
+	}
+
+	private static void request(int port, String method, String path, String accept, byte[] body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL("http", "localhost", port, path).openConnection();
+		try {
+			connection.setRequestMethod(method);
+			// the widget endpoints take JSON on reads too
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setRequestProperty("Accept", accept);
+			if (body != null) {
+				connection.setDoOutput(true);
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(body);
+				}
+			}
+
+			final int status = connection.getResponseCode();
+			try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				if (in != null) {
+					in.readAllBytes();
+				}
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.miro.service.controllers;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ *
+ * Formats epoch nanoseconds like {@link DateTimeFormatter#ISO_OFFSET_DATE_TIME} formats them
+ * in the zone, which is how Jackson writes {@link java.time.ZonedDateTime}, without creating
+ * any object. The date, hour and minute are formatted once per minute and reused.
+ *
+ * Not thread safe.
+ *
+ */
+final class TimestampFormatter {
+
+	private static final int MAX_LENGTH = 64;
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private final ZoneId zone;
+	private final char[] buffer = new char[MAX_LENGTH];
+
+	// minute whose date, time and offset are in the buffer
+	private long cachedMinute = Long.MIN_VALUE;
+	private int prefixLength;
+	private char[] offset;
+
+	TimestampFormatter(ZoneId zone) {
+		this.zone = zone;
+	}
+
+	/**
+	 * @return formatted length, the characters are in {@link #buffer()} until the next call
+	 */
+	int format(long epochNanos) {
+		final long epochSecond = Math.floorDiv(epochNanos, NANOS_PER_SECOND);
+		final int nano = (int) Math.floorMod(epochNanos, NANOS_PER_SECOND);
+		final long minute = Math.floorDiv(epochSecond, 60);
+		if (minute != cachedMinute) {
+			formatMinute(minute);
+		}
+
+		int length = prefixLength;
+		final int second = Math.floorMod(epochSecond, 60);
+		buffer[length++] = ':';
+		buffer[length++] = (char) ('0' + second / 10);
+		buffer[length++] = (char) ('0' + second % 10);
+
+		if (nano != 0) {
+			// fraction without its trailing zeros
+			int digits = 9;
+			int fraction = nano;
+			while (fraction % 10 == 0) {
+				fraction /= 10;
+				digits--;
+			}
+			buffer[length++] = '.';
+			for (int i = digits - 1; i >= 0; i--) {
+				buffer[length + i] = (char) ('0' + fraction % 10);
+				fraction /= 10;
+			}
+			length += digits;
+		}
+
+		System.arraycopy(offset, 0, buffer, length, offset.length);
+		return length + offset.length;
+	}
+
+	char[] buffer() {
+		return buffer;
+	}
+
+	private void formatMinute(long minute) {
+		final Instant start = Instant.ofEpochSecond(minute * 60);
+		final ZoneOffset zoneOffset = zone.getRules().getOffset(start);
+		final LocalDateTime time = LocalDateTime.ofInstant(start, zoneOffset);
+
+		final String date = DateTimeFormatter.ISO_LOCAL_DATE.format(time);
+		date.getChars(0, date.length(), buffer, 0);
+		int length = date.length();
+		buffer[length++] = 'T';
+		buffer[length++] = (char) ('0' + time.getHour() / 10);
+		buffer[length++] = (char) ('0' + time.getHour() % 10);
+		buffer[length++] = ':';
+		buffer[length++] = (char) ('0' + time.getMinute() / 10);
+		buffer[length++] = (char) ('0' + time.getMinute() % 10);
+
+		prefixLength = length;
+		offset = zoneOffset.getId().toCharArray();
+		cachedMinute = minute;
+	}
+}
@@ -1,104 +1,240 @@
 package com.miro.service.controllers;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.server.ResponseStatusException;
 
 import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.BatchOperationResult;
 import com.miro.service.requests.CreateWidgetRequest;
 import com.miro.service.requests.Response;
 import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.requests.WidgetPageResponse;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.StorageBusyException;
 import com.miro.service.storage.WidgetRepository;
+import com.miro.service.storage.WidgetSnapshot;
 
+/**
+ *
+ * Widget endpoints served on the request thread, which waits for the board lock. The default
+ * controller mode, see {@link AsyncWidgetController} for the other one.
+ *
+ */
 @RestController
+@ConditionalOnProperty(name = "miro.controller.mode", havingValue = "blocking", matchIfMissing = true)
 public class WidgetController {
 	
-	private final Logger logger = LoggerFactory.getLogger(WidgetController.class);
+	@Autowired
+	BoardRepository boards;
 	
 	@Autowired
-	WidgetRepository widgetRepository;
+	ResponseCache responses;
 	
 	@GetMapping(
-		value = "/api/widget/{id}",
-		produces = "application/json", 
-		consumes = "application/json"
+		value = { "/api/widget/{id}", "/api/board/{boardId}/widget/{id}" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	public ResponseEntity<?> getWidget(@PathVariable(name = "boardId", required = false) String boardId, @PathVariable("id") int widgetId, @RequestHeader(name = "Accept", required = false) String accept, @RequestHeader(name = "Accept-Encoding", required = false) String acceptEncoding) {
+		final String board = WidgetRequests.boardId(boardId);
+		final boolean gzip = WidgetRequests.acceptsGzip(acceptEncoding);
+		// only the JSON is cached
+		final boolean smile = WidgetRequests.acceptsSmile(accept);
+		final Optional<CachedResponse> cached = smile ? Optional.empty() : responses.widget(board, widgetId, gzip);
+		if (cached.isPresent()) {
+			return WidgetRequests.cachedResponse(ResponseEntity.ok(), cached.get(), gzip);
+		}
+		
+		final WidgetRepository repository = boards.findBoard(board).orElseThrow(() -> WidgetRequests.notFound("widget not found"));
+		final long stamp = responses.stamp(board);
+		final Widget result = repository.findWidgetById(widgetId).orElseThrow(() -> WidgetRequests.notFound("widget not found"));
+		if (smile) {
+			return ResponseEntity.ok(result);
+		}
+		return WidgetRequests.cachedResponse(ResponseEntity.ok(), responses.putWidget(board, stamp, result), gzip);
+	}
+
+	@GetMapping(
+		value = { "/api/widget/area", "/api/board/{boardId}/widget/area" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
 	)
 	@ResponseBody
-	public Widget getWidget(@PathVariable("id") int widgetId) {
-		final Optional<Widget> result = widgetRepository.findWidgetById(widgetId);
+	public List<Widget> listWidgetsInArea(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam("x1") int x1, @RequestParam("y1") int y1, @RequestParam("x2") int x2, @RequestParam("y2") int y2) {
+		WidgetRequests.checkArea(x1, y1, x2, y2);
+		
+		final List<Widget> result = existingBoard(boardId).map(board -> board.findWidgetsInArea(x1, y1, x2, y2)).orElse(Collections.emptyList());
+		return result;
+	}
+
+	@GetMapping(
+		value = { "/api/widget/at", "/api/board/{boardId}/widget/at" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public Widget getTopmostWidget(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam("x") int x, @RequestParam("y") int y) {
+		final Optional<Widget> result = existingBoard(boardId).flatMap(board -> board.findTopmostWidgetAt(x, y));
 		if (!result.isPresent()) {
-			throw new ResponseStatusException(
-					  HttpStatus.NOT_FOUND, "widget not found"
-			);
+			throw WidgetRequests.notFound("no widget at the point");
 		}
 		
 		return result.get();
 	}
 
 	@PostMapping(
-		value = "/api/widget",
-		produces = "application/json", 
-		consumes = "application/json"
+		value = { "/api/widget", "/api/board/{boardId}/widget" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
 	)
 	@ResponseBody
-	public Widget createWidget(@RequestBody CreateWidgetRequest request) {
-		final Widget result = widgetRepository.createWidget(request.xCoordinate(), request.yCoordinate(), request.zIndex(), request.height(), request.width());
+	public Widget createWidget(@PathVariable(name = "boardId", required = false) String boardId, @RequestBody CreateWidgetRequest request) {
+		final Widget result = board(boardId).createWidget(request.xCoordinate(), request.yCoordinate(), request.zIndex(), request.height(), request.width());
 		return result;
 	}
 	
+	@PostMapping(
+		value = { "/api/widget/batch", "/api/board/{boardId}/widget/batch" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody
+	public List<BatchOperationResult> applyBatch(@PathVariable(name = "boardId", required = false) String boardId, @RequestBody List<BatchOperation> operations) {
+		WidgetRequests.checkBatch(operations);
+		
+		final List<Optional<Widget>> results = board(boardId).applyBatch(operations);
+		return WidgetRequests.batchResponse(operations, results);
+	}
+	
 	@PutMapping(
-		value = "/api/widget/{id}",
-		produces = "application/json", 
-		consumes = "application/json"
+		value = { "/api/widget/{id}", "/api/board/{boardId}/widget/{id}" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
 	)
 	@ResponseBody
-	public Widget updateWidget(@PathVariable("id") int widgetId, @RequestBody UpdateWidgetRequest request) {
-		final Optional<Widget> result = widgetRepository.updateWidget(widgetId, request);
+	public Widget updateWidget(@PathVariable(name = "boardId", required = false) String boardId, @PathVariable("id") int widgetId, @RequestBody UpdateWidgetRequest request) {
+		final Optional<Widget> result = existingBoard(boardId).flatMap(board -> board.updateWidget(widgetId, request));
 		if (!result.isPresent()) {
-			throw new ResponseStatusException(
-					  HttpStatus.NOT_FOUND, "widget not found"
-					);
+			throw WidgetRequests.notFound("widget not found");
 		}
 
 		return result.get();
 	}
 
 	@DeleteMapping(
-		value = "/api/widget/{id}",
-		produces = "application/json", 
-		consumes = "application/json"
+		value = { "/api/widget/{id}", "/api/board/{boardId}/widget/{id}" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
 	)
-	public Response deleteWidget(@PathVariable("id") int widgetId) {
-		if (!widgetRepository.deleteWidget(widgetId)) {
-			throw new ResponseStatusException(
-					  HttpStatus.NOT_FOUND, "widget not found"
-					);
+	public Response deleteWidget(@PathVariable(name = "boardId", required = false) String boardId, @PathVariable("id") int widgetId) {
+		if (!existingBoard(boardId).map(board -> board.deleteWidget(widgetId)).orElse(false)) {
+			throw WidgetRequests.notFound("widget not found");
 		}
 		
 		return Response.OK_RESPONSE;
 	}
 
 	@GetMapping(
-		value = "/api/widget",
-		produces = "application/json", 
-		consumes = "application/json"
+		value = { "/api/widget", "/api/board/{boardId}/widget" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	public ResponseEntity<?> listWidgets(@PathVariable(name = "boardId", required = false) String boardId, @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch, @RequestHeader(name = "Accept", required = false) String accept, @RequestHeader(name = "Accept-Encoding", required = false) String acceptEncoding) {
+		final String board = WidgetRequests.boardId(boardId);
+		final boolean gzip = WidgetRequests.acceptsGzip(acceptEncoding);
+		// only the JSON is cached, WidgetSnapshotConverter streams the Smile
+		final boolean smile = WidgetRequests.acceptsSmile(accept);
+		final Optional<CachedResponse> cached = smile ? Optional.empty() : responses.list(board, gzip);
+		if (cached.isPresent()) {
+			return WidgetRequests.cachedListResponse(cached.get(), ifNoneMatch, gzip);
+		}
+		
+		final Optional<WidgetRepository> repository = boards.findBoard(board);
+		if (!repository.isPresent()) {
+			return ResponseEntity.ok(WidgetSnapshot.EMPTY);
+		}
+		
+		final long stamp = responses.stamp(board);
+		// the version is read first: a change in between makes the tag older than the list, never newer
+		final String eTag = WidgetRequests.eTag(repository.get().version(), smile);
+		if (WidgetRequests.matchesAny(ifNoneMatch, eTag)) {
+			return WidgetRequests.notModified(eTag);
+		}
+		
+		// a list too large to keep is streamed by WidgetSnapshotConverter, no widget object is created
+		final WidgetSnapshot snapshot = repository.get().snapshotSortedByZIndex();
+		final Optional<CachedResponse> result = smile ? Optional.empty() : responses.putList(board, stamp, snapshot);
+		if (!result.isPresent()) {
+			return ResponseEntity.ok().eTag(eTag).body(snapshot);
+		}
+		return WidgetRequests.cachedResponse(ResponseEntity.ok().eTag(eTag), result.get(), false);
+	}
+
+	@GetMapping(
+		value = { "/api/widget/changes", "/api/board/{boardId}/widget/changes" },
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
 	)
 	@ResponseBody		
-	public List<Widget> listWidgets() {
-		final List<Widget> result = widgetRepository.listWidgetsSortedByZIndex();
-		return result;
+	public WidgetChanges listChanges(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam(name = "since", required = false) String since) {
+		final long version = WidgetRequests.version(since);
+		return existingBoard(boardId)
+				.map(board -> board.findChangesSince(version))
+				.orElse(WidgetRequests.NO_CHANGES);
+	}
+
+	@GetMapping(
+		value = { "/api/widget", "/api/board/{boardId}/widget" },
+		params = "limit",
+		produces = { "application/json", WidgetRequests.SMILE_VALUE }, 
+		consumes = { "application/json", WidgetRequests.SMILE_VALUE }
+	)
+	@ResponseBody		
+	public WidgetPageResponse listWidgetsPage(@PathVariable(name = "boardId", required = false) String boardId, @RequestParam("limit") int limit, @RequestParam(name = "cursor", required = false) String cursor) {
+		final Optional<Integer> afterZIndex = WidgetRequests.afterZIndex(limit, cursor);
+		
+		final WidgetPage page = existingBoard(boardId)
+				.map(board -> board.listWidgetsSortedByZIndex(afterZIndex, limit))
+				.orElse(WidgetRequests.EMPTY_PAGE);
+		return WidgetRequests.pageResponse(page);
+	}
+
+	@ExceptionHandler(StorageBusyException.class)
+	public ResponseEntity<Response> storageBusy() {
+		return WidgetRequests.storageBusy();
+	}
+
+	/**
+	 * @return board written to, created by the write if needed; the default one
+	 * 		   for the paths without a board
+	 */
+	private WidgetRepository board(String boardId) {
+		return boards.board(WidgetRequests.boardId(boardId));
+	}
+
+	/**
+	 * Reads and changes of existing widgets never create a board.
+	 */
+	private Optional<WidgetRepository> existingBoard(String boardId) {
+		return boards.findBoard(WidgetRequests.boardId(boardId));
 	}
-}
\ No newline at end of file
+}
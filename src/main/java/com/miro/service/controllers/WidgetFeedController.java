@@ -0,0 +1,44 @@
+package com.miro.service.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.miro.service.feed.WidgetFeed;
+
+/**
+ *
+ * Change feed of a board, asynchronous in every controller mode.
+ *
+ */
+@RestController
+public class WidgetFeedController {
+
+	@Autowired
+	WidgetFeed widgetFeed;
+
+	/**
+	 * Streams the changes of the board as Server-Sent Events, starting with the changes since
+	 * the given version, Last-Event-ID on reconnection, or the whole board.
+	 */
+	@GetMapping(
+		value = { "/api/widget/feed", "/api/board/{boardId}/widget/feed" },
+		produces = MediaType.TEXT_EVENT_STREAM_VALUE
+	)
+	public SseEmitter subscribe(@PathVariable(name = "boardId", required = false) String boardId,
+			@RequestParam(name = "since", required = false) String since,
+			@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+		final long version = WidgetRequests.version(lastEventId != null ? lastEventId : since);
+		return widgetFeed.subscribe(WidgetRequests.boardId(boardId), version)
+				.orElseThrow(() -> new ResponseStatusException(
+						  HttpStatus.SERVICE_UNAVAILABLE, "too many subscribers"
+						));
+	}
+}
@@ -0,0 +1,251 @@
+package com.miro.service.controllers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.BatchOperationResult;
+import com.miro.service.requests.Response;
+import com.miro.service.requests.WidgetPageResponse;
+import com.miro.service.storage.BoardRepository;
+
+/**
+ *
+ * Checks of request arguments and building of responses, the same for every controller mode.
+ *
+ */
+final class WidgetRequests {
+
+	static final int MAX_PAGE_SIZE = 500;
+	static final int MAX_BATCH_SIZE = 1000;
+
+	// binary JSON of Jackson, taken and returned by every widget endpoint besides JSON
+	static final String SMILE_VALUE = "application/x-jackson-smile";
+	static final MediaType SMILE = MediaType.valueOf(SMILE_VALUE);
+
+	static final WidgetChanges NO_CHANGES = new WidgetChanges(Long.MIN_VALUE, true, Collections.emptyList(), Collections.emptyList());
+	static final WidgetPage EMPTY_PAGE = new WidgetPage(Collections.emptyList(), Optional.empty());
+
+	private static final Logger logger = LoggerFactory.getLogger(WidgetRequests.class);
+
+	private WidgetRequests() {
+	}
+
+	/**
+	 * @return the board, the default one for the paths without a board
+	 */
+	static String boardId(String boardId) {
+		if (boardId == null) {
+			return BoardRepository.DEFAULT_BOARD;
+		}
+		if (!BoardRepository.isValidBoardId(boardId)) {
+			throw new ResponseStatusException(
+					  HttpStatus.BAD_REQUEST, "board id should be 1 to 64 letters, digits, '-' or '_'"
+					);
+		}
+		return boardId;
+	}
+
+	static long version(String version) {
+		try {
+			return version == null ? Long.MIN_VALUE : Long.parseLong(version);
+		} catch (final NumberFormatException ex) {
+			throw new ResponseStatusException(
+					  HttpStatus.BAD_REQUEST, "malformed version"
+					);
+		}
+	}
+
+	/**
+	 * @return Z-index the page starts after, empty for the first page
+	 */
+	static Optional<Integer> afterZIndex(int limit, String cursor) {
+		if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+			throw new ResponseStatusException(
+					  HttpStatus.BAD_REQUEST, "limit should be between 1 and " + MAX_PAGE_SIZE
+					);
+		}
+
+		try {
+			return cursor == null ? Optional.empty() : Optional.of(PageCursor.decode(cursor));
+		} catch (final IllegalArgumentException ex) {
+			logger.debug("Rejected cursor {}", cursor, ex);
+			throw new ResponseStatusException(
+					  HttpStatus.BAD_REQUEST, "malformed cursor"
+					);
+		}
+	}
+
+	static WidgetPageResponse pageResponse(WidgetPage page) {
+		return new WidgetPageResponse(page.widgets(), page.nextAfterZIndex().map(PageCursor::encode).orElse(null));
+	}
+
+	static void checkArea(int x1, int y1, int x2, int y2) {
+		if (x1 > x2 || y1 > y2) {
+			throw new ResponseStatusException(
+					  HttpStatus.BAD_REQUEST, "area should have x1 <= x2 and y1 <= y2"
+					);
+		}
+	}
+
+	static void checkBatch(List<BatchOperation> operations) {
+		if (operations.size() > MAX_BATCH_SIZE) {
+			throw new ResponseStatusException(
+					  HttpStatus.BAD_REQUEST, "batch should have at most " + MAX_BATCH_SIZE + " operations"
+					);
+		}
+
+		for (final BatchOperation operation: operations) {
+			if (operation == null || operation.type() == null || (operation.type() != BatchOperation.Type.CREATE && !operation.widgetId().isPresent())) {
+				throw new ResponseStatusException(
+						  HttpStatus.BAD_REQUEST, "every operation needs op, update and delete need widgetId"
+						);
+			}
+		}
+	}
+
+	static List<BatchOperationResult> batchResponse(List<BatchOperation> operations, List<Optional<Widget>> results) {
+		final List<BatchOperationResult> response = new ArrayList<>(results.size());
+		for (int i = 0; i < results.size(); i++) {
+			final boolean deleted = operations.get(i).type() == BatchOperation.Type.DELETE;
+			response.add(results.get(i).isPresent()
+					? new BatchOperationResult(HttpStatus.OK.value(), deleted ? null : results.get(i).get())
+					: new BatchOperationResult(HttpStatus.NOT_FOUND.value(), null));
+		}
+		return response;
+	}
+
+	/**
+	 * @return 503 for a request the storage could not take in time, to be retried in a second
+	 */
+	static ResponseEntity<Response> storageBusy() {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, "1")
+				.body(new Response("storage is busy"));
+	}
+
+	static ResponseStatusException notFound(String message) {
+		return new ResponseStatusException(
+				  HttpStatus.NOT_FOUND, message
+				);
+	}
+
+	/**
+	 * @return entity tag of the version of a board in the format of the response, the JSON and the
+	 * 		   Smile of a version are different representations
+	 */
+	static String eTag(long version, boolean smile) {
+		return "\"" + version + (smile ? "-smile\"" : "\"");
+	}
+
+	/**
+	 * @return 304 varying with the headers the full response varies with, see {@link NegotiationAdvice}
+	 */
+	static <T> ResponseEntity<T> notModified(String eTag) {
+		return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+				.eTag(eTag)
+				.varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+				.build();
+	}
+
+	/**
+	 * @param ifNoneMatch If-None-Match of the request, null if it has none
+	 * @return whether it lists the entity tag or is "*", weak tags match their strong ones
+	 */
+	static boolean matchesAny(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param acceptEncoding Accept-Encoding of the request, null if it has none
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		for (final String coding : acceptEncoding.split(",")) {
+			final String[] parameters = coding.split(";");
+			if (parameters[0].trim().equalsIgnoreCase("gzip")) {
+				return parameters.length == 1 || !parameters[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Spring picks the same format for the body, JSON coming first in the types produced.
+	 *
+	 * @param accept Accept of the request, null if it has none
+	 * @return whether the response is Smile: the client prefers it to JSON
+	 */
+	static boolean acceptsSmile(String accept) {
+		if (accept == null) {
+			return false;
+		}
+
+		final List<MediaType> types = MediaType.parseMediaTypes(accept);
+		MediaType.sortBySpecificityAndQuality(types);
+		for (final MediaType type : types) {
+			if (type.includes(MediaType.APPLICATION_JSON)) {
+				return false;
+			}
+			if (type.includes(SMILE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the cached JSON, compressed if the client takes gzip and it is
+	 */
+	static ResponseEntity<byte[]> cachedResponse(ResponseEntity.BodyBuilder builder, CachedResponse response, boolean gzip) {
+		builder.contentType(MediaType.APPLICATION_JSON);
+		if (!response.gzip().isPresent()) {
+			return builder.body(response.json());
+		}
+
+		builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		return gzip
+				? builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(response.gzip().get())
+				: builder.body(response.json());
+	}
+
+	/**
+	 * @return 304 if the client has the version of the cached list, otherwise the list
+	 */
+	static ResponseEntity<byte[]> cachedListResponse(CachedResponse list, String ifNoneMatch, boolean gzip) {
+		final String eTag = eTag(list.version(), false);
+		if (matchesAny(ifNoneMatch, eTag)) {
+			return notModified(eTag);
+		}
+		return cachedResponse(ResponseEntity.ok().eTag(eTag), list, gzip);
+	}
+}
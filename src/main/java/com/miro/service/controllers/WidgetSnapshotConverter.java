@@ -0,0 +1,149 @@
+package com.miro.service.controllers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZoneId;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.miro.service.storage.WidgetSnapshot;
+
+/**
+ *
+ * Writes a {@link WidgetSnapshot} as the JSON array of widgets Jackson writes for a list of
+ * {@link com.miro.service.models.Widget}, byte for byte, straight to the response with a
+ * {@link JsonGenerator}. Nothing is created per widget: field names are encoded once, integral
+ * sizes and timestamps are formatted into reused buffers.
+ *
+ * Given a Smile factory, writes the Smile Jackson writes for the list too, to the clients
+ * preferring it.
+ *
+ */
+public class WidgetSnapshotConverter extends AbstractHttpMessageConverter<WidgetSnapshot> {
+
+	private static final SerializableString WIDGET_ID = new SerializedString("widgetId");
+	private static final SerializableString X = new SerializedString("x");
+	private static final SerializableString Y = new SerializedString("y");
+	private static final SerializableString Z_INDEX = new SerializedString("zIndex");
+	private static final SerializableString HEIGHT = new SerializedString("height");
+	private static final SerializableString WIDTH = new SerializedString("width");
+	private static final SerializableString UPDATED_AT = new SerializedString("updatedAt");
+
+	// below it Double.toString writes an integral value as its digits and ".0"
+	private static final double MAX_PLAIN_INTEGRAL = 1e7;
+
+	private final JsonFactory jsonFactory;
+	private final JsonFactory smileFactory;
+	private final ZoneId zone;
+
+	/**
+	 * @param zone zone the timestamps are written in, the one {@link com.miro.service.models.Widget#updatedAt()} uses
+	 */
+	public WidgetSnapshotConverter(JsonFactory jsonFactory, ZoneId zone) {
+		super(MediaType.APPLICATION_JSON);
+		this.jsonFactory = jsonFactory;
+		this.smileFactory = null;
+		this.zone = zone;
+	}
+
+	/**
+	 * @param smileFactory factory of the Smile mapper
+	 * @param zone zone the timestamps are written in, the one {@link com.miro.service.models.Widget#updatedAt()} uses
+	 */
+	public WidgetSnapshotConverter(JsonFactory jsonFactory, JsonFactory smileFactory, ZoneId zone) {
+		super(MediaType.APPLICATION_JSON, WidgetRequests.SMILE);
+		this.jsonFactory = jsonFactory;
+		this.smileFactory = smileFactory;
+		this.zone = zone;
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return WidgetSnapshot.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	public boolean canRead(Class<?> clazz, MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected WidgetSnapshot readInternal(Class<? extends WidgetSnapshot> clazz, HttpInputMessage inputMessage) {
+		throw new HttpMessageNotReadableException("Widget snapshots are not read", inputMessage);
+	}
+
+	@Override
+	protected void writeInternal(WidgetSnapshot snapshot, HttpOutputMessage outputMessage) throws IOException {
+		final MediaType contentType = outputMessage.getHeaders().getContentType();
+		final boolean smile = smileFactory != null && contentType != null && WidgetRequests.SMILE.isCompatibleWith(contentType);
+		write(snapshot, smile ? smileFactory : jsonFactory, outputMessage.getBody());
+	}
+
+	/**
+	 * Writes the snapshot as JSON, the stream is flushed and left open.
+	 */
+	public void write(WidgetSnapshot snapshot, OutputStream out) throws IOException {
+		write(snapshot, jsonFactory, out);
+	}
+
+	private void write(WidgetSnapshot snapshot, JsonFactory factory, OutputStream out) throws IOException {
+		final JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8);
+		final TimestampFormatter timestamps = new TimestampFormatter(zone);
+		final char[] number = new char[16];
+
+		generator.writeStartArray();
+		for (int i = 0; i < snapshot.size(); i++) {
+			generator.writeStartObject();
+			generator.writeFieldName(WIDGET_ID);
+			generator.writeNumber(snapshot.widgetId(i));
+			generator.writeFieldName(X);
+			generator.writeNumber(snapshot.xCoordinate(i));
+			generator.writeFieldName(Y);
+			generator.writeNumber(snapshot.yCoordinate(i));
+			generator.writeFieldName(Z_INDEX);
+			generator.writeNumber(snapshot.zIndex(i));
+			generator.writeFieldName(HEIGHT);
+			writeDouble(generator, snapshot.height(i), number);
+			generator.writeFieldName(WIDTH);
+			writeDouble(generator, snapshot.width(i), number);
+			generator.writeFieldName(UPDATED_AT);
+			generator.writeString(timestamps.buffer(), 0, timestamps.format(snapshot.updatedAtNanos(i)));
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		generator.flush();
+	}
+
+	/**
+	 * Writes the double as Jackson does, integral ones without going through a string in JSON.
+	 */
+	private static void writeDouble(JsonGenerator generator, double value, char[] buffer) throws IOException {
+		// a binary format writes the double itself
+		if (!generator.canWriteFormattedNumbers() || value != Math.rint(value) || Math.abs(value) >= MAX_PLAIN_INTEGRAL || (value == 0 && 1 / value < 0)) {
+			generator.writeNumber(value);
+			return;
+		}
+
+		long digits = Math.abs((long) value);
+		int start = buffer.length - 2;
+		buffer[start] = '.';
+		buffer[start + 1] = '0';
+		do {
+			buffer[--start] = (char) ('0' + digits % 10);
+			digits /= 10;
+		} while (digits != 0);
+		if (value < 0) {
+			buffer[--start] = '-';
+		}
+		generator.writeRawValue(buffer, start, buffer.length - start);
+	}
+}
@@ -0,0 +1,396 @@
+package com.miro.service.feed;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.WidgetRepository;
+
+/**
+ *
+ * Pushes the changes of a board to its subscribers as Server-Sent Events, one "changes" event
+ * with the {@link WidgetChanges} since the version the subscriber is at and that version as the
+ * event identifier.
+ *
+ * Writers only mark the board changed. A dispatcher thread groups the subscribers of the changed
+ * boards by version, so the changes are read and serialized once per group, and hands the sends to
+ * a pool. A subscriber has at most one event in flight: changes arriving meanwhile are coalesced
+ * into the next event, a full resync if the board moved past its change log. A subscriber whose
+ * send is stuck longer than the slow subscriber timeout is dropped, it may reconnect with
+ * Last-Event-ID.
+ *
+ * The stuck send holds the monitor of the emitter, so the emitter can't be completed before the
+ * write returns or fails with the write timeout of the server. The pool takes a thread in place of
+ * the stuck one meanwhile, and the emitter is completed with an error once the write returns:
+ * the other subscribers get their events as before.
+ *
+ */
+public class WidgetFeed implements Closeable {
+
+	private static final long HEARTBEAT = TimeUnit.SECONDS.toNanos(15);
+
+	private final Logger logger = LoggerFactory.getLogger(WidgetFeed.class);
+
+	private final BoardRepository boards;
+	private final ObjectMapper objectMapper;
+	private final int maxSubscribers;
+	private final long timeoutMillis;
+	private final long slowSubscriberNanos;
+	private final int senderThreads;
+
+	private final ConcurrentHashMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+	private final AtomicInteger subscriberCount = new AtomicInteger();
+	private final Set<String> changedBoards = ConcurrentHashMap.newKeySet();
+	// a permit per unseen change, the dispatcher also blocks on locks and would lose a bare unpark
+	private final Semaphore wakeups = new Semaphore(0);
+
+	private final ThreadPoolExecutor senders;
+	// sends of dropped subscribers still stuck, each with a thread added to the pool
+	private int stuckSends;
+	private final Thread dispatcher;
+	private final Counter dropped;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param senderThreads threads writing the events, a slow subscriber blocks one until it is dropped
+	 * @param timeoutMillis duration of a subscription, the client reconnects after it
+	 */
+	public WidgetFeed(BoardRepository boards, ObjectMapper objectMapper, MeterRegistry registry,
+			int senderThreads, int maxSubscribers, long timeoutMillis, long slowSubscriberMillis) {
+		this.boards = boards;
+		this.objectMapper = objectMapper;
+		this.maxSubscribers = maxSubscribers;
+		this.timeoutMillis = timeoutMillis;
+		this.slowSubscriberNanos = TimeUnit.MILLISECONDS.toNanos(slowSubscriberMillis);
+		this.senderThreads = senderThreads;
+
+		final AtomicInteger threads = new AtomicInteger();
+		senders = new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+			final Thread thread = new Thread(task, "widget-feed-sender-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		Gauge.builder("miro.feed.subscribers", subscriberCount, AtomicInteger::get)
+				.description("Open change feed subscriptions")
+				.register(registry);
+		dropped = Counter.builder("miro.feed.dropped")
+				.description("Change feed subscribers dropped for being too slow")
+				.register(registry);
+
+		dispatcher = new Thread(this::dispatch, "widget-feed-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+
+		boards.addChangeListener(this::boardChanged);
+	}
+
+	/**
+	 * @param since version the client is at, {@link Long#MIN_VALUE} to start with the whole board
+	 * @return the stream, {@link Optional#empty()} if there are too many subscribers
+	 */
+	public Optional<SseEmitter> subscribe(String boardId, long since) {
+		if (subscriberCount.incrementAndGet() > maxSubscribers) {
+			subscriberCount.decrementAndGet();
+			return Optional.empty();
+		}
+
+		final Subscriber subscriber = new Subscriber(boardId, emitter(timeoutMillis), since);
+		subscriber.emitter.onCompletion(() -> unsubscribe(subscriber));
+		subscriber.emitter.onTimeout(() -> unsubscribe(subscriber));
+		subscriber.emitter.onError(ex -> unsubscribe(subscriber));
+		subscribers.computeIfAbsent(boardId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+
+		// the first event brings the client to the current version
+		boardChanged(boardId);
+		return Optional.of(subscriber.emitter);
+	}
+
+	/**
+	 * @return the stream of a new subscriber
+	 */
+	protected SseEmitter emitter(long timeoutMillis) {
+		return new SseEmitter(timeoutMillis);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		wakeups.release();
+		senders.shutdownNow();
+		for (final Set<Subscriber> boardSubscribers: subscribers.values()) {
+			for (final Subscriber subscriber: boardSubscribers) {
+				subscriber.closed = true;
+			}
+		}
+	}
+
+	/**
+	 * Run by the writers, only marks the board.
+	 */
+	private void boardChanged(String boardId) {
+		if (changedBoards.add(boardId)) {
+			wakeups.release();
+		}
+	}
+
+	private void unsubscribe(Subscriber subscriber) {
+		subscriber.closed = true;
+		final Set<Subscriber> boardSubscribers = subscribers.get(subscriber.boardId);
+		if (boardSubscribers != null && boardSubscribers.remove(subscriber)) {
+			subscriberCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Drops the subscriber if its send is stuck too long and gives the pool a thread for the one
+	 * the send holds.
+	 *
+	 * @return whether it was dropped
+	 */
+	private boolean dropIfSlow(Subscriber subscriber, long now) {
+		// a send still queued behind the stuck ones isn't slow
+		final long sendStart = subscriber.sendStart;
+		if (subscriber.state.get() != Subscriber.SENDING || sendStart == 0 || now - sendStart <= slowSubscriberNanos
+				|| !subscriber.state.compareAndSet(Subscriber.SENDING, Subscriber.SLOW)) {
+			return false;
+		}
+
+		synchronized (senders) {
+			stuckSends++;
+			senders.setMaximumPoolSize(senderThreads + stuckSends);
+			senders.setCorePoolSize(senderThreads + stuckSends);
+		}
+		dropped.increment();
+		unsubscribe(subscriber);
+		return true;
+	}
+
+	private void dispatch() {
+		long lastHeartbeat = System.nanoTime();
+		long lastSweep = lastHeartbeat;
+		// a stuck send is found without a change of its board too
+		final long sweep = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(HEARTBEAT, slowSubscriberNanos / 2));
+		while (!closed) {
+			try {
+				wakeups.tryAcquire(sweep, TimeUnit.NANOSECONDS);
+			} catch (final InterruptedException ex) {
+				return;
+			}
+			wakeups.drainPermits();
+
+			for (final String boardId: changedBoards) {
+				changedBoards.remove(boardId);
+				try {
+					publish(boardId);
+				} catch (final RuntimeException ex) {
+					logger.warn("Failed to publish changes of board {}", boardId, ex);
+				}
+			}
+
+			final long now = System.nanoTime();
+			if (now - lastSweep >= sweep) {
+				lastSweep = now;
+				for (final Set<Subscriber> boardSubscribers: subscribers.values()) {
+					for (final Subscriber subscriber: boardSubscribers) {
+						dropIfSlow(subscriber, now);
+					}
+				}
+			}
+
+			if (System.nanoTime() - lastHeartbeat >= HEARTBEAT) {
+				lastHeartbeat = System.nanoTime();
+				for (final Set<Subscriber> boardSubscribers: subscribers.values()) {
+					for (final Subscriber subscriber: boardSubscribers) {
+						if (subscriber.claim()) {
+							senders.execute(() -> send(subscriber, SseEmitter.event().comment(""), subscriber.version));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Groups the idle subscribers of the board by version and schedules a send per group.
+	 */
+	private void publish(String boardId) {
+		final Set<Subscriber> boardSubscribers = subscribers.get(boardId);
+		if (boardSubscribers == null || boardSubscribers.isEmpty()) {
+			return;
+		}
+
+		final Map<Long, List<Subscriber>> byVersion = new HashMap<>();
+		final long now = System.nanoTime();
+		for (final Subscriber subscriber: boardSubscribers) {
+			if (subscriber.closed) {
+				continue;
+			}
+			if (!subscriber.claim()) {
+				if (dropIfSlow(subscriber, now)) {
+					continue;
+				}
+
+				subscriber.pending = true;
+				// the send may have ended before it could see pending
+				if (!subscriber.claim()) {
+					continue;
+				}
+				subscriber.pending = false;
+			}
+			byVersion.computeIfAbsent(subscriber.version, version -> new ArrayList<>()).add(subscriber);
+		}
+
+		final Optional<WidgetRepository> board = boards.findBoard(boardId);
+		for (final Map.Entry<Long, List<Subscriber>> group: byVersion.entrySet()) {
+			senders.execute(() -> sendChanges(board, group.getKey(), group.getValue()));
+		}
+	}
+
+	private void sendChanges(Optional<WidgetRepository> board, long since, List<Subscriber> group) {
+		final WidgetChanges changes;
+		final String json;
+		try {
+			changes = board.isPresent()
+					? board.get().findChangesSince(since)
+					: new WidgetChanges(Long.MIN_VALUE, true, new ArrayList<>(), new ArrayList<>());
+			json = objectMapper.writeValueAsString(changes);
+		} catch (final RuntimeException | JsonProcessingException ex) {
+			logger.warn("Failed to read changes since {}", since, ex);
+			for (final Subscriber subscriber: group) {
+				if (!finishSend(subscriber)) {
+					boardChanged(subscriber.boardId);
+				}
+			}
+			return;
+		}
+
+		final boolean unchanged = changes.version() == since && !changes.full();
+		for (final Subscriber subscriber: group) {
+			if (unchanged) {
+				finishSend(subscriber);
+			} else {
+				senders.execute(() -> send(subscriber, SseEmitter.event().id(changes.versionToken()).name("changes").data(json), changes.version()));
+			}
+		}
+	}
+
+	private void send(Subscriber subscriber, SseEmitter.SseEventBuilder event, long version) {
+		if (subscriber.closed) {
+			if (!finishSend(subscriber)) {
+				subscriber.emitter.complete();
+			}
+			return;
+		}
+
+		try {
+			subscriber.sendStart = System.nanoTime();
+			subscriber.emitter.send(event);
+			subscriber.version = version;
+		} catch (final IOException | IllegalStateException ex) {
+			logger.debug("Dropped change feed subscriber of board {}", subscriber.boardId, ex);
+			unsubscribe(subscriber);
+			if (!finishSend(subscriber)) {
+				subscriber.emitter.completeWithError(ex);
+			}
+			return;
+		}
+
+		if (!finishSend(subscriber) && subscriber.closed) {
+			subscriber.emitter.complete();
+		}
+	}
+
+	/**
+	 * Ends the send of a subscriber, or its queued work ending without one: a subscriber dropped
+	 * meanwhile gives back the thread added for it and its stream is closed.
+	 *
+	 * @return whether the subscriber was dropped
+	 */
+	private boolean finishSend(Subscriber subscriber) {
+		if (subscriber.release()) {
+			return false;
+		}
+
+		synchronized (senders) {
+			stuckSends--;
+			senders.setCorePoolSize(senderThreads + stuckSends);
+			senders.setMaximumPoolSize(senderThreads + stuckSends);
+		}
+		subscriber.emitter.completeWithError(new IOException("Change feed subscriber too slow"));
+		return true;
+	}
+
+	private final class Subscriber {
+		static final int IDLE = 0;
+		static final int SENDING = 1;
+		// dropped while its send was stuck or queued, until the send ends
+		static final int SLOW = 2;
+		static final int DONE = 3;
+
+		final String boardId;
+		final SseEmitter emitter;
+		final AtomicInteger state = new AtomicInteger(IDLE);
+
+		// written by the owner of the send
+		volatile long version;
+		// start of the write in flight, 0 while the send is queued
+		volatile long sendStart;
+		// changes came while sending
+		volatile boolean pending;
+		volatile boolean closed;
+
+		Subscriber(String boardId, SseEmitter emitter, long version) {
+			this.boardId = boardId;
+			this.emitter = emitter;
+			this.version = version;
+		}
+
+		boolean claim() {
+			if (closed || !state.compareAndSet(IDLE, SENDING)) {
+				return false;
+			}
+			sendStart = 0;
+			return true;
+		}
+
+		/**
+		 * @return false if the subscriber was dropped during the send
+		 */
+		boolean release() {
+			if (!state.compareAndSet(SENDING, IDLE)) {
+				state.set(DONE);
+				return false;
+			}
+			if (pending) {
+				pending = false;
+				boardChanged(boardId);
+			}
+			return true;
+		}
+	}
+}
@@ -24,13 +24,17 @@ public class Widget {
 	
 	@JsonCreator
 	public Widget(@JsonProperty("widgetId") int widgetId, int x, int y, int zIndex, double height, double width) {
+		this(widgetId, x, y, zIndex, height, width, Instant.now());
+	}
+	
+	public Widget(int widgetId, int x, int y, int zIndex, double height, double width, Instant lastUpdateAt) {
 		this.widgetId = widgetId;
 		this.xCoordinate = x;
 		this.yCoordinate = y;
 		this.zIndex = zIndex;
 		this.height = height;
 		this.width = width;
-		this.lastUpdateAt = Instant.now();
+		this.lastUpdateAt = lastUpdateAt;
 	}
 	
 	@JsonProperty("widgetId")
@@ -68,6 +72,10 @@ public class Widget {
 		return lastUpdateAt.atZone(ZoneId.systemDefault());
 	}
 	
+	public Instant lastUpdateAt() {
+		return lastUpdateAt;
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		return EqualsBuilder.reflectionEquals(obj, this, Arrays.asList("lastUpdateAt"));
@@ -0,0 +1,61 @@
+package com.miro.service.models;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ *
+ * Widgets changed on a board since a version, or the whole board when the changes are no longer known.
+ *
+ */
+public final class WidgetChanges {
+	private final long version;
+	private final boolean full;
+	private final List<Widget> widgets;
+	private final List<Integer> deletedWidgetIds;
+
+	public WidgetChanges(long version, boolean full, List<Widget> widgets, List<Integer> deletedWidgetIds) {
+		this.version = version;
+		this.full = full;
+		this.widgets = widgets;
+		this.deletedWidgetIds = deletedWidgetIds;
+	}
+
+	/**
+	 *
+	 * @return version the changes bring the board to, to ask for the next changes from;
+	 * 		   a string as it does not fit a JavaScript number
+	 */
+	@JsonProperty("version")
+	public String versionToken() {
+		return Long.toString(version);
+	}
+
+	public long version() {
+		return version;
+	}
+
+	/**
+	 *
+	 * @return true if {@link #widgets()} is the whole board, which replaces what the client had
+	 */
+	@JsonProperty("full")
+	public boolean full() {
+		return full;
+	}
+
+	/**
+	 *
+	 * @return widgets created or changed, shifted ones included, sorted in Z-index order
+	 */
+	@JsonProperty("widgets")
+	public List<Widget> widgets() {
+		return widgets;
+	}
+
+	@JsonProperty("deletedWidgetIds")
+	public List<Integer> deletedWidgetIds() {
+		return deletedWidgetIds;
+	}
+}
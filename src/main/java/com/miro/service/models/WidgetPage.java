@@ -0,0 +1,32 @@
+package com.miro.service.models;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ *
+ * A slice of widgets in Z-index order together with the position to continue from.
+ *
+ */
+public final class WidgetPage {
+	private final List<Widget> widgets;
+	private final Optional<Integer> nextAfterZIndex;
+
+	public WidgetPage(List<Widget> widgets, Optional<Integer> nextAfterZIndex) {
+		this.widgets = widgets;
+		this.nextAfterZIndex = nextAfterZIndex;
+	}
+
+	public List<Widget> widgets() {
+		return widgets;
+	}
+
+	/**
+	 *
+	 * @return Z-index of the last widget of this page if there are more widgets above it,
+	 * 		   otherwise {@link Optional#empty()}
+	 */
+	public Optional<Integer> nextAfterZIndex() {
+		return nextAfterZIndex;
+	}
+}
@@ -0,0 +1,144 @@
+package com.miro.service.ratelimit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ *
+ * Rate limits of the API, checked before anything else runs: one bucket for all API requests,
+ * and one per client address for reads of the full widget list, its most expensive request.
+ * Requests are classified by their method and path without patterns, buckets take tokens with
+ * a compare-and-set, and the header values are prepared once, so a request passing the limits
+ * allocates nothing here.
+ *
+ * A rejected request gets 429 with X-Rate-Limit-Retry-After-Seconds, an accepted one the tokens
+ * left in the fullest of its buckets as X-Rate-Limit-Remaining.
+ *
+ */
+public class RateLimitFilter implements Filter {
+
+	static final String REMAINING_HEADER = "X-Rate-Limit-Remaining";
+	static final String RETRY_AFTER_HEADER = "X-Rate-Limit-Retry-After-Seconds";
+
+	private static final byte[] REJECTED_BODY = "{ \"message\": \"Too many requests!\" }".getBytes(StandardCharsets.UTF_8);
+
+	private static final int WIDGET_LIST = 1;
+
+	private final Optional<TokenBucket> api;
+	private final Optional<TokenBuckets> widgetListPerClient;
+
+	private final String[] remainingValues;
+	private final String[] retryAfterValues = new String[61];
+
+	private final Counter apiRejected;
+	private final Counter widgetListRejected;
+
+	/**
+	 * @param api bucket of all API requests, empty for no limit
+	 * @param widgetListPerClient buckets of full widget list reads by client address, empty for no limit
+	 */
+	public RateLimitFilter(Optional<TokenBucket> api, Optional<TokenBuckets> widgetListPerClient, MeterRegistry registry) {
+		this.api = api;
+		this.widgetListPerClient = widgetListPerClient;
+
+		final long capacity = Math.max(api.map(TokenBucket::capacity).orElse(0L), widgetListPerClient.map(TokenBuckets::capacity).orElse(0L));
+		remainingValues = new String[(int) Math.min(capacity, 100_000)];
+		for (int i = 0; i < remainingValues.length; i++) {
+			remainingValues[i] = Integer.toString(i);
+		}
+		for (int i = 0; i < retryAfterValues.length; i++) {
+			retryAfterValues[i] = Integer.toString(i);
+		}
+
+		apiRejected = rejectedCounter(registry, "api");
+		widgetListRejected = rejectedCounter(registry, "widget-list");
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		final HttpServletRequest httpRequest = (HttpServletRequest) request;
+		final HttpServletResponse httpResponse = (HttpServletResponse) response;
+		final long now = System.nanoTime();
+
+		long remaining = Long.MAX_VALUE;
+		if (api.isPresent()) {
+			remaining = api.get().tryConsume(now);
+			if (remaining < 0) {
+				reject(httpResponse, remaining, apiRejected);
+				return;
+			}
+		}
+
+		if (widgetListPerClient.isPresent() && isWidgetList(httpRequest.getMethod(), httpRequest.getRequestURI())) {
+			final long left = widgetListPerClient.get().tryConsume(TokenBuckets.key(httpRequest.getRemoteAddr(), WIDGET_LIST), now);
+			if (left < 0) {
+				reject(httpResponse, left, widgetListRejected);
+				return;
+			}
+			remaining = Math.min(remaining, left);
+		}
+
+		if (remaining != Long.MAX_VALUE) {
+			httpResponse.setHeader(REMAINING_HEADER, remaining < remainingValues.length ? remainingValues[(int) remaining] : Long.toString(remaining));
+		}
+		chain.doFilter(request, response);
+	}
+
+	/**
+	 * @return whether it is GET /api/widget or GET /api/board/{boardId}/widget, with or without a trailing slash
+	 */
+	static boolean isWidgetList(String method, String path) {
+		if (!"GET".equals(method)) {
+			return false;
+		}
+
+		int end = path.length();
+		if (end > 0 && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		if (!path.startsWith("/widget", end - "/widget".length())) {
+			return false;
+		}
+		end -= "/widget".length();
+
+		if (end == "/api".length()) {
+			return path.startsWith("/api");
+		}
+		// a board identifier has no slash
+		final int boardStart = "/api/board/".length();
+		return end > boardStart && path.startsWith("/api/board/") && path.indexOf('/', boardStart) == end;
+	}
+
+	private void reject(HttpServletResponse response, long wait, Counter rejected) throws IOException {
+		rejected.increment();
+
+		final long seconds = TimeUnit.NANOSECONDS.toSeconds(-wait);
+		response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+		response.setHeader(RETRY_AFTER_HEADER, seconds < retryAfterValues.length ? retryAfterValues[(int) seconds] : Long.toString(seconds));
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.getOutputStream().write(REJECTED_BODY);
+	}
+
+	private static Counter rejectedCounter(MeterRegistry registry, String limit) {
+		return Counter.builder("miro.ratelimit.rejected")
+				.description("Requests rejected by a rate limit")
+				.tag("limit", limit)
+				.register(registry);
+	}
+}
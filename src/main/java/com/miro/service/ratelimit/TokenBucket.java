@@ -0,0 +1,73 @@
+package com.miro.service.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Token bucket of a capacity refilled over a period, one token at a time, as the generic cell
+ * rate algorithm: the whole state is the time at which the bucket would be full again, so a
+ * request takes a token with a single compare-and-set and no lock.
+ *
+ */
+public final class TokenBucket {
+
+	private final long capacity;
+	// refill time of a token
+	private final long intervalNanos;
+	// refill time of the whole bucket
+	private final long burstNanos;
+
+	// compared as a difference to now, as System.nanoTime() values have to be
+	private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+	public TokenBucket(long capacity, long period, TimeUnit unit) {
+		if (capacity <= 0 || period <= 0) {
+			throw new IllegalArgumentException("capacity and period should be positive");
+		}
+
+		this.capacity = capacity;
+		this.intervalNanos = Math.max(1, unit.toNanos(period) / capacity);
+		this.burstNanos = intervalNanos * capacity;
+	}
+
+	public long capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param nowNanos {@link System#nanoTime()}
+	 * @return tokens left after taking one, or minus the nanoseconds until a token is refilled when the bucket is empty
+	 */
+	public long tryConsume(long nowNanos) {
+		while (true) {
+			final long current = fullAt.get();
+			final long debt = debt(current, nowNanos);
+			if (debt > burstNanos) {
+				return burstNanos - debt;
+			}
+			if (fullAt.compareAndSet(current, nowNanos + debt)) {
+				return remaining(debt);
+			}
+		}
+	}
+
+	/**
+	 * @return time until the bucket is full again once a token is taken, the bucket is empty if it is above {@link #burstNanos()}
+	 */
+	long debt(long fullAtNanos, long nowNanos) {
+		// a bucket full since before now holds no more than its capacity
+		return Math.max(fullAtNanos - nowNanos, 0) + intervalNanos;
+	}
+
+	long burstNanos() {
+		return burstNanos;
+	}
+
+	/**
+	 * @return tokens left once the debt is taken on
+	 */
+	long remaining(long debt) {
+		return (burstNanos - debt) / intervalNanos;
+	}
+}
@@ -0,0 +1,143 @@
+package com.miro.service.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * A {@link TokenBucket} per key in a fixed table without locks. The table is striped into sets of
+ * {@link #WAYS} slots, a key lives in the set its hash picks, and a slot is a key next to the time
+ * its bucket is full again, two longs on the same cache line.
+ *
+ * A bucket that is full again is the same as a new one, so its slot goes to the next key of the
+ * set that is not in it: idle clients are forgotten without a sweep, and the table never grows
+ * beyond the clients it was sized for. When every bucket of a set is in use, the newcomer takes
+ * the slot of the one closest to full and what is left of its bucket.
+ *
+ */
+public final class TokenBuckets {
+
+	static final int WAYS = 8;
+
+	private static final long EMPTY = 0;
+
+	// parameters and arithmetic of every bucket, its own state is not used
+	private final TokenBucket limit;
+
+	private final AtomicLongArray slots;
+	private final int setMask;
+
+	/**
+	 * @param maxKeys keys tracked at once, rounded up to a power of two
+	 */
+	public TokenBuckets(long capacity, long period, TimeUnit unit, int maxKeys) {
+		if (maxKeys <= 0) {
+			throw new IllegalArgumentException("maxKeys should be positive");
+		}
+
+		this.limit = new TokenBucket(capacity, period, unit);
+
+		final int needed = (maxKeys + WAYS - 1) / WAYS;
+		final int sets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+		this.setMask = sets - 1;
+		this.slots = new AtomicLongArray(sets * WAYS * 2);
+
+		final long now = System.nanoTime();
+		for (int i = 1; i < slots.length(); i += 2) {
+			slots.set(i, now);
+		}
+	}
+
+	public long capacity() {
+		return limit.capacity();
+	}
+
+	/**
+	 * @param key any value, {@link #key(String, int)} for a string
+	 * @param nowNanos {@link System#nanoTime()}
+	 * @return tokens left in the bucket of the key after taking one, or minus the nanoseconds until a token is refilled when it is empty
+	 */
+	public long tryConsume(long key, long nowNanos) {
+		if (key == EMPTY) {
+			key = 1;
+		}
+		final int set = (int) (mix(key) & setMask) * WAYS * 2;
+
+		while (true) {
+			int slot = find(set, key);
+			if (slot < 0) {
+				slot = claim(set, key, nowNanos);
+				if (slot < 0) {
+					continue;
+				}
+			}
+
+			final long fullAt = slots.get(slot + 1);
+			// the slot may have been handed to another key since it was found
+			if (slots.get(slot) != key) {
+				continue;
+			}
+
+			final long debt = limit.debt(fullAt, nowNanos);
+			if (debt > limit.burstNanos()) {
+				return limit.burstNanos() - debt;
+			}
+			if (slots.compareAndSet(slot + 1, fullAt, nowNanos + debt)) {
+				return limit.remaining(debt);
+			}
+		}
+	}
+
+	/**
+	 * @return key of the string and the tag, the same for equal arguments and spread over all longs
+	 */
+	public static long key(String value, int tag) {
+		// FNV-1a over the characters, no copy of them
+		long hash = 0xcbf29ce484222325L ^ tag;
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	private int find(int set, long key) {
+		for (int slot = set; slot < set + WAYS * 2; slot += 2) {
+			if (slots.get(slot) == key) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return slot taken for the key, -1 if another thread changed the set meanwhile
+	 */
+	private int claim(int set, long key, long nowNanos) {
+		int victim = -1;
+		long victimFullAt = 0;
+		for (int slot = set; slot < set + WAYS * 2; slot += 2) {
+			final long fullAt = slots.get(slot + 1);
+			if (slots.get(slot) == EMPTY || fullAt - nowNanos <= 0) {
+				victim = slot;
+				break;
+			}
+			if (victim < 0 || fullAt - victimFullAt < 0) {
+				victim = slot;
+				victimFullAt = fullAt;
+			}
+		}
+
+		final long previous = slots.get(victim);
+		if (previous == key) {
+			return victim;
+		}
+		return slots.compareAndSet(victim, previous, key) ? victim : -1;
+	}
+
+	// finalizer of MurmurHash3
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb93e185a863bL;
+		return value ^ (value >>> 33);
+	}
+}
@@ -0,0 +1,129 @@
+package com.miro.service.replication;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.miro.service.storage.ReplicationFollower;
+
+/**
+ *
+ * API requests to a replication follower. Writes are redirected to the leader with 307, which
+ * keeps the method and the body, or refused with 503 if the leader URL is not known.
+ *
+ * A read with X-Replication-Position, taken from the response to a write on the leader, waits
+ * until the follower has that write (read-your-writes); a read without it is served only if the
+ * follower may be stale by the maximum at most (bounded staleness). A read the follower can't
+ * serve in time gets 503 with Retry-After, every other one the position it was served at.
+ *
+ */
+public class FollowerFilter implements Filter {
+
+	public static final String POSITION_HEADER = "X-Replication-Position";
+
+	private static final byte[] READ_ONLY_BODY = "{ \"message\": \"Read-only replica, write to the leader\" }".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] BEHIND_BODY = "{ \"message\": \"Replica is behind the leader\" }".getBytes(StandardCharsets.UTF_8);
+
+	private final ReplicationFollower follower;
+	private final Optional<String> leaderUrl;
+	private final long maxStalenessMillis;
+	private final long positionTimeoutMillis;
+
+	private final Counter redirected;
+	private final Counter behind;
+
+	/**
+	 * @param leaderUrl base URL of the leader API, empty to refuse writes
+	 * @param maxStalenessMillis 0 serves reads however stale
+	 * @param positionTimeoutMillis a read waits for the position it asks for up to it
+	 */
+	public FollowerFilter(ReplicationFollower follower, Optional<String> leaderUrl, long maxStalenessMillis, long positionTimeoutMillis, MeterRegistry registry) {
+		this.follower = follower;
+		this.leaderUrl = leaderUrl.map(url -> url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+		this.maxStalenessMillis = maxStalenessMillis;
+		this.positionTimeoutMillis = positionTimeoutMillis;
+
+		redirected = Counter.builder("miro.replication.writes.redirected")
+				.description("Writes to the follower sent to the leader")
+				.register(registry);
+		behind = Counter.builder("miro.replication.reads.behind")
+				.description("Reads refused by the follower as too stale")
+				.register(registry);
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		final HttpServletRequest httpRequest = (HttpServletRequest) request;
+		final HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+		if (!isRead(httpRequest.getMethod())) {
+			redirect(httpRequest, httpResponse);
+			return;
+		}
+
+		final String position = httpRequest.getHeader(POSITION_HEADER);
+		final boolean current;
+		if (position != null) {
+			current = follower.awaitPosition(parsePosition(position), positionTimeoutMillis);
+		} else {
+			current = maxStalenessMillis <= 0 || follower.stalenessMillis() <= maxStalenessMillis;
+		}
+		if (!current) {
+			behind.increment();
+			reject(httpResponse, HttpStatus.SERVICE_UNAVAILABLE, BEHIND_BODY);
+			return;
+		}
+
+		httpResponse.setHeader(POSITION_HEADER, Long.toString(follower.position()));
+		chain.doFilter(request, response);
+	}
+
+	private void redirect(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!leaderUrl.isPresent()) {
+			reject(response, HttpStatus.SERVICE_UNAVAILABLE, READ_ONLY_BODY);
+			return;
+		}
+
+		redirected.increment();
+		final String query = request.getQueryString();
+		response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+		response.setHeader(HttpHeaders.LOCATION, leaderUrl.get() + request.getRequestURI() + (query == null ? "" : "?" + query));
+	}
+
+	private static void reject(HttpServletResponse response, HttpStatus status, byte[] body) throws IOException {
+		response.setStatus(status.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.getOutputStream().write(body);
+	}
+
+	private static boolean isRead(String method) {
+		return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+	}
+
+	/**
+	 * @return the position, 0 if it is malformed: any follower is past it
+	 */
+	private static long parsePosition(String position) {
+		try {
+			return Long.parseLong(position.trim());
+		} catch (final NumberFormatException ex) {
+			return 0;
+		}
+	}
+}
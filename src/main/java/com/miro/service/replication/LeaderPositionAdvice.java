@@ -0,0 +1,41 @@
+package com.miro.service.replication;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import com.miro.service.storage.ReplicationLeader;
+
+/**
+ *
+ * Adds the replication position of the leader to its API responses: taken once the write of the
+ * request returned, a follower at that position has the write. Clients pass it to the followers
+ * as X-Replication-Position to read their own writes.
+ *
+ */
+@ConditionalOnProperty(name = "miro.replication.role", havingValue = "leader")
+@ControllerAdvice(basePackages = "com.miro.service.controllers")
+public class LeaderPositionAdvice implements ResponseBodyAdvice<Object> {
+
+	private final ReplicationLeader leader;
+
+	public LeaderPositionAdvice(ReplicationLeader leader) {
+		this.leader = leader;
+	}
+
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return true;
+	}
+
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType, Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response) {
+		response.getHeaders().set(FollowerFilter.POSITION_HEADER, Long.toString(leader.position()));
+		return body;
+	}
+}
@@ -0,0 +1,93 @@
+package com.miro.service.requests;
+
+import java.util.Optional;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public final class BatchOperation {
+
+	public enum Type {
+		@JsonProperty("create")
+		CREATE,
+		@JsonProperty("update")
+		UPDATE,
+		@JsonProperty("delete")
+		DELETE
+	}
+
+	private final Type type;
+	private final Optional<Integer> widgetId;
+
+	private final Optional<Integer> xCoordinate;
+	private final Optional<Integer> yCoordinate;
+	private final Optional<Integer> zIndex;
+
+	private final Optional<Double> height;
+	private final Optional<Double> width;
+
+	@JsonCreator
+	public BatchOperation(@JsonProperty("op") Type type, @JsonProperty("widgetId") Optional<Integer> widgetId, @JsonProperty("x") Optional<Integer> x, @JsonProperty("y") Optional<Integer> y, @JsonProperty("zIndex") Optional<Integer> zIndex, @JsonProperty("height") Optional<Double> height, @JsonProperty("width") Optional<Double> width) {
+		this.type = type;
+		this.widgetId = widgetId;
+		this.xCoordinate = x;
+		this.yCoordinate = y;
+		this.zIndex = zIndex;
+		this.height = height;
+		this.width = width;
+	}
+
+	public static BatchOperation create(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		return new BatchOperation(Type.CREATE, Optional.empty(), Optional.of(x), Optional.of(y), zIndex, Optional.of(height), Optional.of(width));
+	}
+
+	public static BatchOperation update(int widgetId, UpdateWidgetRequest request) {
+		return new BatchOperation(Type.UPDATE, Optional.of(widgetId), request.xCoordinate(), request.yCoordinate(), request.zIndex(), request.height(), request.width());
+	}
+
+	public static BatchOperation delete(int widgetId) {
+		return new BatchOperation(Type.DELETE, Optional.of(widgetId), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+	}
+
+	public Type type() {
+		return type;
+	}
+
+	/**
+	 * @return widget to update or delete, empty for creation
+	 */
+	public Optional<Integer> widgetId() {
+		return widgetId;
+	}
+
+	public int xCoordinate() {
+		return xCoordinate.orElse(0);
+	}
+
+	public int yCoordinate() {
+		return yCoordinate.orElse(0);
+	}
+
+	public Optional<Integer> zIndex() {
+		return zIndex;
+	}
+
+	public double height() {
+		return height.orElse(0.0);
+	}
+
+	public double width() {
+		return width.orElse(0.0);
+	}
+
+	public UpdateWidgetRequest updateRequest() {
+		return new UpdateWidgetRequest(xCoordinate, yCoordinate, zIndex, height, width);
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
@@ -0,0 +1,29 @@
+package com.miro.service.requests;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.miro.service.models.Widget;
+
+public final class BatchOperationResult {
+	private final int status;
+	private final Widget widget;
+
+	public BatchOperationResult(int status, Widget widget) {
+		this.status = status;
+		this.widget = widget;
+	}
+
+	/**
+	 * @return HTTP status the operation would have got as a single request
+	 */
+	@JsonProperty("status")
+	public int status() {
+		return status;
+	}
+
+	@JsonProperty("widget")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public Widget widget() {
+		return widget;
+	}
+}
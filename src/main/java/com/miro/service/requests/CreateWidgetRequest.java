@@ -4,21 +4,27 @@ import java.util.Optional;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
+@JsonDeserialize(using = WidgetRequestDeserializers.Create.class)
 public final class CreateWidgetRequest {	
 	private final int xCoordinate;
 	private final int yCoordinate;
-	private final Optional<Integer> zIndex;
+	// the Z-index is not given if the flag is not set
+	private final boolean zIndexGiven;
+	private final int zIndex;
 	
 	private final double height;
 	private final double width;
 	
-	@JsonCreator
-	public CreateWidgetRequest(@JsonProperty("widgetId") int widgetId, @JsonProperty("x") int x, @JsonProperty("y") int y, @JsonProperty("zIndex") Optional<Integer> zIndex, @JsonProperty("height") double height, @JsonProperty("width") double width) {
+	public CreateWidgetRequest(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		this(x, y, zIndex.isPresent(), zIndex.orElse(0), height, width);
+	}
+
+	CreateWidgetRequest(int x, int y, boolean zIndexGiven, int zIndex, double height, double width) {
 		this.xCoordinate = x;
 		this.yCoordinate = y;
+		this.zIndexGiven = zIndexGiven;
 		this.zIndex = zIndex;
 		this.height = height;
 		this.width = width;
@@ -29,11 +35,11 @@ public final class CreateWidgetRequest {
 	}
 
 	public int yCoordinate() {
-		return xCoordinate;
+		return yCoordinate;
 	}
 
 	public Optional<Integer> zIndex() {
-		return zIndex;
+		return zIndexGiven ? Optional.of(zIndex) : Optional.empty();
 	}
 
 	public double height() {
@@ -46,6 +52,12 @@ public final class CreateWidgetRequest {
 	
 	@Override
 	public String toString() {
-		return ToStringBuilder.reflectionToString(this);
+		return new ToStringBuilder(this)
+				.append("xCoordinate", xCoordinate)
+				.append("yCoordinate", yCoordinate)
+				.append("zIndex", zIndex())
+				.append("height", height)
+				.append("width", width)
+				.toString();
 	}
 }
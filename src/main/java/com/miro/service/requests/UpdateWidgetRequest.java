@@ -4,48 +4,99 @@ import java.util.Optional;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
+/**
+ *
+ * Fields given by an update, the others keep their value. Held as primitives with a bit for
+ * each given field, read by {@link WidgetRequestDeserializers.Update} without boxing them.
+ *
+ */
+@JsonDeserialize(using = WidgetRequestDeserializers.Update.class)
 public final class UpdateWidgetRequest {	
-	private final Optional<Integer> xCoordinate;
-	private final Optional<Integer> yCoordinate;
-	private final Optional<Integer> zIndex;
+	static final int X = 1;
+	static final int Y = 1 << 1;
+	static final int Z_INDEX = 1 << 2;
+	static final int HEIGHT = 1 << 3;
+	static final int WIDTH = 1 << 4;
+
+	private final int given;
+
+	private final int xCoordinate;
+	private final int yCoordinate;
+	private final int zIndex;
 	
-	private final Optional<Double> height;
-	private final Optional<Double> width;
+	private final double height;
+	private final double width;
 	
-	@JsonCreator
-	public UpdateWidgetRequest(@JsonProperty("x") Optional<Integer> x, @JsonProperty("y") Optional<Integer> y, @JsonProperty("zIndex") Optional<Integer> zIndex, @JsonProperty("height") Optional<Double> height, @JsonProperty("width") Optional<Double> width) {
+	public UpdateWidgetRequest(Optional<Integer> x, Optional<Integer> y, Optional<Integer> zIndex, Optional<Double> height, Optional<Double> width) {
+		this((x.isPresent() ? X : 0) | (y.isPresent() ? Y : 0) | (zIndex.isPresent() ? Z_INDEX : 0) | (height.isPresent() ? HEIGHT : 0) | (width.isPresent() ? WIDTH : 0),
+				x.orElse(0), y.orElse(0), zIndex.orElse(0), height.orElse(0.0), width.orElse(0.0));
+	}
+
+	/**
+	 * @param given bits of the given fields, the values of the others are ignored
+	 */
+	UpdateWidgetRequest(int given, int x, int y, int zIndex, double height, double width) {
+		this.given = given;
 		this.xCoordinate = x;
 		this.yCoordinate = y;
 		this.zIndex = zIndex;
 		this.height = height;
 		this.width = width;
 	}
-	
+
+	/**
+	 * @return the given X coordinate, the current one if not given
+	 */
+	public int xCoordinate(int current) {
+		return (given & X) != 0 ? xCoordinate : current;
+	}
+
+	public int yCoordinate(int current) {
+		return (given & Y) != 0 ? yCoordinate : current;
+	}
+
+	public int zIndex(int current) {
+		return (given & Z_INDEX) != 0 ? zIndex : current;
+	}
+
+	public double height(double current) {
+		return (given & HEIGHT) != 0 ? height : current;
+	}
+
+	public double width(double current) {
+		return (given & WIDTH) != 0 ? width : current;
+	}
+
 	public Optional<Integer> xCoordinate() {
-		return xCoordinate;
+		return (given & X) != 0 ? Optional.of(xCoordinate) : Optional.empty();
 	}
 
 	public Optional<Integer> yCoordinate() {
-		return yCoordinate;
+		return (given & Y) != 0 ? Optional.of(yCoordinate) : Optional.empty();
 	}
 
 	public Optional<Integer> zIndex() {
-		return zIndex;
+		return (given & Z_INDEX) != 0 ? Optional.of(zIndex) : Optional.empty();
 	}
 
 	public Optional<Double> height() {
-		return height;
+		return (given & HEIGHT) != 0 ? Optional.of(height) : Optional.empty();
 	}
 	
 	public Optional<Double> width() {
-		return width;
+		return (given & WIDTH) != 0 ? Optional.of(width) : Optional.empty();
 	}
 	
 	@Override
 	public String toString() {
-		return ToStringBuilder.reflectionToString(this);
+		return new ToStringBuilder(this)
+				.append("xCoordinate", xCoordinate())
+				.append("yCoordinate", yCoordinate())
+				.append("zIndex", zIndex())
+				.append("height", height())
+				.append("width", width())
+				.toString();
 	}
 }
@@ -0,0 +1,32 @@
+package com.miro.service.requests;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.miro.service.models.Widget;
+
+public final class WidgetPageResponse {
+	private final List<Widget> widgets;
+	private final String cursor;
+
+	public WidgetPageResponse(List<Widget> widgets, String cursor) {
+		this.widgets = widgets;
+		this.cursor = cursor;
+	}
+
+	@JsonProperty("widgets")
+	public List<Widget> widgets() {
+		return widgets;
+	}
+
+	/**
+	 *
+	 * @return opaque cursor to pass to fetch the next page, absent on the last page
+	 */
+	@JsonProperty("cursor")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String cursor() {
+		return cursor;
+	}
+}
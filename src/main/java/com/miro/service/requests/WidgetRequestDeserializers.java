@@ -0,0 +1,137 @@
+package com.miro.service.requests;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ *
+ * Widget requests read field by field from the parser, straight into the primitives of the
+ * request: no boxed numbers or {@link java.util.Optional}s on the way. A null field is taken as
+ * not given, unknown fields are handled as the mapper is configured to.
+ *
+ */
+final class WidgetRequestDeserializers {
+
+	private WidgetRequestDeserializers() {
+	}
+
+	static final class Create extends StdDeserializer<CreateWidgetRequest> {
+		private static final long serialVersionUID = 1L;
+
+		Create() {
+			super(CreateWidgetRequest.class);
+		}
+
+		@Override
+		public CreateWidgetRequest deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+			int x = 0;
+			int y = 0;
+			boolean zIndexGiven = false;
+			int zIndex = 0;
+			double height = 0;
+			double width = 0;
+
+			for (JsonToken token = firstField(parser, context, handledType()); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+				final String field = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.VALUE_NULL) {
+					continue;
+				}
+				switch (field) {
+				case "x":
+					x = _parseIntPrimitive(parser, context);
+					break;
+				case "y":
+					y = _parseIntPrimitive(parser, context);
+					break;
+				case "zIndex":
+					zIndex = _parseIntPrimitive(parser, context);
+					zIndexGiven = true;
+					break;
+				case "height":
+					height = _parseDoublePrimitive(parser, context);
+					break;
+				case "width":
+					width = _parseDoublePrimitive(parser, context);
+					break;
+				case "widgetId":
+					// given out by the board
+					parser.skipChildren();
+					break;
+				default:
+					handleUnknownProperty(parser, context, handledType(), field);
+				}
+			}
+			return new CreateWidgetRequest(x, y, zIndexGiven, zIndex, height, width);
+		}
+	}
+
+	static final class Update extends StdDeserializer<UpdateWidgetRequest> {
+		private static final long serialVersionUID = 1L;
+
+		Update() {
+			super(UpdateWidgetRequest.class);
+		}
+
+		@Override
+		public UpdateWidgetRequest deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+			int given = 0;
+			int x = 0;
+			int y = 0;
+			int zIndex = 0;
+			double height = 0;
+			double width = 0;
+
+			for (JsonToken token = firstField(parser, context, handledType()); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+				final String field = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.VALUE_NULL) {
+					continue;
+				}
+				switch (field) {
+				case "x":
+					x = _parseIntPrimitive(parser, context);
+					given |= UpdateWidgetRequest.X;
+					break;
+				case "y":
+					y = _parseIntPrimitive(parser, context);
+					given |= UpdateWidgetRequest.Y;
+					break;
+				case "zIndex":
+					zIndex = _parseIntPrimitive(parser, context);
+					given |= UpdateWidgetRequest.Z_INDEX;
+					break;
+				case "height":
+					height = _parseDoublePrimitive(parser, context);
+					given |= UpdateWidgetRequest.HEIGHT;
+					break;
+				case "width":
+					width = _parseDoublePrimitive(parser, context);
+					given |= UpdateWidgetRequest.WIDTH;
+					break;
+				default:
+					handleUnknownProperty(parser, context, handledType(), field);
+				}
+			}
+			return new UpdateWidgetRequest(given, x, y, zIndex, height, width);
+		}
+	}
+
+	/**
+	 * @return the token of the first field, {@link JsonToken#END_OBJECT} for an empty object
+	 */
+	private static JsonToken firstField(JsonParser parser, DeserializationContext context, Class<?> type) throws IOException {
+		final JsonToken token = parser.currentToken();
+		if (token == JsonToken.START_OBJECT) {
+			return parser.nextToken();
+		}
+		if (token == JsonToken.FIELD_NAME) {
+			// the object was started by a caller buffering it
+			return token;
+		}
+		context.handleUnexpectedToken(type, parser);
+		return JsonToken.END_OBJECT;
+	}
+}
@@ -0,0 +1,90 @@
+package com.miro.service.storage;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * {@link WidgetRepository} whose operations run on a storage executor and complete a future,
+ * so the caller's thread never waits for a lock. With a small fixed pool the waiting requests
+ * are queued tasks instead of parked threads, and only the pool contends for the locks.
+ *
+ * A future fails with the {@link StorageException} of its operation, or with
+ * {@link RejectedExecutionException} when the executor has no room for it.
+ *
+ */
+public final class AsyncWidgetRepository {
+
+	private final WidgetRepository repository;
+	private final Executor executor;
+
+	public AsyncWidgetRepository(WidgetRepository repository, Executor executor) {
+		this.repository = repository;
+		this.executor = executor;
+	}
+
+	public CompletableFuture<Optional<Widget>> findWidgetById(int id) {
+		return submit(() -> repository.findWidgetById(id));
+	}
+
+	/**
+	 * @see WidgetRepository#version()
+	 */
+	public CompletableFuture<Long> version() {
+		return submit(repository::version);
+	}
+
+	public CompletableFuture<WidgetChanges> findChangesSince(long version) {
+		return submit(() -> repository.findChangesSince(version));
+	}
+
+	public CompletableFuture<WidgetSnapshot> snapshotSortedByZIndex() {
+		return submit(repository::snapshotSortedByZIndex);
+	}
+
+	public CompletableFuture<WidgetPage> listWidgetsSortedByZIndex(Optional<Integer> afterZIndex, int limit) {
+		return submit(() -> repository.listWidgetsSortedByZIndex(afterZIndex, limit));
+	}
+
+	public CompletableFuture<List<Widget>> findWidgetsInArea(int x1, int y1, int x2, int y2) {
+		return submit(() -> repository.findWidgetsInArea(x1, y1, x2, y2));
+	}
+
+	public CompletableFuture<Optional<Widget>> findTopmostWidgetAt(int x, int y) {
+		return submit(() -> repository.findTopmostWidgetAt(x, y));
+	}
+
+	public CompletableFuture<Widget> createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		return submit(() -> repository.createWidget(x, y, zIndex, height, width));
+	}
+
+	public CompletableFuture<Optional<Widget>> updateWidget(int id, UpdateWidgetRequest request) {
+		return submit(() -> repository.updateWidget(id, request));
+	}
+
+	public CompletableFuture<List<Optional<Widget>>> applyBatch(List<BatchOperation> operations) {
+		return submit(() -> repository.applyBatch(operations));
+	}
+
+	public CompletableFuture<Boolean> deleteWidget(int id) {
+		return submit(() -> repository.deleteWidget(id));
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+		try {
+			return CompletableFuture.supplyAsync(operation, executor);
+		} catch (final RejectedExecutionException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+}
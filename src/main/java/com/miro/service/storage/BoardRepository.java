@@ -0,0 +1,213 @@
+package com.miro.service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ *
+ * Boards, each with its own widget repository: identifiers, Z-indexes and the lock are per board,
+ * so work on different boards shares nothing but the lookup of the board. A board is created by
+ * its first write, the ones a durable storage kept over a restart are opened up front.
+ *
+ */
+public class BoardRepository implements MeterBinder, Closeable {
+
+	public static final String DEFAULT_BOARD = "default";
+
+	private static final Pattern BOARD_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+	private final ConcurrentHashMap<String, WidgetRepository> boards = new ConcurrentHashMap<>();
+	private final Function<String, WidgetRepository> boardFactory;
+	private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+	private final List<WidgetChangeListener> widgetChangeListeners = new CopyOnWriteArrayList<>();
+
+	private volatile StorageMetrics metrics = StorageMetrics.DISABLED;
+	private volatile LockTimeouts lockTimeouts = LockTimeouts.DEFAULT;
+
+	/**
+	 * @param boardFactory creates the repository of a board from its identifier
+	 */
+	public BoardRepository(Function<String, WidgetRepository> boardFactory) {
+		this(boardFactory, new ArrayList<>());
+	}
+
+	/**
+	 * @param storedBoards identifiers of the boards written before a restart, opened with the default one
+	 */
+	public BoardRepository(Function<String, WidgetRepository> boardFactory, Collection<String> storedBoards) {
+		this.boardFactory = boardFactory;
+		board(DEFAULT_BOARD);
+		for (final String boardId: storedBoards) {
+			board(boardId);
+		}
+	}
+
+	/**
+	 * @return repository of the board, created if it does not exist
+	 * @throws IllegalArgumentException if the identifier is not 1 to 64 letters, digits, '-' or '_'
+	 */
+	public WidgetRepository board(String boardId) {
+		final WidgetRepository existing = boards.get(boardId);
+		if (existing != null) {
+			return existing;
+		}
+
+		if (!isValidBoardId(boardId)) {
+			throw new IllegalArgumentException("Malformed board id " + boardId);
+		}
+		return boards.computeIfAbsent(boardId, id -> observed(id, boardFactory.apply(id)));
+	}
+
+	/**
+	 * @return repository of the board, empty if nothing was ever written to it
+	 */
+	public Optional<WidgetRepository> findBoard(String boardId) {
+		return Optional.ofNullable(boards.get(boardId));
+	}
+
+	/**
+	 * @return identifiers of the boards, the ones created meanwhile may be missing
+	 */
+	List<String> boardIds() {
+		return new ArrayList<>(boards.keySet());
+	}
+
+	/**
+	 * Puts the board in place of the current one, whose widgets are all told changed. For a
+	 * replication follower, the only writer of its boards.
+	 */
+	void replaceBoard(String boardId, WidgetRepository board) {
+		final WidgetRepository replaced = boards.put(boardId, observed(boardId, board));
+		if (replaced != null) {
+			for (final WidgetChangeListener listener: widgetChangeListeners) {
+				listener.boardReplaced(boardId);
+			}
+			boardChanged(boardId);
+		}
+	}
+
+	/**
+	 * @param listener receives the identifier of a board after every write to it, run by the writer
+	 * 		  so it should not block; writes that changed nothing may be reported too
+	 */
+	public void addChangeListener(Consumer<String> listener) {
+		changeListeners.add(listener);
+	}
+
+	/**
+	 * @param listener told about every widget written and shifted on any board, see {@link WidgetChangeListener}
+	 */
+	public void addWidgetChangeListener(WidgetChangeListener listener) {
+		widgetChangeListeners.add(listener);
+	}
+
+	/**
+	 * Sets how long the operations of every board, the ones created later too, wait for its lock.
+	 */
+	public void useLockTimeouts(LockTimeouts timeouts) {
+		lockTimeouts = timeouts;
+		for (final WidgetRepository board: boards.values()) {
+			if (board instanceof LockingRepository) {
+				((LockingRepository) board).useLockTimeouts(timeouts);
+			}
+		}
+	}
+
+	public int boardCount() {
+		return boards.size();
+	}
+
+	public static boolean isValidBoardId(String boardId) {
+		return boardId != null && BOARD_ID.matcher(boardId).matches();
+	}
+
+	/**
+	 * Registers the meters shared by every board.
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		metrics = new StorageMetrics(registry);
+		for (final WidgetRepository board: boards.values()) {
+			if (board instanceof MeteredRepository) {
+				((MeteredRepository) board).useMetrics(metrics);
+			}
+		}
+
+		Gauge.builder("miro.storage.boards", boards, ConcurrentHashMap::size)
+				.description("Boards with widgets written")
+				.register(registry);
+		Gauge.builder("miro.storage.widgets", this, BoardRepository::widgetCount)
+				.description("Widgets on all the boards")
+				.register(registry);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final WidgetRepository board: boards.values()) {
+			if (board instanceof Closeable) {
+				((Closeable) board).close();
+			}
+		}
+	}
+
+	private WidgetRepository observed(String boardId, WidgetRepository board) {
+		if (board instanceof MeteredRepository) {
+			((MeteredRepository) board).useMetrics(metrics);
+		}
+		if (board instanceof LockingRepository) {
+			((LockingRepository) board).useLockTimeouts(lockTimeouts);
+		}
+		if (board instanceof ObservableRepository) {
+			((ObservableRepository) board).changeListener(() -> boardChanged(boardId));
+			((ObservableRepository) board).widgetListener(widgetListener(boardId));
+		}
+		return board;
+	}
+
+	private void boardChanged(String boardId) {
+		for (final Consumer<String> listener: changeListeners) {
+			listener.accept(boardId);
+		}
+	}
+
+	private ChangeLog.Visitor widgetListener(String boardId) {
+		return new ChangeLog.Visitor() {
+			@Override
+			public void widgetChanged(int widgetId) {
+				for (final WidgetChangeListener listener: widgetChangeListeners) {
+					listener.widgetChanged(boardId, widgetId);
+				}
+			}
+
+			@Override
+			public void widgetsShifted(int zIndex) {
+				for (final WidgetChangeListener listener: widgetChangeListeners) {
+					listener.widgetsShifted(boardId, zIndex);
+				}
+			}
+		};
+	}
+
+	private double widgetCount() {
+		long result = 0;
+		for (final WidgetRepository board: boards.values()) {
+			if (board instanceof MeteredRepository) {
+				result += ((MeteredRepository) board).widgetCount();
+			}
+		}
+		return result;
+	}
+}
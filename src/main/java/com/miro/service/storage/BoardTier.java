@@ -0,0 +1,182 @@
+package com.miro.service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ *
+ * Boards kept in memory while they are used: a board left idle for long, or the least recently
+ * used ones once the resident boards hold more widgets than the budget, is written to a snapshot
+ * file of its own and dropped from the heap. Its next operation maps the file and loads it back.
+ *
+ * The files only stand in for the heap, the ones left by a previous run are deleted.
+ *
+ */
+public final class BoardTier implements Closeable {
+
+	private final Logger logger = LoggerFactory.getLogger(BoardTier.class);
+
+	private final Path directory;
+	private final ExecutorService evictor;
+	private final Cache<TieredWidgetRepository, Boolean> resident;
+
+	private final Counter evicted;
+	private final Timer loaded;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param maxResidentWidgets widgets of the boards in memory, beyond it the least recently used boards are evicted
+	 * @param idleMillis a board not used for that long is evicted, 0 to evict for the budget only
+	 */
+	public BoardTier(Path directory, long maxResidentWidgets, long idleMillis, MeterRegistry registry) {
+		this.directory = directory;
+		try {
+			Files.createDirectories(directory);
+			deleteEvicted(directory);
+		} catch (final IOException ex) {
+			throw new StorageException("Failed to clear evicted boards from " + directory, ex);
+		}
+
+		evictor = Executors.newSingleThreadExecutor(task -> {
+			final Thread thread = new Thread(task, "board-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final Caffeine<TieredWidgetRepository, Boolean> builder = Caffeine.newBuilder()
+				.maximumWeight(maxResidentWidgets)
+				// an empty board still holds its store
+				.weigher((TieredWidgetRepository board, Boolean value) -> 1 + board.widgetCount())
+				.executor(this::execute)
+				.scheduler(Scheduler.systemScheduler())
+				.removalListener((TieredWidgetRepository board, Boolean value, RemovalCause cause) -> {
+					if (cause.wasEvicted()) {
+						evict(board);
+					}
+				});
+		if (idleMillis > 0) {
+			builder.expireAfterAccess(idleMillis, TimeUnit.MILLISECONDS);
+		}
+		resident = builder.build();
+
+		evicted = Counter.builder("miro.storage.tiered.evicted")
+				.description("Boards written to disk and dropped from memory")
+				.register(registry);
+		loaded = Timer.builder("miro.storage.tiered.loaded")
+				.description("Evicted boards loaded back by their first operation")
+				.register(registry);
+		Gauge.builder("miro.storage.tiered.resident", resident, Cache::estimatedSize)
+				.description("Boards in memory")
+				.register(registry);
+		Gauge.builder("miro.storage.tiered.resident.widgets", resident, c -> c.policy().eviction().get().weightedSize().getAsLong())
+				.description("Widgets of the boards in memory, with one for every board")
+				.register(registry);
+	}
+
+	/**
+	 * @return creates the boards of the tier, the locking ones
+	 */
+	public Function<String, WidgetRepository> boardFactory() {
+		return boardId -> new TieredWidgetRepository(this, directory.resolve(boardId), SpatialGrid.DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * Stops evicting, the boards stay as they are: an eviction in progress is let finish, the
+	 * ones due later are dropped.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		evictor.shutdown();
+		try {
+			if (!evictor.awaitTermination(10, TimeUnit.SECONDS)) {
+				logger.warn("Board eviction still running after close");
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Marks the board as used; a write weighs it again.
+	 */
+	void accessed(TieredWidgetRepository board, boolean write) {
+		if (write || resident.getIfPresent(board) == null) {
+			resident.put(board, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * @return whether the board is among the resident ones, without counting it as used
+	 */
+	boolean isResident(TieredWidgetRepository board) {
+		return resident.asMap().containsKey(board);
+	}
+
+	void loaded(long nanos) {
+		loaded.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs the work of the cache on the evictor, none once closed.
+	 */
+	private void execute(Runnable task) {
+		if (closed) {
+			return;
+		}
+		try {
+			evictor.execute(task);
+		} catch (final RejectedExecutionException ex) {
+			// closed meanwhile
+			if (!closed) {
+				throw ex;
+			}
+		}
+	}
+
+	private void evict(TieredWidgetRepository board) {
+		if (closed) {
+			return;
+		}
+		try {
+			if (board.tryEvict()) {
+				evicted.increment();
+			}
+		} catch (final StorageException ex) {
+			logger.error("Failed to evict a board, it stays in memory", ex);
+		}
+	}
+
+	private static void deleteEvicted(Path directory) throws IOException {
+		try (Stream<Path> boards = Files.list(directory)) {
+			for (final Path board: (Iterable<Path>) boards::iterator) {
+				if (!Files.isDirectory(board)) {
+					continue;
+				}
+				for (final Path snapshot: SnapshotFile.snapshots(board).values()) {
+					Files.delete(snapshot);
+				}
+			}
+		}
+	}
+}
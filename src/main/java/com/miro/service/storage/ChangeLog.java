@@ -0,0 +1,118 @@
+package com.miro.service.storage;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Bounded log of the last changes to a store, oldest entries are overwritten first. An entry
+ * is either a widget written or deleted, or a shift of every widget above a Z-index, which
+ * keeps a rearrangement one entry however many widgets it moves.
+ *
+ * Not thread safe, guarded by the owning repository.
+ *
+ */
+final class ChangeLog {
+
+	/**
+	 * Receives the entries in the order they were appended.
+	 */
+	interface Visitor {
+		void widgetChanged(int widgetId);
+
+		/**
+		 * @param zIndex the widgets above it were shifted up
+		 */
+		void widgetsShifted(int zIndex);
+	}
+
+	static final Visitor NO_CHANGES = new Visitor() {
+		@Override
+		public void widgetChanged(int widgetId) {
+		}
+
+		@Override
+		public void widgetsShifted(int zIndex) {
+		}
+	};
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int capacity;
+
+	private long[] versions;
+	private int[] values;
+	private boolean[] shifts;
+
+	private int head;
+	private int count;
+	// every change up to this version may have been overwritten
+	private long truncatedVersion;
+
+	/**
+	 * @param version version before the first entry
+	 */
+	ChangeLog(int capacity, long version) {
+		this.capacity = capacity;
+		versions = new long[Math.min(capacity, INITIAL_CAPACITY)];
+		values = new int[versions.length];
+		shifts = new boolean[versions.length];
+		truncatedVersion = version;
+	}
+
+	void widgetChanged(long version, int widgetId) {
+		append(version, widgetId, false);
+	}
+
+	void widgetsShifted(long version, int zIndex) {
+		append(version, zIndex, true);
+	}
+
+	/**
+	 * @return true if every change after the version is still in the log
+	 */
+	boolean covers(long version) {
+		return version >= truncatedVersion;
+	}
+
+	/**
+	 * Visits the entries after the version, which should be covered.
+	 */
+	void forEachAfter(long version, Visitor visitor) {
+		for (int i = 0; i < count; i++) {
+			final int entry = (head + i) % versions.length;
+			if (versions[entry] <= version) {
+				continue;
+			}
+			if (shifts[entry]) {
+				visitor.widgetsShifted(values[entry]);
+			} else {
+				visitor.widgetChanged(values[entry]);
+			}
+		}
+	}
+
+	private void append(long version, int value, boolean shift) {
+		if (count == versions.length) {
+			if (count < capacity) {
+				grow(Math.min(capacity, count * 2));
+			} else {
+				truncatedVersion = versions[head];
+				head = (head + 1) % versions.length;
+				count--;
+			}
+		}
+
+		final int entry = (head + count) % versions.length;
+		versions[entry] = version;
+		values[entry] = value;
+		shifts[entry] = shift;
+		count++;
+	}
+
+	private void grow(int newCapacity) {
+		// head is still 0, the log only wraps around once at capacity
+		versions = Arrays.copyOf(versions, newCapacity);
+		values = Arrays.copyOf(values, newCapacity);
+		shifts = Arrays.copyOf(shifts, newCapacity);
+	}
+}
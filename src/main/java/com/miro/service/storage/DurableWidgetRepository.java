@@ -0,0 +1,212 @@
+package com.miro.service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * Locking repository that survives restarts. Every resolved mutation is appended to a write-ahead
+ * log under the write lock, the write returns once the log is durable as the {@link FsyncPolicy}
+ * requires, after the lock is released so that concurrent writers share a sync.
+ * A checkpoint folds the sealed log segments into the previous snapshot on a copy loaded from the
+ * files, the live board is never locked for it, and deletes them. A restart maps the latest snapshot
+ * and replays the log written after it.
+ *
+ */
+public class DurableWidgetRepository extends InMemoryWidgetRepository implements Closeable {
+
+	private final Logger logger = LoggerFactory.getLogger(DurableWidgetRepository.class);
+
+	private final Path directory;
+	private final int cellSize;
+	private final WriteAheadLog log;
+	private final ScheduledExecutorService checkpointer;
+	private final Object checkpointLock = new Object();
+
+	/**
+	 * @param checkpointIntervalMillis delay between checkpoints, 0 to checkpoint on {@link #checkpoint()} only
+	 */
+	public DurableWidgetRepository(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, long checkpointIntervalMillis) {
+		this(directory, fsyncPolicy, fsyncIntervalMillis, checkpointIntervalMillis, SpatialGrid.DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize side of the spatial index cell, in board coordinates
+	 */
+	public DurableWidgetRepository(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, long checkpointIntervalMillis, int cellSize) {
+		this(new WidgetStore(cellSize), directory, fsyncPolicy, fsyncIntervalMillis, checkpointIntervalMillis, cellSize);
+	}
+
+	private DurableWidgetRepository(WidgetStore store, Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, long checkpointIntervalMillis, int cellSize) {
+		super(store);
+		this.directory = directory;
+		this.cellSize = cellSize;
+
+		try {
+			Files.createDirectories(directory);
+			log = new WriteAheadLog(directory, recover(directory, store), fsyncPolicy, fsyncIntervalMillis);
+		} catch (final IOException ex) {
+			throw new StorageException("Failed to recover widgets from " + directory, ex);
+		}
+		store.journal(log::append);
+
+		checkpointer = Executors.newSingleThreadScheduledExecutor(task -> {
+			final Thread thread = new Thread(task, "widget-checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (checkpointIntervalMillis > 0) {
+			checkpointer.scheduleWithFixedDelay(this::scheduledCheckpoint, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public Widget createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		final Widget result = super.createWidget(x, y, zIndex, height, width);
+		awaitDurable();
+		return result;
+	}
+
+	@Override
+	public Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
+		final Optional<Widget> result = super.updateWidget(id, request);
+		awaitDurable();
+		return result;
+	}
+
+	@Override
+	public boolean deleteWidget(int id) {
+		final boolean result = super.deleteWidget(id);
+		awaitDurable();
+		return result;
+	}
+
+	@Override
+	public List<Optional<Widget>> applyBatch(List<BatchOperation> operations) {
+		final List<Optional<Widget>> result = super.applyBatch(operations);
+		awaitDurable();
+		return result;
+	}
+
+	/**
+	 * Writes a snapshot including every mutation done so far and deletes the log before it.
+	 */
+	public void checkpoint() {
+		synchronized (checkpointLock) {
+			try {
+				final long lsn = log.roll();
+				final SortedMap<Long, Path> snapshots = SnapshotFile.snapshots(directory);
+				if (!snapshots.isEmpty() && snapshots.lastKey() == lsn) {
+					return;
+				}
+
+				final WidgetStore folded = new WidgetStore(cellSize);
+				long foldedLsn = snapshots.isEmpty() ? 0 : SnapshotFile.read(snapshots.get(snapshots.lastKey()), folded);
+				final SortedMap<Long, Path> sealed = WriteAheadLog.segments(directory).headMap(lsn);
+				for (final Map.Entry<Long, Path> segment: sealed.entrySet()) {
+					foldedLsn = Math.max(foldedLsn, WriteAheadLog.replay(segment.getValue(), segment.getKey(), foldedLsn, folded, false));
+				}
+				if (foldedLsn != lsn) {
+					throw new StorageException("Write-ahead log stops at " + foldedLsn + " instead of " + lsn);
+				}
+
+				SnapshotFile.write(directory, lsn, folded);
+				for (final Path file: sealed.values()) {
+					Files.delete(file);
+				}
+				for (final Path file: snapshots.values()) {
+					Files.delete(file);
+				}
+			} catch (final IOException ex) {
+				throw new StorageException("Failed to checkpoint widgets to " + directory, ex);
+			}
+		}
+	}
+
+	/**
+	 * @return identifiers of the boards stored in their own directories under the directory,
+	 * 		   empty if it does not exist
+	 * @throws StorageException if the directory can't be listed
+	 */
+	public static List<String> boardIds(Path directory) {
+		if (!Files.isDirectory(directory)) {
+			return new ArrayList<>();
+		}
+		try (Stream<Path> boards = Files.list(directory)) {
+			return boards
+					.filter(Files::isDirectory)
+					.map(board -> board.getFileName().toString())
+					.filter(BoardRepository::isValidBoardId)
+					.sorted()
+					.collect(Collectors.toList());
+		} catch (final IOException ex) {
+			throw new StorageException("Failed to list the boards in " + directory, ex);
+		}
+	}
+
+	/**
+	 * Stops the checkpoints and syncs the log whatever the policy.
+	 */
+	@Override
+	public void close() throws IOException {
+		checkpointer.shutdown();
+		try {
+			checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		log.close();
+	}
+
+	private void awaitDurable() {
+		log.awaitDurable(log.lastLsn());
+	}
+
+	private void scheduledCheckpoint() {
+		try {
+			checkpoint();
+		} catch (final RuntimeException ex) {
+			logger.error("Failed to checkpoint widgets", ex);
+		}
+	}
+
+	/**
+	 * Loads the latest snapshot and replays the log after it, cutting a torn end of the last segment.
+	 *
+	 * @return sequence number of the next log record
+	 */
+	private static long recover(Path directory, WidgetStore store) throws IOException {
+		final SortedMap<Long, Path> snapshots = SnapshotFile.snapshots(directory);
+		long lsn = snapshots.isEmpty() ? 0 : SnapshotFile.read(snapshots.get(snapshots.lastKey()), store);
+
+		final SortedMap<Long, Path> segments = WriteAheadLog.segments(directory);
+		for (final Map.Entry<Long, Path> segment: segments.entrySet()) {
+			if (segment.getKey() > lsn) {
+				throw new StorageException("Write-ahead log misses records " + lsn + " to " + (segment.getKey() - 1));
+			}
+			final boolean last = segment.getKey().equals(segments.lastKey());
+			lsn = Math.max(lsn, WriteAheadLog.replay(segment.getValue(), segment.getKey(), lsn, store, last));
+		}
+
+		return lsn;
+	}
+}
@@ -0,0 +1,22 @@
+package com.miro.service.storage;
+
+/**
+ *
+ * When the write-ahead log is forced to the disk.
+ *
+ */
+public enum FsyncPolicy {
+	/**
+	 * Every write waits until it is on the disk, writes done meanwhile share the next sync.
+	 */
+	ALWAYS,
+	/**
+	 * The log is synced periodically, writes done since the last sync are lost on a power failure.
+	 */
+	INTERVAL,
+	/**
+	 * The log is periodically written but never synced, the operating system decides when
+	 * it reaches the disk. Survives a crash of the process only.
+	 */
+	OS
+}
@@ -1,276 +1,187 @@
 package com.miro.service.storage;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.NavigableMap;
 import java.util.Optional;
-import java.util.TreeMap;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
-import java.util.stream.Collectors;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
 import com.miro.service.requests.UpdateWidgetRequest;
 
-public class InMemoryWidgetRepository implements WidgetRepository {
-
-	private static final long LOCK_TIMEOUT = 100;
-	private static final int DEFAULT_INCREMENT = 100;
-	
-	private volatile int identifier;
-	private volatile int zIndexCounter;
-	
-	private final HashMap<Integer, Widget> widgetsByIndex;
-	private final TreeMap<Integer, Integer> zIndexToWidgetId;
-	
+public class InMemoryWidgetRepository implements WidgetRepository, MeterBinder, MeteredRepository, ObservableRepository, LockingRepository {
+
+	private final WidgetStore store;
+
 	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+	private volatile StorageMetrics metrics = StorageMetrics.DISABLED;
+	private volatile Runnable changeListener = () -> {};
+	private volatile LockTimeouts lockTimeouts = LockTimeouts.DEFAULT;
+
 	public InMemoryWidgetRepository() {
-		identifier = 0;
-		zIndexCounter = 0;
-		widgetsByIndex = new HashMap<>();
-		zIndexToWidgetId = new TreeMap<>();
+		this(SpatialGrid.DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize side of the spatial index cell, in board coordinates
+	 */
+	public InMemoryWidgetRepository(int cellSize) {
+		this(new WidgetStore(cellSize));
+	}
+
+	InMemoryWidgetRepository(WidgetStore store) {
+		this.store = store;
+		store.shifts(count -> metrics.widgetsShifted(count));
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("miro.storage.widgets", store, WidgetStore::size)
+				.description("Widgets on the board")
+				.register(registry);
+		metrics = new StorageMetrics(registry);
+	}
+
+	@Override
+	public void useMetrics(StorageMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void useLockTimeouts(LockTimeouts timeouts) {
+		lockTimeouts = timeouts;
+	}
+
+	@Override
+	public int widgetCount() {
+		return store.size();
+	}
+
+	@Override
+	public void changeListener(Runnable listener) {
+		changeListener = listener;
+	}
+
+	@Override
+	public void widgetListener(ChangeLog.Visitor listener) {
+		store.changes(listener);
 	}
 
 	@Override
 	public List<Widget> listWidgetsSortedByZIndex() {
-		final ReadLock readLock = lock.readLock();
-		final boolean couldLock;
-		
-		try {
-			if ((couldLock = readLock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS))) {
-				final var result = widgetsByIndex
-						.values()
-						.stream()
-						.sorted((w1, w2) -> Integer.compare(w1.zIndex(), w2.zIndex()))
-					    .collect(Collectors.toList());
-				
-				return result;
-			}
-		
-		} catch(final InterruptedException ex) {
-			throw new StorageException("Failed to list widgets", ex);
-			
-		} finally {
-			readLock.unlock();
-		}
-		
-		if (!couldLock) {
-			throw new StorageException("Failed to get lock to list widgets");
-		}
-		
-		throw new IllegalStateException("Should not reach here");
+		return withLock(lock.readLock(), "list widgets", WidgetStore::listWidgetsSortedByZIndex);
 	}
 
 	@Override
-	public boolean deleteWidget(int id) {
-		final WriteLock writeLock = lock.writeLock();
-		final boolean couldLock;
+	public WidgetSnapshot snapshotSortedByZIndex() {
+		return withLock(lock.readLock(), "list widgets", WidgetStore::snapshotSortedByZIndex);
+	}
 
-		try {
-			if ((couldLock = writeLock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS))) {
-				final Widget widget = widgetsByIndex.remove(id);
-				
-				if (widget != null) {
-					zIndexToWidgetId.remove(widget.zIndex(), widget.widgetId());
-				}
-				
-				return widget != null;
-			}
-			
-		} catch (final InterruptedException ex) {
-			throw new StorageException("Failed to list widgets", ex);
-		
-		} finally {
-			writeLock.unlock();
-		}
-	
-		if (!couldLock) {
-			throw new StorageException("Failed to get write lock to delete widget");
-		}
-		
-		throw new IllegalStateException("Should not reach here");
+	@Override
+	public long version() {
+		return withLock(lock.readLock(), "read version", WidgetStore::version);
 	}
 
 	@Override
-	public Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
-		final WriteLock writeLock = lock.writeLock();
-		final boolean couldLock;
+	public WidgetChanges findChangesSince(long version) {
+		return withLock(lock.readLock(), "find changes", s -> s.changesSince(version));
+	}
 
-		try {
-			if ((couldLock = writeLock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS))) {
-				final Widget result = widgetsByIndex.compute(id,  (id1, currentWidget)-> {
-					if (currentWidget == null) {
-						return null;
-					}
-					
-					final int currentZIndex = currentWidget.zIndex();
-					
-					final Widget updatedWidget = new Widget(
-							currentWidget.widgetId(),
-							request.xCoordinate().orElse(currentWidget.xCoordinate()),
-							request.yCoordinate().orElse(currentWidget.yCoordinate()),
-							request.zIndex().orElse(currentWidget.zIndex()),
-							request.height().orElse(currentWidget.height()), 
-							request.width().orElse(currentWidget.width())
-					);
-					
-					if (currentZIndex != updatedWidget.zIndex()) {
-						zIndexToWidgetId.remove(currentZIndex);
-					}
-					
-					return updatedWidget;
-				});
-				
-				if (result == null) {
-					return Optional.empty();
-				}
-				
-				if (zIndexToWidgetId.containsKey(result.zIndex())) {
-					rearrangeWidgets(result.widgetId(), result.zIndex());
-				}
-
-				zIndexToWidgetId.put(result.zIndex(), result.widgetId());
-				return Optional.of(result);
-			}
-			
-		} catch (final InterruptedException ex) {
-			throw new StorageException("Failed to list widgets", ex);
-		
-		} finally {
-			writeLock.unlock();
+	@Override
+	public WidgetPage listWidgetsSortedByZIndex(Optional<Integer> afterZIndex, int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Page limit should be positive, got " + limit);
 		}
-	
-		if (!couldLock) {
-			throw new StorageException("Failed to get write lock to delete widget");
+
+		return withLock(lock.readLock(), "list widgets", s -> s.listWidgetsSortedByZIndex(afterZIndex, limit));
+	}
+
+	@Override
+	public List<Widget> findWidgetsInArea(int x1, int y1, int x2, int y2) {
+		if (x1 > x2 || y1 > y2) {
+			throw new IllegalArgumentException("Empty area (" + x1 + ", " + y1 + ") - (" + x2 + ", " + y2 + ")");
 		}
-		
-		throw new IllegalStateException("Should not reach here");
+
+		return withLock(lock.readLock(), "find widgets in area", s -> s.findWidgetsInArea(x1, y1, x2, y2));
+	}
+
+	@Override
+	public Optional<Widget> findTopmostWidgetAt(int x, int y) {
+		return withLock(lock.readLock(), "find widget at point", s -> s.findTopmostWidgetAt(x, y));
+	}
+
+	@Override
+	public boolean deleteWidget(int id) {
+		return withLock(lock.writeLock(), "delete widget", s -> s.deleteWidget(id));
+	}
+
+	@Override
+	public Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
+		return withLock(lock.writeLock(), "update widget", s -> s.updateWidget(id, request));
 	}
 
 	@Override
 	public Optional<Widget> findWidgetById(int id) {
-		final ReadLock readLock = lock.readLock();
-		final boolean couldLock;
-		
-		try {
-			if ((couldLock = readLock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS))) {
-				final Widget widget = widgetsByIndex.get(id);
-				return widget == null ? Optional.<Widget>empty() : Optional.of(widget);
-			}
-		
-		} catch(final InterruptedException ex) {
-			throw new StorageException("Failed to list widgets", ex);
-			
-		} finally {
-			readLock.unlock();
-		}
-		
-		if (!couldLock) {
-			throw new StorageException("Failed to get lock to list widgets");
-		}
-		
-		throw new IllegalStateException("Should not reach here");
+		return withLock(lock.readLock(), "find widget", s -> s.findWidgetById(id));
 	}
 
 	@Override
 	public Widget createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
-		final WriteLock writeLock = lock.writeLock();
-		final boolean couldLock;
+		return withLock(lock.writeLock(), "create widget", s -> s.createWidget(x, y, zIndex, height, width));
+	}
 
-		try {
-			if ((couldLock = writeLock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS))) {
-				final int z = zIndex.orElse(zIndexCounter += delta());
-
-				final Widget result = new Widget(identifier++, x, y, z, height, width);
-				if (widgetsByIndex.containsKey(result.widgetId())) {
-					throw new IllegalStateException("Autoincrement value duplicate for " + result.widgetId());
-				}
-				
-				if (zIndexToWidgetId.containsKey(result.zIndex())) {
-					rearrangeWidgets(result.widgetId(), result.zIndex());
-				}
-				
-				widgetsByIndex.putIfAbsent(result.widgetId(), result);
-				zIndexToWidgetId.put(result.zIndex(), result.widgetId());
-				
-				return result;
-			}
-		} catch (final InterruptedException ex) {
-			throw new StorageException("Failed to list widgets", ex);
-		
-		} finally {
-			writeLock.unlock();
-		}
-	
-		if (!couldLock) {
-			throw new StorageException("Failed to get write lock to delete widget");
-		}
-		
-		throw new IllegalStateException("Should not reach here");
+	@Override
+	public List<Optional<Widget>> applyBatch(List<BatchOperation> operations) {
+		return withLock(lock.writeLock(), "apply batch", s -> s.applyBatch(operations));
+	}
+
+	/**
+	 * Applies the action under the read lock.
+	 */
+	<T> T read(String operation, Function<WidgetStore, T> action) {
+		return withLock(lock.readLock(), operation, action);
 	}
 
-	private void rearrangeWidgets(int widgetId, int zIndex) {
-		final WriteLock writeLock = lock.writeLock();
-		final boolean couldLock;
+	/**
+	 * Applies the action under the write lock, then tells the change listener once.
+	 */
+	<T> T write(String operation, Function<WidgetStore, T> action) {
+		return withLock(lock.writeLock(), operation, action);
+	}
+
+	private <T> T withLock(Lock acquired, String operation, Function<WidgetStore, T> action) {
+		final StorageMetrics metrics = this.metrics;
+		final boolean write = acquired == lock.writeLock();
 
+		final long waitStart = metrics.startWaiting();
 		try {
-			if ((couldLock = writeLock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS))) {
-				final NavigableMap<Integer, Integer> keysToUpdate = zIndexToWidgetId.subMap(zIndex, true, zIndexCounter, true);
-				final TreeMap<Integer, Integer> map = new TreeMap<>(keysToUpdate);
-
-				int max = Integer.MIN_VALUE;
-				
-				for (final int z: map.descendingKeySet()) {
-					final int id = map.get(z);
-					final Widget w = widgetsByIndex.get(id);
-					
-					if (w == null) {
-						throw new IllegalStateException("");
-					}
-				
-					final int newZIndex = w.zIndex() + 1;
-					max = Math.max(max, newZIndex);
-					
-					final Widget newWidget = new Widget(
-							w.widgetId(),
-							w.xCoordinate(),
-							w.yCoordinate(),
-							newZIndex,
-							w.height(),
-							w.width()
-						);
-
-					zIndexToWidgetId.remove(z);
-					zIndexToWidgetId.put(newZIndex, w.widgetId());
-					widgetsByIndex.put(id, newWidget);
-				}
-				
-				zIndex = Math.max(zIndex, max);
-				return;
+			if (!acquired.tryLock(write ? lockTimeouts.writeNanos : lockTimeouts.readNanos, TimeUnit.NANOSECONDS)) {
+				metrics.lockTimedOut(operation);
+				throw new StorageBusyException("Failed to get lock to " + operation);
 			}
-			
-			
 		} catch (final InterruptedException ex) {
-			throw new StorageException("Failed to list widgets", ex);
-		
-		} finally {
-			writeLock.unlock();
+			Thread.currentThread().interrupt();
+			throw new StorageException("Failed to " + operation, ex);
 		}
-	
-		if (!couldLock) {
-			throw new StorageException("Failed to get write lock to delete widget");
-		}
-		
-		throw new IllegalStateException("Should not reach here");
-
-	}
 
-	private int delta() {
-		return ThreadLocalRandom.current().nextInt(100) + 10;
+		final long holdStart = metrics.lockAcquired(write, waitStart);
+		try {
+			return action.apply(store);
+		} finally {
+			acquired.unlock();
+			metrics.lockReleased(write, holdStart);
+			if (write) {
+				changeListener.run();
+			}
+		}
 	}
-
 }
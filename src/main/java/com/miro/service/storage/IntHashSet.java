@@ -0,0 +1,130 @@
+package com.miro.service.storage;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ *
+ * Open addressing set of ints without boxing, probing and removal as {@link IntIntHashMap}.
+ * Starts small, a grid cell often holds a few widgets only.
+ *
+ * Not thread safe, concurrent reads are fine as long as nobody writes.
+ *
+ */
+final class IntHashSet {
+
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private int size;
+	private int mask;
+
+	IntHashSet(int expectedSize) {
+		allocate(Math.max(4, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1));
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean contains(int key) {
+		checkKey(key);
+		for (int i = index(key); ; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return true;
+			}
+			if (keys[i] == FREE) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the key was there already
+	 */
+	boolean add(int key) {
+		checkKey(key);
+		for (int i = index(key); ; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return false;
+			}
+			if (keys[i] == FREE) {
+				keys[i] = key;
+				if (++size * 2 > keys.length) {
+					rehash(keys.length * 2);
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the key was not there
+	 */
+	boolean remove(int key) {
+		checkKey(key);
+		int i = index(key);
+		while (keys[i] != key) {
+			if (keys[i] == FREE) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+
+		size--;
+		for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+			final int home = index(keys[j]);
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				i = j;
+			}
+		}
+		keys[i] = FREE;
+
+		return true;
+	}
+
+	void forEach(IntConsumer consumer) {
+		for (final int key: keys) {
+			if (key != FREE) {
+				consumer.accept(key);
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		final int[] oldKeys = keys;
+		allocate(capacity);
+
+		for (final int key: oldKeys) {
+			if (key != FREE) {
+				int j = index(key);
+				while (keys[j] != FREE) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = key;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		mask = capacity - 1;
+	}
+
+	private int index(int key) {
+		final int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static void checkKey(int key) {
+		if (key == FREE) {
+			throw new IllegalArgumentException("Reserved key " + key);
+		}
+	}
+}
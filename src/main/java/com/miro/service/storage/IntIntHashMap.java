@@ -0,0 +1,142 @@
+package com.miro.service.storage;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Open addressing map from int to int without boxing. Linear probing, removals shift the
+ * following entries back instead of leaving tombstones.
+ *
+ * Not thread safe, concurrent reads are fine as long as nobody writes.
+ *
+ */
+final class IntIntHashMap {
+
+	static final int NO_VALUE = Integer.MIN_VALUE;
+
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+
+	IntIntHashMap(int expectedSize) {
+		final int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1);
+		allocate(capacity);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return value for the key, {@link #NO_VALUE} if there is none
+	 */
+	int get(int key) {
+		checkKey(key);
+		for (int i = index(key); ; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+			if (keys[i] == FREE) {
+				return NO_VALUE;
+			}
+		}
+	}
+
+	boolean containsKey(int key) {
+		return get(key) != NO_VALUE;
+	}
+
+	/**
+	 * @return previous value for the key, {@link #NO_VALUE} if there was none
+	 */
+	int put(int key, int value) {
+		checkKey(key);
+		if (value == NO_VALUE) {
+			throw new IllegalArgumentException("Reserved value " + value);
+		}
+
+		for (int i = index(key); ; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				final int previous = values[i];
+				values[i] = value;
+				return previous;
+			}
+			if (keys[i] == FREE) {
+				keys[i] = key;
+				values[i] = value;
+				if (++size * 2 > keys.length) {
+					rehash(keys.length * 2);
+				}
+				return NO_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * @return removed value for the key, {@link #NO_VALUE} if there was none
+	 */
+	int remove(int key) {
+		checkKey(key);
+		int i = index(key);
+		while (keys[i] != key) {
+			if (keys[i] == FREE) {
+				return NO_VALUE;
+			}
+			i = (i + 1) & mask;
+		}
+
+		final int removed = values[i];
+		size--;
+
+		for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+			final int home = index(keys[j]);
+			// move the entry into the hole unless its home lies cyclically in (i, j]
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = FREE;
+
+		return removed;
+	}
+
+	private void rehash(int capacity) {
+		final int[] oldKeys = keys;
+		final int[] oldValues = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int j = index(oldKeys[i]);
+				while (keys[j] != FREE) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+		mask = capacity - 1;
+	}
+
+	private int index(int key) {
+		final int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static void checkKey(int key) {
+		if (key == FREE) {
+			throw new IllegalArgumentException("Reserved key " + key);
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.miro.service.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * Repository keeping two copies of the store (Left-Right concurrency control). Readers never
+ * lock or wait: they announce themselves on a read indicator and use the copy currently published
+ * for reading, which no writer touches until they are gone, so every call sees one consistent
+ * version. A writer applies the operation to the hidden copy, publishes that copy, waits for the
+ * readers of the previous one to leave and replays the resolved mutations on it.
+ * Writers are serialized and do the work twice, no copy of the board is ever made.
+ *
+ */
+public class LeftRightWidgetRepository implements WidgetRepository, MeterBinder, MeteredRepository, ObservableRepository, LockingRepository {
+
+	private final WidgetStore[] stores;
+	private final ReadIndicator[] readIndicators = { new ReadIndicator(), new ReadIndicator() };
+
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final List<WidgetMutation> pendingMutations = new ArrayList<>();
+
+	private volatile int readableStore;
+	private volatile int versionIndex;
+
+	private volatile StorageMetrics metrics = StorageMetrics.DISABLED;
+	private volatile Runnable changeListener = () -> {};
+	private volatile LockTimeouts lockTimeouts = LockTimeouts.DEFAULT;
+
+	public LeftRightWidgetRepository() {
+		this(SpatialGrid.DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize side of the spatial index cell, in board coordinates
+	 */
+	public LeftRightWidgetRepository(int cellSize) {
+		final long version = WidgetStore.initialVersion();
+		stores = new WidgetStore[] { new WidgetStore(cellSize, version), new WidgetStore(cellSize, version) };
+		for (final WidgetStore store: stores) {
+			store.journal(pendingMutations::add);
+			store.shifts(count -> metrics.widgetsShifted(count));
+		}
+	}
+
+	/**
+	 * Readers take no lock, only the writer lock is measured.
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("miro.storage.widgets", this, LeftRightWidgetRepository::widgetCount)
+				.description("Widgets on the board")
+				.register(registry);
+		metrics = new StorageMetrics(registry);
+	}
+
+	@Override
+	public void useMetrics(StorageMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Readers take no lock, only the write timeout applies.
+	 */
+	@Override
+	public void useLockTimeouts(LockTimeouts timeouts) {
+		lockTimeouts = timeouts;
+	}
+
+	@Override
+	public int widgetCount() {
+		return stores[readableStore].size();
+	}
+
+	@Override
+	public void changeListener(Runnable listener) {
+		changeListener = listener;
+	}
+
+	/**
+	 * Both copies tell about a change: the hidden one before readers switch to it, the other one
+	 * once its readers are gone, so the last time a change is told no reader sees the widget as it was.
+	 */
+	@Override
+	public void widgetListener(ChangeLog.Visitor listener) {
+		for (final WidgetStore store: stores) {
+			store.changes(listener);
+		}
+	}
+
+	@Override
+	public Optional<Widget> findWidgetById(int id) {
+		return read(s -> s.findWidgetById(id));
+	}
+
+	@Override
+	public List<Widget> listWidgetsSortedByZIndex() {
+		return read(WidgetStore::listWidgetsSortedByZIndex);
+	}
+
+	@Override
+	public WidgetSnapshot snapshotSortedByZIndex() {
+		return read(WidgetStore::snapshotSortedByZIndex);
+	}
+
+	@Override
+	public long version() {
+		return read(WidgetStore::version);
+	}
+
+	@Override
+	public WidgetChanges findChangesSince(long version) {
+		return read(s -> s.changesSince(version));
+	}
+
+	@Override
+	public WidgetPage listWidgetsSortedByZIndex(Optional<Integer> afterZIndex, int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Page limit should be positive, got " + limit);
+		}
+
+		return read(s -> s.listWidgetsSortedByZIndex(afterZIndex, limit));
+	}
+
+	@Override
+	public List<Widget> findWidgetsInArea(int x1, int y1, int x2, int y2) {
+		if (x1 > x2 || y1 > y2) {
+			throw new IllegalArgumentException("Empty area (" + x1 + ", " + y1 + ") - (" + x2 + ", " + y2 + ")");
+		}
+
+		return read(s -> s.findWidgetsInArea(x1, y1, x2, y2));
+	}
+
+	@Override
+	public Optional<Widget> findTopmostWidgetAt(int x, int y) {
+		return read(s -> s.findTopmostWidgetAt(x, y));
+	}
+
+	@Override
+	public Widget createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		return write("create widget", s -> s.createWidget(x, y, zIndex, height, width));
+	}
+
+	@Override
+	public Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
+		return write("update widget", s -> s.updateWidget(id, request));
+	}
+
+	@Override
+	public boolean deleteWidget(int id) {
+		return write("delete widget", s -> s.deleteWidget(id));
+	}
+
+	@Override
+	public List<Optional<Widget>> applyBatch(List<BatchOperation> operations) {
+		return write("apply batch", s -> s.applyBatch(operations));
+	}
+
+	private <T> T read(Function<WidgetStore, T> action) {
+		final ReadIndicator readIndicator = readIndicators[versionIndex];
+		final int stripe = readIndicator.arrive();
+
+		try {
+			return action.apply(stores[readableStore]);
+		} finally {
+			readIndicator.depart(stripe);
+		}
+	}
+
+	/**
+	 * Runs the action on the hidden copy, publishes it and replays the recorded mutations
+	 * on the previous copy once its readers are gone.
+	 */
+	private <T> T write(String operation, Function<WidgetStore, T> action) {
+		final StorageMetrics metrics = this.metrics;
+
+		final long waitStart = metrics.startWaiting();
+		try {
+			if (!writeLock.tryLock(lockTimeouts.writeNanos, TimeUnit.NANOSECONDS)) {
+				metrics.lockTimedOut(operation);
+				throw new StorageBusyException("Failed to get lock to " + operation);
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Failed to " + operation, ex);
+		}
+
+		final long holdStart = metrics.lockAcquired(true, waitStart);
+		try {
+			final int published = readableStore;
+			try {
+				return action.apply(stores[1 - published]);
+			} finally {
+				// even after a failure, both copies have to get what was applied
+				if (!pendingMutations.isEmpty()) {
+					readableStore = 1 - published;
+					awaitReadersOfPreviousStore();
+					for (final WidgetMutation mutation: pendingMutations) {
+						mutation.applyTo(stores[published]);
+					}
+					pendingMutations.clear();
+				}
+			}
+		} finally {
+			writeLock.unlock();
+			metrics.lockReleased(true, holdStart);
+			changeListener.run();
+		}
+	}
+
+	private void awaitReadersOfPreviousStore() {
+		final int previous = versionIndex;
+		final int next = 1 - previous;
+
+		readIndicators[next].awaitEmpty();
+		versionIndex = next;
+		readIndicators[previous].awaitEmpty();
+	}
+
+	/**
+	 * Striped counter of readers inside. A reader arrives and departs on the same stripe,
+	 * so a stripe never goes negative and an empty sum means no reader is inside.
+	 */
+	private static final class ReadIndicator {
+		private static final int PADDING = 16;
+		private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+
+		private final AtomicLongArray counters = new AtomicLongArray(STRIPES * PADDING);
+
+		int arrive() {
+			final int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & (STRIPES - 1);
+			counters.incrementAndGet(stripe * PADDING);
+			return stripe;
+		}
+
+		void depart(int stripe) {
+			counters.decrementAndGet(stripe * PADDING);
+		}
+
+		void awaitEmpty() {
+			for (int spins = 0; !isEmpty(); spins++) {
+				if (spins < 100) {
+					Thread.onSpinWait();
+				} else {
+					Thread.yield();
+				}
+			}
+		}
+
+		private boolean isEmpty() {
+			for (int i = 0; i < STRIPES; i++) {
+				if (counters.get(i * PADDING) != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package com.miro.service.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Longest waits for the lock of a board, reads and writes apart. An operation waiting longer
+ * fails with {@link StorageBusyException}.
+ *
+ */
+public final class LockTimeouts {
+
+	public static final LockTimeouts DEFAULT = new LockTimeouts(100, 100);
+
+	final long readNanos;
+	final long writeNanos;
+
+	public LockTimeouts(long readMillis, long writeMillis) {
+		if (readMillis < 0 || writeMillis < 0) {
+			throw new IllegalArgumentException("Negative lock timeout");
+		}
+		readNanos = TimeUnit.MILLISECONDS.toNanos(readMillis);
+		writeNanos = TimeUnit.MILLISECONDS.toNanos(writeMillis);
+	}
+}
@@ -0,0 +1,11 @@
+package com.miro.service.storage;
+
+/**
+ *
+ * Repository behind a lock whose timeouts are set for all the boards at once.
+ *
+ */
+interface LockingRepository {
+
+	void useLockTimeouts(LockTimeouts timeouts);
+}
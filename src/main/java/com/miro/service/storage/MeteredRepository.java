@@ -0,0 +1,16 @@
+package com.miro.service.storage;
+
+/**
+ *
+ * Repository whose meters can be shared, so that many boards report as one.
+ *
+ */
+interface MeteredRepository {
+
+	void useMetrics(StorageMetrics metrics);
+
+	/**
+	 * @return widgets stored, may be stale
+	 */
+	int widgetCount();
+}
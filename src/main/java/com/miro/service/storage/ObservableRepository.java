@@ -0,0 +1,20 @@
+package com.miro.service.storage;
+
+/**
+ *
+ * Repository telling when its widgets may have changed.
+ *
+ */
+interface ObservableRepository {
+
+	/**
+	 * @param listener run by the writer once a write released the lock, should not block
+	 */
+	void changeListener(Runnable listener);
+
+	/**
+	 * @param listener told about every widget written and every shift by the writer while it holds
+	 * 		  the lock, before the write returns; a change may be told more than once
+	 */
+	void widgetListener(ChangeLog.Visitor listener);
+}
@@ -0,0 +1,65 @@
+package com.miro.service.storage;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * Board of a replication follower: read-only, changed by the mutations of the leader only. Its
+ * versions are the ones of the board on the leader, so version tokens and entity tags are the
+ * same on every instance.
+ *
+ */
+final class ReplicaWidgetRepository extends InMemoryWidgetRepository {
+
+	ReplicaWidgetRepository(WidgetStore store) {
+		super(store);
+	}
+
+	/**
+	 * Applies the mutations of the leader in order under one write lock.
+	 *
+	 * @param versions version of the board on the leader after each mutation
+	 * @throws StorageBusyException if readers held the board past the lock timeout, nothing was applied
+	 * @throws StorageException if a mutation does not follow the version of the board
+	 */
+	void replay(List<WidgetMutation> mutations, List<Long> versions) {
+		write("replicate", s -> {
+			for (int i = 0; i < mutations.size(); i++) {
+				if (s.version() + 1 != versions.get(i)) {
+					throw new StorageException("Replicated version " + versions.get(i) + " does not follow " + s.version());
+				}
+				mutations.get(i).applyTo(s);
+			}
+			return null;
+		});
+	}
+
+	@Override
+	public boolean deleteWidget(int id) {
+		throw readOnly();
+	}
+
+	@Override
+	public Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
+		throw readOnly();
+	}
+
+	@Override
+	public Widget createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		throw readOnly();
+	}
+
+	@Override
+	public List<Optional<Widget>> applyBatch(List<BatchOperation> operations) {
+		throw readOnly();
+	}
+
+	private static StorageException readOnly() {
+		return new StorageException("Board is a read-only replica, writes go to the leader");
+	}
+}
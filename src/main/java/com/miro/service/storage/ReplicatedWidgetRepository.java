@@ -0,0 +1,50 @@
+package com.miro.service.storage;
+
+import java.util.List;
+
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Locking board of the replication leader: every resolved mutation is appended to the replication
+ * log under the write lock, so the records of the board are in the order of its versions.
+ *
+ */
+final class ReplicatedWidgetRepository extends InMemoryWidgetRepository {
+
+	// position of the last record of the board, guarded by the lock
+	private long lastLsn = -1;
+
+	ReplicatedWidgetRepository(String boardId, ReplicationLog log, int cellSize) {
+		this(boardId, log, new WidgetStore(cellSize));
+	}
+
+	private ReplicatedWidgetRepository(String boardId, ReplicationLog log, WidgetStore store) {
+		super(store);
+		store.journal(mutation -> lastLsn = log.append(boardId, store.version(), mutation));
+	}
+
+	/**
+	 * @return the board as of its last record
+	 */
+	Image image() {
+		return read("snapshot board", s -> new Image(lastLsn, s.version(), s.nextIdentifier(), s.zIndexCounter(), s.listWidgetsSortedByZIndex()));
+	}
+
+	static final class Image {
+		final long lsn;
+		final long version;
+		final int nextIdentifier;
+		final int zIndexCounter;
+		// sorted in Z-index order
+		final List<Widget> widgets;
+
+		Image(long lsn, long version, int nextIdentifier, int zIndexCounter, List<Widget> widgets) {
+			this.lsn = lsn;
+			this.version = version;
+			this.nextIdentifier = nextIdentifier;
+			this.zIndexCounter = zIndexCounter;
+			this.widgets = widgets;
+		}
+	}
+}
@@ -0,0 +1,368 @@
+package com.miro.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Follower of the replication: keeps its read-only boards equal to the ones of the leader by
+ * applying the records of the leader in order, the consecutive ones of a board under one write
+ * lock. Reconnects whenever the connection breaks and goes on from the position it is at; a board
+ * of the snapshot replaces the board of the follower at once, a board the snapshot lacks is emptied
+ * once it is complete. Records that can't be applied are taken as boards no longer matching the
+ * leader, the follower starts over from a snapshot.
+ *
+ * Readers may wait for a position, a write they made on the leader, or check how stale the
+ * follower may be: the time since the leader sent it the whole log, as the last heartbeat tells,
+ * not counting the time the heartbeat was on its way.
+ *
+ */
+public final class ReplicationFollower implements Closeable {
+
+	private final Logger logger = LoggerFactory.getLogger(ReplicationFollower.class);
+
+	private final BoardRepository boards;
+	private final String host;
+	private final int port;
+	private final long reconnectMillis;
+	private final Thread thread;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition applied = lock.newCondition();
+
+	// leader replicated and its boards, written by the follower thread only
+	private long leaderId;
+	private final Set<String> replicated = new HashSet<>();
+	// position reached in the log of the leader
+	private volatile long position;
+	private volatile long leaderPosition;
+	// the whole log of the leader was applied at this time, if the leader was ever reached
+	private volatile long syncedAt;
+	private volatile boolean synced;
+
+	private volatile Socket socket;
+	private volatile boolean closed;
+
+	/**
+	 * @return creates the boards of a follower, empty until a record or a snapshot of the board comes
+	 */
+	public static Function<String, WidgetRepository> boardFactory() {
+		return boardId -> new ReplicaWidgetRepository(new WidgetStore(SpatialGrid.DEFAULT_CELL_SIZE));
+	}
+
+	/**
+	 * @param boards created with {@link #boardFactory()}
+	 */
+	public ReplicationFollower(BoardRepository boards, String host, int port, long reconnectMillis, MeterRegistry registry) {
+		this.boards = boards;
+		this.host = host;
+		this.port = port;
+		this.reconnectMillis = reconnectMillis;
+
+		Gauge.builder("miro.replication.lag", this, follower -> Math.max(0, follower.leaderPosition - follower.position))
+				.description("Records of the leader not applied yet, as of the last heartbeat")
+				.register(registry);
+		Gauge.builder("miro.replication.staleness", this, follower -> follower.stalenessMillis() / 1000.0)
+				.description("Time since the follower had every record of the leader")
+				.baseUnit("seconds")
+				.register(registry);
+
+		thread = new Thread(this::run, "replication-follower");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return position in the log of the leader up to which the records are applied
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * @return whether the records up to the position were applied within the timeout
+	 */
+	public boolean awaitPosition(long target, long timeoutMillis) {
+		if (position >= target) {
+			return true;
+		}
+
+		lock.lock();
+		try {
+			long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (position < target) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = applied.awaitNanos(nanos);
+			}
+			return true;
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return milliseconds since the follower had every record of the leader, {@link Long#MAX_VALUE}
+	 * 		   if it never had
+	 */
+	public long stalenessMillis() {
+		return synced ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - syncedAt) : Long.MAX_VALUE;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		final Socket current = socket;
+		if (current != null) {
+			current.close();
+		}
+		thread.interrupt();
+	}
+
+	private void run() {
+		while (!closed) {
+			try (Socket connection = new Socket()) {
+				socket = connection;
+				connection.connect(new InetSocketAddress(host, port), (int) Math.max(reconnectMillis, 1000));
+				if (connection.getLocalPort() == port && connection.getLocalAddress().equals(connection.getInetAddress())) {
+					// a connection to a free local port may pick that very port and connect to itself
+					throw new IOException("Connected to itself while the leader is down");
+				}
+				connection.setTcpNoDelay(true);
+				follow(connection);
+			} catch (final IOException ex) {
+				if (!closed) {
+					logger.warn("Replication from {}:{} broke: {}", host, port, ex.toString());
+				}
+			} catch (final RuntimeException ex) {
+				// the boards no longer match the records, start over from a snapshot
+				logger.error("Replication from {}:{} failed, taking a snapshot", host, port, ex);
+				leaderId = 0;
+			}
+
+			try {
+				Thread.sleep(reconnectMillis);
+			} catch (final InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	private void follow(Socket connection) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+		final ByteBuffer frame = ByteBuffer.allocate(ReplicationProtocol.MAX_FRAME_SIZE);
+		final WidgetMutationCodec codec = new WidgetMutationCodec();
+
+		frame.clear();
+		frame.putLong(leaderId);
+		frame.putLong(position);
+		ReplicationProtocol.writeFrame(out, ReplicationProtocol.HELLO, frame);
+		out.flush();
+
+		final Batch batch = new Batch();
+
+		while (!closed) {
+			final byte type = ReplicationProtocol.readFrame(in, frame);
+			if (type != ReplicationProtocol.RECORD) {
+				batch.apply();
+			}
+
+			switch (type) {
+			case ReplicationProtocol.SNAPSHOT:
+				// positions of another leader are taken once the snapshot is complete
+				leaderId = 0;
+				batch.startSnapshot(frame.getLong(), frame.getLong());
+				break;
+			case ReplicationProtocol.BOARD:
+				final String boardId = ReplicationProtocol.getBoardId(frame);
+				batch.snapshotLsns.put(boardId, frame.getLong());
+				boards.replaceBoard(boardId, new ReplicaWidgetRepository(readBoard(in, frame)));
+				replicated.add(boardId);
+				break;
+			case ReplicationProtocol.RECORD:
+				final ReplicationProtocol.Record record = ReplicationProtocol.readRecord(frame, codec);
+				if (record.lsn != batch.next) {
+					throw new IOException("Expected replication record " + batch.next + ", got " + record.lsn);
+				}
+				batch.add(record);
+				if (in.available() == 0) {
+					batch.apply();
+				}
+				break;
+			case ReplicationProtocol.HEARTBEAT:
+				batch.endSnapshot();
+				batch.apply();
+				leaderPosition = frame.getLong();
+				final long sentAgo = frame.getLong();
+				syncedAt = System.nanoTime() - sentAgo;
+				synced = true;
+				break;
+			default:
+				throw new IOException("Unknown replication frame " + type);
+			}
+		}
+	}
+
+	/**
+	 * Reads the widgets following a board frame into a store with the version of the board.
+	 */
+	private WidgetStore readBoard(DataInputStream in, ByteBuffer frame) throws IOException {
+		final long version = frame.getLong();
+		final int nextIdentifier = frame.getInt();
+		final int zIndexCounter = frame.getInt();
+		final int count = frame.getInt();
+
+		final Widget[] widgets = new Widget[count];
+		for (int read = 0; read < count;) {
+			if (ReplicationProtocol.readFrame(in, frame) != ReplicationProtocol.WIDGETS) {
+				throw new IOException("Snapshot of a board stops after " + read + " of " + count + " widgets");
+			}
+			while (frame.hasRemaining() && read < count) {
+				widgets[read++] = WidgetMutationCodec.readWidget(frame);
+			}
+		}
+
+		final WidgetStore store = new WidgetStore(SpatialGrid.DEFAULT_CELL_SIZE, version);
+		store.restore(nextIdentifier, zIndexCounter, widgets, count);
+		return store;
+	}
+
+	private void advance(long next) {
+		lock.lock();
+		try {
+			position = next;
+			applied.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records read and not applied yet, all of one board.
+	 */
+	private final class Batch {
+		final List<WidgetMutation> mutations = new ArrayList<>();
+		final List<Long> versions = new ArrayList<>();
+		// boards of the last snapshot by the position of their last record in it
+		final Map<String, Long> snapshotLsns = new HashMap<>();
+		String boardId;
+		long next = position;
+		// the position is not reached before every board of the snapshot is in place
+		boolean snapshot;
+		long snapshotLeaderId;
+
+		void startSnapshot(long leaderId, long from) {
+			next = from;
+			snapshot = true;
+			snapshotLeaderId = leaderId;
+			snapshotLsns.clear();
+		}
+
+		/**
+		 * Empties the boards replicated before that the leader no longer has, with versions its
+		 * boards never had.
+		 */
+		void endSnapshot() {
+			if (!snapshot) {
+				return;
+			}
+			snapshot = false;
+			for (final Iterator<String> boardIds = replicated.iterator(); boardIds.hasNext();) {
+				final String gone = boardIds.next();
+				if (!snapshotLsns.containsKey(gone)) {
+					boards.replaceBoard(gone, new ReplicaWidgetRepository(new WidgetStore(SpatialGrid.DEFAULT_CELL_SIZE)));
+					boardIds.remove();
+				}
+			}
+			leaderId = snapshotLeaderId;
+		}
+
+		void add(ReplicationProtocol.Record record) {
+			endSnapshot();
+			if (!record.boardId.equals(boardId)) {
+				apply();
+				boardId = record.boardId;
+			}
+			// the snapshot of the board already has the older ones
+			if (record.lsn > snapshotLsns.getOrDefault(record.boardId, -1L)) {
+				mutations.add(record.mutation);
+				versions.add(record.version);
+			}
+			next = record.lsn + 1;
+		}
+
+		void apply() {
+			if (!mutations.isEmpty()) {
+				replay();
+				mutations.clear();
+				versions.clear();
+			}
+			if (next != position && !snapshot) {
+				advance(next);
+			}
+		}
+
+		/**
+		 * Retries while readers hold the board past the lock timeout, the records must be applied
+		 * before the ones after them.
+		 */
+		private void replay() {
+			while (!closed) {
+				try {
+					replica(boardId, versions.get(0) - 1).replay(mutations, versions);
+					return;
+				} catch (final StorageBusyException ex) {
+					logger.debug("Board {} busy, retrying the replicated records", boardId);
+				}
+			}
+		}
+
+		/**
+		 * @return board to apply the records to, a board never replicated is replaced with one at the
+		 * 		   version before its first record
+		 */
+		private ReplicaWidgetRepository replica(String boardId, long version) {
+			final Optional<WidgetRepository> existing = boards.findBoard(boardId);
+			if (existing.isPresent() && replicated.contains(boardId)) {
+				return (ReplicaWidgetRepository) existing.get();
+			}
+
+			final ReplicaWidgetRepository created = new ReplicaWidgetRepository(new WidgetStore(SpatialGrid.DEFAULT_CELL_SIZE, version));
+			boards.replaceBoard(boardId, created);
+			replicated.add(boardId);
+			return created;
+		}
+	}
+}
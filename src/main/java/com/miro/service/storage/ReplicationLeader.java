@@ -0,0 +1,242 @@
+package com.miro.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Leader of the replication: its boards append their resolved mutations, shifts included, to a
+ * {@link ReplicationLog} and every follower connected over TCP gets them in order from a thread of
+ * its own. A follower asking for records no longer kept, or for the ones of another leader, first
+ * gets a snapshot of every board, each with the position of its last record in it.
+ *
+ * A heartbeat follows the records when there is nothing more to send, and at least every heartbeat
+ * interval while there is, telling the follower how long ago it was sent the whole log.
+ *
+ */
+public final class ReplicationLeader implements Closeable {
+
+	private static final int BATCH_SIZE = 256;
+
+	private final Logger logger = LoggerFactory.getLogger(ReplicationLeader.class);
+
+	private final ReplicationLog log;
+	private final long heartbeatNanos;
+	private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger followerThreads = new AtomicInteger();
+
+	private volatile ServerSocket server;
+	private volatile boolean closed;
+
+	/**
+	 * @param retainedRecords records kept for the followers catching up, a follower further behind
+	 * 		  starts over from a snapshot
+	 */
+	public ReplicationLeader(int retainedRecords, long heartbeatIntervalMillis, MeterRegistry registry) {
+		log = new ReplicationLog(retainedRecords);
+		heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMillis);
+
+		Gauge.builder("miro.replication.followers", followers, Set::size)
+				.description("Followers connected to the leader")
+				.register(registry);
+		Gauge.builder("miro.replication.position", log, ReplicationLog::nextLsn)
+				.description("Position of the next replication record")
+				.register(registry);
+	}
+
+	/**
+	 * @return creates the boards of the leader, the locking ones
+	 */
+	public Function<String, WidgetRepository> boardFactory() {
+		return boardId -> new ReplicatedWidgetRepository(boardId, log, SpatialGrid.DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @return position after the writes returned so far, a follower at it has them all
+	 */
+	public long position() {
+		return log.nextLsn();
+	}
+
+	/**
+	 * Starts taking followers.
+	 *
+	 * @param boards created with {@link #boardFactory()}
+	 * @param port 0 for any free one
+	 * @return port listened to
+	 */
+	public int start(BoardRepository boards, String host, int port) throws IOException {
+		server = new ServerSocket();
+		// a restarted leader takes the port back at once
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(host, port));
+
+		final Thread acceptor = new Thread(() -> accept(boards), "replication-leader");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Stops taking followers and disconnects the connected ones.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if (server != null) {
+			server.close();
+		}
+		for (final Socket follower: followers) {
+			follower.close();
+		}
+	}
+
+	private void accept(BoardRepository boards) {
+		while (!closed) {
+			try {
+				final Socket follower = server.accept();
+				follower.setTcpNoDelay(true);
+				followers.add(follower);
+
+				final Thread sender = new Thread(() -> serve(boards, follower), "replication-sender-" + followerThreads.incrementAndGet());
+				sender.setDaemon(true);
+				sender.start();
+			} catch (final IOException ex) {
+				if (!closed) {
+					logger.error("Failed to take a replication follower", ex);
+				}
+			}
+		}
+	}
+
+	private void serve(BoardRepository boards, Socket follower) {
+		try (Socket socket = follower) {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			final ByteBuffer frame = ByteBuffer.allocate(ReplicationProtocol.MAX_FRAME_SIZE);
+
+			if (ReplicationProtocol.readFrame(in, frame) != ReplicationProtocol.HELLO) {
+				throw new IOException("Replication follower did not say hello");
+			}
+			final long leaderId = frame.getLong();
+			final long position = frame.getLong();
+
+			long next;
+			if (leaderId == log.leaderId() && log.retains(position)) {
+				next = position;
+			} else {
+				logger.info("Sending a snapshot to replication follower {} at {}", socket.getRemoteSocketAddress(), position);
+				next = sendSnapshot(boards, out, frame);
+			}
+
+			stream(out, frame, next);
+		} catch (final IOException ex) {
+			if (!closed) {
+				logger.info("Replication follower {} disconnected: {}", follower.getRemoteSocketAddress(), ex.getMessage());
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			followers.remove(follower);
+		}
+	}
+
+	/**
+	 * Sends the records from the position as they are appended, until the follower is gone or
+	 * falls behind the records kept.
+	 */
+	private void stream(DataOutputStream out, ByteBuffer frame, long from) throws IOException, InterruptedException {
+		final byte[][] batch = new byte[BATCH_SIZE][];
+		long next = from;
+		// the records sent up to then were the whole log
+		long drainedAt = System.nanoTime();
+		long heartbeatAt = 0;
+
+		while (!closed) {
+			final int count = log.read(next, batch, heartbeatNanos);
+			if (count < 0) {
+				throw new IOException("Follower fell behind the records kept at " + next);
+			}
+			final long now = System.nanoTime();
+			if (count < batch.length) {
+				drainedAt = now;
+			}
+
+			for (int i = 0; i < count; i++) {
+				ReplicationProtocol.writeFrame(out, ReplicationProtocol.RECORD, batch[i]);
+				batch[i] = null;
+			}
+			next += count;
+
+			if (count < batch.length || now - heartbeatAt >= heartbeatNanos) {
+				frame.clear();
+				frame.putLong(log.nextLsn());
+				frame.putLong(now - drainedAt);
+				ReplicationProtocol.writeFrame(out, ReplicationProtocol.HEARTBEAT, frame);
+				out.flush();
+				heartbeatAt = now;
+			}
+		}
+	}
+
+	/**
+	 * @return position the records after the snapshot start at
+	 */
+	private long sendSnapshot(BoardRepository boards, DataOutputStream out, ByteBuffer frame) throws IOException {
+		// a record of a board after its image is at or after it
+		final long from = log.nextLsn();
+		frame.clear();
+		frame.putLong(log.leaderId());
+		frame.putLong(from);
+		ReplicationProtocol.writeFrame(out, ReplicationProtocol.SNAPSHOT, frame);
+
+		for (final String boardId: boards.boardIds()) {
+			final Optional<WidgetRepository> board = boards.findBoard(boardId);
+			if (!board.isPresent()) {
+				continue;
+			}
+
+			final ReplicatedWidgetRepository.Image image = ((ReplicatedWidgetRepository) board.get()).image();
+			frame.clear();
+			ReplicationProtocol.putBoardId(boardId, frame);
+			frame.putLong(image.lsn);
+			frame.putLong(image.version);
+			frame.putInt(image.nextIdentifier);
+			frame.putInt(image.zIndexCounter);
+			frame.putInt(image.widgets.size());
+			ReplicationProtocol.writeFrame(out, ReplicationProtocol.BOARD, frame);
+
+			for (int start = 0; start < image.widgets.size(); start += ReplicationProtocol.WIDGETS_PER_FRAME) {
+				frame.clear();
+				for (final Widget widget: image.widgets.subList(start, Math.min(image.widgets.size(), start + ReplicationProtocol.WIDGETS_PER_FRAME))) {
+					WidgetMutationCodec.writeWidget(widget, frame);
+				}
+				ReplicationProtocol.writeFrame(out, ReplicationProtocol.WIDGETS, frame);
+			}
+		}
+
+		return from;
+	}
+}
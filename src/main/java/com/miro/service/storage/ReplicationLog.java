@@ -0,0 +1,114 @@
+package com.miro.service.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * Records of the mutations of every board of the leader in the order they were applied, the last
+ * ones kept in memory for the followers to read. A position is the sequence number of a record,
+ * the records of a board are in the order of its versions. A follower needing a record no longer
+ * kept starts over from a snapshot.
+ *
+ */
+final class ReplicationLog {
+
+	private final long leaderId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+	// encoded records by position modulo the capacity
+	private final byte[][] records;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+	private final WidgetMutationCodec codec = new WidgetMutationCodec();
+	private final ByteBuffer encoded = ByteBuffer.allocate(ReplicationProtocol.MAX_RECORD_SIZE);
+
+	private long nextLsn;
+
+	/**
+	 * @param capacity records kept
+	 */
+	ReplicationLog(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Replication log capacity should be positive, got " + capacity);
+		}
+		records = new byte[capacity][];
+	}
+
+	/**
+	 * @return identifier of this log, positions of different logs have nothing in common
+	 */
+	long leaderId() {
+		return leaderId;
+	}
+
+	/**
+	 * @param version version of the board after the mutation
+	 * @return position of the record
+	 */
+	long append(String boardId, long version, WidgetMutation mutation) {
+		lock.lock();
+		try {
+			encoded.clear();
+			ReplicationProtocol.writeRecord(nextLsn, boardId, version, mutation, codec, encoded);
+			records[(int) (nextLsn % records.length)] = Arrays.copyOf(encoded.array(), encoded.position());
+
+			appended.signalAll();
+			return nextLsn++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return position the next record will get
+	 */
+	long nextLsn() {
+		lock.lock();
+		try {
+			return nextLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether a follower at the position can read on from there
+	 */
+	boolean retains(long lsn) {
+		lock.lock();
+		try {
+			return lsn <= nextLsn && lsn >= nextLsn - records.length;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the records from the position, waits for one up to the timeout if there is none yet.
+	 *
+	 * @return number of encoded records put to the batch, -1 if the first one is no longer kept
+	 */
+	int read(long from, byte[][] batch, long timeoutNanos) throws InterruptedException {
+		lock.lock();
+		try {
+			long nanos = timeoutNanos;
+			while (from == nextLsn && nanos > 0) {
+				nanos = appended.awaitNanos(nanos);
+			}
+			if (from > nextLsn || from < nextLsn - records.length) {
+				return -1;
+			}
+
+			final int count = (int) Math.min(batch.length, nextLsn - from);
+			for (int i = 0; i < count; i++) {
+				batch[i] = records[(int) ((from + i) % records.length)];
+			}
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
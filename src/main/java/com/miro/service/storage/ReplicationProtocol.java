@@ -0,0 +1,122 @@
+package com.miro.service.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * Frames exchanged by the replication leader and its followers over TCP: a type, the length of
+ * the payload and the payload, big endian. A follower says which position of which leader it is
+ * at, the leader answers with a snapshot of every board if it no longer has the records from
+ * there, then with the records as they are appended and a heartbeat when there is nothing to send.
+ *
+ */
+final class ReplicationProtocol {
+
+	// follower: identifier of the leader it replicated, 0 for none, and the position it is at
+	static final byte HELLO = 1;
+	// leader: its identifier and the position the records after the snapshot start at
+	static final byte SNAPSHOT = 2;
+	// leader: board, position of its last record in the snapshot, version, counters and widget count
+	static final byte BOARD = 3;
+	// leader: next widgets of the last board, up to WIDGETS_PER_FRAME
+	static final byte WIDGETS = 4;
+	// leader: position, board, version of the board after the mutation and the mutation
+	static final byte RECORD = 5;
+	// leader: its position and nanoseconds since the records sent were the whole log
+	static final byte HEARTBEAT = 6;
+
+	static final int WIDGETS_PER_FRAME = 1024;
+	static final int MAX_RECORD_SIZE = Long.BYTES + 1 + 64 + Long.BYTES + WidgetMutationCodec.MAX_RECORD_SIZE;
+	static final int MAX_FRAME_SIZE = Integer.BYTES + WIDGETS_PER_FRAME * WidgetMutationCodec.WIDGET_SIZE;
+
+	private ReplicationProtocol() {
+	}
+
+	/**
+	 * @param payload written from its start to its position
+	 */
+	static void writeFrame(DataOutputStream out, byte type, ByteBuffer payload) throws IOException {
+		out.writeByte(type);
+		out.writeInt(payload.position());
+		out.write(payload.array(), 0, payload.position());
+	}
+
+	static void writeFrame(DataOutputStream out, byte type, byte[] payload) throws IOException {
+		out.writeByte(type);
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+
+	/**
+	 * @param payload filled with the payload of the frame, at least {@link #MAX_FRAME_SIZE} bytes
+	 * @return type of the frame
+	 */
+	static byte readFrame(DataInputStream in, ByteBuffer payload) throws IOException {
+		final byte type = in.readByte();
+		final int length = in.readInt();
+		if (length < 0 || length > payload.capacity()) {
+			throw new IOException("Malformed replication frame of " + length + " bytes");
+		}
+
+		in.readFully(payload.array(), 0, length);
+		payload.clear().limit(length);
+		return type;
+	}
+
+	static void writeRecord(long lsn, String boardId, long version, WidgetMutation mutation, WidgetMutationCodec codec, ByteBuffer out) {
+		out.putLong(lsn);
+		putBoardId(boardId, out);
+		out.putLong(version);
+		codec.write(mutation, out);
+	}
+
+	static Record readRecord(ByteBuffer in, WidgetMutationCodec codec) throws IOException {
+		final long lsn = in.getLong();
+		final String boardId = getBoardId(in);
+		final long version = in.getLong();
+		final WidgetMutation mutation = codec.read(in);
+		if (mutation == null) {
+			throw new IOException("Corrupted replication record " + lsn);
+		}
+
+		return new Record(lsn, boardId, version, mutation);
+	}
+
+	/**
+	 * Board identifiers are ASCII, at most 64 characters.
+	 */
+	static void putBoardId(String boardId, ByteBuffer out) {
+		final byte[] bytes = boardId.getBytes(StandardCharsets.US_ASCII);
+		out.put((byte) bytes.length);
+		out.put(bytes);
+	}
+
+	static String getBoardId(ByteBuffer in) throws IOException {
+		final byte[] bytes = new byte[in.get()];
+		in.get(bytes);
+
+		final String boardId = new String(bytes, StandardCharsets.US_ASCII);
+		if (!BoardRepository.isValidBoardId(boardId)) {
+			throw new IOException("Malformed board id in a replication frame " + boardId);
+		}
+		return boardId;
+	}
+
+	static final class Record {
+		final long lsn;
+		final String boardId;
+		final long version;
+		final WidgetMutation mutation;
+
+		Record(long lsn, String boardId, long version, WidgetMutation mutation) {
+			this.lsn = lsn;
+			this.boardId = boardId;
+			this.version = version;
+			this.mutation = mutation;
+		}
+	}
+}
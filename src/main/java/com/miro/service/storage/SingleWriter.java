@@ -0,0 +1,244 @@
+package com.miro.service.storage;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ *
+ * The one thread applying the writes of the {@link SingleWriterWidgetRepository} boards. Callers
+ * put their writes in a bounded {@link WriteRing} and wait for a future instead of competing for
+ * the lock of the board. The writer drains the ring in batches and applies consecutive writes to
+ * a board under one acquisition of its lock, so a batch pays for the lock and the change
+ * notification once. A future completes once the lock is released and readers see the write.
+ *
+ * A write finding the ring full waits for room as long as a write waits for the lock of a
+ * locking board, then fails. A queued write the writer does not take within a second is dropped
+ * and fails the same way, and whatever a run of writes throws fails those writes only, so no
+ * caller waits for ever.
+ *
+ */
+public final class SingleWriter implements MeterBinder, Closeable {
+
+	static final int MAX_BATCH = 256;
+
+	private static final long QUEUE_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long RESULT_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+	private final WriteRing<Write<?>> ring;
+	private final Thread thread;
+
+	private volatile boolean running = true;
+	// the writer is about to park or parked
+	private volatile boolean idle;
+
+	private volatile DistributionSummary batchSizes;
+
+	/**
+	 * @param capacity writes waiting at most, a power of two
+	 */
+	public SingleWriter(int capacity) {
+		ring = new WriteRing<>(capacity);
+		thread = new Thread(this::run, "widget-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		batchSizes = DistributionSummary.builder("miro.storage.writer.batch")
+				.description("Writes applied by the writer in one batch")
+				.register(registry);
+		Gauge.builder("miro.storage.writer.queued", ring, WriteRing::size)
+				.description("Writes waiting for the writer")
+				.register(registry);
+	}
+
+	/**
+	 * Applies the action to the store of the board on the writer and waits for it.
+	 *
+	 * @throws StorageBusyException if the ring stays full or the writer does not take the write in
+	 * 		   time, it is not applied then
+	 * @throws StorageException if the lock of the board can't be taken
+	 */
+	<T> T write(SingleWriterWidgetRepository board, String operation, Function<WidgetStore, T> action) {
+		final Write<T> write = new Write<>(board, action);
+		if (!offer(write)) {
+			throw new StorageBusyException("Failed to queue write to " + operation);
+		}
+
+		try {
+			try {
+				return write.future.get(RESULT_TIMEOUT, TimeUnit.NANOSECONDS);
+			} catch (final TimeoutException ex) {
+				if (write.abandon()) {
+					throw new StorageBusyException("Writer did not take the write to " + operation + " in time");
+				}
+				// taken meanwhile, it waits for the lock of the board at most
+				return write.future.get(RESULT_TIMEOUT, TimeUnit.NANOSECONDS);
+			}
+		} catch (final ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new StorageException("Failed to " + operation, ex.getCause());
+		} catch (final TimeoutException ex) {
+			throw new StorageException("Write to " + operation + " taken and not done in time, it may be applied", ex);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			final boolean abandoned = write.abandon();
+			throw new StorageException("Interrupted waiting to " + operation + (abandoned ? "" : ", it may be applied"), ex);
+		}
+	}
+
+	/**
+	 * Applies the writes already queued and stops the writer.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(TimeUnit.MINUTES.toMillis(1));
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean offer(Write<?> write) {
+		final long deadline = System.nanoTime() + QUEUE_TIMEOUT;
+		while (!ring.offer(write)) {
+			if (!running || System.nanoTime() - deadline > 0) {
+				return false;
+			}
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+		}
+
+		if (!running) {
+			// may have come after the writer stopped
+			write.future.completeExceptionally(new StorageException("Writer is closed"));
+		}
+		if (idle) {
+			LockSupport.unpark(thread);
+		}
+		return true;
+	}
+
+	private void run() {
+		final Write<?>[] batch = new Write<?>[MAX_BATCH];
+
+		while (running || !ring.isEmpty()) {
+			final int count = ring.drainTo(batch);
+			if (count == 0) {
+				park();
+				continue;
+			}
+
+			final DistributionSummary batchSizes = this.batchSizes;
+			if (batchSizes != null) {
+				batchSizes.record(count);
+			}
+
+			int start = 0;
+			while (start < count) {
+				final SingleWriterWidgetRepository board = batch[start].board;
+				int end = start + 1;
+				while (end < count && batch[end].board == board) {
+					end++;
+				}
+
+				try {
+					board.applyAll(batch, start, end);
+				} catch (final Throwable ex) {
+					// a change listener throwing, say: the writes of the run fail, the writer goes on
+					for (int i = start; i < end; i++) {
+						batch[i].fail(ex);
+					}
+				}
+				for (int i = start; i < end; i++) {
+					batch[i].complete();
+					batch[i] = null;
+				}
+				start = end;
+			}
+		}
+	}
+
+	private void park() {
+		idle = true;
+		// a producer publishing after this check sees the flag and unparks
+		if (running && ring.isEmpty()) {
+			LockSupport.park(this);
+		}
+		idle = false;
+	}
+
+	/**
+	 * A write waiting in the ring, then its result until the lock of its board is released.
+	 */
+	static final class Write<T> {
+		private static final int QUEUED = 0;
+		private static final int TAKEN = 1;
+		private static final int ABANDONED = 2;
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Write> STATE = AtomicIntegerFieldUpdater.newUpdater(Write.class, "state");
+
+		final SingleWriterWidgetRepository board;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private final Function<WidgetStore, T> action;
+		private volatile int state = QUEUED;
+		private T result;
+		private Throwable failure;
+
+		Write(SingleWriterWidgetRepository board, Function<WidgetStore, T> action) {
+			this.board = board;
+			this.action = action;
+		}
+
+		/**
+		 * Applies the write unless its caller gave up on it, a failure fails this write only.
+		 */
+		void apply(WidgetStore store) {
+			if (!STATE.compareAndSet(this, QUEUED, TAKEN)) {
+				return;
+			}
+			try {
+				result = action.apply(store);
+			} catch (final RuntimeException ex) {
+				failure = ex;
+			}
+		}
+
+		/**
+		 * @return whether the write will not be applied, false if the writer took it already
+		 */
+		boolean abandon() {
+			return STATE.compareAndSet(this, QUEUED, ABANDONED) || state == ABANDONED;
+		}
+
+		void fail(Throwable ex) {
+			if (failure == null) {
+				failure = ex;
+			}
+		}
+
+		void complete() {
+			if (failure != null) {
+				future.completeExceptionally(failure);
+			} else {
+				future.complete(result);
+			}
+		}
+	}
+}
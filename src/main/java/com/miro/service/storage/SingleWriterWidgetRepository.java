@@ -0,0 +1,70 @@
+package com.miro.service.storage;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * Board whose writes are applied by the shared {@link SingleWriter} instead of the calling
+ * threads. Reads take the read lock of the board as before; the writer takes the write lock once
+ * for a run of writes to the board and the change listener is told once for the run.
+ *
+ */
+public class SingleWriterWidgetRepository extends InMemoryWidgetRepository {
+
+	private final SingleWriter writer;
+
+	public SingleWriterWidgetRepository(SingleWriter writer) {
+		this(writer, SpatialGrid.DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize side of the spatial index cell, in board coordinates
+	 */
+	public SingleWriterWidgetRepository(SingleWriter writer, int cellSize) {
+		super(cellSize);
+		this.writer = writer;
+	}
+
+	@Override
+	public boolean deleteWidget(int id) {
+		return writer.write(this, "delete widget", s -> s.deleteWidget(id));
+	}
+
+	@Override
+	public Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
+		return writer.write(this, "update widget", s -> s.updateWidget(id, request));
+	}
+
+	@Override
+	public Widget createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		return writer.write(this, "create widget", s -> s.createWidget(x, y, zIndex, height, width));
+	}
+
+	@Override
+	public List<Optional<Widget>> applyBatch(List<BatchOperation> operations) {
+		return writer.write(this, "apply batch", s -> s.applyBatch(operations));
+	}
+
+	/**
+	 * Applies the writes from the batch in order under one write lock, on the writer only.
+	 */
+	void applyAll(SingleWriter.Write<?>[] batch, int from, int to) {
+		try {
+			write("apply writes", s -> {
+				for (int i = from; i < to; i++) {
+					batch[i].apply(s);
+				}
+				return null;
+			});
+		} catch (final StorageException ex) {
+			for (int i = from; i < to; i++) {
+				batch[i].fail(ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.miro.service.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Whole board written in Z-index order: a header with the sequence number of the first log record
+ * not included and the store counters, fixed size widget records and a checksum of the records.
+ * A snapshot is written to a temporary file and renamed, so a visible snapshot is always complete.
+ *
+ */
+final class SnapshotFile {
+
+	private static final String PREFIX = "snapshot-";
+	private static final String SUFFIX = ".bin";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private static final int MAGIC = 0x4F52494D;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES + 3 * Integer.BYTES;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	// widgets per mapped region, keeps a region under the 2GB limit of a buffer
+	private static final int MAPPED_WIDGETS = 1 << 24;
+
+	private SnapshotFile() {
+	}
+
+	/**
+	 * Writes the store as the state before the log record with the given sequence number.
+	 */
+	static void write(Path directory, long lsn, WidgetStore store) throws IOException {
+		final Path temporary = directory.resolve(PREFIX + lsn + TEMPORARY_SUFFIX);
+		final CRC32C checksum = new CRC32C();
+
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(lsn);
+			buffer.putInt(store.nextIdentifier());
+			buffer.putInt(store.zIndexCounter());
+			buffer.putInt(store.size());
+
+			final int[] recordsStart = { HEADER_SIZE };
+			try {
+				store.forEachSortedByZIndex(widget -> {
+					if (buffer.remaining() < WidgetMutationCodec.WIDGET_SIZE) {
+						drain(channel, buffer, checksum, recordsStart[0]);
+						recordsStart[0] = 0;
+					}
+					WidgetMutationCodec.writeWidget(widget, buffer);
+				});
+			} catch (final UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+			drain(channel, buffer, checksum, recordsStart[0]);
+
+			buffer.putInt((int) checksum.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+
+		Files.move(temporary, directory.resolve(String.format("%s%020d%s", PREFIX, lsn, SUFFIX)), StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(directory);
+	}
+
+	/**
+	 * Maps the snapshot and fills the empty store with it.
+	 *
+	 * @return sequence number of the first log record not included
+	 */
+	static long read(Path snapshot, WidgetStore store) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new StorageException("Truncated snapshot " + snapshot);
+			}
+
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new StorageException("Unknown snapshot format " + snapshot);
+			}
+			final long lsn = header.getLong();
+			final int nextIdentifier = header.getInt();
+			final int zIndexCounter = header.getInt();
+			final int count = header.getInt();
+
+			final long recordsSize = (long) count * WidgetMutationCodec.WIDGET_SIZE;
+			if (count < 0 || channel.size() != HEADER_SIZE + recordsSize + Integer.BYTES) {
+				throw new StorageException("Truncated snapshot " + snapshot);
+			}
+
+			final CRC32C checksum = new CRC32C();
+			final Widget[] widgets = new Widget[count];
+			long position = HEADER_SIZE;
+			for (int read = 0; read < count;) {
+				final int mapped = Math.min(count - read, MAPPED_WIDGETS);
+				final MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) mapped * WidgetMutationCodec.WIDGET_SIZE);
+				records.order(ByteOrder.LITTLE_ENDIAN);
+
+				checksum.update(records.duplicate());
+				for (int i = 0; i < mapped; i++) {
+					widgets[read++] = WidgetMutationCodec.readWidget(records);
+				}
+				position += (long) mapped * WidgetMutationCodec.WIDGET_SIZE;
+			}
+
+			final ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, position, Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (trailer.getInt() != (int) checksum.getValue()) {
+				throw new StorageException("Corrupted snapshot " + snapshot);
+			}
+
+			try {
+				store.restore(nextIdentifier, zIndexCounter, widgets, count);
+			} catch (final IllegalArgumentException ex) {
+				throw new StorageException("Corrupted snapshot " + snapshot, ex);
+			}
+			return lsn;
+		}
+	}
+
+	/**
+	 * @return snapshots of the directory by the sequence number they stop at
+	 */
+	static SortedMap<Long, Path> snapshots(Path directory) throws IOException {
+		final SortedMap<Long, Path> result = new TreeMap<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> {
+				final String name = file.getFileName().toString();
+				if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+					result.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Makes the files created or renamed in the directory survive a power failure.
+	 */
+	static void syncDirectory(Path directory) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer buffer, CRC32C checksum, int recordsStart) {
+		buffer.flip();
+
+		final ByteBuffer records = buffer.duplicate();
+		records.position(recordsStart);
+		checksum.update(records);
+
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (final IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		buffer.clear();
+	}
+}
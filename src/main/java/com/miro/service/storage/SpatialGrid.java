@@ -0,0 +1,123 @@
+package com.miro.service.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Uniform grid over the board, mapping each cell to the identifiers of the widgets overlapping it.
+ * A widget occupies the rectangle [x, x + width] x [y, y + height]. Widgets covering too many cells
+ * are kept aside and reported as candidates for every query, so one huge background widget
+ * doesn't blow up the index.
+ *
+ * Not thread safe, guarded by the owning repository.
+ *
+ */
+final class SpatialGrid {
+
+	static final int DEFAULT_CELL_SIZE = 512;
+	private static final int MAX_CELLS_PER_WIDGET = 64;
+
+	private final int cellSize;
+	private final HashMap<Long, IntHashSet> cells = new HashMap<>();
+	private final IntHashSet oversized = new IntHashSet(0);
+
+	SpatialGrid(int cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size should be positive, got " + cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	void add(Widget widget) {
+		final long x1 = cell(widget.xCoordinate()), x2 = cell(widget.xCoordinate() + widget.width());
+		final long y1 = cell(widget.yCoordinate()), y2 = cell(widget.yCoordinate() + widget.height());
+
+		if (area(x1, y1, x2, y2) > MAX_CELLS_PER_WIDGET) {
+			oversized.add(widget.widgetId());
+			return;
+		}
+
+		for (long cx = x1; cx <= x2; cx++) {
+			for (long cy = y1; cy <= y2; cy++) {
+				cells.computeIfAbsent(key(cx, cy), k -> new IntHashSet(0)).add(widget.widgetId());
+			}
+		}
+	}
+
+	void remove(Widget widget) {
+		if (oversized.remove(widget.widgetId())) {
+			return;
+		}
+
+		final long x1 = cell(widget.xCoordinate()), x2 = cell(widget.xCoordinate() + widget.width());
+		final long y1 = cell(widget.yCoordinate()), y2 = cell(widget.yCoordinate() + widget.height());
+
+		for (long cx = x1; cx <= x2; cx++) {
+			for (long cy = y1; cy <= y2; cy++) {
+				final Long key = key(cx, cy);
+				final IntHashSet ids = cells.get(key);
+				if (ids != null && ids.remove(widget.widgetId()) && ids.isEmpty()) {
+					cells.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports identifiers of widgets which may intersect the given area, every identifier once.
+	 * The caller has to check the exact bounds.
+	 */
+	void candidates(double x1, double y1, double x2, double y2, IntConsumer consumer) {
+		final long cx1 = cell(x1), cx2 = cell(x2);
+		final long cy1 = cell(y1), cy2 = cell(y2);
+		final IntHashSet seen = new IntHashSet(0);
+
+		if (area(cx1, cy1, cx2, cy2) > cells.size()) {
+			for (final Map.Entry<Long, IntHashSet> cell: cells.entrySet()) {
+				final long cx = cell.getKey() >> 32, cy = (int) cell.getKey().longValue();
+				if (cx >= cx1 && cx <= cx2 && cy >= cy1 && cy <= cy2) {
+					report(cell.getValue(), seen, consumer);
+				}
+			}
+		} else {
+			for (long cx = cx1; cx <= cx2; cx++) {
+				for (long cy = cy1; cy <= cy2; cy++) {
+					final IntHashSet ids = cells.get(key(cx, cy));
+					if (ids != null) {
+						report(ids, seen, consumer);
+					}
+				}
+			}
+		}
+
+		report(oversized, seen, consumer);
+	}
+
+	static boolean intersects(int x, int y, double width, double height, double x1, double y1, double x2, double y2) {
+		return x <= x2 && x + width >= x1 && y <= y2 && y + height >= y1;
+	}
+
+	private static void report(IntHashSet ids, IntHashSet seen, IntConsumer consumer) {
+		ids.forEach(id -> {
+			if (seen.add(id)) {
+				consumer.accept(id);
+			}
+		});
+	}
+
+	private static double area(long x1, long y1, long x2, long y2) {
+		return (x2 - x1 + 1.0) * (y2 - y1 + 1.0);
+	}
+
+	private long cell(double coordinate) {
+		return (long) Math.floor(coordinate / cellSize);
+	}
+
+	private static Long key(long cx, long cy) {
+		return (cx << 32) | (cy & 0xffffffffL);
+	}
+}
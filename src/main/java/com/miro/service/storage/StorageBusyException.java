@@ -0,0 +1,16 @@
+package com.miro.service.storage;
+
+/**
+ *
+ * The storage could not take the operation in time: the lock of the board, the write queue or the
+ * sync of the log stayed busy past its timeout. Nothing was applied, the operation can be retried.
+ *
+ */
+public class StorageBusyException extends StorageException {
+
+	private static final long serialVersionUID = 1L;
+
+	public StorageBusyException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,126 @@
+package com.miro.service.storage;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ *
+ * Lock and rearrangement meters of a repository. Values go to {@link StripedHistogram}s, which
+ * the registry reads when it publishes: a recording costs an increment, where a percentile timer
+ * of the registry costs several hundred nanoseconds. The clock reads of a lock timing still cost
+ * more than a lookup, so one acquisition in {@link #LOCK_SAMPLING} is timed and the lock counts and
+ * totals are scaled up; timeouts and shifts are counted exactly. The disabled instance records
+ * nothing and does not even read the clock.
+ *
+ */
+final class StorageMetrics {
+
+	static final StorageMetrics DISABLED = new StorageMetrics();
+
+	private static final int LOCK_SAMPLING = 16;
+	// lock acquisition not timed
+	private static final long UNTIMED = Long.MIN_VALUE;
+
+	private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+	private final MeterRegistry registry;
+	private final StripedHistogram readWait;
+	private final StripedHistogram readHold;
+	private final StripedHistogram writeWait;
+	private final StripedHistogram writeHold;
+	private final StripedHistogram shiftedWidgets;
+
+	private StorageMetrics() {
+		registry = null;
+		readWait = null;
+		readHold = null;
+		writeWait = null;
+		writeHold = null;
+		shiftedWidgets = null;
+	}
+
+	StorageMetrics(MeterRegistry registry) {
+		this.registry = registry;
+		readWait = lockTimer("miro.storage.lock.wait", "read", "Time waited for the repository lock");
+		readHold = lockTimer("miro.storage.lock.hold", "read", "Time the repository lock was held");
+		writeWait = lockTimer("miro.storage.lock.wait", "write", "Time waited for the repository lock");
+		writeHold = lockTimer("miro.storage.lock.hold", "write", "Time the repository lock was held");
+
+		shiftedWidgets = new StripedHistogram();
+		FunctionCounter.builder("miro.storage.rearrangements", shiftedWidgets, StripedHistogram::count)
+				.description("Writes taking an occupied Z-index")
+				.register(registry);
+		FunctionCounter.builder("miro.storage.shifted.widgets", shiftedWidgets, StripedHistogram::sum)
+				.description("Widgets shifted up by writes taking an occupied Z-index")
+				.register(registry);
+		for (final double phi: PERCENTILES) {
+			Gauge.builder("miro.storage.shifted.widgets.percentile", shiftedWidgets, histogram -> histogram.percentile(phi))
+					.tag("phi", String.valueOf(phi))
+					.description("Widgets shifted up by one write taking an occupied Z-index")
+					.register(registry);
+		}
+	}
+
+	/**
+	 * @return start of the wait for a lock
+	 */
+	long startWaiting() {
+		if (registry == null || ThreadLocalRandom.current().nextInt(LOCK_SAMPLING) != 0) {
+			return UNTIMED;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * @return start of the lock hold
+	 */
+	long lockAcquired(boolean write, long waitStart) {
+		if (waitStart == UNTIMED) {
+			return UNTIMED;
+		}
+
+		final long now = System.nanoTime();
+		(write ? writeWait : readWait).record(now - waitStart);
+		return now;
+	}
+
+	void lockReleased(boolean write, long holdStart) {
+		if (holdStart != UNTIMED) {
+			(write ? writeHold : readHold).record(System.nanoTime() - holdStart);
+		}
+	}
+
+	void lockTimedOut(String operation) {
+		if (registry != null) {
+			registry.counter("miro.storage.lock.timeouts", "operation", operation).increment();
+		}
+	}
+
+	void widgetsShifted(int count) {
+		if (registry != null) {
+			shiftedWidgets.record(count);
+		}
+	}
+
+	private StripedHistogram lockTimer(String name, String lock, String description) {
+		final StripedHistogram histogram = new StripedHistogram();
+
+		FunctionTimer.builder(name, histogram, h -> h.count() * LOCK_SAMPLING, h -> h.sum() * LOCK_SAMPLING, TimeUnit.NANOSECONDS)
+				.tag("lock", lock)
+				.description(description)
+				.register(registry);
+		for (final double phi: PERCENTILES) {
+			Gauge.builder(name + ".percentile", histogram, h -> h.percentile(phi) / 1e9)
+					.tags("lock", lock, "phi", String.valueOf(phi))
+					.baseUnit("seconds")
+					.description(description)
+					.register(registry);
+		}
+		return histogram;
+	}
+}
@@ -0,0 +1,108 @@
+package com.miro.service.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Lock-free histogram of non-negative longs, four buckets per power of two so a percentile is
+ * within 25% of the recorded value. Recording is an increment in the stripe of the recording
+ * thread and an addition to the sum, the buckets are only walked when the percentiles are read.
+ * Percentiles cover the values recorded over the last one to two windows.
+ *
+ */
+final class StripedHistogram {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+	private static final long WINDOW = TimeUnit.MINUTES.toNanos(1);
+
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+	private final LongAdder sum = new LongAdder();
+
+	// bucket counts at the start of the previous and the current window, guarded by this
+	private long[] previousWindow = new long[BUCKETS];
+	private long[] currentWindow = new long[BUCKETS];
+	private long windowStart = System.nanoTime();
+
+	void record(long value) {
+		final int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & (STRIPES - 1);
+		counts.incrementAndGet(stripe * BUCKETS + bucket(Math.max(0, value)));
+		sum.add(value);
+	}
+
+	/**
+	 * @return values recorded since creation
+	 */
+	long count() {
+		long result = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			result += counts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return sum of the values recorded since creation
+	 */
+	long sum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return upper bound of the bucket holding the percentile, 0 if nothing was recorded lately
+	 */
+	synchronized long percentile(double phi) {
+		final long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < counts.length(); i++) {
+			snapshot[i % BUCKETS] += counts.get(i);
+		}
+
+		final long now = System.nanoTime();
+		if (now - windowStart >= WINDOW) {
+			previousWindow = currentWindow;
+			currentWindow = snapshot;
+			windowStart = now;
+		}
+
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += snapshot[i] - previousWindow[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long) Math.ceil(phi * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i] - previousWindow[i];
+			if (seen >= rank) {
+				return i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	private static long lowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		final int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+	}
+}
@@ -0,0 +1,275 @@
+package com.miro.service.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * Board of a {@link BoardTier}: a locking repository while it is resident, a snapshot file after
+ * it was evicted, which the next operation loads back. The board object stays in the board map
+ * either way, so callers holding it never see the difference, only its widgets leave the heap.
+ *
+ * Operations share the residency lock, eviction takes it exclusively and gives up if the board
+ * is in use. A board loaded back starts from a version above the one it was evicted at.
+ *
+ */
+final class TieredWidgetRepository implements WidgetRepository, MeterBinder, MeteredRepository, ObservableRepository, LockingRepository {
+
+	private final BoardTier tier;
+	private final Path directory;
+	private final int cellSize;
+	private final ReentrantReadWriteLock residency = new ReentrantReadWriteLock();
+
+	// null while evicted, changed under the residency write lock
+	private volatile InMemoryWidgetRepository board;
+	private volatile long evictedVersion;
+	private volatile int evictedWidgets;
+
+	private volatile StorageMetrics metrics = StorageMetrics.DISABLED;
+	private volatile LockTimeouts lockTimeouts = LockTimeouts.DEFAULT;
+	private volatile Runnable changeListener = () -> {};
+	private volatile ChangeLog.Visitor widgetListener;
+
+	/**
+	 * @param directory the snapshot of the board is written to while it is evicted
+	 */
+	TieredWidgetRepository(BoardTier tier, Path directory, int cellSize) {
+		this.tier = tier;
+		this.directory = directory;
+		this.cellSize = cellSize;
+		board = configured(new InMemoryWidgetRepository(new WidgetStore(cellSize)));
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("miro.storage.widgets", this, TieredWidgetRepository::widgetCount)
+				.description("Widgets on the board")
+				.register(registry);
+		useMetrics(new StorageMetrics(registry));
+	}
+
+	@Override
+	public void useMetrics(StorageMetrics metrics) {
+		this.metrics = metrics;
+		withResident(board -> board.useMetrics(metrics));
+	}
+
+	@Override
+	public void useLockTimeouts(LockTimeouts timeouts) {
+		lockTimeouts = timeouts;
+		withResident(board -> board.useLockTimeouts(timeouts));
+	}
+
+	@Override
+	public void changeListener(Runnable listener) {
+		changeListener = listener;
+		withResident(board -> board.changeListener(listener));
+	}
+
+	@Override
+	public void widgetListener(ChangeLog.Visitor listener) {
+		widgetListener = listener;
+		withResident(board -> board.widgetListener(listener));
+	}
+
+	/**
+	 * @return widgets of the board, the ones it was evicted with while it is not resident
+	 */
+	@Override
+	public int widgetCount() {
+		final InMemoryWidgetRepository resident = board;
+		return resident != null ? resident.widgetCount() : evictedWidgets;
+	}
+
+	@Override
+	public Optional<Widget> findWidgetById(int id) {
+		return read(board -> board.findWidgetById(id));
+	}
+
+	@Override
+	public List<Widget> listWidgetsSortedByZIndex() {
+		return read(InMemoryWidgetRepository::listWidgetsSortedByZIndex);
+	}
+
+	@Override
+	public long version() {
+		return read(InMemoryWidgetRepository::version);
+	}
+
+	@Override
+	public WidgetChanges findChangesSince(long version) {
+		return read(board -> board.findChangesSince(version));
+	}
+
+	@Override
+	public WidgetSnapshot snapshotSortedByZIndex() {
+		return read(InMemoryWidgetRepository::snapshotSortedByZIndex);
+	}
+
+	@Override
+	public WidgetPage listWidgetsSortedByZIndex(Optional<Integer> afterZIndex, int limit) {
+		return read(board -> board.listWidgetsSortedByZIndex(afterZIndex, limit));
+	}
+
+	@Override
+	public List<Widget> findWidgetsInArea(int x1, int y1, int x2, int y2) {
+		return read(board -> board.findWidgetsInArea(x1, y1, x2, y2));
+	}
+
+	@Override
+	public Optional<Widget> findTopmostWidgetAt(int x, int y) {
+		return read(board -> board.findTopmostWidgetAt(x, y));
+	}
+
+	@Override
+	public Widget createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		return write(board -> board.createWidget(x, y, zIndex, height, width));
+	}
+
+	@Override
+	public Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
+		return write(board -> board.updateWidget(id, request));
+	}
+
+	@Override
+	public List<Optional<Widget>> applyBatch(List<BatchOperation> operations) {
+		return write(board -> board.applyBatch(operations));
+	}
+
+	@Override
+	public boolean deleteWidget(int id) {
+		return write(board -> board.deleteWidget(id));
+	}
+
+	/**
+	 * Writes the board to its directory and drops it, unless it is in use or was used again
+	 * since the tier evicted it; a board in use is given back to the tier.
+	 *
+	 * @return whether the board was dropped
+	 * @throws StorageException if the snapshot can't be written, the board stays resident
+	 */
+	boolean tryEvict() {
+		if (!residency.writeLock().tryLock()) {
+			tier.accessed(this, true);
+			return false;
+		}
+		try {
+			final InMemoryWidgetRepository resident = board;
+			if (resident == null || tier.isResident(this)) {
+				return false;
+			}
+
+			final long version = resident.read("evict board", store -> {
+				try {
+					Files.createDirectories(directory);
+					SnapshotFile.write(directory, 0, store);
+				} catch (final IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+				return store.version();
+			});
+			evictedVersion = version;
+			evictedWidgets = resident.widgetCount();
+			board = null;
+			return true;
+		} catch (final UncheckedIOException ex) {
+			throw new StorageException("Failed to evict board to " + directory, ex.getCause());
+		} finally {
+			residency.writeLock().unlock();
+		}
+	}
+
+	private <T> T read(Function<InMemoryWidgetRepository, T> operation) {
+		return withBoard(false, operation);
+	}
+
+	private <T> T write(Function<InMemoryWidgetRepository, T> operation) {
+		return withBoard(true, operation);
+	}
+
+	private <T> T withBoard(boolean write, Function<InMemoryWidgetRepository, T> operation) {
+		residency.readLock().lock();
+		try {
+			while (board == null) {
+				residency.readLock().unlock();
+				try {
+					load();
+				} finally {
+					residency.readLock().lock();
+				}
+			}
+			final T result = operation.apply(board);
+			tier.accessed(this, write);
+			return result;
+		} finally {
+			residency.readLock().unlock();
+		}
+	}
+
+	private void load() {
+		residency.writeLock().lock();
+		try {
+			if (board != null) {
+				return;
+			}
+
+			final long start = System.nanoTime();
+			final WidgetStore store = new WidgetStore(cellSize, Math.max(WidgetStore.initialVersion(), evictedVersion + 1));
+			final SortedMap<Long, Path> snapshots = SnapshotFile.snapshots(directory);
+			if (snapshots.isEmpty()) {
+				throw new StorageException("Evicted board is missing from " + directory);
+			}
+			SnapshotFile.read(snapshots.get(snapshots.lastKey()), store);
+			for (final Path snapshot: snapshots.values()) {
+				Files.delete(snapshot);
+			}
+
+			board = configured(new InMemoryWidgetRepository(store));
+			tier.loaded(System.nanoTime() - start);
+		} catch (final IOException ex) {
+			throw new StorageException("Failed to load evicted board from " + directory, ex);
+		} finally {
+			residency.writeLock().unlock();
+		}
+	}
+
+	private InMemoryWidgetRepository configured(InMemoryWidgetRepository board) {
+		board.useMetrics(metrics);
+		board.useLockTimeouts(lockTimeouts);
+		board.changeListener(changeListener);
+		if (widgetListener != null) {
+			board.widgetListener(widgetListener);
+		}
+		return board;
+	}
+
+	private void withResident(Consumer<InMemoryWidgetRepository> action) {
+		residency.readLock().lock();
+		try {
+			final InMemoryWidgetRepository resident = board;
+			if (resident != null) {
+				action.accept(resident);
+			}
+		} finally {
+			residency.readLock().unlock();
+		}
+	}
+}
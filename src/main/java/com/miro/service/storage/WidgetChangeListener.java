@@ -0,0 +1,26 @@
+package com.miro.service.storage;
+
+/**
+ *
+ * Receives the changes to the widgets of every board from the writer while it holds the lock of
+ * the board, before the write returns. A change may be told more than once, the last time once
+ * no reader can see the widget as it was. Should be quick, writers of the board wait for it.
+ *
+ */
+public interface WidgetChangeListener {
+
+	/**
+	 * The widget was created, updated or deleted.
+	 */
+	void widgetChanged(String boardId, int widgetId);
+
+	/**
+	 * Every widget at and above the Z-index was shifted up by one.
+	 */
+	void widgetsShifted(String boardId, int zIndex);
+
+	/**
+	 * The board was replaced with another one, any of its widgets may have changed.
+	 */
+	void boardReplaced(String boardId);
+}
@@ -0,0 +1,141 @@
+package com.miro.service.storage;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * Widget fields in primitive parallel arrays indexed by slot, a widget costs no object while stored.
+ * The Z-index is kept by {@link ZOrder}, {@link Widget} instances are only created when read.
+ *
+ * Not thread safe, guarded by the owning repository.
+ *
+ */
+final class WidgetColumns {
+
+	static final int NO_SLOT = IntIntHashMap.NO_VALUE;
+
+	private static final int NIL = -1;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final IntIntHashMap slots = new IntIntHashMap(INITIAL_CAPACITY);
+
+	// a free slot keeps the next free slot in its x
+	private int[] xs = new int[INITIAL_CAPACITY];
+	private int[] ys = new int[INITIAL_CAPACITY];
+	private double[] heights = new double[INITIAL_CAPACITY];
+	private double[] widths = new double[INITIAL_CAPACITY];
+	private long[] updatedAt = new long[INITIAL_CAPACITY];
+
+	private int usedSlots;
+	private int freeSlot = NIL;
+
+	int size() {
+		return slots.size();
+	}
+
+	/**
+	 * @return slot of the widget, {@link #NO_SLOT} if it is not stored
+	 */
+	int slotOf(int widgetId) {
+		return slots.get(widgetId);
+	}
+
+	boolean contains(int widgetId) {
+		return slots.containsKey(widgetId);
+	}
+
+	/**
+	 * Stores the widget fields but the Z-index, replacing the previous ones.
+	 */
+	void put(Widget widget) {
+		int slot = slots.get(widget.widgetId());
+		if (slot == NO_SLOT) {
+			slot = allocate();
+			slots.put(widget.widgetId(), slot);
+		}
+
+		xs[slot] = widget.xCoordinate();
+		ys[slot] = widget.yCoordinate();
+		heights[slot] = widget.height();
+		widths[slot] = widget.width();
+		updatedAt[slot] = WidgetStore.epochNanos(widget.lastUpdateAt());
+	}
+
+	/**
+	 * @return false if the widget was not stored
+	 */
+	boolean remove(int widgetId) {
+		final int slot = slots.remove(widgetId);
+		if (slot == NO_SLOT) {
+			return false;
+		}
+
+		xs[slot] = freeSlot;
+		freeSlot = slot;
+		return true;
+	}
+
+	void ensureCapacity(int capacity) {
+		if (xs.length < capacity) {
+			grow(capacity);
+		}
+	}
+
+	boolean intersects(int slot, double x1, double y1, double x2, double y2) {
+		return SpatialGrid.intersects(xs[slot], ys[slot], widths[slot], heights[slot], x1, y1, x2, y2);
+	}
+
+	boolean sameBounds(int slot, Widget widget) {
+		return xs[slot] == widget.xCoordinate() && ys[slot] == widget.yCoordinate()
+				&& widths[slot] == widget.width() && heights[slot] == widget.height();
+	}
+
+	/**
+	 * Copies the widget fields to the next position of the snapshot.
+	 */
+	void copyTo(WidgetSnapshot snapshot, int slot, int widgetId, int zIndex, long shiftedAtNanos) {
+		snapshot.add(widgetId, xs[slot], ys[slot], zIndex, heights[slot], widths[slot], Math.max(updatedAt[slot], shiftedAtNanos));
+	}
+
+	/**
+	 * @param shiftedAtNanos last time the widget was shifted, the later of it and
+	 * 		  the last write is the update time
+	 */
+	Widget widget(int slot, int widgetId, int zIndex, long shiftedAtNanos) {
+		final long updatedAtNanos = Math.max(updatedAt[slot], shiftedAtNanos);
+		return new Widget(widgetId, xs[slot], ys[slot], zIndex, heights[slot], widths[slot], Instant.ofEpochSecond(0, updatedAtNanos));
+	}
+
+	/**
+	 * @return the widget as the request leaves it, the fields it doesn't give are read from the slot
+	 */
+	Widget updated(int slot, int widgetId, int zIndex, UpdateWidgetRequest request) {
+		return new Widget(widgetId, request.xCoordinate(xs[slot]), request.yCoordinate(ys[slot]), request.zIndex(zIndex),
+				request.height(heights[slot]), request.width(widths[slot]));
+	}
+
+	private int allocate() {
+		if (freeSlot != NIL) {
+			final int slot = freeSlot;
+			freeSlot = xs[slot];
+			return slot;
+		}
+
+		if (usedSlots == xs.length) {
+			grow(usedSlots + (usedSlots >> 1));
+		}
+		return usedSlots++;
+	}
+
+	private void grow(int capacity) {
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		heights = Arrays.copyOf(heights, capacity);
+		widths = Arrays.copyOf(widths, capacity);
+		updatedAt = Arrays.copyOf(updatedAt, capacity);
+	}
+}
@@ -0,0 +1,53 @@
+package com.miro.service.storage;
+
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Resolved change of a {@link WidgetStore}: identifiers, Z-indexes and timestamps are decided,
+ * so applying the same mutations to equal stores leaves them equal.
+ *
+ */
+abstract class WidgetMutation {
+
+	abstract void applyTo(WidgetStore store);
+
+	static final class Insert extends WidgetMutation {
+		final Widget widget;
+
+		Insert(Widget widget) {
+			this.widget = widget;
+		}
+
+		@Override
+		void applyTo(WidgetStore store) {
+			store.insert(widget);
+		}
+	}
+
+	static final class Replace extends WidgetMutation {
+		final Widget widget;
+
+		Replace(Widget widget) {
+			this.widget = widget;
+		}
+
+		@Override
+		void applyTo(WidgetStore store) {
+			store.replace(widget);
+		}
+	}
+
+	static final class Delete extends WidgetMutation {
+		final int widgetId;
+
+		Delete(int widgetId) {
+			this.widgetId = widgetId;
+		}
+
+		@Override
+		void applyTo(WidgetStore store) {
+			store.remove(widgetId);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.miro.service.storage;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.zip.CRC32C;
+
+import com.miro.service.models.Widget;
+
+/**
+ *
+ * Binary form of the mutations and widgets, little endian as the buffers it is given.
+ * A mutation record is its type, the widget or identifier and a checksum of both, so a record
+ * torn by a crash is recognized. Not thread safe, the checksum is reused.
+ *
+ */
+final class WidgetMutationCodec {
+
+	static final int WIDGET_SIZE = 4 * Integer.BYTES + 2 * Double.BYTES + Long.BYTES;
+	static final int MAX_RECORD_SIZE = 1 + WIDGET_SIZE + Integer.BYTES;
+
+	private static final byte INSERT = 1;
+	private static final byte REPLACE = 2;
+	private static final byte DELETE = 3;
+
+	private final CRC32C checksum = new CRC32C();
+
+	/**
+	 * @param out should have at least {@link #MAX_RECORD_SIZE} bytes remaining
+	 */
+	void write(WidgetMutation mutation, ByteBuffer out) {
+		final int start = out.position();
+
+		if (mutation instanceof WidgetMutation.Insert) {
+			out.put(INSERT);
+			writeWidget(((WidgetMutation.Insert) mutation).widget, out);
+		} else if (mutation instanceof WidgetMutation.Replace) {
+			out.put(REPLACE);
+			writeWidget(((WidgetMutation.Replace) mutation).widget, out);
+		} else if (mutation instanceof WidgetMutation.Delete) {
+			out.put(DELETE);
+			out.putInt(((WidgetMutation.Delete) mutation).widgetId);
+		} else {
+			throw new IllegalArgumentException("Unknown mutation " + mutation.getClass());
+		}
+
+		out.putInt(checksum(out, start, out.position()));
+	}
+
+	/**
+	 * @return next mutation, null if the rest of the buffer is not a whole valid record,
+	 * 		   the position is left unchanged then
+	 */
+	WidgetMutation read(ByteBuffer in) {
+		final int start = in.position();
+		if (!in.hasRemaining()) {
+			return null;
+		}
+
+		final byte type = in.get(start);
+		final int payload;
+		switch (type) {
+		case INSERT:
+		case REPLACE:
+			payload = WIDGET_SIZE;
+			break;
+		case DELETE:
+			payload = Integer.BYTES;
+			break;
+		default:
+			return null;
+		}
+
+		final int end = start + 1 + payload;
+		if (in.limit() - end < Integer.BYTES || in.getInt(end) != checksum(in, start, end)) {
+			return null;
+		}
+
+		in.position(start + 1);
+		final WidgetMutation result;
+		if (type == INSERT) {
+			result = new WidgetMutation.Insert(readWidget(in));
+		} else if (type == REPLACE) {
+			result = new WidgetMutation.Replace(readWidget(in));
+		} else {
+			result = new WidgetMutation.Delete(in.getInt());
+		}
+		in.position(end + Integer.BYTES);
+
+		return result;
+	}
+
+	int checksum(ByteBuffer buffer, int start, int end) {
+		final ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(end).position(start);
+
+		checksum.reset();
+		checksum.update(bytes);
+		return (int) checksum.getValue();
+	}
+
+	static void writeWidget(Widget widget, ByteBuffer out) {
+		out.putInt(widget.widgetId());
+		out.putInt(widget.xCoordinate());
+		out.putInt(widget.yCoordinate());
+		out.putInt(widget.zIndex());
+		out.putDouble(widget.height());
+		out.putDouble(widget.width());
+		out.putLong(WidgetStore.epochNanos(widget.lastUpdateAt()));
+	}
+
+	static Widget readWidget(ByteBuffer in) {
+		final int id = in.getInt();
+		final int x = in.getInt();
+		final int y = in.getInt();
+		final int z = in.getInt();
+		final double height = in.getDouble();
+		final double width = in.getDouble();
+		final long updatedAt = in.getLong();
+
+		return new Widget(id, x, y, z, height, width, Instant.ofEpochSecond(0, updatedAt));
+	}
+}
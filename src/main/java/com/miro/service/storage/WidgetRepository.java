@@ -4,6 +4,9 @@ import java.util.List;
 import java.util.Optional;
 
 import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
 import com.miro.service.requests.UpdateWidgetRequest;
 
 /**
@@ -27,6 +30,72 @@ public interface WidgetRepository {
 	 * @throws StorageException when fails
 	 */
 	List<Widget> listWidgetsSortedByZIndex();
+
+	/**
+	 * 
+	 * @return version of the widgets, grows with every change and never repeats, even across restarts
+	 * @throws StorageException when fails
+	 */
+	long version();
+
+	/**
+	 * 
+	 * Fetches the widgets created, changed or deleted after the version, read atomically. Shifted
+	 * widgets count as changed, a few unchanged widgets above them may be returned as well.
+	 * 
+	 * @param version version the client is at
+	 * @return the changes and the version they bring to; the whole board if the changes are no
+	 * 		   longer kept or the version is unknown
+	 * @throws StorageException when fails
+	 */
+	WidgetChanges findChangesSince(long version);
+
+	/**
+	 * 
+	 * Copies all the widgets in Z-index order into primitive arrays, far cheaper in memory than
+	 * {@link #listWidgetsSortedByZIndex()} for large boards.
+	 * 
+	 * @return the widgets sorted in Z-index order(from lowest to highest) and their version
+	 * @throws StorageException when fails
+	 */
+	WidgetSnapshot snapshotSortedByZIndex();
+
+	/**
+	 * 
+	 * Fetches at most limit widgets in Z-index order, starting right above the given Z-index.
+	 * The page is read atomically, but widgets shifted by concurrent writes between two calls
+	 * may be skipped or returned again.
+	 * 
+	 * @param afterZIndex Z-index to continue from (exclusive), {@link Optional#empty()} to start from the lowest
+	 * @param limit maximal number of widgets in the page, positive
+	 * @return the page and the Z-index to continue from, if there are more widgets
+	 * @throws StorageException when fails
+	 */
+	WidgetPage listWidgetsSortedByZIndex(Optional<Integer> afterZIndex, int limit);
+	
+	/**
+	 * 
+	 * Fetches the widgets intersecting the given area, bounds included. Cost depends on the
+	 * number of widgets around the area rather than on the board size.
+	 * 
+	 * @param x1 left bound of the area
+	 * @param y1 lower bound of the area
+	 * @param x2 right bound of the area, not less than x1
+	 * @param y2 upper bound of the area, not less than y1
+	 * @return widgets intersecting the area sorted in Z-index order(from lowest to highest)
+	 * @throws StorageException when fails
+	 */
+	List<Widget> findWidgetsInArea(int x1, int y1, int x2, int y2);
+	
+	/**
+	 * 
+	 * @param x
+	 * @param y
+	 * @return Optional#of(widget) with the highest Z-index among the widgets containing the point,
+	 * 		   otherwise, Optional#empty()
+	 * @throws StorageException when fails
+	 */
+	Optional<Widget> findTopmostWidgetAt(int x, int y);
 	
 	/**
 	 * 
@@ -52,6 +121,19 @@ public interface WidgetRepository {
 	 */
 	Optional<Widget> updateWidget(int id, UpdateWidgetRequest request);
 	
+	/**
+	 * Applies the operations in order, isolated: no other operation sees a part of the batch while it
+	 * runs. Each operation sees the effect of the previous ones, missing widgets don't stop the batch.
+	 * The batch is not rolled back: if an operation fails, the ones before it stay applied.
+	 * 
+	 * @param operations
+	 * @return per operation: created, updated or deleted widget, {@link Optional#empty()} if the widget
+	 * 		   to update or delete did not exist
+	 * @throws StorageException when fails, a part of the batch may be applied unless it is a
+	 * 		   {@link StorageBusyException}
+	 */
+	List<Optional<Widget>> applyBatch(List<BatchOperation> operations);
+	
 	/*
 	 * Delete the widget for the given id
 	 * @throws StorageException when fails
@@ -0,0 +1,88 @@
+package com.miro.service.storage;
+
+/**
+ *
+ * Widgets of a board at one version in Z-index order, kept in primitive arrays: about 40 bytes
+ * a widget, no object per widget. Taken under the lock and read after it, so a slow reader of
+ * the snapshot never holds writers back.
+ *
+ */
+public final class WidgetSnapshot {
+	public static final WidgetSnapshot EMPTY = new WidgetSnapshot(Long.MIN_VALUE, 0);
+
+	private final long version;
+
+	private final int[] widgetIds;
+	private final int[] xs;
+	private final int[] ys;
+	private final int[] zIndexes;
+	private final double[] heights;
+	private final double[] widths;
+	private final long[] updatedAt;
+
+	private int size;
+
+	WidgetSnapshot(long version, int capacity) {
+		this.version = version;
+		widgetIds = new int[capacity];
+		xs = new int[capacity];
+		ys = new int[capacity];
+		zIndexes = new int[capacity];
+		heights = new double[capacity];
+		widths = new double[capacity];
+		updatedAt = new long[capacity];
+	}
+
+	void add(int widgetId, int x, int y, int zIndex, double height, double width, long updatedAtNanos) {
+		widgetIds[size] = widgetId;
+		xs[size] = x;
+		ys[size] = y;
+		zIndexes[size] = zIndex;
+		heights[size] = height;
+		widths[size] = width;
+		updatedAt[size] = updatedAtNanos;
+		size++;
+	}
+
+	/**
+	 * @return version of the board the snapshot was taken at
+	 */
+	public long version() {
+		return version;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int widgetId(int index) {
+		return widgetIds[index];
+	}
+
+	public int xCoordinate(int index) {
+		return xs[index];
+	}
+
+	public int yCoordinate(int index) {
+		return ys[index];
+	}
+
+	public int zIndex(int index) {
+		return zIndexes[index];
+	}
+
+	public double height(int index) {
+		return heights[index];
+	}
+
+	public double width(int index) {
+		return widths[index];
+	}
+
+	/**
+	 * @return last update time of the widget, nanoseconds since the epoch
+	 */
+	public long updatedAtNanos(int index) {
+		return updatedAt[index];
+	}
+}
@@ -0,0 +1,428 @@
+package com.miro.service.storage;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+/**
+ *
+ * Widgets with their Z-order and spatial indexes. Not thread safe, the repositories decide how
+ * access is guarded.
+ *
+ */
+final class WidgetStore {
+
+	static final int CHANGE_LOG_CAPACITY = 8192;
+
+	private int identifier;
+	private int zIndexCounter;
+	// bumped by every insert, replace and remove
+	private long version;
+
+	private final WidgetColumns columns;
+	private final ZOrder zOrder;
+	private final SpatialGrid spatialGrid;
+	private final ChangeLog changeLog;
+
+	private Consumer<WidgetMutation> journal = mutation -> {};
+	private IntConsumer shifts = count -> {};
+	private ChangeLog.Visitor changes = ChangeLog.NO_CHANGES;
+	// widgets shifted by the last insert or replace
+	private int lastShifted;
+
+	WidgetStore(int cellSize) {
+		this(cellSize, initialVersion());
+	}
+
+	/**
+	 * @param version version of the empty store, stores replicating each other must start from the same
+	 */
+	WidgetStore(int cellSize, long version) {
+		identifier = 0;
+		zIndexCounter = 0;
+		this.version = version;
+		columns = new WidgetColumns();
+		zOrder = new ZOrder();
+		spatialGrid = new SpatialGrid(cellSize);
+		changeLog = new ChangeLog(CHANGE_LOG_CAPACITY, version);
+	}
+
+	/**
+	 * Versions start from the wall clock, 2^20 per millisecond, so a store created after a restart
+	 * never reuses a version of the previous process and a client can't mistake one board state for another.
+	 */
+	static long initialVersion() {
+		return System.currentTimeMillis() << 20;
+	}
+
+	/**
+	 * @param journal receives every mutation done through the widget operations once applied,
+	 * 		  mutations replayed with {@link WidgetMutation#applyTo(WidgetStore)} are not reported
+	 */
+	void journal(Consumer<WidgetMutation> journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @param shifts receives the number of widgets shifted up by a widget operation taking
+	 * 		  an occupied Z-index, replayed mutations are not reported
+	 */
+	void shifts(IntConsumer shifts) {
+		this.shifts = shifts;
+	}
+
+	/**
+	 * @param changes receives every change as it is logged, replayed mutations included
+	 */
+	void changes(ChangeLog.Visitor changes) {
+		this.changes = changes;
+	}
+
+	int size() {
+		return columns.size();
+	}
+
+	/**
+	 * @return identifier the next widget will get
+	 */
+	int nextIdentifier() {
+		return identifier;
+	}
+
+	int zIndexCounter() {
+		return zIndexCounter;
+	}
+
+	long version() {
+		return version;
+	}
+
+	/**
+	 * Fills an empty store at once, cheaper than inserting the widgets one by one.
+	 *
+	 * @param widgets sorted in Z-index order
+	 */
+	void restore(int nextIdentifier, int zIndexCounter, Widget[] widgets, int count) {
+		if (columns.size() != 0) {
+			throw new IllegalStateException("Store is not empty");
+		}
+
+		final int[] ids = new int[count];
+		final int[] zIndexes = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = widgets[i].widgetId();
+			zIndexes[i] = widgets[i].zIndex();
+		}
+		zOrder.load(ids, zIndexes, count);
+
+		columns.ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			columns.put(widgets[i]);
+			spatialGrid.add(widgets[i]);
+		}
+
+		this.identifier = nextIdentifier;
+		this.zIndexCounter = zIndexCounter;
+	}
+
+	/**
+	 * Visits the widgets sorted in Z-index order(from lowest to highest) without copying them.
+	 */
+	void forEachSortedByZIndex(Consumer<Widget> consumer) {
+		zOrder.forEachAfter(Long.MIN_VALUE, (id, z, shiftedAt) -> {
+			consumer.accept(widget(id, z, shiftedAt));
+			return true;
+		});
+	}
+
+	Optional<Widget> findWidgetById(int id) {
+		final int slot = columns.slotOf(id);
+		return slot == WidgetColumns.NO_SLOT ? Optional.<Widget>empty() : Optional.of(widget(slot, id));
+	}
+
+	List<Widget> listWidgetsSortedByZIndex() {
+		final List<Widget> result = new ArrayList<>(zOrder.size());
+		zOrder.forEachAfter(Long.MIN_VALUE, (id, z, shiftedAt) -> result.add(widget(id, z, shiftedAt)));
+
+		return result;
+	}
+
+	WidgetSnapshot snapshotSortedByZIndex() {
+		final WidgetSnapshot snapshot = new WidgetSnapshot(version, zOrder.size());
+		zOrder.forEachAfter(Long.MIN_VALUE, (id, z, shiftedAt) -> {
+			columns.copyTo(snapshot, columns.slotOf(id), id, z, shiftedAt);
+			return true;
+		});
+
+		return snapshot;
+	}
+
+	WidgetPage listWidgetsSortedByZIndex(Optional<Integer> afterZIndex, int limit) {
+		final List<Widget> widgets = new ArrayList<>(Math.min(limit, zOrder.size()));
+		final boolean[] hasMore = new boolean[1];
+
+		zOrder.forEachAfter(afterZIndex.isPresent() ? afterZIndex.get() : Long.MIN_VALUE, (id, z, shiftedAt) -> {
+			if (widgets.size() == limit) {
+				hasMore[0] = true;
+				return false;
+			}
+			return widgets.add(widget(id, z, shiftedAt));
+		});
+
+		final Optional<Integer> next = hasMore[0] ? Optional.of(widgets.get(widgets.size() - 1).zIndex()) : Optional.empty();
+		return new WidgetPage(widgets, next);
+	}
+
+	/**
+	 * Resolves the changes after the version from the change log: written widgets by identifier,
+	 * shifted ones as every widget above the lowest shifted Z-index, a superset of the shifted widgets.
+	 * Falls back to the whole board if the log no longer covers the version or it is not one of this store.
+	 */
+	WidgetChanges changesSince(long since) {
+		if (since > version || !changeLog.covers(since)) {
+			return new WidgetChanges(version, true, listWidgetsSortedByZIndex(), Collections.emptyList());
+		}
+
+		final IntHashSet changedIds = new IntHashSet(16);
+		final int[] lowestShift = { Integer.MAX_VALUE };
+		changeLog.forEachAfter(since, new ChangeLog.Visitor() {
+			@Override
+			public void widgetChanged(int widgetId) {
+				changedIds.add(widgetId);
+			}
+
+			@Override
+			public void widgetsShifted(int zIndex) {
+				lowestShift[0] = Math.min(lowestShift[0], zIndex);
+			}
+		});
+
+		final List<Widget> widgets = new ArrayList<>();
+		final List<Integer> deletedIds = new ArrayList<>();
+		changedIds.forEach(id -> {
+			final int slot = columns.slotOf(id);
+			if (slot == WidgetColumns.NO_SLOT) {
+				deletedIds.add(id);
+			} else {
+				widgets.add(widget(slot, id));
+			}
+		});
+		if (lowestShift[0] != Integer.MAX_VALUE) {
+			// widgets shifted and not written since only moved up, they are above the Z-index they were shifted from
+			zOrder.forEachAfter(lowestShift[0], (id, z, shiftedAt) -> {
+				if (!changedIds.contains(id)) {
+					widgets.add(widget(id, z, shiftedAt));
+				}
+				return true;
+			});
+		}
+
+		widgets.sort((w1, w2) -> Integer.compare(w1.zIndex(), w2.zIndex()));
+		Collections.sort(deletedIds);
+		return new WidgetChanges(version, false, widgets, deletedIds);
+	}
+
+	List<Widget> findWidgetsInArea(int x1, int y1, int x2, int y2) {
+		final List<Widget> result = new ArrayList<>();
+		spatialGrid.candidates(x1, y1, x2, y2, id -> {
+			final int slot = columns.slotOf(id);
+			if (columns.intersects(slot, x1, y1, x2, y2)) {
+				result.add(widget(slot, id));
+			}
+		});
+
+		result.sort((w1, w2) -> Integer.compare(w1.zIndex(), w2.zIndex()));
+		return result;
+	}
+
+	Optional<Widget> findTopmostWidgetAt(int x, int y) {
+		final int[] topmost = { ZOrder.NO_WIDGET, Integer.MIN_VALUE, WidgetColumns.NO_SLOT };
+		spatialGrid.candidates(x, y, x, y, id -> {
+			final int slot = columns.slotOf(id);
+			if (columns.intersects(slot, x, y, x, y)) {
+				final int z = zOrder.zIndexOf(id);
+				if (topmost[0] == ZOrder.NO_WIDGET || topmost[1] < z) {
+					topmost[0] = id;
+					topmost[1] = z;
+					topmost[2] = slot;
+				}
+			}
+		});
+
+		return topmost[0] == ZOrder.NO_WIDGET ? Optional.empty() : Optional.of(widget(topmost[2], topmost[0]));
+	}
+
+	Widget createWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		final Widget result = newWidget(x, y, zIndex, height, width);
+		apply(new WidgetMutation.Insert(result));
+		return result;
+	}
+
+	Optional<Widget> updateWidget(int id, UpdateWidgetRequest request) {
+		final Optional<Widget> result = updatedWidget(id, request);
+		result.ifPresent(widget -> apply(new WidgetMutation.Replace(widget)));
+		return result;
+	}
+
+	boolean deleteWidget(int id) {
+		if (!columns.contains(id)) {
+			return false;
+		}
+
+		apply(new WidgetMutation.Delete(id));
+		return true;
+	}
+
+	/**
+	 * Applies the operations in order, each one sees the effect of the previous ones.
+	 *
+	 * @return per operation: created, updated or deleted widget, {@link Optional#empty()} if not found
+	 */
+	List<Optional<Widget>> applyBatch(List<BatchOperation> operations) {
+		final List<Optional<Widget>> results = new ArrayList<>(operations.size());
+
+		for (final BatchOperation operation: operations) {
+			switch (operation.type()) {
+			case CREATE:
+				results.add(Optional.of(createWidget(operation.xCoordinate(), operation.yCoordinate(), operation.zIndex(), operation.height(), operation.width())));
+				break;
+			case UPDATE:
+				results.add(updateWidget(operation.widgetId().get(), operation.updateRequest()));
+				break;
+			case DELETE:
+				final Optional<Widget> deleted = findWidgetById(operation.widgetId().get());
+				deleted.ifPresent(widget -> apply(new WidgetMutation.Delete(widget.widgetId())));
+				results.add(deleted);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operation " + operation.type());
+			}
+		}
+
+		return results;
+	}
+
+	private void apply(WidgetMutation mutation) {
+		lastShifted = 0;
+		mutation.applyTo(this);
+		if (lastShifted > 0) {
+			shifts.accept(lastShifted);
+		}
+		journal.accept(mutation);
+	}
+
+	/**
+	 * Resolves the identifier and Z-index of a new widget without changing the store.
+	 */
+	private Widget newWidget(int x, int y, Optional<Integer> zIndex, double height, double width) {
+		final int z = zIndex.orElseGet(this::nextFrontZIndex);
+		return new Widget(identifier, x, y, z, height, width);
+	}
+
+	/**
+	 * Applies the request to the current widget without changing the store.
+	 */
+	private Optional<Widget> updatedWidget(int id, UpdateWidgetRequest request) {
+		final int slot = columns.slotOf(id);
+		return slot == WidgetColumns.NO_SLOT ? Optional.<Widget>empty() : Optional.of(columns.updated(slot, id, zOrder.zIndexOf(id), request));
+	}
+
+	/**
+	 * Adds a resolved widget, shifting the widgets at and above its Z-index. Deterministic:
+	 * applying the same widgets to equal stores leaves them equal.
+	 */
+	void insert(Widget widget) {
+		if (columns.contains(widget.widgetId())) {
+			throw new IllegalStateException("Autoincrement value duplicate for " + widget.widgetId());
+		}
+
+		lastShifted = zOrder.insert(widget.widgetId(), widget.zIndex(), epochNanos(widget.lastUpdateAt()));
+		columns.put(widget);
+		spatialGrid.add(widget);
+		logChange(widget.widgetId(), widget.zIndex(), lastShifted);
+
+		identifier = Math.max(identifier, widget.widgetId() + 1);
+		zIndexCounter = Math.max(zIndexCounter, widget.zIndex());
+	}
+
+	/**
+	 * Replaces an existing widget with its resolved update, shifting the widgets at and above
+	 * the new Z-index if another widget occupies it. Deterministic as {@link #insert(Widget)}.
+	 */
+	void replace(Widget widget) {
+		final int slot = columns.slotOf(widget.widgetId());
+		if (slot == WidgetColumns.NO_SLOT) {
+			throw new IllegalStateException("No widget " + widget.widgetId() + " to replace");
+		}
+
+		int shifted = 0;
+		if (zOrder.zIndexOf(widget.widgetId()) != widget.zIndex()) {
+			zOrder.remove(widget.widgetId());
+			shifted = zOrder.insert(widget.widgetId(), widget.zIndex(), epochNanos(widget.lastUpdateAt()));
+		}
+		if (!columns.sameBounds(slot, widget)) {
+			spatialGrid.remove(columns.widget(slot, widget.widgetId(), widget.zIndex(), 0));
+			spatialGrid.add(widget);
+		}
+		columns.put(widget);
+		lastShifted = shifted;
+		logChange(widget.widgetId(), widget.zIndex(), shifted);
+	}
+
+	/**
+	 * Removes an existing widget. Deterministic as {@link #insert(Widget)}.
+	 */
+	void remove(int id) {
+		final int slot = columns.slotOf(id);
+		if (slot == WidgetColumns.NO_SLOT) {
+			throw new IllegalStateException("No widget " + id + " to remove");
+		}
+
+		spatialGrid.remove(columns.widget(slot, id, 0, 0));
+		zOrder.remove(id);
+		columns.remove(id);
+		logChange(id, 0, 0);
+	}
+
+	private void logChange(int widgetId, int zIndex, int shifted) {
+		version++;
+		changeLog.widgetChanged(version, widgetId);
+		changes.widgetChanged(widgetId);
+		if (shifted > 0) {
+			changeLog.widgetsShifted(version, zIndex);
+			changes.widgetsShifted(zIndex);
+		}
+	}
+
+	private Widget widget(int slot, int id) {
+		return columns.widget(slot, id, zOrder.zIndexOf(id), zOrder.shiftedAtOf(id));
+	}
+
+	private Widget widget(int id, int zIndex, long shiftedAtNanos) {
+		return columns.widget(columns.slotOf(id), id, zIndex, shiftedAtNanos);
+	}
+
+	static long epochNanos(Instant instant) {
+		return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+	}
+
+	private int nextFrontZIndex() {
+		final int top = zOrder.isEmpty() ? zIndexCounter : Math.max(zIndexCounter, zOrder.lastZIndex());
+		return top + delta();
+	}
+
+	private int delta() {
+		return ThreadLocalRandom.current().nextInt(100) + 10;
+	}
+}
@@ -0,0 +1,361 @@
+package com.miro.service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ *
+ * Append-only log of the resolved mutations split in segments, each segment named after
+ * the sequence number of its first record. Appending only encodes the record in memory,
+ * a flusher thread writes everything appended since its last pass with one write and one sync,
+ * so the writers waiting for durability share the sync (group commit).
+ *
+ */
+final class WriteAheadLog implements Closeable {
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long DURABILITY_TIMEOUT = 10_000;
+
+	private final Path directory;
+	private final FsyncPolicy fsyncPolicy;
+	private final long fsyncIntervalMillis;
+	private final WidgetMutationCodec codec = new WidgetMutationCodec();
+
+	// appended records, guarded by lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+	private final Condition flushed = lock.newCondition();
+	private ByteBuffer pending = newBuffer(BUFFER_SIZE);
+	private long nextLsn;
+	// every record below is written and synced as the policy requires
+	private long durableLsn;
+	private IOException failure;
+	private boolean closed;
+
+	// current segment, guarded by ioLock
+	private final ReentrantLock ioLock = new ReentrantLock();
+	private ByteBuffer flushing = newBuffer(BUFFER_SIZE);
+	private FileChannel segment;
+	private long segmentStart;
+
+	private final Thread flusher;
+
+	/**
+	 * Starts a new segment, the records below nextLsn should already be in the directory.
+	 */
+	WriteAheadLog(Path directory, long nextLsn, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+		this.directory = directory;
+		this.fsyncPolicy = fsyncPolicy;
+		this.fsyncIntervalMillis = fsyncIntervalMillis;
+		this.nextLsn = nextLsn;
+		this.durableLsn = nextLsn;
+
+		segmentStart = nextLsn;
+		segment = openSegment(nextLsn);
+
+		flusher = new Thread(this::flushLoop, "widget-log-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Called in the order the mutations are applied.
+	 *
+	 * @return sequence number of the record
+	 */
+	long append(WidgetMutation mutation) {
+		lock.lock();
+		try {
+			checkWritable();
+
+			if (pending.remaining() < WidgetMutationCodec.MAX_RECORD_SIZE) {
+				final ByteBuffer larger = newBuffer(pending.capacity() * 2);
+				pending.flip();
+				larger.put(pending);
+				pending = larger;
+			}
+			codec.write(mutation, pending);
+
+			if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+				appended.signal();
+			}
+			return nextLsn++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return sequence number of the last appended record, -1 if none
+	 */
+	long lastLsn() {
+		lock.lock();
+		try {
+			return nextLsn - 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the record is on the disk if every write has to be synced.
+	 */
+	void awaitDurable(long lsn) {
+		lock.lock();
+		try {
+			if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(DURABILITY_TIMEOUT);
+				while (durableLsn <= lsn && failure == null && !closed) {
+					if (nanos <= 0) {
+						throw new StorageException("Timed out waiting for the write-ahead log sync");
+					}
+					nanos = flushed.awaitNanos(nanos);
+				}
+			}
+			if (durableLsn <= lsn) {
+				checkWritable();
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted waiting for the write-ahead log sync", ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the appended records and starts a new segment.
+	 *
+	 * @return sequence number the new segment starts with, every record below is in the previous ones
+	 */
+	long roll() throws IOException {
+		ioLock.lock();
+		try {
+			flush();
+			if (segmentStart == durableLsn) {
+				return segmentStart;
+			}
+
+			segment.force(false);
+			segment.close();
+			segmentStart = durableLsn;
+			segment = openSegment(segmentStart);
+			return segmentStart;
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes and syncs the appended records whatever the policy, then closes the segment.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			appended.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			flusher.join();
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		ioLock.lock();
+		try {
+			flush();
+			segment.force(false);
+			segment.close();
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	private void flushLoop() {
+		try {
+			while (awaitAppended()) {
+				flush();
+			}
+		} catch (final IOException ex) {
+			lock.lock();
+			try {
+				failure = ex;
+				flushed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return false once the log is closed
+	 */
+	private boolean awaitAppended() throws InterruptedException {
+		lock.lock();
+		try {
+			if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+				while (pending.position() == 0 && !closed) {
+					appended.await();
+				}
+			} else if (!closed) {
+				appended.await(fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+			return !closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes everything appended so far to the current segment with one write and one sync.
+	 */
+	private void flush() throws IOException {
+		ioLock.lock();
+		try {
+			final long flushedLsn;
+			lock.lock();
+			try {
+				if (pending.position() == 0) {
+					return;
+				}
+
+				final ByteBuffer swapped = pending;
+				pending = flushing;
+				flushing = swapped;
+				flushedLsn = nextLsn;
+			} finally {
+				lock.unlock();
+			}
+
+			flushing.flip();
+			while (flushing.hasRemaining()) {
+				segment.write(flushing);
+			}
+			flushing.clear();
+			if (fsyncPolicy != FsyncPolicy.OS) {
+				segment.force(false);
+			}
+
+			lock.lock();
+			try {
+				durableLsn = flushedLsn;
+				flushed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	private void checkWritable() {
+		if (failure != null) {
+			throw new StorageException("Write-ahead log failed", failure);
+		}
+		if (closed) {
+			throw new StorageException("Write-ahead log is closed");
+		}
+	}
+
+	private FileChannel openSegment(long firstLsn) throws IOException {
+		final FileChannel channel = FileChannel.open(segmentPath(directory, firstLsn), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		SnapshotFile.syncDirectory(directory);
+		return channel;
+	}
+
+	/**
+	 * Applies the records of a segment from the given sequence number on.
+	 *
+	 * @param firstLsn sequence number of the first record of the segment
+	 * @param truncateTail cut a torn or corrupted end instead of failing, allowed for the last segment only
+	 * @return sequence number following the last record of the segment
+	 */
+	static long replay(Path segment, long firstLsn, long fromLsn, WidgetStore store, boolean truncateTail) throws IOException {
+		final WidgetMutationCodec codec = new WidgetMutationCodec();
+		final ByteBuffer buffer = newBuffer(BUFFER_SIZE);
+		long lsn = firstLsn;
+		long validBytes = 0;
+
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			while (true) {
+				final boolean end = channel.read(buffer) < 0;
+				buffer.flip();
+
+				WidgetMutation mutation;
+				while ((mutation = codec.read(buffer)) != null) {
+					if (lsn >= fromLsn) {
+						try {
+							mutation.applyTo(store);
+						} catch (final IllegalStateException | IllegalArgumentException ex) {
+							throw new StorageException("Failed to replay record " + lsn + " of " + segment, ex);
+						}
+					}
+					lsn++;
+				}
+				validBytes += buffer.position();
+
+				// a whole record fits in what is left, yet it did not decode
+				final boolean corrupted = buffer.remaining() >= WidgetMutationCodec.MAX_RECORD_SIZE;
+				if (end || corrupted) {
+					if (buffer.hasRemaining()) {
+						if (!truncateTail) {
+							throw new StorageException("Corrupted write-ahead log " + segment + " at byte " + validBytes);
+						}
+						channel.truncate(validBytes);
+						channel.force(false);
+					}
+					return lsn;
+				}
+				buffer.compact();
+			}
+		}
+	}
+
+	/**
+	 * @return segments of the directory by the sequence number of their first record
+	 */
+	static SortedMap<Long, Path> segments(Path directory) throws IOException {
+		final SortedMap<Long, Path> result = new TreeMap<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> {
+				final String name = file.getFileName().toString();
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					result.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+				}
+			});
+		}
+		return result;
+	}
+
+	private static Path segmentPath(Path directory, long firstLsn) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+	}
+
+	private static ByteBuffer newBuffer(int capacity) {
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,102 @@
+package com.miro.service.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * Bounded ring of items from many producers to one consumer, in the manner of a Disruptor: a
+ * producer claims a sequence with a CAS on the tail and publishes its item through the sequence
+ * of the slot, the consumer takes the published items in order without a lock. The sequence of a
+ * slot tells whose turn it is, so a slot is never reused before the consumer took its item.
+ *
+ */
+final class WriteRing<T> {
+
+	private final Object[] items;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+
+	// next sequence to take, the consumer's own
+	private long head;
+	// head as of the last take, for the other threads
+	private volatile long taken;
+
+	/**
+	 * @param capacity a power of two
+	 */
+	WriteRing(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity should be a power of two, got " + capacity);
+		}
+
+		items = new Object[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return false if the ring is full
+	 */
+	boolean offer(T item) {
+		while (true) {
+			final long sequence = tail.get();
+			final int slot = (int) sequence & mask;
+			final long turn = sequences.get(slot);
+			if (turn == sequence) {
+				if (tail.compareAndSet(sequence, sequence + 1)) {
+					items[slot] = item;
+					sequences.set(slot, sequence + 1);
+					return true;
+				}
+			} else if (turn < sequence) {
+				// the consumer has not taken the item of the previous round
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Takes the published items in order, consumer only.
+	 *
+	 * @return number of items put to the batch, at most its length
+	 */
+	@SuppressWarnings("unchecked")
+	int drainTo(T[] batch) {
+		int count = 0;
+		while (count < batch.length) {
+			final int slot = (int) head & mask;
+			if (sequences.get(slot) != head + 1) {
+				break;
+			}
+
+			batch[count++] = (T) items[slot];
+			items[slot] = null;
+			sequences.set(slot, head + items.length);
+			head++;
+		}
+
+		if (count > 0) {
+			taken = head;
+		}
+		return count;
+	}
+
+	/**
+	 * @return whether no item is published, consumer only
+	 */
+	boolean isEmpty() {
+		return sequences.get((int) head & mask) != head + 1;
+	}
+
+	/**
+	 * @return items claimed and not taken yet, may be stale
+	 */
+	int size() {
+		return (int) Math.max(0, tail.get() - taken);
+	}
+}
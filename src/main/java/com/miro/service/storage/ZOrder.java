@@ -0,0 +1,494 @@
+package com.miro.service.storage;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Z-order of the widgets: a treap keyed by Z-index, with subtree sizes and lazy key shifts.
+ * Shifting every widget at and above a Z-index by one, the rearrangement done on a collision,
+ * is a split, a tag on the upper part and a merge: O(log n) however many widgets move. The shift
+ * time is propagated the same way, so shifted widgets still report when they last changed.
+ *
+ * Nodes live in parallel primitive arrays indexed by slot, with parent links to resolve the
+ * Z-index of a widget from its slot. Read methods don't modify anything and may run concurrently
+ * with each other, writers need exclusive access.
+ *
+ */
+final class ZOrder {
+
+	static final int NO_WIDGET = -1;
+
+	private static final int NIL = -1;
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Receives widgets in Z-index order, returns false to stop.
+	 */
+	interface Visitor {
+		boolean visit(int widgetId, int zIndex, long shiftedAtNanos);
+	}
+
+	private final IntIntHashMap slots = new IntIntHashMap(INITIAL_CAPACITY);
+
+	private int[] widgetIds = new int[INITIAL_CAPACITY];
+	private int[] priorities = new int[INITIAL_CAPACITY];
+	private int[] left = new int[INITIAL_CAPACITY];
+	private int[] right = new int[INITIAL_CAPACITY];
+	private int[] parent = new int[INITIAL_CAPACITY];
+	private int[] sizes = new int[INITIAL_CAPACITY];
+
+	// key of the node, pending shift of its children
+	private int[] keys = new int[INITIAL_CAPACITY];
+	private int[] pendingKeys = new int[INITIAL_CAPACITY];
+
+	// latest shift of the node, pending shift time of its children, epoch nanos
+	private long[] shiftedAt = new long[INITIAL_CAPACITY];
+	private long[] pendingShiftedAt = new long[INITIAL_CAPACITY];
+
+	private int root = NIL;
+	private int freeSlot = NIL;
+	private int usedSlots;
+
+	private int splitLeft;
+	private int splitRight;
+
+	int size() {
+		return root == NIL ? 0 : sizes[root];
+	}
+
+	boolean isEmpty() {
+		return root == NIL;
+	}
+
+	boolean contains(int widgetId) {
+		return slots.containsKey(widgetId);
+	}
+
+	/**
+	 * @return identifier of the widget at the Z-index, {@link #NO_WIDGET} if there is none
+	 */
+	int widgetAt(int zIndex) {
+		int n = root;
+		int offset = 0;
+
+		while (n != NIL) {
+			final int key = keys[n] + offset;
+			if (key == zIndex) {
+				return widgetIds[n];
+			}
+			offset += pendingKeys[n];
+			n = zIndex < key ? left[n] : right[n];
+		}
+
+		return NO_WIDGET;
+	}
+
+	int zIndexOf(int widgetId) {
+		final int slot = slotOf(widgetId);
+
+		int key = keys[slot];
+		for (int n = parent[slot]; n != NIL; n = parent[n]) {
+			key += pendingKeys[n];
+		}
+
+		return key;
+	}
+
+	/**
+	 * @return epoch nanos of the latest shift of the widget since it was put in place, 0 if none
+	 */
+	long shiftedAtOf(int widgetId) {
+		final int slot = slotOf(widgetId);
+
+		long time = shiftedAt[slot];
+		for (int n = parent[slot]; n != NIL; n = parent[n]) {
+			time = Math.max(time, pendingShiftedAt[n]);
+		}
+
+		return time;
+	}
+
+	/**
+	 * @return the highest Z-index, the order should not be empty
+	 */
+	int lastZIndex() {
+		if (root == NIL) {
+			throw new IllegalStateException("No widgets");
+		}
+
+		int n = root;
+		int offset = 0;
+		while (right[n] != NIL) {
+			offset += pendingKeys[n];
+			n = right[n];
+		}
+
+		return keys[n] + offset;
+	}
+
+	/**
+	 * @return number of widgets with Z-index greater or equal to the given one
+	 */
+	int countFrom(int zIndex) {
+		int n = root;
+		int offset = 0;
+		int count = 0;
+
+		while (n != NIL) {
+			final int key = keys[n] + offset;
+			offset += pendingKeys[n];
+			if (key >= zIndex) {
+				count += 1 + size(right[n]);
+				n = left[n];
+			} else {
+				n = right[n];
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Visits widgets with Z-index greater than the given one in Z-index order.
+	 */
+	void forEachAfter(long afterZIndex, Visitor visitor) {
+		int[] nodes = new int[64];
+		int[] offsets = new int[64];
+		long[] times = new long[64];
+		int top = 0;
+
+		int n = root;
+		int offset = 0;
+		long time = 0;
+		while (n != NIL) {
+			final boolean after = keys[n] + offset > afterZIndex;
+			if (after) {
+				if (top == nodes.length) {
+					nodes = Arrays.copyOf(nodes, top * 2);
+					offsets = Arrays.copyOf(offsets, top * 2);
+					times = Arrays.copyOf(times, top * 2);
+				}
+				nodes[top] = n;
+				offsets[top] = offset;
+				times[top++] = time;
+			}
+			offset += pendingKeys[n];
+			time = Math.max(time, pendingShiftedAt[n]);
+			n = after ? left[n] : right[n];
+		}
+
+		while (top > 0) {
+			n = nodes[--top];
+			offset = offsets[top];
+			time = times[top];
+
+			if (!visitor.visit(widgetIds[n], keys[n] + offset, Math.max(shiftedAt[n], time))) {
+				return;
+			}
+
+			offset += pendingKeys[n];
+			time = Math.max(time, pendingShiftedAt[n]);
+			for (int c = right[n]; c != NIL; c = left[c]) {
+				if (top == nodes.length) {
+					nodes = Arrays.copyOf(nodes, top * 2);
+					offsets = Arrays.copyOf(offsets, top * 2);
+					times = Arrays.copyOf(times, top * 2);
+				}
+				nodes[top] = c;
+				offsets[top] = offset;
+				times[top++] = time;
+				offset += pendingKeys[c];
+				time = Math.max(time, pendingShiftedAt[c]);
+			}
+		}
+	}
+
+	/**
+	 * Puts the widget at the Z-index. If the Z-index is taken, the widgets at and above it are
+	 * shifted by one first.
+	 *
+	 * @param now epoch nanos recorded as the shift time of the shifted widgets
+	 * @return number of shifted widgets
+	 */
+	int insert(int widgetId, int zIndex, long now) {
+		if (slots.containsKey(widgetId)) {
+			throw new IllegalStateException("Widget " + widgetId + " is already ordered");
+		}
+
+		final boolean collision = widgetAt(zIndex) != NO_WIDGET;
+		if (collision && lastZIndex() == Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("No Z-index left to shift widgets above " + zIndex);
+		}
+
+		split(root, zIndex);
+		final int lower = splitLeft;
+		final int upper = splitRight;
+
+		int shifted = 0;
+		if (collision) {
+			shifted = sizes[upper];
+			shift(upper, 1, now);
+		}
+
+		root = merge(merge(lower, allocate(widgetId, zIndex)), upper);
+		parent[root] = NIL;
+
+		return shifted;
+	}
+
+	/**
+	 * Builds the order at once in O(n), the order should be empty.
+	 *
+	 * @param zIndexes strictly increasing
+	 */
+	void load(int[] widgetIds, int[] zIndexes, int count) {
+		if (root != NIL) {
+			throw new IllegalStateException("Order is not empty");
+		}
+		if (keys.length < count) {
+			grow(count);
+		}
+
+		// right spine of the tree built so far, the last node is the rightmost
+		final int[] spine = new int[count];
+		int top = -1;
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0 && zIndexes[i] <= zIndexes[i - 1]) {
+				throw new IllegalArgumentException("Z-indexes are not increasing at " + zIndexes[i]);
+			}
+
+			final int node = allocate(widgetIds[i], zIndexes[i]);
+			int lower = NIL;
+			while (top >= 0 && priorities[spine[top]] < priorities[node]) {
+				lower = spine[top--];
+			}
+
+			left[node] = lower;
+			if (lower != NIL) {
+				parent[lower] = node;
+			}
+			if (top >= 0) {
+				right[spine[top]] = node;
+				parent[node] = spine[top];
+			}
+			spine[++top] = node;
+		}
+
+		root = top >= 0 ? spine[0] : NIL;
+		resizeAll();
+	}
+
+	/**
+	 * @return false if the widget was not ordered
+	 */
+	boolean remove(int widgetId) {
+		if (!slots.containsKey(widgetId)) {
+			return false;
+		}
+
+		final int zIndex = zIndexOf(widgetId);
+		final int slot = slots.remove(widgetId);
+
+		split(root, zIndex);
+		final int lower = splitLeft;
+		split(splitRight, zIndex + 1L);
+		if (splitLeft != slot) {
+			throw new IllegalStateException("Z-order is broken around " + zIndex);
+		}
+
+		root = merge(lower, splitRight);
+		if (root != NIL) {
+			parent[root] = NIL;
+		}
+		release(slot);
+
+		return true;
+	}
+
+	private int slotOf(int widgetId) {
+		final int slot = slots.get(widgetId);
+		if (slot == IntIntHashMap.NO_VALUE) {
+			throw new IllegalArgumentException("Widget " + widgetId + " is not ordered");
+		}
+		return slot;
+	}
+
+	/**
+	 * Splits the subtree into keys below the given one, in {@link #splitLeft}, and the rest,
+	 * in {@link #splitRight}. Parents of the returned roots are left for the caller.
+	 */
+	private void split(int n, long key) {
+		if (n == NIL) {
+			splitLeft = NIL;
+			splitRight = NIL;
+			return;
+		}
+
+		push(n);
+		if (keys[n] < key) {
+			split(right[n], key);
+			right[n] = splitLeft;
+			if (splitLeft != NIL) {
+				parent[splitLeft] = n;
+			}
+			resize(n);
+			splitLeft = n;
+		} else {
+			split(left[n], key);
+			left[n] = splitRight;
+			if (splitRight != NIL) {
+				parent[splitRight] = n;
+			}
+			resize(n);
+			splitRight = n;
+		}
+	}
+
+	/**
+	 * Merges two subtrees, all keys of the first being lower than the keys of the second.
+	 */
+	private int merge(int lower, int upper) {
+		if (lower == NIL) {
+			return upper;
+		}
+		if (upper == NIL) {
+			return lower;
+		}
+
+		if (priorities[lower] > priorities[upper]) {
+			push(lower);
+			final int child = merge(right[lower], upper);
+			right[lower] = child;
+			parent[child] = lower;
+			resize(lower);
+			return lower;
+		} else {
+			push(upper);
+			final int child = merge(lower, left[upper]);
+			left[upper] = child;
+			parent[child] = upper;
+			resize(upper);
+			return upper;
+		}
+	}
+
+	private void push(int n) {
+		if (pendingKeys[n] == 0 && pendingShiftedAt[n] == 0) {
+			return;
+		}
+
+		shift(left[n], pendingKeys[n], pendingShiftedAt[n]);
+		shift(right[n], pendingKeys[n], pendingShiftedAt[n]);
+
+		pendingKeys[n] = 0;
+		pendingShiftedAt[n] = 0;
+	}
+
+	/**
+	 * Shifts the whole subtree, the node at once and its children lazily.
+	 */
+	private void shift(int n, int delta, long time) {
+		if (n != NIL) {
+			keys[n] += delta;
+			pendingKeys[n] += delta;
+			shiftedAt[n] = Math.max(shiftedAt[n], time);
+			pendingShiftedAt[n] = Math.max(pendingShiftedAt[n], time);
+		}
+	}
+
+	private void resize(int n) {
+		sizes[n] = 1 + size(left[n]) + size(right[n]);
+	}
+
+	/**
+	 * Recomputes subtree sizes bottom up, children before their parents.
+	 */
+	private void resizeAll() {
+		if (root == NIL) {
+			return;
+		}
+
+		final int[] stack = new int[usedSlots];
+		final int[] order = new int[usedSlots];
+		int top = 0;
+		int count = 0;
+
+		stack[top++] = root;
+		while (top > 0) {
+			final int n = stack[--top];
+			order[count++] = n;
+			if (left[n] != NIL) {
+				stack[top++] = left[n];
+			}
+			if (right[n] != NIL) {
+				stack[top++] = right[n];
+			}
+		}
+
+		for (int i = count - 1; i >= 0; i--) {
+			resize(order[i]);
+		}
+	}
+
+	private int size(int n) {
+		return n == NIL ? 0 : sizes[n];
+	}
+
+	private int allocate(int widgetId, int zIndex) {
+		final int slot;
+		if (freeSlot != NIL) {
+			slot = freeSlot;
+			freeSlot = right[slot];
+		} else {
+			if (usedSlots == keys.length) {
+				grow(usedSlots + (usedSlots >> 1));
+			}
+			slot = usedSlots++;
+		}
+
+		widgetIds[slot] = widgetId;
+		priorities[slot] = priority(widgetId);
+		left[slot] = NIL;
+		right[slot] = NIL;
+		parent[slot] = NIL;
+		sizes[slot] = 1;
+		keys[slot] = zIndex;
+		pendingKeys[slot] = 0;
+		shiftedAt[slot] = 0;
+		pendingShiftedAt[slot] = 0;
+
+		slots.put(widgetId, slot);
+		return slot;
+	}
+
+	private void release(int slot) {
+		right[slot] = freeSlot;
+		freeSlot = slot;
+	}
+
+	private void grow(int capacity) {
+		widgetIds = Arrays.copyOf(widgetIds, capacity);
+		priorities = Arrays.copyOf(priorities, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		sizes = Arrays.copyOf(sizes, capacity);
+		keys = Arrays.copyOf(keys, capacity);
+		pendingKeys = Arrays.copyOf(pendingKeys, capacity);
+		shiftedAt = Arrays.copyOf(shiftedAt, capacity);
+		pendingShiftedAt = Arrays.copyOf(pendingShiftedAt, capacity);
+	}
+
+	/**
+	 * Hash of the identifier: priorities independent from Z-indexes, and the same shape for
+	 * the same history, which keeps copies of the store alike.
+	 */
+	private static int priority(int widgetId) {
+		int h = widgetId * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+}
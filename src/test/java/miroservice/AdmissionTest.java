@@ -0,0 +1,121 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.admission.AdmissionFilter;
+import com.miro.service.admission.ConcurrencyLimit;
+
+public class AdmissionTest {
+
+	private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testQueueUpToTimeout() throws Exception {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		final ConcurrencyLimit limit = new ConcurrencyLimit("write", 1, 10, 1, registry);
+		assertTrue(limit.acquire(0));
+		assertFalse(limit.acquire(10 * MILLISECOND));
+
+		final long start = System.nanoTime();
+		final CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> limit.acquire(TimeUnit.SECONDS.toNanos(10)));
+		while (registry.get("miro.admission.queued").gauge().value() < 1) {
+			Thread.sleep(1);
+		}
+		// the queue is full
+		assertFalse(limit.acquire(TimeUnit.SECONDS.toNanos(10)));
+
+		limit.release(start, false);
+		assertTrue(queued.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLimitFollowsLatency() throws InterruptedException {
+		final ConcurrencyLimit limit = new ConcurrencyLimit("read", 16, 100, 0, new SimpleMeterRegistry());
+
+		for (int i = 0; i < 3; i++) {
+			window(limit, MILLISECOND, false);
+		}
+		final int grown = limit.limit();
+		assertTrue(grown > 16);
+
+		// ten times the latency, requests queue for the storage
+		for (int i = 0; i < 5; i++) {
+			window(limit, 10 * MILLISECOND, false);
+		}
+		final int shrunk = limit.limit();
+		assertTrue(shrunk < 16);
+
+		window(limit, 10 * MILLISECOND, true);
+		assertTrue(limit.limit() < shrunk);
+	}
+
+	@Test
+	public void testReadsAndWritesApart() throws IOException, ServletException {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		final ConcurrencyLimit reads = new ConcurrencyLimit("read", 1, 10, 0, registry);
+		final ConcurrencyLimit writes = new ConcurrencyLimit("write", 1, 10, 0, registry);
+		final AdmissionFilter filter = new AdmissionFilter(reads, writes, 0, 0);
+
+		final long start = System.nanoTime();
+		assertTrue(writes.acquire(0));
+
+		MockHttpServletResponse response = filter(filter, "POST", "/api/widget");
+		assertEquals(503, response.getStatus());
+		assertEquals("1", response.getHeader("Retry-After"));
+		assertEquals(1, registry.get("miro.admission.rejected").tag("requests", "write").counter().count(), 0);
+
+		assertEquals(200, filter(filter, "GET", "/api/widget").getStatus());
+		// given back after the request
+		assertEquals(200, filter(filter, "GET", "/api/widget/1").getStatus());
+
+		// subscriptions are not counted
+		assertTrue(reads.acquire(0));
+		assertEquals(200, filter(filter, "GET", "/api/board/b1/widget/feed").getStatus());
+
+		writes.release(start, false);
+		response = filter(filter, "PUT", "/api/widget/1");
+		assertEquals(200, response.getStatus());
+		assertNull(response.getHeader("Retry-After"));
+	}
+
+	/**
+	 * Ten requests in flight together, the window closes with the last.
+	 */
+	private static void window(ConcurrencyLimit limit, long latencyNanos, boolean dropped) throws InterruptedException {
+		Thread.sleep(110);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limit.acquire(0));
+		}
+		for (int i = 0; i < 10; i++) {
+			limit.release(System.nanoTime() - latencyNanos, dropped);
+		}
+	}
+
+	private static MockHttpServletResponse filter(AdmissionFilter filter, String method, String uri) throws IOException, ServletException {
+		final MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		final MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(request, response, chain);
+		if (response.getStatus() == 200) {
+			assertNotNull(chain.getRequest());
+		}
+		return response;
+	}
+}
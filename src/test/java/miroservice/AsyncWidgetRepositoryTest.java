@@ -0,0 +1,77 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.miro.service.models.Widget;
+import com.miro.service.storage.AsyncWidgetRepository;
+import com.miro.service.storage.InMemoryWidgetRepository;
+
+public class AsyncWidgetRepositoryTest {
+
+	private ThreadPoolExecutor executor;
+	private AsyncWidgetRepository repository;
+
+	@Before
+	public void setUp() {
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+		repository = new AsyncWidgetRepository(new InMemoryWidgetRepository(), executor);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testOperationsComplete() throws Exception {
+		final Widget widget = repository.createWidget(1, 2, Optional.of(3), 10, 20).get(5, TimeUnit.SECONDS);
+		assertEquals(3, widget.zIndex());
+
+		assertEquals(widget, repository.findWidgetById(widget.widgetId()).get(5, TimeUnit.SECONDS).get());
+		assertEquals(1, repository.snapshotSortedByZIndex().get(5, TimeUnit.SECONDS).size());
+		assertTrue(repository.deleteWidget(widget.widgetId()).get(5, TimeUnit.SECONDS));
+		assertFalse(repository.findWidgetById(widget.widgetId()).get(5, TimeUnit.SECONDS).isPresent());
+	}
+
+	@Test
+	public void testFullExecutorFailsTheFuture() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> {
+			try {
+				release.await();
+			} catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		// one operation waits in the queue, the next has no room
+		final CompletableFuture<Long> queued = repository.version();
+		final CompletableFuture<Long> rejected = repository.version();
+		assertTrue(rejected.isCompletedExceptionally());
+		try {
+			rejected.get();
+			fail("rejected operation completed");
+		} catch (final ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof RejectedExecutionException);
+		}
+
+		release.countDown();
+		queued.get(5, TimeUnit.SECONDS);
+	}
+}
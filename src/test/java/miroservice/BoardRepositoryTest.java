@@ -0,0 +1,95 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.models.Widget;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+public class BoardRepositoryTest {
+
+	private BoardRepository boards;
+
+	@Before
+	public void setUp() {
+		boards = new BoardRepository(boardId -> new InMemoryWidgetRepository());
+	}
+
+	@Test
+	public void testBoardsAreIndependent() {
+		final WidgetRepository first = boards.board("first");
+		final WidgetRepository second = boards.board("second");
+		assertSame(first, boards.board("first"));
+
+		final Widget onFirst = first.createWidget(0, 0, Optional.of(1), 10, 10);
+		final Widget onSecond = second.createWidget(0, 0, Optional.of(1), 10, 10);
+		assertEquals(onFirst.widgetId(), onSecond.widgetId());
+		assertEquals(1, onSecond.zIndex());
+
+		// a shift on one board leaves the other alone
+		first.createWidget(0, 0, Optional.of(1), 10, 10);
+		assertEquals(2, first.findWidgetById(onFirst.widgetId()).get().zIndex());
+		assertEquals(1, second.findWidgetById(onSecond.widgetId()).get().zIndex());
+
+		assertTrue(second.deleteWidget(onSecond.widgetId()));
+		assertTrue(first.findWidgetById(onFirst.widgetId()).isPresent());
+	}
+
+	@Test
+	public void testOnlyWritesCreateBoards() {
+		assertEquals(1, boards.boardCount());
+		assertTrue(boards.findBoard(BoardRepository.DEFAULT_BOARD).isPresent());
+		assertFalse(boards.findBoard("absent").isPresent());
+		assertEquals(1, boards.boardCount());
+
+		boards.board("present");
+		assertTrue(boards.findBoard("present").isPresent());
+		assertEquals(2, boards.boardCount());
+	}
+
+	@Test
+	public void testChangeListener() {
+		final List<String> changed = new ArrayList<>();
+		boards.addChangeListener(changed::add);
+
+		final WidgetRepository board = boards.board("first");
+		final Widget widget = board.createWidget(0, 0, Optional.empty(), 10, 10);
+		board.findWidgetById(widget.widgetId());
+		board.listWidgetsSortedByZIndex();
+		boards.board(BoardRepository.DEFAULT_BOARD).deleteWidget(widget.widgetId());
+
+		assertEquals(Arrays.asList("first", BoardRepository.DEFAULT_BOARD), changed);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMalformedBoardId() {
+		boards.board("../default");
+	}
+
+	@Test
+	public void testMetricsCoverAllBoards() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		boards.board("first").createWidget(0, 0, Optional.of(1), 10, 10);
+		boards.bindTo(registry);
+		boards.board("second").createWidget(0, 0, Optional.of(1), 10, 10);
+		boards.board("second").createWidget(0, 0, Optional.of(1), 10, 10);
+
+		assertEquals(3, registry.get("miro.storage.boards").gauge().value(), 0);
+		assertEquals(3, registry.get("miro.storage.widgets").gauge().value(), 0);
+		assertEquals(1, registry.get("miro.storage.rearrangements").functionCounter().count(), 0);
+	}
+}
@@ -0,0 +1,183 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.DurableWidgetRepository;
+import com.miro.service.storage.FsyncPolicy;
+import com.miro.service.storage.WidgetRepository;
+
+public class DurableStorageTest extends InMemoryStorageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<DurableWidgetRepository> opened = new ArrayList<>();
+
+	@After
+	public void tearDown() throws IOException {
+		for (final DurableWidgetRepository repository: opened) {
+			repository.close();
+		}
+	}
+
+	@Override
+	protected WidgetRepository createRepository(int cellSize) {
+		try {
+			return open(folder.newFolder().toPath(), FsyncPolicy.ALWAYS);
+		} catch (final IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@Test
+	public void testRestartReplaysLog() throws IOException {
+		final Path directory = folder.newFolder().toPath();
+		final DurableWidgetRepository repository = open(directory, FsyncPolicy.ALWAYS);
+		mutate(repository, 200);
+		final List<Widget> expected = repository.listWidgetsSortedByZIndex();
+		repository.close();
+
+		final DurableWidgetRepository restarted = open(directory, FsyncPolicy.ALWAYS);
+		assertSameWidgets(expected, restarted.listWidgetsSortedByZIndex());
+
+		// identifiers are not reused even if the last widget was deleted
+		final int lastId = expected.stream().mapToInt(Widget::widgetId).max().orElse(-1);
+		assertTrue(restarted.createWidget(0, 0, Optional.empty(), 1, 1).widgetId() > lastId);
+	}
+
+	@Test
+	public void testRestartFromSnapshotAndLog() throws IOException {
+		final Path directory = folder.newFolder().toPath();
+		final DurableWidgetRepository repository = open(directory, FsyncPolicy.INTERVAL);
+		mutate(repository, 300);
+		repository.checkpoint();
+		mutate(repository, 300);
+		repository.checkpoint();
+		mutate(repository, 100);
+		final List<Widget> expected = repository.listWidgetsSortedByZIndex();
+		repository.close();
+
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("snapshot-")).count());
+		}
+
+		final DurableWidgetRepository restarted = open(directory, FsyncPolicy.INTERVAL);
+		assertSameWidgets(expected, restarted.listWidgetsSortedByZIndex());
+		assertSameWidgets(expected, restarted.findWidgetsInArea(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+		// the restored order takes shifts
+		final Widget bottom = expected.get(0);
+		final Widget inserted = restarted.createWidget(0, 0, Optional.of(bottom.zIndex()), 1, 1);
+		assertEquals(bottom.zIndex(), inserted.zIndex());
+		assertEquals(bottom.zIndex() + 1, restarted.findWidgetById(bottom.widgetId()).get().zIndex());
+	}
+
+	@Test
+	public void testRestartCutsTornRecord() throws IOException {
+		final Path directory = folder.newFolder().toPath();
+		final DurableWidgetRepository repository = open(directory, FsyncPolicy.ALWAYS);
+		mutate(repository, 50);
+		final List<Widget> expected = repository.listWidgetsSortedByZIndex();
+		repository.createWidget(1, 1, Optional.empty(), 1, 1);
+		repository.close();
+
+		final Path segment;
+		try (Stream<Path> files = Files.list(directory)) {
+			segment = files.filter(file -> file.getFileName().toString().startsWith("wal-")).sorted().reduce((first, second) -> second).get();
+		}
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		final DurableWidgetRepository restarted = open(directory, FsyncPolicy.ALWAYS);
+		assertSameWidgets(expected, restarted.listWidgetsSortedByZIndex());
+
+		final Widget created = restarted.createWidget(2, 2, Optional.empty(), 1, 1);
+		restarted.close();
+		assertTrue(open(directory, FsyncPolicy.ALWAYS).findWidgetById(created.widgetId()).isPresent());
+	}
+
+	@Test
+	public void testRestartOpensEveryStoredBoard() throws IOException {
+		final Path directory = folder.newFolder().toPath();
+		final BoardRepository boards = openBoards(directory);
+		mutate(boards.board("other"), 100);
+		final List<Widget> expected = boards.board("other").listWidgetsSortedByZIndex();
+		boards.close();
+
+		assertEquals(Arrays.asList(BoardRepository.DEFAULT_BOARD, "other"), DurableWidgetRepository.boardIds(directory));
+		final BoardRepository restarted = openBoards(directory);
+		try {
+			// read before anything is written to it
+			final Optional<WidgetRepository> board = restarted.findBoard("other");
+			assertTrue(board.isPresent());
+			assertSameWidgets(expected, board.get().listWidgetsSortedByZIndex());
+			assertFalse(restarted.findBoard("absent").isPresent());
+		} finally {
+			restarted.close();
+		}
+	}
+
+	private static BoardRepository openBoards(Path directory) {
+		return new BoardRepository(boardId -> new DurableWidgetRepository(directory.resolve(boardId), FsyncPolicy.ALWAYS, 5, 0),
+				DurableWidgetRepository.boardIds(directory));
+	}
+
+	private DurableWidgetRepository open(Path directory, FsyncPolicy fsyncPolicy) {
+		final DurableWidgetRepository repository = new DurableWidgetRepository(directory, fsyncPolicy, 5, 0);
+		opened.add(repository);
+		return repository;
+	}
+
+	/**
+	 * Creates widgets, partly colliding, moves and deletes some of them.
+	 */
+	private static void mutate(WidgetRepository repository, int operations) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final List<Integer> ids = repository.listWidgetsSortedByZIndex().stream().map(Widget::widgetId).collect(Collectors.toList());
+
+		for (int i = 0; i < operations; i++) {
+			final int choice = random.nextInt(10);
+			if (ids.isEmpty() || choice < 5) {
+				final Optional<Integer> zIndex = random.nextBoolean() ? Optional.of(random.nextInt(50)) : Optional.empty();
+				ids.add(repository.createWidget(random.nextInt(1000), random.nextInt(1000), zIndex, 1 + random.nextInt(50), 1 + random.nextInt(50)).widgetId());
+			} else if (choice < 8) {
+				final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.of(random.nextInt(1000)), Optional.empty(), Optional.of(random.nextInt(60)), Optional.empty(), Optional.of(2.5));
+				assertTrue(repository.updateWidget(ids.get(random.nextInt(ids.size())), request).isPresent());
+			} else {
+				assertTrue(repository.deleteWidget(ids.remove(random.nextInt(ids.size()))));
+			}
+		}
+		assertFalse(repository.findWidgetById(-1).isPresent());
+	}
+
+	private static void assertSameWidgets(List<Widget> expected, List<Widget> actual) {
+		assertEquals(expected, actual);
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).lastUpdateAt(), actual.get(i).lastUpdateAt());
+		}
+	}
+}
@@ -3,22 +3,40 @@ package miroservice;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetChanges;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
 import com.miro.service.requests.UpdateWidgetRequest;
 import com.miro.service.storage.InMemoryWidgetRepository;
 import com.miro.service.storage.WidgetRepository;
 
+import miroservice.LinearizabilityChecker.Call;
+import miroservice.WidgetHistory.Operation;
+
 public class InMemoryStorageTest {
 
 	private WidgetRepository repository;
@@ -26,7 +44,11 @@ public class InMemoryStorageTest {
 	
 	@Before
 	public void setUp() {
-		repository = new InMemoryWidgetRepository();
+		repository = createRepository(512);
+	}
+	
+	protected WidgetRepository createRepository(int cellSize) {
+		return new InMemoryWidgetRepository(cellSize);
 	}
 	
 	@Test
@@ -75,11 +97,11 @@ public class InMemoryStorageTest {
 		final Widget insertWidget2 = insertWidget(widget2, 1);
 		assertEquals(insertWidget2.zIndex(), 1);
 		
-		final Optional<Widget> foundWidget = repository.findWidgetById(widget1.widgetId());
+		final Optional<Widget> foundWidget = repository.findWidgetById(insertWidget1.widgetId());
 		assertTrue(foundWidget.isPresent());
 		assertNotEquals(insertWidget1.zIndex(), foundWidget.get().zIndex());
 		
-		final Optional<Widget> foundWidget2 = repository.findWidgetById(widget1.widgetId());
+		final Optional<Widget> foundWidget2 = repository.findWidgetById(insertWidget2.widgetId());
 		assertTrue(foundWidget2.isPresent());
 		assertEquals(insertWidget2.zIndex(), foundWidget2.get().zIndex());
 	}
@@ -122,11 +144,325 @@ public class InMemoryStorageTest {
 		assertEquals(0, repository.listWidgetsSortedByZIndex().size());
 	}
 	
+	@Test
+	public void testPaging() {
+		for (int i = 0; i < 25; i++) {
+			insertWidget(createRandomWidget(), i % 3 == 0);
+		}
+		
+		final List<Widget> paged = new ArrayList<>();
+		Optional<Integer> cursor = Optional.empty();
+		int pages = 0;
+		do {
+			final WidgetPage page = repository.listWidgetsSortedByZIndex(cursor, 10);
+			paged.addAll(page.widgets());
+			cursor = page.nextAfterZIndex();
+			pages++;
+		} while (cursor.isPresent());
+		
+		assertEquals(3, pages);
+		assertEquals(repository.listWidgetsSortedByZIndex(), paged);
+		
+		final WidgetPage exact = repository.listWidgetsSortedByZIndex(Optional.empty(), 25);
+		assertEquals(25, exact.widgets().size());
+		assertFalse(exact.nextAfterZIndex().isPresent());
+		
+		assertEquals(0, repository.listWidgetsSortedByZIndex(Optional.of(Integer.MAX_VALUE), 10).widgets().size());
+	}
+	
+	@Test
+	public void testPagingUnderConcurrentWrites() throws InterruptedException {
+		for (int i = 0; i < 500; i++) {
+			insertWidget(createRandomWidget(), false);
+		}
+		
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+		final Thread writer = new Thread(() -> {
+			try {
+				while (!stop.get()) {
+					final Widget widget = insertWidget(createRandomWidget(), ThreadLocalRandom.current().nextBoolean());
+					final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.of(1), Optional.empty(), Optional.of(widget.zIndex() / 2), Optional.empty(), Optional.empty());
+					repository.updateWidget(widget.widgetId(), request);
+					repository.deleteWidget(ThreadLocalRandom.current().nextInt(widget.widgetId() + 1));
+				}
+			} catch (final Throwable ex) {
+				writerFailure.set(ex);
+			}
+		});
+		writer.start();
+		
+		try {
+			for (int round = 0; round < 50; round++) {
+				Optional<Integer> cursor = Optional.empty();
+				do {
+					final WidgetPage page = repository.listWidgetsSortedByZIndex(cursor, 37);
+					assertTrue(page.widgets().size() <= 37);
+					
+					final Set<Integer> ids = new HashSet<>();
+					int previousZIndex = cursor.orElse(Integer.MIN_VALUE);
+					for (final Widget w: page.widgets()) {
+						assertTrue(ids.add(w.widgetId()));
+						assertTrue(w.zIndex() > previousZIndex);
+						previousZIndex = w.zIndex();
+					}
+					
+					if (page.nextAfterZIndex().isPresent()) {
+						assertEquals(previousZIndex, (int) page.nextAfterZIndex().get());
+					}
+					cursor = page.nextAfterZIndex();
+				} while (cursor.isPresent());
+			}
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+		// a failing writer would otherwise leave the pages checked without concurrent writes
+		if (writerFailure.get() != null) {
+			throw new AssertionError("Writer failed", writerFailure.get());
+		}
+	}
+	
+	@Test
+	public void testArea() {
+		repository = createRepository(16);
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		
+		for (int i = 0; i < 300; i++) {
+			repository.createWidget(random.nextInt(-200, 200), random.nextInt(-200, 200), Optional.empty(), random.nextInt(1, 60), random.nextInt(1, 60));
+		}
+		repository.createWidget(-1000, -1000, Optional.of(5), 2000, 2000);
+		
+		for (int i = 0; i < 100; i++) {
+			final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.of(random.nextInt(-200, 200)), Optional.empty(), Optional.of(random.nextInt(100)), Optional.empty(), Optional.of(random.nextDouble(100)));
+			repository.updateWidget(random.nextInt(300), request);
+			repository.deleteWidget(random.nextInt(300));
+		}
+		
+		for (int i = 0; i < 100; i++) {
+			final int x1 = random.nextInt(-300, 300), y1 = random.nextInt(-300, 300);
+			final int x2 = x1 + random.nextInt(200), y2 = y1 + random.nextInt(200);
+			
+			final List<Widget> expected = repository.listWidgetsSortedByZIndex()
+					.stream()
+					.filter(w -> w.xCoordinate() <= x2 && w.xCoordinate() + w.width() >= x1 && w.yCoordinate() <= y2 && w.yCoordinate() + w.height() >= y1)
+					.collect(Collectors.toList());
+			assertEquals(expected, repository.findWidgetsInArea(x1, y1, x2, y2));
+			
+			final Optional<Widget> topmost = expected
+					.stream()
+					.filter(w -> w.xCoordinate() <= x1 && w.xCoordinate() + w.width() >= x1 && w.yCoordinate() <= y1 && w.yCoordinate() + w.height() >= y1)
+					.reduce((w1, w2) -> w2);
+			assertEquals(topmost, repository.findTopmostWidgetAt(x1, y1));
+		}
+		
+		assertEquals(repository.listWidgetsSortedByZIndex(), repository.findWidgetsInArea(-5000, -5000, 5000, 5000));
+		assertFalse(repository.findTopmostWidgetAt(5000, 5000).isPresent());
+	}
+	
+	@Test
+	public void testShiftsMatchReference() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final TreeMap<Integer, Integer> reference = new TreeMap<>();
+		
+		for (int i = 0; i < 2000; i++) {
+			final int z = random.nextInt(50);
+			final int operation = random.nextInt(4);
+			
+			if (operation < 2 || reference.isEmpty()) {
+				final Widget widget = repository.createWidget(0, 0, Optional.of(z), 1, 1);
+				shiftReference(reference, z);
+				reference.put(z, widget.widgetId());
+			} else {
+				final int id = new ArrayList<>(reference.values()).get(random.nextInt(reference.size()));
+				reference.values().remove(id);
+				
+				if (operation == 2) {
+					final UpdateWidgetRequest request = new UpdateWidgetRequest(Optional.empty(), Optional.empty(), Optional.of(z), Optional.empty(), Optional.empty());
+					assertEquals(z, repository.updateWidget(id, request).get().zIndex());
+					shiftReference(reference, z);
+					reference.put(z, id);
+				} else {
+					assertTrue(repository.deleteWidget(id));
+				}
+			}
+			
+			if (i % 100 == 0) {
+				final List<Widget> listed = repository.listWidgetsSortedByZIndex();
+				assertEquals(reference.size(), listed.size());
+				int k = 0;
+				for (final Map.Entry<Integer, Integer> entry: reference.entrySet()) {
+					final Widget widget = listed.get(k++);
+					assertEquals((int) entry.getKey(), widget.zIndex());
+					assertEquals((int) entry.getValue(), widget.widgetId());
+					assertEquals(widget, repository.findWidgetById(widget.widgetId()).get());
+				}
+			}
+		}
+		
+		final Widget front = insertWidget(createRandomWidget(), false);
+		assertTrue(front.zIndex() > reference.lastKey());
+	}
+	
+	private static void shiftReference(TreeMap<Integer, Integer> reference, int zIndex) {
+		if (reference.containsKey(zIndex)) {
+			final TreeMap<Integer, Integer> shifted = new TreeMap<>();
+			reference.tailMap(zIndex, true).forEach((z, id) -> shifted.put(z + 1, id));
+			reference.tailMap(zIndex, true).clear();
+			reference.putAll(shifted);
+		}
+	}
+	
+	@Test
+	public void testBatch() {
+		final Widget existing = repository.createWidget(1, 1, Optional.of(10), 1, 1);
+		
+		final List<Optional<Widget>> results = repository.applyBatch(List.of(
+				BatchOperation.create(5, 6, Optional.of(10), 7, 8),
+				BatchOperation.update(existing.widgetId(), new UpdateWidgetRequest(Optional.of(2), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty())),
+				BatchOperation.update(12345, new UpdateWidgetRequest(Optional.of(2), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty())),
+				BatchOperation.create(0, 0, Optional.empty(), 1, 1),
+				BatchOperation.delete(12345)
+		));
+		
+		assertEquals(5, results.size());
+		final Widget created = results.get(0).get();
+		assertEquals(10, created.zIndex());
+		assertEquals(6, created.yCoordinate());
+		
+		final Widget updated = results.get(1).get();
+		assertEquals(11, updated.zIndex());
+		assertEquals(2, updated.xCoordinate());
+		
+		assertFalse(results.get(2).isPresent());
+		assertTrue(results.get(3).get().zIndex() > 11);
+		assertFalse(results.get(4).isPresent());
+		
+		final List<Optional<Widget>> deleted = repository.applyBatch(List.of(BatchOperation.delete(created.widgetId())));
+		assertEquals(created.widgetId(), deleted.get(0).get().widgetId());
+		assertEquals(2, repository.listWidgetsSortedByZIndex().size());
+	}
+	
+	@Test
+	public void testBatchIsAtomic() throws InterruptedException {
+		final List<BatchOperation> batch = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			batch.add(BatchOperation.create(i, i, Optional.of(0), 1, 1));
+		}
+		
+		final Thread writer = new Thread(() -> {
+			for (int i = 0; i < 100; i++) {
+				repository.applyBatch(batch);
+			}
+		});
+		writer.start();
+		
+		try {
+			while (writer.isAlive()) {
+				assertEquals(0, repository.listWidgetsSortedByZIndex().size() % batch.size());
+			}
+		} finally {
+			writer.join();
+		}
+		assertEquals(5000, repository.listWidgetsSortedByZIndex().size());
+	}
+	
+	@Test
+	public void testMetrics() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		((MeterBinder) repository).bindTo(registry);
+		
+		for (int i = 0; i < 3; i++) {
+			repository.createWidget(i, i, Optional.of(1), 1, 1);
+		}
+		for (int i = 0; i < 1000; i++) {
+			repository.findWidgetById(0);
+		}
+		
+		assertEquals(3.0, registry.get("miro.storage.widgets").gauge().value(), 0.0);
+		assertEquals(2.0, registry.get("miro.storage.rearrangements").functionCounter().count(), 0.0);
+		assertEquals(3.0, registry.get("miro.storage.shifted.widgets").functionCounter().count(), 0.0);
+		assertEquals(2.0, registry.get("miro.storage.shifted.widgets.percentile").tag("phi", "0.99").gauge().value(), 0.0);
+		// lock timings are sampled, only their presence is certain
+		assertNotNull(registry.find("miro.storage.lock.hold").tag("lock", "write").functionTimer());
+		assertNotNull(registry.find("miro.storage.lock.wait").tag("lock", "write").functionTimer());
+	}
+	
+	@Test
+	public void testChangesSince() {
+		final Widget low = repository.createWidget(0, 0, Optional.of(1), 1, 1);
+		final Widget high = repository.createWidget(0, 0, Optional.of(10), 1, 1);
+		final Widget deleted = repository.createWidget(0, 0, Optional.of(20), 1, 1);
+		final long version = repository.version();
+		assertEquals(version, repository.findChangesSince(version).version());
+		assertTrue(repository.findChangesSince(version).widgets().isEmpty());
+		
+		// shifts high and deleted
+		final Widget inserted = repository.createWidget(0, 0, Optional.of(10), 1, 1);
+		repository.deleteWidget(deleted.widgetId());
+		
+		final WidgetChanges changes = repository.findChangesSince(version);
+		assertFalse(changes.full());
+		assertTrue(changes.version() > version);
+		assertEquals(changes.version(), repository.version());
+		assertEquals(Arrays.asList(inserted.widgetId(), high.widgetId()),
+				changes.widgets().stream().map(Widget::widgetId).collect(Collectors.toList()));
+		assertEquals(11, changes.widgets().get(1).zIndex());
+		assertEquals(Collections.singletonList(deleted.widgetId()), changes.deletedWidgetIds());
+		assertTrue(repository.findChangesSince(changes.version()).widgets().isEmpty());
+		
+		// versions this board never had
+		final WidgetChanges unknown = repository.findChangesSince(repository.version() + 1);
+		assertTrue(unknown.full());
+		assertEquals(3, unknown.widgets().size());
+		assertEquals(low.widgetId(), unknown.widgets().get(0).widgetId());
+		assertTrue(repository.findChangesSince(Long.MIN_VALUE).full());
+	}
+	
+	@Test
+	public void testChangesSinceTruncatedLog() {
+		final long version = repository.version();
+		final List<BatchOperation> operations = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			operations.add(BatchOperation.create(i, i, Optional.empty(), 1, 1));
+		}
+		repository.applyBatch(operations);
+		
+		final WidgetChanges changes = repository.findChangesSince(version);
+		assertTrue(changes.full());
+		assertEquals(10_000, changes.widgets().size());
+		assertFalse(repository.findChangesSince(repository.version() - 1).full());
+	}
+	
 	@Test
 	public void testEmptyDelete() {
 		assertFalse(repository.deleteWidget(1));
 	}
 
+	@Test
+	public void testConcurrentHistoriesLinearizable() throws Exception {
+		for (int round = 0; round < 100; round++) {
+			// small cells, widgets span several of them
+			final WidgetRepository board = createRepository(16);
+			final List<Widget> initial = WidgetHistory.fill(board, 6);
+			final List<Call<Operation>> history = WidgetHistory.record(board, 3, 6, 12);
+
+			assertTrue("History not linearizable " + WidgetHistory.format(initial, history), WidgetHistory.isLinearizable(initial, history));
+			WidgetHistory.assertConsistent(board);
+		}
+	}
+
+	@Test
+	public void testConcurrentStress() throws Exception {
+		final WidgetRepository board = createRepository(16);
+		WidgetHistory.fill(board, 100);
+		// too long to search for an order, the results and the board are checked on their own
+		final List<Call<Operation>> history = WidgetHistory.record(board, 4, 2000, 400);
+
+		WidgetHistory.assertOrdered(history);
+		WidgetHistory.assertConsistent(board);
+	}
+
 
 	private Widget createRandomWidget() {
 		final int id = counter++;
@@ -148,8 +484,7 @@ public class InMemoryStorageTest {
 	}
 	
 	private Widget insertWidget(Widget widget, int zIndex) {
-		final Optional<Integer> z =  Optional.of(widget.zIndex());
-		final Widget result = repository.createWidget(widget.xCoordinate(), widget.yCoordinate(), z, widget.height(), widget.width());
+		final Widget result = repository.createWidget(widget.xCoordinate(), widget.yCoordinate(), Optional.of(zIndex), widget.height(), widget.width());
 		
 		return result;
 	}
@@ -0,0 +1,12 @@
+package miroservice;
+
+import com.miro.service.storage.LeftRightWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+public class LeftRightStorageTest extends InMemoryStorageTest {
+
+	@Override
+	protected WidgetRepository createRepository(int cellSize) {
+		return new LeftRightWidgetRepository(cellSize);
+	}
+}
@@ -0,0 +1,122 @@
+package miroservice;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ *
+ * Tells whether a history of concurrent calls is linearizable: whether every call can be given
+ * a point between its invocation and its return such that the calls, applied to a sequential
+ * model in the order of their points, return what they returned.
+ *
+ * The search of Wing and Gong with the memoization of Lowe: a pending call may take effect next
+ * if it was invoked before every other pending call returned, a choice the model rejects is
+ * undone, and the same calls done are tried from an equal model state only once. Model states
+ * are immutable and compared by equals.
+ *
+ */
+final class LinearizabilityChecker<S, O> {
+
+	interface Model<S, O> {
+		/**
+		 * @return the state after the operation, null if it could not have returned the result from the state
+		 */
+		S apply(S state, O operation, Object result);
+	}
+
+	/**
+	 * Operation called by a thread, the result it returned or the exception it threw.
+	 */
+	static final class Call<O> {
+		final int thread;
+		final O operation;
+		final Object result;
+		final long invokedNanos;
+		final long returnedNanos;
+
+		Call(int thread, O operation, Object result, long invokedNanos, long returnedNanos) {
+			this.thread = thread;
+			this.operation = operation;
+			this.result = result;
+			this.invokedNanos = invokedNanos;
+			this.returnedNanos = returnedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "thread " + thread + " [" + invokedNanos + ", " + returnedNanos + "] " + operation + " -> " + result;
+		}
+	}
+
+	private final List<Call<O>> calls;
+	private final Model<S, O> model;
+	private final Set<Configuration<S>> failed = new HashSet<>();
+
+	private LinearizabilityChecker(List<Call<O>> calls, Model<S, O> model) {
+		this.calls = new ArrayList<>(calls);
+		this.calls.sort(Comparator.comparingLong(call -> call.invokedNanos));
+		this.model = model;
+	}
+
+	static <S, O> boolean isLinearizable(S initial, List<Call<O>> calls, Model<S, O> model) {
+		return new LinearizabilityChecker<>(calls, model).search(initial, new BitSet(calls.size()));
+	}
+
+	private boolean search(S state, BitSet done) {
+		final int first = done.nextClearBit(0);
+		if (first >= calls.size()) {
+			return true;
+		}
+		if (!failed.add(new Configuration<>((BitSet) done.clone(), state))) {
+			return false;
+		}
+
+		long firstReturn = Long.MAX_VALUE;
+		for (int i = first; i < calls.size(); i = done.nextClearBit(i + 1)) {
+			firstReturn = Math.min(firstReturn, calls.get(i).returnedNanos);
+		}
+		// sorted by invocation, the calls after one invoked too late are invoked too late as well
+		for (int i = first; i < calls.size() && calls.get(i).invokedNanos <= firstReturn; i = done.nextClearBit(i + 1)) {
+			final Call<O> call = calls.get(i);
+			final S next = model.apply(state, call.operation, call.result);
+			if (next == null) {
+				continue;
+			}
+			done.set(i);
+			if (search(next, done)) {
+				return true;
+			}
+			done.clear(i);
+		}
+		return false;
+	}
+
+	private static final class Configuration<S> {
+		private final BitSet done;
+		private final S state;
+
+		Configuration(BitSet done, S state) {
+			this.done = done;
+			this.state = state;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Configuration)) {
+				return false;
+			}
+			final Configuration<?> other = (Configuration<?>) obj;
+			return done.equals(other.done) && state.equals(other.state);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(done, state);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package miroservice;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+import miroservice.LinearizabilityChecker.Call;
+import miroservice.WidgetHistory.Operation;
+
+public class LinearizabilityCheckerTest {
+
+	private final Widget first = new Widget(0, 10, 10, 5, 20, 20);
+
+	@Test
+	public void testReadDuringWrite() {
+		final Widget created = new Widget(1, 0, 0, 5, 1, 1);
+		final Widget shifted = new Widget(0, 10, 10, 6, 20, 20);
+		// the listing overlaps the creation, it sees the board either before or after it
+		final List<Call<Operation>> history = Arrays.asList(
+				call(0, new WidgetHistory.Create(0, 0, Optional.of(5), 1, 1), created, 0, 10),
+				call(1, new WidgetHistory.ListAll(), Arrays.asList(created, shifted), 2, 4),
+				call(2, new WidgetHistory.ListAll(), Collections.singletonList(first), 3, 5));
+
+		assertTrue(WidgetHistory.isLinearizable(Collections.singletonList(first), history));
+	}
+
+	@Test
+	public void testStaleRead() {
+		final List<Call<Operation>> history = Arrays.asList(
+				call(0, new WidgetHistory.Delete(0), true, 0, 10),
+				call(1, new WidgetHistory.Find(0), Optional.of(first), 11, 12));
+
+		assertFalse(WidgetHistory.isLinearizable(Collections.singletonList(first), history));
+	}
+
+	@Test
+	public void testLostUpdate() {
+		final UpdateWidgetRequest moveX = new UpdateWidgetRequest(Optional.of(1), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+		final UpdateWidgetRequest moveY = new UpdateWidgetRequest(Optional.empty(), Optional.of(2), Optional.empty(), Optional.empty(), Optional.empty());
+		// both updates read the widget before the other one wrote it
+		final List<Call<Operation>> history = Arrays.asList(
+				call(0, new WidgetHistory.Update(0, moveX), Optional.of(new Widget(0, 1, 10, 5, 20, 20)), 0, 10),
+				call(1, new WidgetHistory.Update(0, moveY), Optional.of(new Widget(0, 10, 2, 5, 20, 20)), 1, 11));
+
+		assertFalse(WidgetHistory.isLinearizable(Collections.singletonList(first), history));
+	}
+
+	@Test
+	public void testIdentifiersInOrderOfCreation() {
+		final Widget second = new Widget(1, 0, 0, 100, 1, 1);
+		final Widget third = new Widget(2, 0, 0, 200, 1, 1);
+		final List<Call<Operation>> history = Arrays.asList(
+				call(0, new WidgetHistory.Create(0, 0, Optional.empty(), 1, 1), third, 0, 10),
+				call(1, new WidgetHistory.Create(0, 0, Optional.empty(), 1, 1), second, 5, 15));
+		assertTrue(WidgetHistory.isLinearizable(Collections.singletonList(first), history));
+
+		// the later creation can't take the smaller identifier
+		final List<Call<Operation>> sequential = Arrays.asList(
+				call(0, new WidgetHistory.Create(0, 0, Optional.empty(), 1, 1), third, 0, 10),
+				call(1, new WidgetHistory.Create(0, 0, Optional.empty(), 1, 1), second, 11, 15));
+		assertFalse(WidgetHistory.isLinearizable(Collections.singletonList(first), sequential));
+	}
+
+	private static Call<Operation> call(int thread, Operation operation, Object result, long invoked, long returned) {
+		return new Call<>(thread, operation, result, invoked, returned);
+	}
+}
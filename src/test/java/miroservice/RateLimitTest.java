@@ -0,0 +1,121 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.ratelimit.RateLimitFilter;
+import com.miro.service.ratelimit.TokenBucket;
+import com.miro.service.ratelimit.TokenBuckets;
+
+public class RateLimitTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testTokenBucket() {
+		final TokenBucket bucket = new TokenBucket(3, 1, TimeUnit.MINUTES);
+		final long start = System.nanoTime();
+
+		assertEquals(2, bucket.tryConsume(start));
+		assertEquals(1, bucket.tryConsume(start));
+		assertEquals(0, bucket.tryConsume(start));
+		// a token comes back every 20 seconds
+		assertEquals(-20 * SECOND, bucket.tryConsume(start));
+		assertEquals(-5 * SECOND, bucket.tryConsume(start + 15 * SECOND));
+		assertEquals(0, bucket.tryConsume(start + 20 * SECOND));
+
+		// refilled, never above the capacity
+		assertEquals(2, bucket.tryConsume(start + 3600 * SECOND));
+	}
+
+	@Test
+	public void testTokenBucketsPerKey() {
+		final TokenBuckets buckets = new TokenBuckets(2, 1, TimeUnit.MINUTES, 1000);
+		final long start = System.nanoTime();
+		final long first = TokenBuckets.key("10.0.0.1", 0);
+		final long second = TokenBuckets.key("10.0.0.2", 0);
+
+		assertEquals(1, buckets.tryConsume(first, start));
+		assertEquals(0, buckets.tryConsume(first, start));
+		assertTrue(buckets.tryConsume(first, start) < 0);
+		assertEquals(1, buckets.tryConsume(second, start));
+		// the same address in another class of requests
+		assertEquals(1, buckets.tryConsume(TokenBuckets.key("10.0.0.1", 1), start));
+
+		assertEquals(0, buckets.tryConsume(first, start + 30 * SECOND));
+	}
+
+	@Test
+	public void testIdleKeysAreForgotten() {
+		// a single set of slots
+		final TokenBuckets buckets = new TokenBuckets(1, 1, TimeUnit.MINUTES, 1);
+		final long start = System.nanoTime();
+
+		for (int key = 1; key <= 8; key++) {
+			assertEquals(0, buckets.tryConsume(key, start));
+			assertTrue(buckets.tryConsume(key, start) < 0);
+		}
+
+		// refilled buckets give their slots to new keys
+		for (int key = 9; key <= 16; key++) {
+			assertEquals(0, buckets.tryConsume(key, start + 60 * SECOND));
+		}
+		// a forgotten key starts over with a full bucket
+		assertEquals(0, buckets.tryConsume(1, start + 120 * SECOND));
+	}
+
+	@Test
+	public void testWidgetListLimitPerClient() throws IOException, ServletException {
+		final RateLimitFilter filter = new RateLimitFilter(Optional.of(new TokenBucket(1000, 1, TimeUnit.MINUTES)),
+				Optional.of(new TokenBuckets(2, 1, TimeUnit.MINUTES, 100)), new SimpleMeterRegistry());
+
+		// the fewest tokens left of the buckets taken from
+		assertEquals("1", filter(filter, "GET", "/api/board/b1/widget", "10.0.0.1").getHeader("X-Rate-Limit-Remaining"));
+		assertEquals("0", filter(filter, "GET", "/api/widget/", "10.0.0.1").getHeader("X-Rate-Limit-Remaining"));
+
+		final MockHttpServletResponse rejected = filter(filter, "GET", "/api/widget", "10.0.0.1");
+		assertEquals(429, rejected.getStatus());
+		assertEquals("29", rejected.getHeader("X-Rate-Limit-Retry-After-Seconds"));
+		assertEquals("{ \"message\": \"Too many requests!\" }", rejected.getContentAsString());
+
+		// other clients and other requests only count against the API limit
+		assertEquals(200, filter(filter, "GET", "/api/widget", "10.0.0.2").getStatus());
+		assertEquals("995", filter(filter, "GET", "/api/widget/5", "10.0.0.1").getHeader("X-Rate-Limit-Remaining"));
+		assertEquals("994", filter(filter, "POST", "/api/widget", "10.0.0.1").getHeader("X-Rate-Limit-Remaining"));
+		assertEquals("993", filter(filter, "GET", "/api/board/b1/widget/area", "10.0.0.1").getHeader("X-Rate-Limit-Remaining"));
+		assertEquals("992", filter(filter, "GET", "/api/board/b1/x/widget", "10.0.0.1").getHeader("X-Rate-Limit-Remaining"));
+	}
+
+	@Test
+	public void testApiLimit() throws IOException, ServletException {
+		final RateLimitFilter filter = new RateLimitFilter(Optional.of(new TokenBucket(1, 1, TimeUnit.MINUTES)), Optional.empty(), new SimpleMeterRegistry());
+
+		assertEquals(200, filter(filter, "POST", "/api/widget", "10.0.0.1").getStatus());
+		assertEquals(429, filter(filter, "GET", "/api/widget/1", "10.0.0.2").getStatus());
+
+		final RateLimitFilter unlimited = new RateLimitFilter(Optional.empty(), Optional.empty(), new SimpleMeterRegistry());
+		assertNull(filter(unlimited, "GET", "/api/widget", "10.0.0.1").getHeader("X-Rate-Limit-Remaining"));
+	}
+
+	private static MockHttpServletResponse filter(RateLimitFilter filter, String method, String path, String address) throws IOException, ServletException {
+		final MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+		request.setRemoteAddr(address);
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+}
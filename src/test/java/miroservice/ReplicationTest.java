@@ -0,0 +1,233 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.models.Widget;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.ReplicationFollower;
+import com.miro.service.storage.ReplicationLeader;
+import com.miro.service.storage.StorageException;
+import com.miro.service.storage.WidgetRepository;
+
+public class ReplicationTest {
+
+	private static final String[] BOARDS = { BoardRepository.DEFAULT_BOARD, "other" };
+
+	private ReplicationLeader leader;
+	private BoardRepository leaderBoards;
+	private int port;
+	private final List<ReplicationFollower> followers = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		start(1 << 16);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (final ReplicationFollower follower: followers) {
+			follower.close();
+		}
+		leader.close();
+	}
+
+	@Test
+	public void testFollowersApplyChanges() {
+		final BoardRepository first = follow();
+		final BoardRepository second = follow();
+		writeRandomly(500);
+
+		awaitFollowers();
+		assertSameBoards(first);
+		assertSameBoards(second);
+	}
+
+	@Test
+	public void testLaggingFollowerCatchesUpFromSnapshot() throws IOException {
+		leader.close();
+		restart(16);
+		// more changes than the leader keeps
+		writeRandomly(200);
+		final BoardRepository late = follow();
+		awaitFollowers();
+		assertSameBoards(late);
+
+		writeRandomly(50);
+		awaitFollowers();
+		assertSameBoards(late);
+	}
+
+	@Test
+	public void testFollowerOfRestartedLeaderTakesSnapshot() throws IOException {
+		final BoardRepository boards = follow();
+		writeRandomly(10);
+		awaitFollowers();
+
+		// the new leader has nothing in common with the old one but the port
+		leader.close();
+		restart(16);
+		writeRandomly(10);
+		// positions of the new leader can't be compared with the ones of the old
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (!sameVersions(boards) && System.currentTimeMillis() < deadline) {
+			Thread.yield();
+		}
+		assertSameBoards(boards);
+	}
+
+	@Test
+	public void testFollowerEmptiesBoardsRestartedLeaderLacks() throws IOException {
+		final BoardRepository boards = follow();
+		writeRandomly(10);
+		leaderBoards.board("gone").createWidget(1, 2, Optional.empty(), 3, 4);
+		awaitFollowers();
+		final long goneVersion = boards.findBoard("gone").get().version();
+		assertEquals(1, boards.findBoard("gone").get().listWidgetsSortedByZIndex().size());
+
+		leader.close();
+		restart(16);
+		writeRandomly(10);
+		final long deadline = System.currentTimeMillis() + 5000;
+		while ((!sameVersions(boards) || !boards.findBoard("gone").get().listWidgetsSortedByZIndex().isEmpty())
+				&& System.currentTimeMillis() < deadline) {
+			Thread.yield();
+		}
+		assertSameBoards(boards);
+		assertTrue(boards.findBoard("gone").get().listWidgetsSortedByZIndex().isEmpty());
+		// entity tags of the old board don't match the empty one
+		assertTrue(boards.findBoard("gone").get().version() != goneVersion);
+	}
+
+	@Test
+	public void testStaleness() {
+		follow();
+		writeRandomly(10);
+		final ReplicationFollower follower = followers.get(0);
+		assertTrue(follower.awaitPosition(leader.position(), 5000));
+		// told by the heartbeat after the records
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (follower.stalenessMillis() == Long.MAX_VALUE && System.currentTimeMillis() < deadline) {
+			Thread.yield();
+		}
+		assertTrue(follower.stalenessMillis() < 1000);
+	}
+
+	@Test(expected = StorageException.class)
+	public void testFollowerIsReadOnly() {
+		follow().board(BoardRepository.DEFAULT_BOARD).createWidget(0, 0, Optional.empty(), 1, 1);
+	}
+
+	private void start(int retainedRecords) throws IOException {
+		leader = new ReplicationLeader(retainedRecords, 10, new SimpleMeterRegistry());
+		leaderBoards = new BoardRepository(leader.boardFactory());
+		port = leader.start(leaderBoards, "localhost", port);
+	}
+
+	/**
+	 * Starts a new leader on the port, which a follower reconnecting to it may hold for a moment
+	 * with a connection to itself.
+	 */
+	private void restart(int retainedRecords) throws IOException {
+		for (int attempt = 0;; attempt++) {
+			try {
+				start(retainedRecords);
+				return;
+			} catch (final BindException ex) {
+				if (attempt == 100) {
+					throw ex;
+				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+			}
+		}
+	}
+
+	private BoardRepository follow() {
+		final BoardRepository boards = new BoardRepository(ReplicationFollower.boardFactory());
+		followers.add(new ReplicationFollower(boards, "localhost", port, 50, new SimpleMeterRegistry()));
+		return boards;
+	}
+
+	private void awaitFollowers() {
+		for (final ReplicationFollower follower: followers) {
+			assertTrue(follower.awaitPosition(leader.position(), 5000));
+		}
+	}
+
+	/**
+	 * Creates, moves with shifts, deletes and batches on every board.
+	 */
+	private void writeRandomly(int writes) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < writes; i++) {
+			final WidgetRepository board = leaderBoards.board(BOARDS[i % BOARDS.length]);
+			final int widgets = board.listWidgetsSortedByZIndex().size();
+			switch (widgets < 5 ? 0 : random.nextInt(4)) {
+			case 0:
+				board.createWidget(random.nextInt(1000), random.nextInt(1000), Optional.of(random.nextInt(20)), 1 + random.nextInt(10), 1 + random.nextInt(10));
+				break;
+			case 1:
+				final Widget moved = board.listWidgetsSortedByZIndex().get(random.nextInt(widgets));
+				board.updateWidget(moved.widgetId(), new UpdateWidgetRequest(Optional.of(random.nextInt(1000)), Optional.empty(), Optional.of(random.nextInt(20)), Optional.empty(), Optional.empty()));
+				break;
+			case 2:
+				board.deleteWidget(board.listWidgetsSortedByZIndex().get(random.nextInt(widgets)).widgetId());
+				break;
+			default:
+				final List<BatchOperation> batch = new ArrayList<>();
+				batch.add(BatchOperation.create(random.nextInt(1000), random.nextInt(1000), Optional.empty(), 1, 1));
+				batch.add(BatchOperation.create(random.nextInt(1000), random.nextInt(1000), Optional.of(0), 1, 1));
+				board.applyBatch(batch);
+				break;
+			}
+		}
+	}
+
+	private boolean sameVersions(BoardRepository follower) {
+		for (final String boardId: BOARDS) {
+			final Optional<WidgetRepository> board = follower.findBoard(boardId);
+			if (!board.isPresent() || board.get().version() != leaderBoards.board(boardId).version()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void assertSameBoards(BoardRepository follower) {
+		for (final String boardId: BOARDS) {
+			final Optional<WidgetRepository> expected = leaderBoards.findBoard(boardId);
+			final Optional<WidgetRepository> actual = follower.findBoard(boardId);
+			assertEquals(expected.isPresent(), actual.isPresent());
+			if (!expected.isPresent()) {
+				continue;
+			}
+
+			assertEquals(expected.get().version(), actual.get().version());
+			final List<Widget> expectedWidgets = expected.get().listWidgetsSortedByZIndex();
+			final List<Widget> actualWidgets = actual.get().listWidgetsSortedByZIndex();
+			assertEquals(expectedWidgets, actualWidgets);
+			for (int i = 0; i < expectedWidgets.size(); i++) {
+				assertEquals(expectedWidgets.get(i).lastUpdateAt(), actualWidgets.get(i).lastUpdateAt());
+			}
+			assertFalse(actual.get().findChangesSince(expected.get().version()).full());
+		}
+	}
+}
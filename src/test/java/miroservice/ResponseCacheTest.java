@@ -0,0 +1,171 @@
+package miroservice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.controllers.CachedResponse;
+import com.miro.service.controllers.ResponseCache;
+import com.miro.service.controllers.WidgetSnapshotConverter;
+import com.miro.service.models.Widget;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+public class ResponseCacheTest {
+
+	private static final String BOARD = BoardRepository.DEFAULT_BOARD;
+
+	private ObjectMapper mapper;
+	private BoardRepository boards;
+	private WidgetRepository board;
+	private ResponseCache cache;
+
+	@Before
+	public void setUp() {
+		mapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		boards = new BoardRepository(boardId -> new InMemoryWidgetRepository());
+		board = boards.board(BOARD);
+		cache = cache(1 << 20);
+		boards.addWidgetChangeListener(cache);
+	}
+
+	@Test
+	public void testWriteDropsWidgetAndList() throws IOException {
+		final Widget widget = board.createWidget(0, 0, Optional.of(1), 10, 10);
+		final Widget other = board.createWidget(0, 0, Optional.of(2), 10, 10);
+		assertFalse(cache.widget(BOARD, widget.widgetId(), false).isPresent());
+
+		assertArrayEquals(mapper.writeValueAsBytes(widget), cache.putWidget(BOARD, cache.stamp(BOARD), widget).json());
+		cache.putWidget(BOARD, cache.stamp(BOARD), other);
+		cache.putList(BOARD, cache.stamp(BOARD), board.snapshotSortedByZIndex());
+		assertTrue(cache.widget(BOARD, widget.widgetId(), false).isPresent());
+		assertEquals(mapper.writeValueAsString(board.listWidgetsSortedByZIndex()), new String(cache.list(BOARD, false).get().json(), "UTF-8"));
+
+		board.updateWidget(widget.widgetId(), new UpdateWidgetRequest(Optional.of(5), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
+		assertFalse(cache.widget(BOARD, widget.widgetId(), false).isPresent());
+		assertFalse(cache.list(BOARD, false).isPresent());
+		assertTrue(cache.widget(BOARD, other.widgetId(), false).isPresent());
+	}
+
+	@Test
+	public void testShiftDropsShiftedWidgetsOnly() {
+		final Widget below = board.createWidget(0, 0, Optional.of(1), 10, 10);
+		final Widget shifted = board.createWidget(0, 0, Optional.of(5), 10, 10);
+		final Widget above = board.createWidget(0, 0, Optional.of(6), 10, 10);
+		for (final Widget widget: new Widget[] { below, shifted, above }) {
+			cache.putWidget(BOARD, cache.stamp(BOARD), widget);
+		}
+
+		// takes Z-index 5, the widgets at 5 and 6 move up
+		board.createWidget(0, 0, Optional.of(5), 10, 10);
+		assertTrue(cache.widget(BOARD, below.widgetId(), false).isPresent());
+		assertFalse(cache.widget(BOARD, shifted.widgetId(), false).isPresent());
+		assertFalse(cache.widget(BOARD, above.widgetId(), false).isPresent());
+
+		// cached after the shift, at its new Z-index
+		final Widget current = board.findWidgetById(shifted.widgetId()).get();
+		cache.putWidget(BOARD, cache.stamp(BOARD), current);
+		assertTrue(cache.widget(BOARD, shifted.widgetId(), false).isPresent());
+	}
+
+	@Test
+	public void testResponseReadBeforeWriteIsNotKept() {
+		final Widget widget = board.createWidget(0, 0, Optional.of(1), 10, 10);
+		final long stamp = cache.stamp(BOARD);
+		final Widget read = board.findWidgetById(widget.widgetId()).get();
+
+		// the write drops nothing yet, the response read before it comes after
+		board.updateWidget(widget.widgetId(), new UpdateWidgetRequest(Optional.of(5), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
+		cache.putWidget(BOARD, stamp, read);
+		assertFalse(cache.widget(BOARD, widget.widgetId(), false).isPresent());
+	}
+
+	@Test
+	public void testStaleResponseNeverServedAfterWrite() throws Exception {
+		final Widget widget = board.createWidget(0, 0, Optional.of(1), 10, 10);
+		final AtomicBoolean stop = new AtomicBoolean();
+		final ExecutorService readers = Executors.newFixedThreadPool(2);
+		try {
+			final List<Future<?>> cached = new ArrayList<>();
+			for (int t = 0; t < 2; t++) {
+				cached.add(readers.submit(() -> {
+					while (!stop.get()) {
+						// the stamp changes between the read and the put whenever a write comes in between
+						final long stamp = cache.stamp(BOARD);
+						cache.putWidget(BOARD, stamp, board.findWidgetById(widget.widgetId()).get());
+					}
+				}));
+			}
+
+			for (int x = 1; x <= 20000; x++) {
+				final Widget updated = board.updateWidget(widget.widgetId(), new UpdateWidgetRequest(Optional.of(x), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty())).get();
+				final Optional<CachedResponse> response = cache.widget(BOARD, widget.widgetId(), false);
+				if (response.isPresent()) {
+					assertArrayEquals(mapper.writeValueAsBytes(updated), response.get().json());
+				}
+			}
+
+			stop.set(true);
+			for (final Future<?> reader: cached) {
+				reader.get();
+			}
+		} finally {
+			stop.set(true);
+			readers.shutdown();
+		}
+	}
+
+	@Test
+	public void testListCompressedOnce() throws IOException {
+		for (int i = 0; i < 100; i++) {
+			board.createWidget(i, i, Optional.of(i), 10, 10);
+		}
+		final byte[] json = cache.putList(BOARD, cache.stamp(BOARD), board.snapshotSortedByZIndex()).get().json();
+
+		assertFalse(cache.list(BOARD, false).get().gzip().isPresent());
+		final CachedResponse compressed = cache.list(BOARD, true).get();
+		assertArrayEquals(json, new GZIPInputStream(new ByteArrayInputStream(compressed.gzip().get())).readAllBytes());
+		assertTrue(cache.list(BOARD, false).get().gzip().isPresent());
+	}
+
+	@Test
+	public void testMemoryBound() {
+		final ResponseCache empty = cache(0);
+		final Widget widget = board.createWidget(0, 0, Optional.of(1), 10, 10);
+		empty.putWidget(BOARD, empty.stamp(BOARD), widget);
+		assertFalse(empty.widget(BOARD, widget.widgetId(), false).isPresent());
+
+		// a list too large to keep is not rendered
+		for (int i = 0; i < 1000; i++) {
+			board.createWidget(i, i, Optional.empty(), 10, 10);
+		}
+		assertFalse(cache(64 << 10).putList(BOARD, 0, board.snapshotSortedByZIndex()).isPresent());
+	}
+
+	private ResponseCache cache(long maxBytes) {
+		return new ResponseCache(mapper, new WidgetSnapshotConverter(mapper.getFactory(), ZoneId.systemDefault()), maxBytes, 1024, new SimpleMeterRegistry());
+	}
+}
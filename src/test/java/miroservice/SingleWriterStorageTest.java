@@ -0,0 +1,132 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.miro.service.models.Widget;
+import com.miro.service.storage.SingleWriter;
+import com.miro.service.storage.StorageBusyException;
+import com.miro.service.storage.SingleWriterWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+public class SingleWriterStorageTest extends InMemoryStorageTest {
+
+	private final SingleWriter writer = new SingleWriter(1024);
+
+	@After
+	public void tearDown() {
+		writer.close();
+	}
+
+	@Override
+	protected WidgetRepository createRepository(int cellSize) {
+		return new SingleWriterWidgetRepository(writer, cellSize);
+	}
+
+	@Test
+	public void testConcurrentWritesToBoards() throws InterruptedException {
+		final WidgetRepository[] boards = { createRepository(512), createRepository(512) };
+		final int writes = 2000;
+
+		final AtomicInteger unseen = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final WidgetRepository board = boards[t % boards.length];
+			final Thread thread = new Thread(() -> {
+				for (int i = 0; i < writes; i++) {
+					// every insert at the bottom shifts all the widgets of the board
+					final Widget created = board.createWidget(i, i, Optional.of(0), 1, 1);
+					if (!board.findWidgetById(created.widgetId()).isPresent()) {
+						unseen.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (final Thread thread: threads) {
+			thread.join();
+		}
+
+		// a write is visible once it returns
+		assertEquals(0, unseen.get());
+		for (final WidgetRepository board: boards) {
+			final List<Widget> widgets = board.listWidgetsSortedByZIndex();
+			assertEquals(4 * writes, widgets.size());
+			final Set<Integer> zIndexes = new HashSet<>();
+			widgets.forEach(widget -> zIndexes.add(widget.zIndex()));
+			assertEquals(widgets.size(), zIndexes.size());
+		}
+	}
+
+	@Test
+	public void testWriterSurvivesFailingListener() {
+		final SingleWriterWidgetRepository board = new SingleWriterWidgetRepository(writer);
+		board.changeListener(() -> {
+			throw new IllegalStateException("listener failed");
+		});
+		try {
+			board.createWidget(0, 0, Optional.empty(), 1, 1);
+			fail("Listener failure not reported");
+		} catch (final IllegalStateException ex) {
+			assertEquals("listener failed", ex.getMessage());
+		}
+
+		board.changeListener(() -> {});
+		board.createWidget(1, 1, Optional.empty(), 1, 1);
+		assertEquals(2, board.listWidgetsSortedByZIndex().size());
+		assertEquals(0, createRepository(512).createWidget(0, 0, Optional.empty(), 1, 1).widgetId());
+	}
+
+	@Test
+	public void testStalledWriterFailsQueuedWrites() throws Exception {
+		final SingleWriterWidgetRepository stalled = new SingleWriterWidgetRepository(writer);
+		final WidgetRepository other = createRepository(512);
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		stalled.changeListener(() -> {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Widget> first = executor.submit(() -> stalled.createWidget(0, 0, Optional.empty(), 1, 1));
+			assertTrue(entered.await(5, TimeUnit.SECONDS));
+			try {
+				other.createWidget(0, 0, Optional.empty(), 1, 1);
+				fail("Write behind a stalled writer not failed");
+			} catch (final StorageBusyException ex) {
+				// the caller gave up, the write is dropped
+			} finally {
+				release.countDown();
+			}
+
+			assertEquals(0, first.get(5, TimeUnit.SECONDS).widgetId());
+			other.createWidget(1, 1, Optional.empty(), 1, 1);
+			assertEquals(1, other.listWidgetsSortedByZIndex().size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
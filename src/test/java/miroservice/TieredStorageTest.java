@@ -0,0 +1,175 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.models.Widget;
+import com.miro.service.storage.BoardTier;
+import com.miro.service.storage.WidgetRepository;
+
+import miroservice.LinearizabilityChecker.Call;
+import miroservice.WidgetHistory.Operation;
+
+public class TieredStorageTest extends InMemoryStorageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<BoardTier> opened = new ArrayList<>();
+	private SimpleMeterRegistry registry;
+
+	@After
+	public void tearDown() {
+		for (final BoardTier tier: opened) {
+			tier.close();
+		}
+	}
+
+	/**
+	 * Boards of a tier that evicts nothing, the contract of a resident board.
+	 */
+	@Override
+	protected WidgetRepository createRepository(int cellSize) {
+		return open(Long.MAX_VALUE, 0).boardFactory().apply("board");
+	}
+
+	@Test
+	public void testIdleBoardEvictedAndLoaded() throws Exception {
+		final BoardTier tier = open(Long.MAX_VALUE, 50);
+		final WidgetRepository board = tier.boardFactory().apply("idle");
+		final List<Widget> expected = WidgetHistory.fill(board, 500);
+		final long version = board.version();
+
+		awaitEvicted(1);
+		assertEquals(1, snapshots("idle"));
+
+		final List<Widget> loaded = board.listWidgetsSortedByZIndex();
+		assertEquals(expected, loaded);
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).lastUpdateAt(), loaded.get(i).lastUpdateAt());
+		}
+		assertEquals(1, registry.get("miro.storage.tiered.loaded").timer().count());
+		assertEquals(0, snapshots("idle"));
+		assertTrue(board.version() > version);
+		assertEquals(expected.size(), board.findWidgetsInArea(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).size());
+
+		// identifiers and Z-indexes go on from where they were
+		final int lastId = expected.stream().mapToInt(Widget::widgetId).max().getAsInt();
+		final int topZIndex = expected.get(expected.size() - 1).zIndex();
+		final Widget created = board.createWidget(0, 0, Optional.empty(), 1, 1);
+		assertTrue(created.widgetId() > lastId);
+		assertTrue(created.zIndex() > topZIndex);
+	}
+
+	@Test
+	public void testBudgetEvictsBoard() throws Exception {
+		final BoardTier tier = open(300, 0);
+		final WidgetRepository first = tier.boardFactory().apply("first");
+		final WidgetRepository second = tier.boardFactory().apply("second");
+		WidgetHistory.fill(first, 200);
+		// beyond the budget, which board goes is up to the frequency of their use
+		WidgetHistory.fill(second, 150);
+
+		awaitEvicted(1);
+		assertEquals(1, snapshots("first") + snapshots("second"));
+		assertEquals(200, first.listWidgetsSortedByZIndex().size());
+		assertEquals(150, second.listWidgetsSortedByZIndex().size());
+	}
+
+	@Test
+	public void testOperationsDuringEviction() throws Exception {
+		// every write puts the board over the budget
+		final BoardTier tier = open(10, 0);
+		final WidgetRepository board = tier.boardFactory().apply("busy");
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<List<Integer>>> created = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				created.add(executor.submit(() -> {
+					final List<Integer> ids = new ArrayList<>();
+					for (int i = 0; i < 200; i++) {
+						ids.add(board.createWidget(i, i, Optional.empty(), 1, 1).widgetId());
+						if (i % 20 == 0) {
+							// lets the board go idle
+							Thread.sleep(5);
+						}
+					}
+					return ids;
+				}));
+			}
+
+			final Set<Integer> ids = new HashSet<>();
+			for (final Future<List<Integer>> future: created) {
+				ids.addAll(future.get(30, TimeUnit.SECONDS));
+			}
+			assertEquals(800, ids.size());
+			assertEquals(800, board.listWidgetsSortedByZIndex().size());
+			assertTrue(registry.get("miro.storage.tiered.evicted").counter().count() > 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testHistoriesLinearizableDuringEviction() throws Exception {
+		double evicted = 0;
+		for (int round = 0; round < 30; round++) {
+			// every write puts the board over the budget
+			final WidgetRepository board = open(10, 0).boardFactory().apply("round-" + round);
+			final List<Widget> initial = WidgetHistory.fill(board, 6);
+			final List<Call<Operation>> history = WidgetHistory.record(board, 3, 6, 12);
+
+			assertTrue("History not linearizable " + WidgetHistory.format(initial, history), WidgetHistory.isLinearizable(initial, history));
+			WidgetHistory.assertConsistent(board);
+			evicted += registry.get("miro.storage.tiered.evicted").counter().count();
+		}
+		assertTrue(evicted > 0);
+	}
+
+	private BoardTier open(long maxResidentWidgets, long idleMillis) {
+		registry = new SimpleMeterRegistry();
+		final BoardTier tier = new BoardTier(folder.getRoot().toPath().resolve("evicted"), maxResidentWidgets, idleMillis, registry);
+		opened.add(tier);
+		return tier;
+	}
+
+	private void awaitEvicted(int boards) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (registry.get("miro.storage.tiered.evicted").counter().count() < boards) {
+			assertFalse("Board not evicted", System.nanoTime() > deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private long snapshots(String boardId) throws IOException {
+		final Path directory = folder.getRoot().toPath().resolve("evicted").resolve(boardId);
+		if (!Files.exists(directory)) {
+			return 0;
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith("snapshot-")).count();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.miro.service.feed.WidgetFeed;
+import com.miro.service.storage.BoardRepository;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+public class WidgetFeedTest {
+
+	private final Deque<RecordingEmitter> emitters = new ArrayDeque<>();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private BoardRepository boards;
+	private WidgetFeed feed;
+
+	@Before
+	public void setUp() {
+		boards = new BoardRepository(boardId -> new InMemoryWidgetRepository());
+		// one sender, which a stuck subscriber would take from every other one
+		feed = new WidgetFeed(boards, Jackson2ObjectMapperBuilder.json().build(), registry, 1, 10, 60000, 100) {
+			@Override
+			protected SseEmitter emitter(long timeoutMillis) {
+				return emitters.removeFirst();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		feed.close();
+	}
+
+	@Test
+	public void testSubscribersGetChanges() throws InterruptedException {
+		final RecordingEmitter subscriber = subscribe(null);
+		assertNotNull(subscriber.events.poll(5, TimeUnit.SECONDS));
+
+		board().createWidget(0, 0, Optional.empty(), 1, 1);
+		assertNotNull(subscriber.events.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testStalledSubscriberDoesNotDelayOthers() throws InterruptedException {
+		final CountDownLatch stall = new CountDownLatch(1);
+		final RecordingEmitter stalled = subscribe(stall);
+		assertTrue(stalled.entered.await(5, TimeUnit.SECONDS));
+		final RecordingEmitter other = subscribe(null);
+
+		try {
+			for (int i = 0; i < 3; i++) {
+				board().createWidget(i, i, Optional.empty(), 1, 1);
+				assertNotNull("Event held up by a stalled subscriber", other.events.poll(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, registry.get("miro.feed.dropped").counter().count(), 0);
+		} finally {
+			stall.countDown();
+		}
+
+		// the stuck write returned, the dropped stream is closed
+		assertTrue(stalled.failed.await(5, TimeUnit.SECONDS));
+		board().createWidget(5, 5, Optional.empty(), 1, 1);
+		assertNotNull(other.events.poll(5, TimeUnit.SECONDS));
+	}
+
+	private WidgetRepository board() {
+		return boards.board(BoardRepository.DEFAULT_BOARD);
+	}
+
+	private RecordingEmitter subscribe(CountDownLatch stall) {
+		final RecordingEmitter emitter = new RecordingEmitter(stall);
+		emitters.addLast(emitter);
+		assertTrue(feed.subscribe(BoardRepository.DEFAULT_BOARD, Long.MIN_VALUE).isPresent());
+		return emitter;
+	}
+
+	/**
+	 * Stream keeping the events sent, or blocking every send until released like a client not reading.
+	 */
+	private static final class RecordingEmitter extends SseEmitter {
+		final BlockingQueue<SseEventBuilder> events = new LinkedBlockingQueue<>();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch failed = new CountDownLatch(1);
+		private final CountDownLatch stall;
+
+		RecordingEmitter(CountDownLatch stall) {
+			super(60000L);
+			this.stall = stall;
+		}
+
+		@Override
+		public void send(SseEventBuilder event) throws IOException {
+			entered.countDown();
+			if (stall != null) {
+				try {
+					stall.await();
+				} catch (final InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException(ex);
+				}
+			}
+			events.add(event);
+		}
+
+		@Override
+		public void completeWithError(Throwable ex) {
+			failed.countDown();
+			super.completeWithError(ex);
+		}
+	}
+}
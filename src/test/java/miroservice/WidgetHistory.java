@@ -0,0 +1,596 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.miro.service.models.Widget;
+import com.miro.service.models.WidgetPage;
+import com.miro.service.requests.BatchOperation;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.StorageBusyException;
+import com.miro.service.storage.WidgetRepository;
+import com.miro.service.storage.WidgetSnapshot;
+
+import miroservice.LinearizabilityChecker.Call;
+
+/**
+ *
+ * Random operations called on a {@link WidgetRepository} from several threads at once, the
+ * sequential {@link Board} their history is checked against, and the invariants that hold
+ * between the ways a repository finds its widgets once the calls are done.
+ *
+ * Widgets are small and crowded on a small canvas, Z-indexes are drawn from a narrow range
+ * and identifiers from a few more than get created: most writes collide with others.
+ *
+ */
+final class WidgetHistory {
+
+	private static final int CANVAS = 200;
+	private static final int Z_INDEXES = 16;
+
+	private WidgetHistory() {
+	}
+
+	/**
+	 * Creates the widgets one after another, at random Z-indexes.
+	 *
+	 * @return the widgets on the board
+	 */
+	static List<Widget> fill(WidgetRepository repository, int widgets) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < widgets; i++) {
+			final Optional<Integer> zIndex = random.nextBoolean() ? Optional.of(zIndex(random)) : Optional.empty();
+			repository.createWidget(random.nextInt(CANVAS), random.nextInt(CANVAS), zIndex, size(random), size(random));
+		}
+		return repository.listWidgetsSortedByZIndex();
+	}
+
+	/**
+	 * Calls random operations from the threads, started together.
+	 *
+	 * @param widgetIds identifiers the operations on existing widgets pick from
+	 * @return the calls of all the threads
+	 */
+	static List<Call<Operation>> record(WidgetRepository repository, int threads, int callsPerThread, int widgetIds) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(threads);
+			final List<Future<List<Call<Operation>>>> recorded = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				recorded.add(executor.submit(() -> {
+					final ThreadLocalRandom random = ThreadLocalRandom.current();
+					final List<Call<Operation>> calls = new ArrayList<>(callsPerThread);
+					start.countDown();
+					start.await();
+					for (int i = 0; i < callsPerThread; i++) {
+						calls.add(call(repository, thread, Operation.random(random, widgetIds)));
+					}
+					return calls;
+				}));
+			}
+
+			final List<Call<Operation>> history = new ArrayList<>();
+			for (final Future<List<Call<Operation>>> calls: recorded) {
+				history.addAll(calls.get(1, TimeUnit.MINUTES));
+			}
+			return history;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static boolean isLinearizable(List<Widget> initial, List<Call<Operation>> history) {
+		return LinearizabilityChecker.isLinearizable(Board.of(initial), history, (board, operation, result) -> operation.apply(board, result));
+	}
+
+	static String format(List<Widget> initial, List<Call<Operation>> history) {
+		return "from " + describe(initial) + "\n" + history.stream()
+				.map(call -> "thread " + call.thread + " [" + call.invokedNanos + ", " + call.returnedNanos + "] " + call.operation + " -> " + describe(call.result))
+				.collect(Collectors.joining("\n"));
+	}
+
+	/**
+	 * Asserts that every list of widgets returned by the calls is in strictly increasing Z-index
+	 * order, without a widget twice; what can be checked of a history too long to search.
+	 */
+	static void assertOrdered(List<Call<Operation>> history) {
+		for (final Call<Operation> call: history) {
+			if (call.result instanceof List && !(call.operation instanceof Batch)) {
+				@SuppressWarnings("unchecked")
+				final List<Widget> widgets = (List<Widget>) call.result;
+				assertOrdered(call.operation + " of thread " + call.thread, widgets);
+			}
+		}
+	}
+
+	/**
+	 * Asserts that the listing, the snapshot, the pages, the lookups by identifier, the area and
+	 * the point queries all see the same widgets. The repository should not be written meanwhile.
+	 */
+	static void assertConsistent(WidgetRepository repository) {
+		final List<Widget> widgets = repository.listWidgetsSortedByZIndex();
+		assertOrdered("listing", widgets);
+
+		for (final Widget widget: widgets) {
+			assertEquals(Optional.of(widget), repository.findWidgetById(widget.widgetId()));
+			final Optional<Widget> topmost = repository.findTopmostWidgetAt(widget.xCoordinate(), widget.yCoordinate());
+			assertTrue("Nothing found at " + widget, topmost.isPresent());
+			assertTrue(topmost.get() + " is not topmost over " + widget, topmost.get().zIndex() >= widget.zIndex());
+		}
+		assertEquals(widgets, repository.findWidgetsInArea(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+		final WidgetSnapshot snapshot = repository.snapshotSortedByZIndex();
+		assertEquals(widgets.size(), snapshot.size());
+		for (int i = 0; i < snapshot.size(); i++) {
+			assertEquals(widgets.get(i), new Widget(snapshot.widgetId(i), snapshot.xCoordinate(i), snapshot.yCoordinate(i), snapshot.zIndex(i), snapshot.height(i), snapshot.width(i)));
+		}
+
+		final List<Widget> paged = new ArrayList<>();
+		Optional<Integer> after = Optional.empty();
+		do {
+			final WidgetPage page = repository.listWidgetsSortedByZIndex(after, 7);
+			paged.addAll(page.widgets());
+			after = page.nextAfterZIndex();
+		} while (after.isPresent());
+		assertEquals(widgets, paged);
+	}
+
+	/**
+	 * @return the result with the fields of its widgets, which don't print them
+	 */
+	private static String describe(Object result) {
+		if (result instanceof Widget) {
+			final Widget widget = (Widget) result;
+			return "#" + widget.widgetId() + "(" + widget.xCoordinate() + ", " + widget.yCoordinate() + ", z " + widget.zIndex() + ", " + widget.height() + "x" + widget.width() + ")";
+		} else if (result instanceof Optional) {
+			return ((Optional<?>) result).map(WidgetHistory::describe).orElse("empty");
+		} else if (result instanceof List) {
+			return ((List<?>) result).stream().map(WidgetHistory::describe).collect(Collectors.joining(", ", "[", "]"));
+		}
+		return String.valueOf(result);
+	}
+
+	private static void assertOrdered(String source, List<Widget> widgets) {
+		final Set<Integer> ids = new HashSet<>();
+		for (int i = 0; i < widgets.size(); i++) {
+			assertTrue("Widget twice in " + source, ids.add(widgets.get(i).widgetId()));
+			if (i > 0) {
+				assertTrue("Z-indexes out of order in " + source, widgets.get(i - 1).zIndex() < widgets.get(i).zIndex());
+			}
+		}
+	}
+
+	private static Call<Operation> call(WidgetRepository repository, int thread, Operation operation) {
+		final long invoked = System.nanoTime();
+		Object result;
+		try {
+			result = operation.invoke(repository);
+		} catch (final StorageBusyException ex) {
+			result = ex;
+		}
+		return new Call<>(thread, operation, result, invoked, System.nanoTime());
+	}
+
+	private static int zIndex(ThreadLocalRandom random) {
+		return random.nextInt(Z_INDEXES) - 2;
+	}
+
+	private static double size(ThreadLocalRandom random) {
+		return 1 + random.nextInt(60);
+	}
+
+	/**
+	 * Sequential board, the widgets sorted by Z-index and the identifier of the next one.
+	 */
+	static final class Board {
+		private final List<Widget> widgets;
+		private final int nextId;
+
+		private Board(List<Widget> widgets, int nextId) {
+			this.widgets = widgets;
+			this.nextId = nextId;
+		}
+
+		static Board of(List<Widget> widgets) {
+			return new Board(new ArrayList<>(widgets), widgets.stream().mapToInt(Widget::widgetId).max().orElse(-1) + 1);
+		}
+
+		Optional<Widget> find(int id) {
+			return widgets.stream().filter(widget -> widget.widgetId() == id).findFirst();
+		}
+
+		/**
+		 * @return null if the widget is not the next one in front of the others or at its Z-index
+		 */
+		Board created(int x, int y, Optional<Integer> zIndex, double height, double width, Widget created) {
+			final int z = zIndex.orElse(created.zIndex());
+			final boolean inFront = widgets.isEmpty() || z > widgets.get(widgets.size() - 1).zIndex();
+			if (created.widgetId() != nextId || !(zIndex.isPresent() || inFront) || !created.equals(new Widget(nextId, x, y, z, height, width))) {
+				return null;
+			}
+			return new Board(inserted(widgets, created), nextId + 1);
+		}
+
+		/**
+		 * @return null if the result is not the widget as updated by the request
+		 */
+		Board updated(int id, UpdateWidgetRequest request, Optional<Widget> updated) {
+			final Optional<Widget> current = find(id);
+			final Optional<Widget> expected = current.map(widget -> new Widget(id, request.xCoordinate(widget.xCoordinate()), request.yCoordinate(widget.yCoordinate()),
+					request.zIndex(widget.zIndex()), request.height(widget.height()), request.width(widget.width())));
+			if (!expected.equals(updated)) {
+				return null;
+			}
+			if (!expected.isPresent()) {
+				return this;
+			}
+			if (expected.get().zIndex() == current.get().zIndex()) {
+				final List<Widget> replaced = new ArrayList<>(widgets);
+				replaced.set(widgets.indexOf(current.get()), expected.get());
+				return new Board(replaced, nextId);
+			}
+			return new Board(inserted(removed(widgets, id), expected.get()), nextId);
+		}
+
+		/**
+		 * @return null if the result is not the widget deleted
+		 */
+		Board deleted(int id, Optional<Widget> deleted) {
+			if (!find(id).equals(deleted)) {
+				return null;
+			}
+			return deleted.isPresent() ? new Board(removed(widgets, id), nextId) : this;
+		}
+
+		List<Widget> inArea(int x1, int y1, int x2, int y2) {
+			return widgets.stream()
+					.filter(widget -> widget.xCoordinate() <= x2 && widget.xCoordinate() + widget.width() >= x1
+							&& widget.yCoordinate() <= y2 && widget.yCoordinate() + widget.height() >= y1)
+					.collect(Collectors.toList());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Board)) {
+				return false;
+			}
+			final Board other = (Board) obj;
+			return nextId == other.nextId && widgets.equals(other.widgets);
+		}
+
+		@Override
+		public int hashCode() {
+			// widgets don't hash, their identifiers and Z-indexes tell most boards apart
+			int hash = nextId;
+			for (final Widget widget: widgets) {
+				hash = 31 * (31 * hash + widget.widgetId()) + widget.zIndex();
+			}
+			return hash;
+		}
+
+		/**
+		 * Puts the widget at its Z-index, shifting the widgets at and above it if it is taken.
+		 */
+		private static List<Widget> inserted(List<Widget> widgets, Widget inserted) {
+			final boolean taken = widgets.stream().anyMatch(widget -> widget.zIndex() == inserted.zIndex());
+			final List<Widget> result = new ArrayList<>(widgets.size() + 1);
+			boolean added = false;
+			for (final Widget widget: widgets) {
+				final boolean above = widget.zIndex() >= inserted.zIndex();
+				if (above && !added) {
+					result.add(inserted);
+					added = true;
+				}
+				result.add(above && taken
+						? new Widget(widget.widgetId(), widget.xCoordinate(), widget.yCoordinate(), widget.zIndex() + 1, widget.height(), widget.width())
+						: widget);
+			}
+			if (!added) {
+				result.add(inserted);
+			}
+			return result;
+		}
+
+		private static List<Widget> removed(List<Widget> widgets, int id) {
+			return widgets.stream().filter(widget -> widget.widgetId() != id).collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Operation on a repository and on the board that models it.
+	 */
+	abstract static class Operation {
+
+		abstract Object invoke(WidgetRepository repository);
+
+		/**
+		 * @return the board after the operation, null if it could not have returned the result on the board
+		 */
+		Board apply(Board board, Object result) {
+			// the operation gave up before taking effect
+			return result instanceof StorageBusyException ? board : applied(board, result);
+		}
+
+		abstract Board applied(Board board, Object result);
+
+		static Operation random(ThreadLocalRandom random, int widgetIds) {
+			final int id = random.nextInt(widgetIds);
+			final int kind = random.nextInt(100);
+			if (kind < 20) {
+				return new Create(random.nextInt(CANVAS), random.nextInt(CANVAS), random.nextBoolean() ? Optional.of(zIndex(random)) : Optional.empty(), size(random), size(random));
+			} else if (kind < 45) {
+				return new Update(id, randomRequest(random));
+			} else if (kind < 55) {
+				return new Delete(id);
+			} else if (kind < 70) {
+				return new Find(id);
+			} else if (kind < 80) {
+				return new ListAll();
+			} else if (kind < 88) {
+				final int x = random.nextInt(CANVAS);
+				final int y = random.nextInt(CANVAS);
+				return new Area(x, y, x + random.nextInt(CANVAS / 2), y + random.nextInt(CANVAS / 2));
+			} else if (kind < 94) {
+				return new Topmost(random.nextInt(CANVAS), random.nextInt(CANVAS));
+			}
+
+			final List<BatchOperation> operations = new ArrayList<>();
+			for (int i = random.nextInt(1, 4); i > 0; i--) {
+				switch (random.nextInt(3)) {
+				case 0:
+					operations.add(BatchOperation.create(random.nextInt(CANVAS), random.nextInt(CANVAS), random.nextBoolean() ? Optional.of(zIndex(random)) : Optional.empty(), size(random), size(random)));
+					break;
+				case 1:
+					operations.add(BatchOperation.update(random.nextInt(widgetIds), randomRequest(random)));
+					break;
+				default:
+					operations.add(BatchOperation.delete(random.nextInt(widgetIds)));
+				}
+			}
+			return new Batch(operations);
+		}
+
+		private static UpdateWidgetRequest randomRequest(ThreadLocalRandom random) {
+			final boolean move = random.nextInt(4) != 0;
+			final boolean reorder = random.nextInt(3) == 0;
+			final boolean resize = random.nextInt(4) == 0;
+			return new UpdateWidgetRequest(move ? Optional.of(random.nextInt(CANVAS)) : Optional.empty(), move ? Optional.of(random.nextInt(CANVAS)) : Optional.empty(),
+					reorder ? Optional.of(zIndex(random)) : Optional.empty(), resize ? Optional.of(size(random)) : Optional.empty(), resize ? Optional.of(size(random)) : Optional.empty());
+		}
+	}
+
+	static final class Create extends Operation {
+		private final int x;
+		private final int y;
+		private final Optional<Integer> zIndex;
+		private final double height;
+		private final double width;
+
+		Create(int x, int y, Optional<Integer> zIndex, double height, double width) {
+			this.x = x;
+			this.y = y;
+			this.zIndex = zIndex;
+			this.height = height;
+			this.width = width;
+		}
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.createWidget(x, y, zIndex, height, width);
+		}
+
+		@Override
+		Board applied(Board board, Object result) {
+			return board.created(x, y, zIndex, height, width, (Widget) result);
+		}
+
+		@Override
+		public String toString() {
+			return "create(" + x + ", " + y + ", " + zIndex + ", " + height + ", " + width + ")";
+		}
+	}
+
+	static final class Update extends Operation {
+		private final int id;
+		private final UpdateWidgetRequest request;
+
+		Update(int id, UpdateWidgetRequest request) {
+			this.id = id;
+			this.request = request;
+		}
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.updateWidget(id, request);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Board applied(Board board, Object result) {
+			return board.updated(id, request, (Optional<Widget>) result);
+		}
+
+		@Override
+		public String toString() {
+			return "update(" + id + ", " + request + ")";
+		}
+	}
+
+	static final class Delete extends Operation {
+		private final int id;
+
+		Delete(int id) {
+			this.id = id;
+		}
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.deleteWidget(id);
+		}
+
+		@Override
+		Board applied(Board board, Object result) {
+			final Optional<Widget> current = board.find(id);
+			return current.isPresent() == (Boolean) result ? board.deleted(id, current) : null;
+		}
+
+		@Override
+		public String toString() {
+			return "delete(" + id + ")";
+		}
+	}
+
+	static final class Find extends Operation {
+		private final int id;
+
+		Find(int id) {
+			this.id = id;
+		}
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.findWidgetById(id);
+		}
+
+		@Override
+		Board applied(Board board, Object result) {
+			return board.find(id).equals(result) ? board : null;
+		}
+
+		@Override
+		public String toString() {
+			return "find(" + id + ")";
+		}
+	}
+
+	static final class ListAll extends Operation {
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.listWidgetsSortedByZIndex();
+		}
+
+		@Override
+		Board applied(Board board, Object result) {
+			return board.widgets.equals(result) ? board : null;
+		}
+
+		@Override
+		public String toString() {
+			return "list()";
+		}
+	}
+
+	static final class Area extends Operation {
+		private final int x1;
+		private final int y1;
+		private final int x2;
+		private final int y2;
+
+		Area(int x1, int y1, int x2, int y2) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+		}
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.findWidgetsInArea(x1, y1, x2, y2);
+		}
+
+		@Override
+		Board applied(Board board, Object result) {
+			return board.inArea(x1, y1, x2, y2).equals(result) ? board : null;
+		}
+
+		@Override
+		public String toString() {
+			return "area(" + x1 + ", " + y1 + ", " + x2 + ", " + y2 + ")";
+		}
+	}
+
+	static final class Topmost extends Operation {
+		private final int x;
+		private final int y;
+
+		Topmost(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.findTopmostWidgetAt(x, y);
+		}
+
+		@Override
+		Board applied(Board board, Object result) {
+			final List<Widget> found = board.inArea(x, y, x, y);
+			final Optional<Widget> topmost = found.isEmpty() ? Optional.empty() : Optional.of(found.get(found.size() - 1));
+			return topmost.equals(result) ? board : null;
+		}
+
+		@Override
+		public String toString() {
+			return "topmost(" + x + ", " + y + ")";
+		}
+	}
+
+	/**
+	 * Operations applied at once, the board never seen between them.
+	 */
+	static final class Batch extends Operation {
+		private final List<BatchOperation> operations;
+
+		Batch(List<BatchOperation> operations) {
+			this.operations = operations;
+		}
+
+		@Override
+		Object invoke(WidgetRepository repository) {
+			return repository.applyBatch(operations);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Board applied(Board board, Object result) {
+			final List<Optional<Widget>> results = (List<Optional<Widget>>) result;
+			for (int i = 0; i < operations.size() && board != null; i++) {
+				final BatchOperation operation = operations.get(i);
+				switch (operation.type()) {
+				case CREATE:
+					board = results.get(i).isPresent()
+							? board.created(operation.xCoordinate(), operation.yCoordinate(), operation.zIndex(), operation.height(), operation.width(), results.get(i).get())
+							: null;
+					break;
+				case UPDATE:
+					board = board.updated(operation.widgetId().get(), operation.updateRequest(), results.get(i));
+					break;
+				default:
+					board = board.deleted(operation.widgetId().get(), results.get(i));
+				}
+			}
+			return board;
+		}
+
+		@Override
+		public String toString() {
+			return "batch(" + operations + ")";
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package miroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.miro.service.requests.CreateWidgetRequest;
+import com.miro.service.requests.UpdateWidgetRequest;
+
+public class WidgetRequestTest {
+
+	private ObjectMapper mapper;
+
+	@Before
+	public void setUp() {
+		// as Spring Boot configures it
+		mapper = Jackson2ObjectMapperBuilder.json().build();
+	}
+
+	@Test
+	public void testUpdateKeepsFieldsNotGiven() throws IOException {
+		final UpdateWidgetRequest request = mapper.readValue("{\"x\":5,\"height\":2.5}", UpdateWidgetRequest.class);
+
+		assertEquals(5, request.xCoordinate(1));
+		assertEquals(7, request.yCoordinate(7));
+		assertEquals(3, request.zIndex(3));
+		assertEquals(2.5, request.height(1), 0);
+		assertEquals(4, request.width(4), 0);
+		assertEquals(Optional.of(5), request.xCoordinate());
+		assertEquals(Optional.empty(), request.width());
+	}
+
+	@Test
+	public void testNullFieldNotGiven() throws IOException {
+		final UpdateWidgetRequest request = mapper.readValue("{\"x\":null,\"zIndex\":null,\"y\":\"12\"}", UpdateWidgetRequest.class);
+
+		assertFalse(request.xCoordinate().isPresent());
+		assertEquals(3, request.zIndex(3));
+		assertEquals(12, request.yCoordinate(0));
+	}
+
+	@Test
+	public void testEmptyUpdate() throws IOException {
+		final UpdateWidgetRequest request = mapper.readValue("{}", UpdateWidgetRequest.class);
+
+		assertEquals(1, request.xCoordinate(1));
+		assertEquals(2, request.yCoordinate(2));
+		assertEquals(3, request.zIndex(3));
+		assertEquals(4, request.height(4), 0);
+		assertEquals(5, request.width(5), 0);
+	}
+
+	@Test
+	public void testUnknownFieldsSkipped() throws IOException {
+		final UpdateWidgetRequest request = mapper.readValue("{\"color\":{\"rgb\":[1,2,3]},\"x\":1,\"tags\":[\"a\"]}", UpdateWidgetRequest.class);
+
+		assertEquals(1, request.xCoordinate(0));
+		assertEquals(2, request.yCoordinate(2));
+	}
+
+	@Test(expected = UnrecognizedPropertyException.class)
+	public void testUnknownFieldsRejectedIfConfigured() throws IOException {
+		mapper.enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		mapper.readValue("{\"x\":1,\"color\":\"red\"}", UpdateWidgetRequest.class);
+	}
+
+	@Test
+	public void testCreate() throws IOException {
+		final CreateWidgetRequest request = mapper.readValue("{\"widgetId\":9,\"x\":1,\"y\":2,\"width\":3,\"height\":4.5}", CreateWidgetRequest.class);
+
+		assertEquals(1, request.xCoordinate());
+		assertEquals(2, request.yCoordinate());
+		assertEquals(Optional.empty(), request.zIndex());
+		assertEquals(4.5, request.height(), 0);
+		assertEquals(3, request.width(), 0);
+		assertEquals(Optional.of(-4), mapper.readValue("{\"x\":1,\"zIndex\":-4}", CreateWidgetRequest.class).zIndex());
+	}
+
+	@Test
+	public void testSmile() throws IOException {
+		final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+		final Map<String, Object> body = new LinkedHashMap<>();
+		body.put("x", 10);
+		body.put("zIndex", 20);
+		body.put("width", 1.5);
+
+		final UpdateWidgetRequest request = smileMapper.readValue(smileMapper.writeValueAsBytes(body), UpdateWidgetRequest.class);
+
+		assertEquals(10, request.xCoordinate(0));
+		assertEquals(20, request.zIndex(0));
+		assertEquals(1.5, request.width(0), 0);
+		assertEquals(5, request.yCoordinate(5));
+	}
+}
@@ -0,0 +1,101 @@
+package miroservice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.miro.service.controllers.WidgetSnapshotConverter;
+import com.miro.service.requests.UpdateWidgetRequest;
+import com.miro.service.storage.InMemoryWidgetRepository;
+import com.miro.service.storage.WidgetRepository;
+
+public class WidgetSnapshotConverterTest {
+
+	private ObjectMapper mapper;
+	private WidgetRepository repository;
+
+	@Before
+	public void setUp() {
+		// as Spring Boot configures it
+		mapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		repository = new InMemoryWidgetRepository();
+
+		repository.createWidget(0, 0, Optional.of(1), 1, 1);
+		repository.createWidget(-5, 7, Optional.of(-3), 0.5, 12.25);
+		repository.createWidget(Integer.MAX_VALUE, Integer.MIN_VALUE, Optional.empty(), 9_999_999, 10_000_000);
+		repository.createWidget(3, 4, Optional.of(1), 1e-9, 123456789.125);
+		repository.createWidget(3, 4, Optional.empty(), -0.0, -7);
+		repository.updateWidget(0, new UpdateWidgetRequest(Optional.of(10), Optional.empty(), Optional.empty(), Optional.empty(), Optional.of(2.0)));
+	}
+
+	@Test
+	public void testSameJsonAsJackson() throws IOException {
+		assertEquals(mapper.writeValueAsString(repository.listWidgetsSortedByZIndex()), write(ZoneId.systemDefault()));
+	}
+
+	@Test
+	public void testSameJsonAsJacksonInOtherZone() throws IOException {
+		final TimeZone defaultZone = TimeZone.getDefault();
+		try {
+			// half an hour offset and daylight saving time
+			TimeZone.setDefault(TimeZone.getTimeZone("America/St_Johns"));
+			assertEquals(mapper.writeValueAsString(repository.listWidgetsSortedByZIndex()), write(ZoneId.of("America/St_Johns")));
+		} finally {
+			TimeZone.setDefault(defaultZone);
+		}
+	}
+
+	@Test
+	public void testSameSmileAsJackson() throws IOException {
+		final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final WidgetSnapshotConverter converter = new WidgetSnapshotConverter(mapper.getFactory(), smileMapper.getFactory(), ZoneId.systemDefault());
+		converter.write(repository.snapshotSortedByZIndex(), MediaType.valueOf("application/x-jackson-smile"), message(body));
+
+		assertArrayEquals(smileMapper.writeValueAsBytes(repository.listWidgetsSortedByZIndex()), body.toByteArray());
+	}
+
+	@Test
+	public void testEmptyBoard() throws IOException {
+		repository = new InMemoryWidgetRepository();
+		assertEquals("[]", write(ZoneId.systemDefault()));
+	}
+
+	private String write(ZoneId zone) throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		new WidgetSnapshotConverter(mapper.getFactory(), zone).write(repository.snapshotSortedByZIndex(), null, message(body));
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static HttpOutputMessage message(ByteArrayOutputStream body) {
+		return new HttpOutputMessage() {
+			private final HttpHeaders headers = new HttpHeaders();
+
+			@Override
+			public OutputStream getBody() {
+				return body;
+			}
+
+			@Override
+			public HttpHeaders getHeaders() {
+				return headers;
+			}
+		};
+	}
+}